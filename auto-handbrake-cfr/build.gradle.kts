@@ -5,12 +5,19 @@ plugins {
   alias(libs.plugins.testsets)
   alias(libs.plugins.jib)
   alias(libs.plugins.grgit)
+  alias(libs.plugins.jmh)
 }
 
 testSets {
   create("integrationTest")
 }
 
+jmh {
+  fork = 1
+  warmupIterations = 1
+  iterations = 3
+}
+
 jib {
   from {
     image = "docker://handbrake-java-base"
@@ -21,6 +28,8 @@ jib {
   container {
     mainClass = "com.willmolloy.handbrake.cfr.Main"
     args = listOf("/input", "/output", "/archive")
+    // metrics, in watch mode
+    ports = listOf("9400")
     creationTime.set(gitCommitTime())
   }
 }
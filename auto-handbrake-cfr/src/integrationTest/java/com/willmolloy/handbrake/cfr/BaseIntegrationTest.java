@@ -60,7 +60,10 @@ abstract class BaseIntegrationTest {
     app =
         new App(
             new DirectoryScanner(inputDirectory, outputDirectory, archiveDirectory),
-            new JobQueue(new VideoEncoder(HandBrake.newInstance()), new VideoArchiver()));
+            new JobQueue(
+                new VideoEncoder(HandBrake.newInstance()),
+                new VideoVerifier(),
+                new VideoArchiver()));
     return app.run();
   }
 
@@ -82,11 +85,19 @@ abstract class BaseIntegrationTest {
   protected static IterableSubject.UsingCorrespondence<Path, PathAndContents>
       assertThatTestDirectory() throws IOException {
     try (Stream<Path> testFiles = Files.walk(testParentDirectory)) {
-      return assertThat(testFiles.filter(Files::isRegularFile).toList())
+      // only videos, ignores app metadata (e.g. fingerprints)
+      return assertThat(
+              testFiles.filter(Files::isRegularFile).filter(BaseIntegrationTest::isVideo).toList())
           .comparingElementsUsing(PathAndContents.EQUIVALENCE);
     }
   }
 
+  private static boolean isVideo(Path path) {
+    return UnencodedVideo.isMp4(path)
+        || UnencodedVideo.isTempEncodedMp4(path)
+        || UnencodedVideo.isTempArchivedMp4(path);
+  }
+
   protected static PathAndContents pathAndContents(Path path, Path contents) {
     return new PathAndContents(path, contents);
   }
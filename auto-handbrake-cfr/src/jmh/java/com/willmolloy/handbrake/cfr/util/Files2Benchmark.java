@@ -0,0 +1,108 @@
+package com.willmolloy.handbrake.cfr.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks {@link Files2#contentsSimilar} against the previous stream based implementation.
+ *
+ * <p>Run with {@code ./gradlew :auto-handbrake-cfr:jmh}. Writes two files of each size to the
+ * system temp directory, so needs up to 80 GB of free disk space.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class Files2Benchmark {
+
+  private static final int BLOCK_SIZE = 1 << 20;
+
+  @Param({"1", "10", "40"})
+  private int sizeGigabytes;
+
+  private Path directory;
+  private Path file1;
+  private Path file2;
+
+  /** Writes two similar files (~0.5% of bytes mismatch), so the whole file is compared. */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("Files2Benchmark");
+    file1 = directory.resolve("file1.cfr.mp4");
+    file2 = directory.resolve("file2.cfr.mp4");
+
+    SplittableRandom random = new SplittableRandom(sizeGigabytes);
+    byte[] block = new byte[BLOCK_SIZE];
+    try (OutputStream out1 = Files.newOutputStream(file1);
+        OutputStream out2 = Files.newOutputStream(file2)) {
+      for (long i = 0; i < (long) sizeGigabytes * 1024; i++) {
+        random.nextBytes(block);
+        out1.write(block);
+        for (int j = 0; j < BLOCK_SIZE / 200; j++) {
+          int index = random.nextInt(BLOCK_SIZE);
+          block[index] = (byte) ~block[index];
+        }
+        out2.write(block);
+      }
+    }
+  }
+
+  /** Deletes the files. */
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file1);
+    Files.deleteIfExists(file2);
+    Files.deleteIfExists(directory);
+  }
+
+  @Benchmark
+  public boolean contentsSimilar() {
+    return Files2.contentsSimilar(file1, file2);
+  }
+
+  /** Previous implementation: 8 KiB stream buffers, compared a byte at a time. */
+  @Benchmark
+  public boolean baseline() throws IOException {
+    long size = Math.max(Files.size(file1), Files.size(file2));
+    long allowedMismatchBytes = (long) (0.01 * size);
+    long mismatchCount = 0;
+
+    int bufferSize = 8192;
+    byte[] buffer1 = new byte[bufferSize];
+    byte[] buffer2 = new byte[bufferSize];
+
+    try (InputStream in1 = Files.newInputStream(file1);
+        InputStream in2 = Files.newInputStream(file2)) {
+      for (long totalRead = 0; totalRead < size; totalRead += bufferSize) {
+        in1.readNBytes(buffer1, 0, bufferSize);
+        in2.readNBytes(buffer2, 0, bufferSize);
+
+        for (int i = 0; i < bufferSize; i++) {
+          if (buffer1[i] != buffer2[i]) {
+            mismatchCount++;
+            if (mismatchCount > allowedMismatchBytes) {
+              return false;
+            }
+          }
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -4,7 +4,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.common.base.Stopwatch;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -31,14 +35,139 @@ class App {
 
     Stopwatch stopwatch = Stopwatch.createStarted();
     try {
-      List<UnencodedVideo> unencodedVideos = directoryScanner.scan();
+      // videos start processing as they're scanned
+      List<JobResult> results;
+      JobQueue.Batch batch = jobQueue.start();
+      try {
+        directoryScanner.scan(batch::submit);
+      } finally {
+        // videos already submitted are still processed if scanning fails
+        results = batch.finish();
+      }
       logBreak();
-      return jobQueue.process(unencodedVideos);
+      return logResults(results);
     } finally {
       log.info("Elapsed: {}", stopwatch);
     }
   }
 
+  /**
+   * Runs once, then watches for new videos and processes them as they settle. Runs until
+   * interrupted.
+   *
+   * <p>New videos join a single batch for as long as watching, so each starts as soon as it settles
+   * rather than waiting for the videos that settled before it to finish. Results are logged (and
+   * tallied) as they're processed, rather than retained until finished.
+   *
+   * <p>Videos stay in the input directory until archived, so may be detected again while in
+   * progress (e.g. rescanned after missing file system events). They're only submitted again once
+   * processed.
+   *
+   * @param directoryWatcher watcher, started before calling this so videos that arrive while
+   *     running once aren't missed
+   * @throws IOException if an I/O error occurs
+   * @throws InterruptedException if interrupted while waiting for new videos
+   */
+  void watch(DirectoryWatcher directoryWatcher) throws IOException, InterruptedException {
+    run();
+    logBreak();
+    log.info("Watching for new videos");
+
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    Tally tally = new Tally();
+    // original paths of the videos submitted and not yet processed
+    Set<Path> inProgress = ConcurrentHashMap.newKeySet();
+    JobQueue.Batch batch =
+        jobQueue.stream(
+            result -> {
+              inProgress.remove(result.video().originalPath());
+              tally.add(result);
+            });
+    try {
+      while (true) {
+        List<UnencodedVideo> newVideos = directoryWatcher.awaitVideos();
+        List<UnencodedVideo> notInProgress =
+            newVideos.stream().filter(video -> inProgress.add(video.originalPath())).toList();
+        log.info(
+            "{} new video(s) settled, {} already in progress",
+            newVideos.size(),
+            newVideos.size() - notInProgress.size());
+        if (!notInProgress.isEmpty()) {
+          batch.submitAll(notInProgress);
+        }
+      }
+    } catch (InterruptedException e) {
+      // interrupted while finishing too, so it doesn't wait for the videos in progress, then
+      // cleared as the exception is thrown instead
+      Thread.currentThread().interrupt();
+      finishWatching(batch, tally, stopwatch);
+      Thread.interrupted();
+      throw e;
+    } catch (IOException | RuntimeException e) {
+      finishWatching(batch, tally, stopwatch);
+      throw e;
+    }
+  }
+
+  private static void finishWatching(JobQueue.Batch batch, Tally tally, Stopwatch stopwatch) {
+    // only returns the videos not processed, the rest were tallied as they were processed
+    batch.finish().forEach(tally::add);
+    logBreak();
+    tally.log();
+    log.info("Elapsed: {}", stopwatch);
+  }
+
+  private static void logResult(JobResult result) {
+    if (result.failed()) {
+      log.error("Failed ({}): {}", result.status(), result.video());
+    } else {
+      log.info("Processed ({}) in {}: {}", result.status(), result.elapsed(), result.video());
+    }
+  }
+
+  private static boolean logResults(List<JobResult> results) {
+    List<JobResult> failed = results.stream().filter(JobResult::failed).toList();
+    long leasedElsewhere =
+        results.stream()
+            .filter(result -> result.status() == JobResult.Status.LEASED_ELSEWHERE)
+            .count();
+    logSummary(results.size(), failed.size(), leasedElsewhere);
+    for (JobResult result : failed) {
+      log.error("Failed ({}): {}", result.status(), result.video());
+    }
+    return failed.isEmpty();
+  }
+
+  private static void logSummary(long processed, long failed, long leasedElsewhere) {
+    log.info(
+        "Processed {} video(s), {} failed, {} left to other nodes",
+        processed,
+        failed,
+        leasedElsewhere);
+  }
+
+  /** Counts results as they're processed, without retaining them. */
+  private static final class Tally {
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong leasedElsewhere = new AtomicLong();
+
+    private void add(JobResult result) {
+      logResult(result);
+      processed.incrementAndGet();
+      if (result.failed()) {
+        failed.incrementAndGet();
+      }
+      if (result.status() == JobResult.Status.LEASED_ELSEWHERE) {
+        leasedElsewhere.incrementAndGet();
+      }
+    }
+
+    private void log() {
+      logSummary(processed.get(), failed.get(), leasedElsewhere.get());
+    }
+  }
+
   private static void logBreak() {
     log.info("-----------------------------------------------------------------------------------");
   }
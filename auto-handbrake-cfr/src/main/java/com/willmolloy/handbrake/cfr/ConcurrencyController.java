@@ -0,0 +1,166 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.primitives.Ints;
+import com.sun.management.OperatingSystemMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Adapts the number of HandBrake instances running at one time to maximise the total frames per
+ * second of all running encodes.
+ *
+ * <p>The right number depends on the videos (e.g. their resolution) and the host, so it's found by
+ * hill climbing: starting from one instance, each interval the limit is moved a step in the current
+ * direction, and the direction reversed if the total fps got worse. So it settles around the best
+ * limit, probing either side of it, and follows it as the videos change.
+ *
+ * <p>Frames per second are sampled from HandBrake's progress (see {@link PipelineMetrics}) and
+ * averaged over the interval. Intervals where fewer encodes ran than the limit allowed (e.g. not
+ * enough videos waiting) say nothing about the limit, so are skipped.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+final class ConcurrencyController implements AutoCloseable {
+
+  private static final Logger log = LogManager.getLogger();
+
+  static final Duration DEFAULT_INTERVAL = Duration.ofMinutes(2);
+  static final Duration SAMPLE_INTERVAL = Duration.ofSeconds(1);
+  // total fps must drop by more than this to count as worse, as it's noisy
+  static final double TOLERANCE = 0.05;
+
+  private final VideoEncoder videoEncoder;
+  private final PipelineMetrics metrics;
+  private final int maximum;
+  private final Duration interval;
+  private final Thread thread;
+
+  // accessed by one thread at a time (the controller thread)
+  private int direction = 1;
+  private double previousFps = Double.NaN;
+
+  /**
+   * Constructor. Starts controlling the encoder's limit, from one instance.
+   *
+   * @param videoEncoder encoder whose {@link VideoEncoder#limit limit} is controlled
+   * @param metrics samples the running encodes' frames per second
+   * @param maximum most instances to run at one time, see {@link #maximum}
+   * @param interval how long to measure each limit for
+   */
+  ConcurrencyController(
+      VideoEncoder videoEncoder, PipelineMetrics metrics, int maximum, Duration interval) {
+    this.videoEncoder = checkNotNull(videoEncoder);
+    this.metrics = checkNotNull(metrics);
+    checkArgument(
+        maximum > 0 && maximum <= videoEncoder.instances(),
+        "maximum (%s) must be between 1 and the encoder's instances (%s)",
+        maximum,
+        videoEncoder.instances());
+    checkArgument(
+        interval.compareTo(SAMPLE_INTERVAL) >= 0,
+        "interval (%s) must be at least %s",
+        interval,
+        SAMPLE_INTERVAL);
+    this.maximum = maximum;
+    this.interval = interval;
+    videoEncoder.limit(1);
+    thread = Thread.ofVirtual().name("concurrency-controller").start(this::run);
+  }
+
+  /**
+   * Most instances to run at one time, within the host's limits: an instance per core at most, and
+   * (if the memory each instance uses is known) as many as fit in memory.
+   *
+   * @param instances most instances configured
+   * @param cores cores available
+   * @param memory memory available (in bytes)
+   * @param memoryPerInstance memory (in bytes) each instance uses, or 0 if unknown
+   * @return the maximum
+   */
+  static int maximum(int instances, int cores, long memory, long memoryPerInstance) {
+    int maximum = Math.min(instances, cores);
+    if (memoryPerInstance > 0) {
+      maximum = Math.min(maximum, Ints.saturatedCast(memory / memoryPerInstance));
+    }
+    return Math.max(1, maximum);
+  }
+
+  /** Total memory (in bytes) of the host, or the container's limit if running in one. */
+  static long hostMemory() {
+    return ManagementFactory.getPlatformMXBean(OperatingSystemMXBean.class).getTotalMemorySize();
+  }
+
+  @Override
+  public void close() {
+    thread.interrupt();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    long samplesPerInterval = interval.dividedBy(SAMPLE_INTERVAL);
+    try {
+      while (true) {
+        double fpsSum = 0;
+        int saturatedSamples = 0;
+        for (long i = 0; i < samplesPerInterval; i++) {
+          Thread.sleep(SAMPLE_INTERVAL);
+          if (metrics.encodesRunning() >= videoEncoder.limit()) {
+            fpsSum += metrics.currentFps();
+            saturatedSamples++;
+          }
+        }
+        // most of the interval, as encodes take a moment to start reporting progress
+        if (saturatedSamples * 2 >= samplesPerInterval) {
+          step(fpsSum / saturatedSamples);
+        } else {
+          skip();
+        }
+      }
+    } catch (InterruptedException e) {
+      // closed
+    }
+  }
+
+  /**
+   * Moves the limit a step, given the average total fps with the current limit.
+   *
+   * @param fps average total frames per second
+   */
+  void step(double fps) {
+    int limit = videoEncoder.limit();
+    if (!Double.isNaN(previousFps) && fps < previousFps * (1 - TOLERANCE)) {
+      // worse, go back
+      direction = -direction;
+    }
+    int next = limit + direction;
+    if (next < 1 || next > maximum) {
+      // at a bound, probe the other way
+      direction = -direction;
+      next = limit + direction;
+    }
+    next = Math.clamp(next, 1, maximum);
+    log.info(
+        "Total fps {} with {} instance(s), {} instance(s) next",
+        "%.1f".formatted(fps),
+        limit,
+        next);
+    previousFps = fps;
+    if (next != limit) {
+      videoEncoder.limit(next);
+    }
+  }
+
+  /** Skips an interval where the limit wasn't reached, so the fps can't be compared. */
+  void skip() {
+    previousFps = Double.NaN;
+  }
+}
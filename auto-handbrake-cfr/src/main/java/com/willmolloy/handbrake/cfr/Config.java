@@ -0,0 +1,306 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Splitter;
+import com.willmolloy.handbrake.core.options.EncoderTuning;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+
+/**
+ * App configuration. Read from environment variables so it can be set with {@code docker run -e}.
+ *
+ * <p>All settings are optional.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+final class Config {
+
+  private final Map<String, String> environment;
+
+  Config(Map<String, String> environment) {
+    this.environment = checkNotNull(environment);
+  }
+
+  static Config fromEnvironment() {
+    return new Config(System.getenv());
+  }
+
+  /** Number of threads used to verify encoded file contents. Defaults to the number of cores. */
+  int verifyParallelism() {
+    return positiveInt("VERIFY_PARALLELISM", Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Whether to keep running after the initial scan, watching the input directory for new videos.
+   * Defaults to false.
+   */
+  boolean watch() {
+    return bool("WATCH", false);
+  }
+
+  /**
+   * Port to serve Prometheus metrics on (at {@code /metrics}) in watch mode, or empty if disabled
+   * (set to 0). Defaults to 9400.
+   */
+  OptionalInt metricsPort() {
+    int port = nonNegativeInt("METRICS_PORT", MetricsServer.DEFAULT_PORT);
+    checkArgument(port <= 65535, "METRICS_PORT (%s) must be at most 65535", port);
+    return port == 0 ? OptionalInt.empty() : OptionalInt.of(port);
+  }
+
+  /**
+   * How long a new video's size and last modified time must be unchanged before it's encoded, in
+   * watch mode. Defaults to 10 seconds.
+   */
+  Duration watchSettleTime() {
+    return Duration.ofSeconds(
+        nonNegativeInt(
+            "WATCH_SETTLE_SECONDS", (int) DirectoryWatcher.DEFAULT_SETTLE_TIME.toSeconds()));
+  }
+
+  /**
+   * Number of directories listed at one time while scanning, more helps on network drives. Defaults
+   * to 1.
+   */
+  int scanParallelism() {
+    return positiveInt("SCAN_PARALLELISM", DirectoryScanner.DEFAULT_SCAN_PARALLELISM);
+  }
+
+  /**
+   * Number of incomplete temp files deleted at one time while scanning, more helps on network
+   * drives. Defaults to 8.
+   */
+  int deleteParallelism() {
+    return positiveInt("DELETE_PARALLELISM", DirectoryScanner.DEFAULT_DELETE_PARALLELISM);
+  }
+
+  /**
+   * How scans use the directory index saved in the output directory. Enabled by {@code SCAN_INDEX}
+   * (defaults to false, as videos overwritten in place aren't picked up), {@code FULL_RESCAN}
+   * ignores (and rebuilds) the saved index (defaults to false).
+   */
+  DirectoryScanner.IndexMode scanIndexMode() {
+    if (!bool("SCAN_INDEX", false)) {
+      return DirectoryScanner.IndexMode.NONE;
+    }
+    return bool("FULL_RESCAN", false)
+        ? DirectoryScanner.IndexMode.FULL_RESCAN
+        : DirectoryScanner.IndexMode.INCREMENTAL;
+  }
+
+  /** Number of HandBrake instances that can run at one time. Defaults to 1. */
+  int encoderInstances() {
+    return positiveInt("ENCODER_INSTANCES", 1);
+  }
+
+  /**
+   * Number of threads each HandBrake instance uses, {@code ENCODER_THREADS} (0 lets the encoder
+   * decide) if set. Otherwise, the encoder decides with a single instance, and the cores are shared
+   * between the running instances with more.
+   */
+  ThreadBudget encoderThreads() {
+    if (environment.containsKey("ENCODER_THREADS")) {
+      return ThreadBudget.fixed(nonNegativeInt("ENCODER_THREADS", 0));
+    }
+    int instances = encoderInstances();
+    return instances == 1
+        ? ThreadBudget.fixed(0)
+        : ThreadBudget.shared(Runtime.getRuntime().availableProcessors(), instances);
+  }
+
+  /**
+   * Whether the number of HandBrake instances running at one time adapts to maximise total frames
+   * per second, up to {@code ENCODER_INSTANCES} (see {@link ConcurrencyController}). Defaults to
+   * false.
+   */
+  boolean adaptiveConcurrency() {
+    return bool("ADAPTIVE_CONCURRENCY", false);
+  }
+
+  /** How long adaptive concurrency measures each number of instances for. Defaults to 2 minutes. */
+  Duration adaptiveConcurrencyInterval() {
+    return Duration.ofSeconds(
+        positiveInt(
+            "ADAPTIVE_INTERVAL_SECONDS", (int) ConcurrencyController.DEFAULT_INTERVAL.toSeconds()));
+  }
+
+  /**
+   * Memory each HandBrake instance uses (in bytes), limiting adaptive concurrency to the instances
+   * that fit in memory. Defaults to 0, unknown.
+   */
+  long encoderMemory() {
+    return (long) nonNegativeInt("ENCODER_MEMORY_MB", 0) << 20;
+  }
+
+  /**
+   * Extra encoder options ({@code key=value:key=value}), passed through to the encoder along with
+   * its threads. Defaults to none.
+   */
+  Optional<EncoderTuning> encoderOptions() {
+    String encopts = environment.getOrDefault("ENCODER_OPTS", "");
+    return encopts.isBlank() ? Optional.empty() : Optional.of(EncoderTuning.encopts(encopts));
+  }
+
+  /**
+   * Length of the segments (in minutes) longer videos are encoded in, encoded in parallel by idle
+   * HandBrake instances. Defaults to 0, encoding every video whole.
+   */
+  Duration segmentLength() {
+    return Duration.ofMinutes(nonNegativeInt("SEGMENT_MINUTES", 0));
+  }
+
+  /**
+   * Order to encode videos in: {@code fifo} (the order they were scanned), {@code shortest-first},
+   * {@code oldest-first} or {@code weighted-fair} (by top level subdirectory, weighted by {@code
+   * SCHEDULING_WEIGHTS}). Defaults to {@code fifo}.
+   */
+  SchedulingPolicy schedulingPolicy() {
+    String name = environment.getOrDefault("SCHEDULING_POLICY", "fifo").strip();
+    return SchedulingPolicy.of(name, schedulingWeights());
+  }
+
+  // e.g. "Halo=3,Clips=1"
+  private Map<String, Integer> schedulingWeights() {
+    String value = environment.getOrDefault("SCHEDULING_WEIGHTS", "");
+    Map<String, Integer> weights = new HashMap<>();
+    for (String entry : Splitter.on(',').trimResults().omitEmptyStrings().split(value)) {
+      List<String> directoryAndWeight = Splitter.on('=').trimResults().splitToList(entry);
+      checkArgument(
+          directoryAndWeight.size() == 2,
+          "SCHEDULING_WEIGHTS entry (%s) is not directory=weight",
+          entry);
+      try {
+        weights.put(directoryAndWeight.get(0), Integer.parseInt(directoryAndWeight.get(1)));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException(
+            "SCHEDULING_WEIGHTS entry (%s) weight is not an integer".formatted(entry), e);
+      }
+    }
+    return weights;
+  }
+
+  /**
+   * Whether videos with an existing encoding (verified, and encoded from the same original) are
+   * archived without encoding them again. Defaults to false.
+   */
+  boolean skipAlreadyEncoded() {
+    return bool("SKIP_ALREADY_ENCODED", false);
+  }
+
+  /**
+   * Whether to record each video's progress in a journal (in the output directory), so videos
+   * interrupted by a crash resume where they left off. Defaults to false.
+   */
+  boolean journal() {
+    return bool("JOURNAL", false);
+  }
+
+  /**
+   * Whether to coordinate with other nodes processing the same directories, leasing each video
+   * before processing it (see {@link LeaseCoordinator}). Defaults to false.
+   */
+  boolean coordinate() {
+    return bool("COORDINATE", false);
+  }
+
+  /**
+   * Identifies this node when coordinating, in its leases and journal. Required, as it must stay
+   * the same across restarts for the node to resume from its journal (unlike e.g. the host name of
+   * a container).
+   */
+  String nodeId() {
+    String nodeId = environment.getOrDefault("NODE_ID", "").strip();
+    checkArgument(
+        !nodeId.isEmpty(),
+        "NODE_ID must be set when coordinating, and stay the same across restarts");
+    checkArgument(
+        nodeId.matches("[A-Za-z0-9._-]+"),
+        "NODE_ID (%s) must only contain letters, digits, '.', '_' or '-'",
+        nodeId);
+    return nodeId;
+  }
+
+  /**
+   * How long a lease lasts without being renewed when coordinating, i.e. how long videos held by a
+   * crashed node wait before another node reclaims them. Defaults to 5 minutes.
+   */
+  Duration leaseTtl() {
+    return Duration.ofSeconds(
+        positiveInt("LEASE_TTL_SECONDS", (int) LeaseCoordinator.DEFAULT_TTL.toSeconds()));
+  }
+
+  /** Number of videos verified concurrently. Defaults to 1. */
+  int verifyWorkers() {
+    return positiveInt("VERIFY_WORKERS", JobQueue.DEFAULT_VERIFY_WORKERS);
+  }
+
+  /** Number of videos archived concurrently. Defaults to 1. */
+  int archiveWorkers() {
+    return positiveInt("ARCHIVE_WORKERS", JobQueue.DEFAULT_ARCHIVE_WORKERS);
+  }
+
+  /** Number of videos that can be waiting for each pipeline stage. Defaults to 16. */
+  int pipelineQueueCapacity() {
+    return positiveInt("PIPELINE_QUEUE_CAPACITY", JobQueue.DEFAULT_QUEUE_CAPACITY);
+  }
+
+  /**
+   * Size of each chunk transferred when archiving to another file system (e.g. a network drive).
+   * Defaults to 64 MiB.
+   */
+  long archiveCopyChunkSize() {
+    return (long) positiveInt("ARCHIVE_COPY_CHUNK_SIZE_MB", 64) << 20;
+  }
+
+  /**
+   * How often (percentage copied) to log progress when archiving to another file system. Defaults
+   * to 10%.
+   */
+  int archiveProgressIntervalPercent() {
+    return positiveInt("ARCHIVE_PROGRESS_PERCENT", 10);
+  }
+
+  private int positiveInt(String name, int defaultValue) {
+    int value = integer(name, defaultValue);
+    checkArgument(value > 0, "%s (%s) must be positive", name, value);
+    return value;
+  }
+
+  private int nonNegativeInt(String name, int defaultValue) {
+    int value = integer(name, defaultValue);
+    checkArgument(value >= 0, "%s (%s) must not be negative", name, value);
+    return value;
+  }
+
+  private boolean bool(String name, boolean defaultValue) {
+    String value = environment.get(name);
+    if (value == null || value.isBlank()) {
+      return defaultValue;
+    }
+    return switch (value.strip().toLowerCase(Locale.ROOT)) {
+      case "true" -> true;
+      case "false" -> false;
+      default ->
+          throw new IllegalArgumentException("%s (%s) is not true or false".formatted(name, value));
+    };
+  }
+
+  private int integer(String name, int defaultValue) {
+    String value = environment.get(name);
+    if (value == null || value.isBlank()) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.strip());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("%s (%s) is not an integer".formatted(name, value), e);
+    }
+  }
+}
@@ -1,13 +1,32 @@
 package com.willmolloy.handbrake.cfr;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.common.base.Stopwatch;
+import com.willmolloy.handbrake.cfr.util.DirectoryIndex;
+import com.willmolloy.handbrake.cfr.util.ParallelFileWalker;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.stream.IntStream;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -21,67 +40,303 @@ class DirectoryScanner {
 
   private static final Logger log = LogManager.getLogger();
 
+  static final int DEFAULT_SCAN_PARALLELISM = 1;
+  static final String INDEX_FILE_NAME = ".auto-handbrake-cfr.index";
+  // deleting is bound by round-trip latency on network drives, like listing
+  static final int DEFAULT_DELETE_PARALLELISM = 8;
+
   private final Path inputDirectory;
   private final Path outputDirectory;
   private final Path archiveDirectory;
   private final UnencodedVideo.Factory factory;
+  private final IndexMode indexMode;
+  private final boolean coordinate;
+  private final JobJournal journal;
+  private final ParallelFileWalker fileWalker;
+  private final int deleteParallelism;
 
-  DirectoryScanner(Path inputDirectory, Path outputDirectory, Path archiveDirectory) {
+  DirectoryScanner(
+      Path inputDirectory,
+      Path outputDirectory,
+      Path archiveDirectory,
+      int scanParallelism,
+      int deleteParallelism,
+      IndexMode indexMode,
+      boolean coordinate,
+      JobJournal journal) {
+    checkArgument(
+        deleteParallelism > 0, "deleteParallelism (%s) must be positive", deleteParallelism);
     this.inputDirectory = checkNotNull(inputDirectory);
     this.outputDirectory = checkNotNull(outputDirectory);
     this.archiveDirectory = checkNotNull(archiveDirectory);
+    this.indexMode = checkNotNull(indexMode);
+    this.coordinate = coordinate;
+    this.journal = checkNotNull(journal);
     factory = new UnencodedVideo.Factory(inputDirectory, outputDirectory, archiveDirectory);
+    fileWalker = new ParallelFileWalker(scanParallelism);
+    this.deleteParallelism = deleteParallelism;
+  }
+
+  DirectoryScanner(Path inputDirectory, Path outputDirectory, Path archiveDirectory) {
+    this(
+        inputDirectory,
+        outputDirectory,
+        archiveDirectory,
+        DEFAULT_SCAN_PARALLELISM,
+        DEFAULT_DELETE_PARALLELISM,
+        IndexMode.NONE,
+        false,
+        JobJournal.disabled());
   }
 
+  /**
+   * Scans for videos to encode, deleting incomplete encodings and archives (e.g. from an app
+   * crash).
+   *
+   * @return videos to encode, in the order they were found
+   * @throws IOException if an I/O error occurs
+   */
   List<UnencodedVideo> scan() throws IOException {
-    deleteIncompleteEncodingsAndArchives();
-    return getUnencodedVideos();
+    List<UnencodedVideo> videos = new ArrayList<>();
+    scan(videos::add);
+    return videos;
   }
 
-  private void deleteIncompleteEncodingsAndArchives() throws IOException {
-    List<Path> tempFiles =
+  /**
+   * Scans for videos to encode, passing each to the consumer as soon as it's found, so they can be
+   * processed while scanning continues. While the consumer blocks (e.g. the job queue is full),
+   * scanning stops listing directories a short distance ahead.
+   *
+   * <p>Incomplete encodings and archives (e.g. from an app crash), and sidecars of encodings since
+   * deleted, are deleted concurrently as they're found, except those of videos already passed to
+   * the consumer (which may have been recreated by processing the video). When coordinating with
+   * other nodes, incomplete encodings and archives are also kept while their original is still
+   * there or leased, as another node may be processing the video. Encodings the {@link JobJournal}
+   * resumes from are always kept, whichever order the directories are walked in.
+   *
+   * @param consumer receives the videos to encode, in the order they're found
+   * @throws IOException if an I/O error occurs
+   */
+  void scan(Consumer<UnencodedVideo> consumer) throws IOException {
+    checkNotNull(consumer);
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    Path indexFile = outputDirectory.resolve(INDEX_FILE_NAME);
+    Optional<DirectoryIndex> index =
+        switch (indexMode) {
+          case NONE -> Optional.empty();
+          case INCREMENTAL -> Optional.of(DirectoryIndex.load(indexFile));
+          case FULL_RESCAN -> Optional.of(DirectoryIndex.empty(indexFile));
+        };
+
+    try (Scan scan = new Scan(consumer)) {
+      try {
+        for (Path root : roots()) {
+          // the walker keeps the attributes read while walking (needed for classifying files and
+          // scheduling) rather than reading them again
+          if (index.isPresent()) {
+            fileWalker.walk(root, index.get(), scan);
+          } else {
+            fileWalker.walk(root, scan);
+          }
+        }
+        scan.awaitDeletions();
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+
+      if (scan.deleted.get() > 0) {
+        log.warn(
+            "Deleted {} incomplete encoding(s)/archive(s) or stale sidecar(s) ({} bytes)",
+            scan.deleted.get(),
+            scan.deletedBytes.get());
+      }
+      log.info("Detected {} video(s) to encode", scan.detected);
+    }
+
+    if (index.isPresent()) {
+      try {
+        index.get().save();
+      } catch (IOException e) {
+        // only makes the next scan slower
+        log.warn("Error saving directory index: {}", indexFile, e);
+      }
+    }
+
+    log.info("Elapsed: {}", stopwatch);
+  }
+
+  // distinct directories, excluding those within another (already walked with it), the input
+  // directory's first so videos are found as soon as possible
+  private List<Path> roots() {
+    Path absoluteInputDirectory = inputDirectory.toAbsolutePath().normalize();
+    List<Path> directories =
         Stream.of(inputDirectory, outputDirectory, archiveDirectory)
+            .map(directory -> directory.toAbsolutePath().normalize())
             .distinct()
-            .flatMap(
-                directory -> {
-                  try {
-                    return Files.walk(directory)
-                        .filter(Files::isRegularFile)
-                        .filter(
-                            file ->
-                                UnencodedVideo.isTempEncodedMp4(file)
-                                    || UnencodedVideo.isTempArchivedMp4(file));
-                  } catch (IOException e) {
-                    throw new UncheckedIOException(e);
-                  }
-                })
             .toList();
+    return directories.stream()
+        .filter(
+            directory ->
+                directories.stream()
+                    .noneMatch(other -> !other.equals(directory) && directory.startsWith(other)))
+        .sorted(Comparator.comparing(directory -> !absoluteInputDirectory.startsWith(directory)))
+        .toList();
+  }
 
-    if (!tempFiles.isEmpty()) {
-      log.warn("Detected {} incomplete encoding(s)/archives(s)", tempFiles.size());
-      for (int i : IntStream.range(0, tempFiles.size()).toArray()) {
-        log.warn("Deleting ({}/{}): {}", i + 1, tempFiles.size(), tempFiles.get(i));
-        Files.deleteIfExists(tempFiles.get(i));
+  /** Classifies each file found while scanning. */
+  private final class Scan implements Consumer<ParallelFileWalker.RegularFile>, AutoCloseable {
+    private final Consumer<UnencodedVideo> consumer;
+    private final Path absoluteInputDirectory = inputDirectory.toAbsolutePath().normalize();
+    // temp files of videos already passed on
+    private final Set<Path> claimedTempFiles = new HashSet<>();
+    private final ExecutorService deleter = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore deletePermits = new Semaphore(deleteParallelism);
+    // by temp file (a segment's by its video's temp encoded file), so a video's temp files are
+    // deleted before it's passed on
+    private final Map<Path, List<Future<?>>> deletions = new HashMap<>();
+    private final AtomicInteger deleted = new AtomicInteger();
+    private final AtomicLong deletedBytes = new AtomicLong();
+    private int detected;
+
+    private Scan(Consumer<UnencodedVideo> consumer) {
+      this.consumer = consumer;
+    }
+
+    @Override
+    public void accept(ParallelFileWalker.RegularFile regularFile) {
+      Path file = regularFile.path();
+      if (UnencodedVideo.isTempEncodedMp4(file)
+          || UnencodedVideo.isTempSegmentMp4(file)
+          || UnencodedVideo.isTempArchivedMp4(file)) {
+        // segments are encoded (and deleted) along with their video's temp encoded file
+        Path owner =
+            UnencodedVideo.isTempSegmentMp4(file)
+                ? UnencodedVideo.tempEncodedPathOfSegment(file)
+                : file;
+        if (!claimedTempFiles.contains(owner)) {
+          deletions
+              .computeIfAbsent(owner, k -> new ArrayList<>())
+              .add(deleter.submit(() -> deleteTempFile(regularFile, owner)));
+        }
+      } else if (UnencodedVideo.isEncodedSidecar(file)) {
+        // describes an encoding since deleted (sidecars are saved after moving the encoding into
+        // place, so can't be ahead of it)
+        if (!Files.exists(UnencodedVideo.encodedPathOfSidecar(file))) {
+          deletions
+              .computeIfAbsent(file, k -> new ArrayList<>())
+              .add(deleter.submit(() -> delete(regularFile)));
+        }
+      } else if (file.startsWith(absoluteInputDirectory)
+          && UnencodedVideo.isMp4(file)
+          && !UnencodedVideo.isEncodedMp4(file)) {
+        UnencodedVideo video =
+            factory.newUnencodedVideo(
+                inputDirectory.resolve(absoluteInputDirectory.relativize(file)),
+                regularFile.attributes());
+        claim(video.tempEncodedPath());
+        claim(video.tempArchivedPath());
+        detected++;
+        log.info("Detected ({}): {}", detected, video);
+        consumer.accept(video);
       }
     }
-  }
 
-  private List<UnencodedVideo> getUnencodedVideos() throws IOException {
-    try (Stream<Path> inputFiles = Files.walk(inputDirectory)) {
-      List<UnencodedVideo> videos =
-          inputFiles
-              .filter(Files::isRegularFile)
-              .filter(UnencodedVideo::isMp4)
-              .filter(path -> !UnencodedVideo.isEncodedMp4(path))
-              .map(factory::newUnencodedVideo)
-              .toList();
-
-      log.info("Detected {} video(s) to encode", videos.size());
-      for (int i : IntStream.range(0, videos.size()).toArray()) {
-        log.info("Detected ({}/{}): {}", i + 1, videos.size(), videos.get(i));
+    private void claim(Path tempFile) {
+      Path absoluteTempFile = tempFile.toAbsolutePath().normalize();
+      claimedTempFiles.add(absoluteTempFile);
+      // otherwise could delete the temp file once processing the video recreates it
+      for (Future<?> deletion : deletions.getOrDefault(absoluteTempFile, List.of())) {
+        await(deletion);
+      }
+      deletions.remove(absoluteTempFile);
+    }
+
+    private Void deleteTempFile(ParallelFileWalker.RegularFile regularFile, Path owner)
+        throws IOException {
+      if (UnencodedVideo.isTempEncodedMp4(regularFile.path())
+          && factory
+              .originalPathOfTempFile(owner)
+              .filter(journal::resumesFromTempEncoded)
+              .isPresent()) {
+        log.debug("Keeping temp file, resumed from journal: {}", regularFile.path());
+        return null;
+      }
+      if (coordinate) {
+        // checked here rather than while walking, as it reads the input directory
+        Optional<UnencodedVideo> video =
+            factory
+                .originalPathOfTempFile(owner)
+                .map(
+                    original ->
+                        factory.newUnencodedVideo(
+                            inputDirectory.resolve(absoluteInputDirectory.relativize(original))));
+        if (video.isPresent()
+            && (Files.exists(video.get().originalPath())
+                || Files.exists(video.get().leasePath()))) {
+          log.debug("Keeping temp file, another node may be processing it: {}", regularFile.path());
+          return null;
+        }
+      }
+      return delete(regularFile);
+    }
+
+    private Void delete(ParallelFileWalker.RegularFile regularFile) throws IOException {
+      deletePermits.acquireUninterruptibly();
+      try {
+        log.debug("Deleting incomplete or stale file: {}", regularFile.path());
+        if (Files.deleteIfExists(regularFile.path())) {
+          deleted.incrementAndGet();
+          deletedBytes.addAndGet(regularFile.attributes().size());
+        }
+        return null;
+      } finally {
+        deletePermits.release();
       }
+    }
 
-      return videos;
+    void awaitDeletions() {
+      for (List<Future<?>> tempFileDeletions : deletions.values()) {
+        for (Future<?> deletion : tempFileDeletions) {
+          await(deletion);
+        }
+      }
+      deletions.clear();
+    }
+
+    private static void await(Future<?> deletion) {
+      try {
+        deletion.get();
+      } catch (ExecutionException e) {
+        switch (e.getCause()) {
+          case IOException cause -> throw new UncheckedIOException(cause);
+          case RuntimeException cause -> throw cause;
+          case Error cause -> throw cause;
+          default -> throw new IllegalStateException(e.getCause());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new UncheckedIOException(new InterruptedIOException("Interrupted deleting"));
+      }
     }
+
+    @Override
+    public void close() {
+      // waits for any deletions still running (e.g. if the scan failed)
+      deleter.close();
+    }
+  }
+
+  /** How the directory index (saved in the output directory between scans) is used. */
+  enum IndexMode {
+    /** Not used, every directory is listed. */
+    NONE,
+    /**
+     * Directories unchanged since the previous scan aren't listed again. A video overwritten in
+     * place doesn't change its directory, so keeps the size and last modified time it was indexed
+     * with until the next full rescan.
+     */
+    INCREMENTAL,
+    /** Every directory is listed, and the index rebuilt. */
+    FULL_RESCAN
   }
 }
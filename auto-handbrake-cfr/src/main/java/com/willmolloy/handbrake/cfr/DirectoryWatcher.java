@@ -0,0 +1,205 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Responsible for watching the input directory (recursively) for new videos.
+ *
+ * <p>Videos are only returned once they've settled (size and last modified time unchanged for the
+ * settle time), so videos still being recorded or copied aren't encoded early.
+ *
+ * <p>Videos already in the input directory when the watcher starts are left to the {@link
+ * DirectoryScanner}.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class DirectoryWatcher implements Closeable {
+
+  private static final Logger log = LogManager.getLogger();
+
+  static final Duration DEFAULT_SETTLE_TIME = Duration.ofSeconds(10);
+  private static final Duration MAX_POLL_INTERVAL = Duration.ofSeconds(1);
+
+  private final Path inputDirectory;
+  private final UnencodedVideo.Factory factory;
+  private final Duration settleTime;
+  private final Duration pollInterval;
+  private final WatchService watchService;
+  private final Map<WatchKey, Path> directories = new HashMap<>();
+  // in the order they were detected
+  private final Map<Path, Candidate> candidates = new LinkedHashMap<>();
+
+  DirectoryWatcher(
+      Path inputDirectory, Path outputDirectory, Path archiveDirectory, Duration settleTime)
+      throws IOException {
+    this.inputDirectory = checkNotNull(inputDirectory);
+    this.settleTime = checkNotNull(settleTime);
+    checkArgument(!settleTime.isNegative(), "settleTime (%s) must not be negative", settleTime);
+    factory = new UnencodedVideo.Factory(inputDirectory, outputDirectory, archiveDirectory);
+    pollInterval = settleTime.compareTo(MAX_POLL_INTERVAL) < 0 ? settleTime : MAX_POLL_INTERVAL;
+    watchService = inputDirectory.getFileSystem().newWatchService();
+    register(inputDirectory, false);
+    log.info("Watching {} director(ies) under: {}", directories.size(), inputDirectory);
+  }
+
+  /**
+   * Waits for new videos to settle.
+   *
+   * @return the new videos, at least one (after missing file system events, also the videos
+   *     returned before and still in the input directory)
+   * @throws IOException if an I/O error occurs registering a new directory
+   * @throws InterruptedException if interrupted while waiting
+   */
+  List<UnencodedVideo> awaitVideos() throws IOException, InterruptedException {
+    while (true) {
+      // nothing to settle, so wait for an event, otherwise check again at the poll interval
+      WatchKey key =
+          candidates.isEmpty()
+              ? watchService.take()
+              : watchService.poll(pollInterval.toNanos(), TimeUnit.NANOSECONDS);
+      while (key != null) {
+        handle(key);
+        key = watchService.poll();
+      }
+
+      List<UnencodedVideo> settled = settled();
+      if (!settled.isEmpty()) {
+        log.info("Detected {} new video(s) to encode", settled.size());
+        for (int i = 0; i < settled.size(); i++) {
+          log.info("Detected ({}/{}): {}", i + 1, settled.size(), settled.get(i));
+        }
+        return settled;
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+
+  private void handle(WatchKey key) throws IOException {
+    Path directory = directories.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW) {
+        log.warn("Missed file system events, rescanning: {}", inputDirectory);
+        // includes the videos in progress, it's up to the caller to skip them
+        register(inputDirectory, true);
+        continue;
+      }
+      Path path = directory.resolve((Path) event.context());
+      if (event.kind() == ENTRY_DELETE) {
+        candidates.remove(path);
+      } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+        // files may have been created before the directory was registered, so add them too
+        register(path, true);
+      } else if (isVideo(path)) {
+        candidates.putIfAbsent(path, new Candidate());
+      }
+    }
+    if (!key.reset()) {
+      directories.remove(key);
+    }
+  }
+
+  private void register(Path start, boolean addVideos) throws IOException {
+    Files.walkFileTree(
+        start,
+        new SimpleFileVisitor<>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes)
+              throws IOException {
+            if (!directories.containsValue(dir)) {
+              directories.put(
+                  dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+            if (addVideos && isVideo(file)) {
+              candidates.putIfAbsent(file, new Candidate());
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private List<UnencodedVideo> settled() throws IOException {
+    long now = System.nanoTime();
+    List<UnencodedVideo> settled = new ArrayList<>();
+    Iterator<Map.Entry<Path, Candidate>> iterator = candidates.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Path, Candidate> entry = iterator.next();
+      Path path = entry.getKey();
+      Candidate candidate = entry.getValue();
+
+      BasicFileAttributes attributes;
+      try {
+        attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      } catch (NoSuchFileException e) {
+        // moved away (e.g. archived) or deleted before settling
+        iterator.remove();
+        continue;
+      }
+      if (!attributes.isRegularFile()) {
+        iterator.remove();
+      } else if (candidate.settled(attributes, now, settleTime)) {
+        iterator.remove();
+        settled.add(factory.newUnencodedVideo(path, attributes));
+      }
+    }
+    return settled;
+  }
+
+  private static boolean isVideo(Path path) {
+    return UnencodedVideo.isMp4(path) && !UnencodedVideo.isEncodedMp4(path);
+  }
+
+  /** A video waiting to settle. */
+  private static final class Candidate {
+    private long size = -1;
+    private FileTime lastModifiedTime;
+    private long changedNanos;
+
+    boolean settled(BasicFileAttributes attributes, long now, Duration settleTime) {
+      if (attributes.size() != size || !attributes.lastModifiedTime().equals(lastModifiedTime)) {
+        size = attributes.size();
+        lastModifiedTime = attributes.lastModifiedTime();
+        changedNanos = now;
+        return settleTime.isZero();
+      }
+      return now - changedNanos >= settleTime.toNanos();
+    }
+  }
+}
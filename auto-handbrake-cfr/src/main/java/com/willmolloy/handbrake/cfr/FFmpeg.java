@@ -0,0 +1,155 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * FFmpeg (and ffprobe) CLI, for what HandBrake can't do: probing a video's duration and joining
+ * encoded segments without re-encoding them.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class FFmpeg {
+
+  private static final Logger log = LogManager.getLogger();
+
+  private final Supplier<ProcessBuilder> processBuilderSupplier;
+
+  FFmpeg(Supplier<ProcessBuilder> processBuilderSupplier) {
+    this.processBuilderSupplier = checkNotNull(processBuilderSupplier);
+  }
+
+  FFmpeg() {
+    this(ProcessBuilder::new);
+  }
+
+  /**
+   * Probes the duration of the given video.
+   *
+   * @param video the video
+   * @return its duration, or empty if it couldn't be probed
+   */
+  Optional<Duration> duration(Path video) {
+    List<String> command =
+        List.of(
+            "ffprobe",
+            "-v",
+            "error",
+            "-show_entries",
+            "format=duration",
+            "-of",
+            "default=noprint_wrappers=1:nokey=1",
+            video.toString());
+    return execute(command)
+        .flatMap(
+            output -> {
+              try {
+                double seconds = Double.parseDouble(output.strip());
+                return seconds > 0
+                    ? Optional.of(Duration.ofMillis(Math.round(seconds * 1000)))
+                    : Optional.empty();
+              } catch (NumberFormatException e) {
+                log.warn("Unexpected duration ({}) of: {}", output.strip(), video);
+                return Optional.empty();
+              }
+            });
+  }
+
+  /**
+   * Joins the given parts into one .mp4 file, copying their streams (i.e. without re-encoding).
+   *
+   * <p>The parts must be encoded with the same options, each starting with a keyframe (as
+   * HandBrake's encodings do).
+   *
+   * @param parts parts to join, in order
+   * @param output joined file, replaced if it exists
+   * @return {@code true} if joining was successful
+   * @throws IOException if an I/O error occurs writing the list of parts
+   */
+  boolean concat(List<Path> parts, Path output) throws IOException {
+    checkArgument(!parts.isEmpty(), "parts must not be empty");
+    checkNotNull(output);
+
+    Path list = Files.createTempFile("auto-handbrake-cfr-concat", ".txt");
+    try {
+      List<String> lines = new ArrayList<>();
+      for (Path part : parts) {
+        // paths are relative to the list, so give them absolute
+        lines.add("file '" + part.toAbsolutePath().toString().replace("'", "'\\''") + "'");
+      }
+      Files.write(list, lines);
+
+      List<String> command =
+          List.of(
+              "ffmpeg",
+              "-v",
+              "error",
+              "-f",
+              "concat",
+              "-safe",
+              "0",
+              "-i",
+              list.toString(),
+              "-c",
+              "copy",
+              "-movflags",
+              "+faststart",
+              // the output's extension may not be .mp4 (i.e. a temp file)
+              "-f",
+              "mp4",
+              "-y",
+              output.toString());
+      return execute(command).isPresent();
+    } finally {
+      Files.deleteIfExists(list);
+    }
+  }
+
+  // output of the command, or empty if it couldn't be executed or exited with a non-zero code
+  @SuppressFBWarnings("REC_CATCH_EXCEPTION")
+  private Optional<String> execute(List<String> command) {
+    log.debug("Executing: {}", command);
+
+    Process process = null;
+    try {
+      process = processBuilderSupplier.get().command(command).redirectErrorStream(true).start();
+
+      String output;
+      try (InputStream inputStream = process.getInputStream()) {
+        output = new String(inputStream.readAllBytes(), Charset.defaultCharset());
+      }
+
+      int exitCode = process.waitFor();
+      if (exitCode != 0) {
+        log.error(
+            "Command ({}) executed with non-zero exit code: {}. Output: {}",
+            command,
+            exitCode,
+            output.strip());
+        return Optional.empty();
+      }
+      return Optional.of(output);
+    } catch (Exception e) {
+      log.error("Error executing: {}", command, e);
+      return Optional.empty();
+    } finally {
+      if (process != null) {
+        process.destroy();
+      }
+    }
+  }
+}
@@ -0,0 +1,434 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Append-only journal of each video's progress through the {@link JobQueue} pipeline, so a run
+ * interrupted by a crash can resume where it left off.
+ *
+ * <p>On resuming, a video whose encoding finished (but wasn't verified) is verified without
+ * encoding it again, and a video whose encoding was verified (but the original wasn't archived) is
+ * archived without verifying it again. HandBrake can't resume a partial encode, so videos still
+ * encoding start over.
+ *
+ * <p>Records are appended by a background thread, which syncs them to disk in batches (a sync per
+ * {@link #FLUSH_INTERVAL} at most), so recording is cheap. Records lost in a crash (or torn by one)
+ * only mean that work is redone, as resuming checks the files the record describes are still there.
+ *
+ * <p>The file is compacted when opened, and every {@link #COMPACT_INTERVAL} records, keeping only
+ * the videos that can be resumed, so it doesn't grow for as long as running (e.g. watching).
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+final class JobJournal implements AutoCloseable {
+
+  private static final Logger log = LogManager.getLogger();
+
+  static final String FILE_NAME = ".auto-handbrake-cfr.journal";
+  static final Duration FLUSH_INTERVAL = Duration.ofMillis(200);
+  static final int COMPACT_INTERVAL = 1024;
+
+  private static final HashFunction HASH_FUNCTION = Hashing.farmHashFingerprint64();
+  private static final int MAGIC = 0x41484a4c;
+  private static final int VERSION = 1;
+  // guards against reading a huge length from a corrupt record
+  private static final int MAX_RECORD_SIZE = 1 << 16;
+
+  // latest state of each video when opened, by original path
+  private final Map<String, Entry> previous;
+  // replaced when compacted, only used by the flusher (or once it's stopped)
+  private FileChannel channel;
+  private final Path file;
+
+  private final Object lock = new Object();
+  // guarded by lock
+  private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+  // latest state of each video that can be resumed, by original path, guarded by lock
+  private final Map<String, Entry> resumable;
+  // guarded by lock
+  private int recordsSinceCompacted;
+  private boolean closed;
+  private final Thread flusher;
+
+  private JobJournal(Path file, Map<String, Entry> previous, FileChannel channel) {
+    this.file = file;
+    this.previous = previous;
+    this.channel = channel;
+    resumable = new HashMap<>(previous);
+    flusher = channel == null ? null : Thread.ofVirtual().name("journal").start(this::flushLoop);
+  }
+
+  /**
+   * Opens the journal in the given file, loading the state of the previous run (if any).
+   *
+   * <p>The file is compacted, keeping only the videos that can be resumed.
+   *
+   * @param file file the journal is saved in
+   * @return the journal
+   * @throws IOException if an I/O error occurs
+   */
+  static JobJournal open(Path file) throws IOException {
+    checkNotNull(file);
+    Map<String, Entry> previous = load(file);
+    previous.values().removeIf(entry -> !resumable(file, entry));
+    compact(file, previous);
+    FileChannel channel = openForAppend(file);
+    if (!previous.isEmpty()) {
+      log.info("Loaded {} video(s) to resume from journal: {}", previous.size(), file);
+    }
+    return new JobJournal(file, Map.copyOf(previous), channel);
+  }
+
+  /** Creates a journal that records nothing and resumes nothing. */
+  static JobJournal disabled() {
+    return new JobJournal(null, Map.of(), null);
+  }
+
+  /**
+   * Records the state of a video. Returns before the record is synced to disk.
+   *
+   * @param video the video
+   * @param state its new state
+   */
+  void record(UnencodedVideo video, State state) {
+    checkNotNull(video);
+    checkNotNull(state);
+    if (channel == null) {
+      return;
+    }
+    long encodedSize =
+        switch (state) {
+          case ENCODED -> size(video.tempEncodedPath());
+          case VERIFIED -> size(video.encodedPath());
+          default -> -1;
+        };
+    Entry entry =
+        new Entry(
+            key(video.originalPath()),
+            state,
+            video.size(),
+            video.lastModifiedTime().toMillis(),
+            encodedSize);
+    byte[] record = record(entry);
+    synchronized (lock) {
+      checkState(!closed, "Journal closed");
+      pending.writeBytes(record);
+      if (state == State.ENCODED || state == State.VERIFIED) {
+        resumable.put(entry.originalPath, entry);
+      } else {
+        resumable.remove(entry.originalPath);
+      }
+      recordsSinceCompacted++;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Tests where the given video can resume from, if it was interrupted in the previous run.
+   *
+   * <p>The video must be unchanged since then (same size and last modified time when scanned), as
+   * must the encoding.
+   *
+   * @param video the video
+   * @return {@link State#ENCODED} to resume by verifying, {@link State#VERIFIED} to resume by
+   *     archiving, or empty to start over
+   */
+  Optional<State> resume(UnencodedVideo video) {
+    Entry entry = previous.get(key(video.originalPath()));
+    if (entry == null
+        || entry.originalSize != video.size()
+        || entry.originalLastModifiedMillis != video.lastModifiedTime().toMillis()) {
+      return Optional.empty();
+    }
+    Path encoding = entry.state == State.ENCODED ? video.tempEncodedPath() : video.encodedPath();
+    if (size(encoding) != entry.encodedSize) {
+      return Optional.empty();
+    }
+    return Optional.of(entry.state);
+  }
+
+  /**
+   * Tests if the given original's encoding finished (but wasn't verified) in the previous run, so
+   * its temp encoded file is resumed from by verifying it, and mustn't be deleted as incomplete.
+   *
+   * @param originalPath original path of the video
+   * @return {@code true} if resumed from its temp encoded file
+   */
+  boolean resumesFromTempEncoded(Path originalPath) {
+    Entry entry = previous.get(key(originalPath));
+    return entry != null && entry.state == State.ENCODED;
+  }
+
+  /**
+   * Syncs any pending records to disk, then closes the journal.
+   *
+   * @throws IOException if an I/O error occurs
+   */
+  @Override
+  public void close() throws IOException {
+    if (channel == null) {
+      return;
+    }
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      lock.notifyAll();
+    }
+    try {
+      flusher.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      flush();
+    } finally {
+      // the channel may have been replaced by compacting while flushing
+      channel.close();
+    }
+  }
+
+  private void flushLoop() {
+    try {
+      while (true) {
+        synchronized (lock) {
+          while (pending.size() == 0 && !closed) {
+            lock.wait();
+          }
+          if (closed) {
+            // close() flushes the rest
+            return;
+          }
+        }
+        // let records from other videos join the batch
+        Thread.sleep(FLUSH_INTERVAL);
+        try {
+          flush();
+        } catch (IOException e) {
+          // only means work may be redone after a crash
+          log.warn("Error writing journal: {}", file, e);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // only called by the flusher, or once it's stopped
+  private void flush() throws IOException {
+    ByteBuffer batch;
+    Map<String, Entry> compacted = null;
+    synchronized (lock) {
+      if (pending.size() == 0) {
+        return;
+      }
+      batch = ByteBuffer.wrap(pending.toByteArray());
+      pending = new ByteArrayOutputStream();
+      if (recordsSinceCompacted >= COMPACT_INTERVAL) {
+        // includes the batch's records
+        compacted = new HashMap<>(resumable);
+        recordsSinceCompacted = 0;
+      }
+    }
+    if (compacted != null) {
+      compacted.values().removeIf(entry -> !resumable(file, entry));
+      try {
+        compact(file, compacted);
+        FileChannel previousChannel = channel;
+        channel = openForAppend(file);
+        previousChannel.close();
+        log.debug("Compacted journal to {} video(s): {}", compacted.size(), file);
+        return;
+      } catch (IOException e) {
+        // keeps appending to the uncompacted file
+        log.warn("Error compacting journal: {}", file, e);
+      }
+    }
+    while (batch.hasRemaining()) {
+      channel.write(batch);
+    }
+    channel.force(false);
+  }
+
+  private static Map<String, Entry> load(Path file) {
+    Map<String, Entry> entries = new HashMap<>();
+    try (InputStream inputStream = Files.newInputStream(file);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        log.warn("Ignoring journal with unknown format: {}", file);
+        return entries;
+      }
+      while (true) {
+        int length;
+        try {
+          length = in.readInt();
+        } catch (EOFException e) {
+          return entries;
+        }
+        if (length <= 0 || length > MAX_RECORD_SIZE) {
+          log.warn("Ignoring corrupt journal record: {}", file);
+          return entries;
+        }
+        byte[] record = in.readNBytes(length + Long.BYTES);
+        if (record.length < length + Long.BYTES) {
+          // torn by a crash while appending
+          log.warn("Ignoring incomplete journal record: {}", file);
+          return entries;
+        }
+        byte[] payload = Arrays.copyOf(record, length);
+        if (ByteBuffer.wrap(record, length, Long.BYTES).getLong()
+            != HASH_FUNCTION.hashBytes(payload).asLong()) {
+          log.warn("Ignoring corrupt journal record: {}", file);
+          return entries;
+        }
+        Entry entry = entry(payload);
+        entries.put(entry.originalPath, entry);
+      }
+    } catch (NoSuchFileException e) {
+      return entries;
+    } catch (IOException e) {
+      log.warn("Ignoring unreadable journal: {}", file, e);
+      return entries;
+    }
+  }
+
+  // replaces the file atomically, like the directory index
+  private static void compact(Path file, Map<String, Entry> entries) throws IOException {
+    Path tempFile = file.resolveSibling(file.getFileName() + ".part");
+    try (FileChannel channel =
+        FileChannel.open(
+            tempFile,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      for (Entry entry : entries.values()) {
+        out.write(record(entry));
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(true);
+    }
+    Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static FileChannel openForAppend(Path file) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+    channel.position(channel.size());
+    return channel;
+  }
+
+  // absolute, so the same video is the same key whichever way its path was resolved
+  private static String key(Path originalPath) {
+    return originalPath.toAbsolutePath().normalize().toString();
+  }
+
+  // only verified/unverified encodings of originals still there are worth resuming
+  private static boolean resumable(Path file, Entry entry) {
+    return (entry.state == State.ENCODED || entry.state == State.VERIFIED)
+        && Files.exists(file.getFileSystem().getPath(entry.originalPath));
+  }
+
+  // length, payload, hash of the payload
+  private static byte[] record(Entry entry) {
+    try {
+      ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+      DataOutputStream payload = new DataOutputStream(payloadBytes);
+      payload.writeByte(entry.state.ordinal());
+      payload.writeLong(entry.originalSize);
+      payload.writeLong(entry.originalLastModifiedMillis);
+      payload.writeLong(entry.encodedSize);
+      payload.writeUTF(entry.originalPath);
+      byte[] payloadArray = payloadBytes.toByteArray();
+
+      ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(payloadArray.length + 12);
+      DataOutputStream record = new DataOutputStream(recordBytes);
+      record.writeInt(payloadArray.length);
+      record.write(payloadArray);
+      record.writeLong(HASH_FUNCTION.hashBytes(payloadArray).asLong());
+      return recordBytes.toByteArray();
+    } catch (IOException e) {
+      // in memory
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static Entry entry(byte[] payload) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+    State[] states = State.values();
+    int state = in.readUnsignedByte();
+    if (state >= states.length) {
+      throw new IOException("Unknown state: " + state);
+    }
+    long originalSize = in.readLong();
+    long originalLastModifiedMillis = in.readLong();
+    long encodedSize = in.readLong();
+    String originalPath = in.readUTF();
+    return new Entry(
+        originalPath, states[state], originalSize, originalLastModifiedMillis, encodedSize);
+  }
+
+  // -1 if it doesn't exist (or can't be read)
+  private static long size(Path path) {
+    try {
+      return Files.size(path);
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+  /** State of a video in the pipeline. Saved by ordinal, so only add states to the end. */
+  enum State {
+    /** Waiting to be encoded. */
+    QUEUED,
+    /** Encoding to the temp encoded path, starts over next time (HandBrake can't resume). */
+    ENCODING,
+    /** Encoded to the temp encoded path, not yet verified. */
+    ENCODED,
+    /** Encoding verified and moved into place, original not yet archived. */
+    VERIFIED,
+    /** Original archived, finished so nothing to resume. */
+    ARCHIVED,
+    /** Failed to encode, verify or archive, starts over next time. */
+    FAILED
+  }
+
+  private record Entry(
+      String originalPath,
+      State state,
+      long originalSize,
+      long originalLastModifiedMillis,
+      long encodedSize) {}
+}
@@ -1,91 +1,522 @@
 package com.willmolloy.handbrake.cfr;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
-import com.google.common.primitives.Booleans;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.stream.IntStream;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * Responsible for running the jobs.
  *
+ * <p>Jobs run as a pipeline: encode → verify → archive. Each stage has its own bounded queue and
+ * workers, so e.g. archiving a video to a network drive doesn't hold back encoding the next video.
+ *
+ * <p>Videos start encoding in order, but with multiple encoder instances may finish in any order.
+ *
+ * <p>Optionally, videos {@link VideoVerifier#alreadyEncoded already encoded} skip encoding and
+ * verifying, going straight to archiving.
+ *
+ * <p>Each video's progress is recorded in a {@link JobJournal}, so videos interrupted by a crash
+ * resume from their last completed stage.
+ *
+ * <p>With several nodes processing the same videos, each video's {@link LeaseCoordinator lease} is
+ * acquired before encoding it (videos leased by another node are left to it) and held until it's
+ * archived or fails (including a stage throwing, which fails the video at that stage).
+ *
  * @author <a href=https://willmolloy.com>Will Molloy</a>
  */
 class JobQueue {
 
   private static final Logger log = LogManager.getLogger();
 
+  static final int DEFAULT_VERIFY_WORKERS = 1;
+  static final int DEFAULT_ARCHIVE_WORKERS = 1;
+  static final int DEFAULT_QUEUE_CAPACITY = 16;
+
   private final VideoEncoder videoEncoder;
+  private final VideoVerifier videoVerifier;
   private final VideoArchiver videoArchiver;
+  private final SchedulingPolicy schedulingPolicy;
+  private final int verifyWorkers;
+  private final int archiveWorkers;
+  private final int queueCapacity;
+  private final boolean skipAlreadyEncoded;
+  private final PipelineMetrics metrics;
+  private final JobJournal journal;
+  private final LeaseCoordinator leases;
 
-  JobQueue(VideoEncoder videoEncoder, VideoArchiver videoArchiver) {
+  JobQueue(
+      VideoEncoder videoEncoder,
+      VideoVerifier videoVerifier,
+      VideoArchiver videoArchiver,
+      SchedulingPolicy schedulingPolicy,
+      int verifyWorkers,
+      int archiveWorkers,
+      int queueCapacity,
+      boolean skipAlreadyEncoded,
+      PipelineMetrics metrics,
+      JobJournal journal,
+      LeaseCoordinator leases) {
     this.videoEncoder = checkNotNull(videoEncoder);
+    this.videoVerifier = checkNotNull(videoVerifier);
     this.videoArchiver = checkNotNull(videoArchiver);
+    this.schedulingPolicy = checkNotNull(schedulingPolicy);
+    checkArgument(verifyWorkers > 0, "verifyWorkers (%s) must be positive", verifyWorkers);
+    checkArgument(archiveWorkers > 0, "archiveWorkers (%s) must be positive", archiveWorkers);
+    checkArgument(queueCapacity > 0, "queueCapacity (%s) must be positive", queueCapacity);
+    this.verifyWorkers = verifyWorkers;
+    this.archiveWorkers = archiveWorkers;
+    this.queueCapacity = queueCapacity;
+    this.skipAlreadyEncoded = skipAlreadyEncoded;
+    this.metrics = checkNotNull(metrics);
+    this.journal = checkNotNull(journal);
+    this.leases = checkNotNull(leases);
+  }
+
+  JobQueue(VideoEncoder videoEncoder, VideoVerifier videoVerifier, VideoArchiver videoArchiver) {
+    this(
+        videoEncoder,
+        videoVerifier,
+        videoArchiver,
+        SchedulingPolicy.fifo(),
+        DEFAULT_VERIFY_WORKERS,
+        DEFAULT_ARCHIVE_WORKERS,
+        DEFAULT_QUEUE_CAPACITY,
+        false,
+        new PipelineMetrics(),
+        JobJournal.disabled(),
+        LeaseCoordinator.disabled());
   }
 
-  boolean process(List<UnencodedVideo> videos) {
-    List<CountDownLatch> latches =
-        // extra latch to avoid IOOB
-        IntStream.rangeClosed(0, videos.size())
-            .mapToObj(
-                i -> {
-                  if (i == 0) {
-                    // let the first job start immediately.
-                    return new CountDownLatch(0);
-                  } else {
-                    return new CountDownLatch(1);
-                  }
-                })
-            .toList();
-
-    boolean[] results = new boolean[videos.size()];
-
-    List<Thread> threads =
-        IntStream.range(0, videos.size())
-            .mapToObj(i -> startJob(i, videos, latches, results))
-            .toList();
-
-    for (Thread thread : threads) {
+  /**
+   * Encodes, verifies and archives the given videos.
+   *
+   * <p>Videos are taken from the list as the pipeline has capacity, so the number of videos in
+   * progress is bounded regardless of the size of the list.
+   *
+   * @param scannedVideos videos to process, encoded in the order decided by the scheduling policy
+   * @return result of each video, in the order they were scheduled
+   */
+  List<JobResult> process(List<UnencodedVideo> scannedVideos) {
+    Batch batch = start();
+    batch.total = scannedVideos.size();
+    scannedVideos.forEach(batch::submit);
+    return batch.finish();
+  }
+
+  /**
+   * Starts processing a batch of videos, so videos can be submitted as they're scanned.
+   *
+   * <p>If the scheduling policy {@link SchedulingPolicy#streamable() is streamable} videos start
+   * encoding as soon as they're submitted, otherwise once the batch is finished (as scheduling
+   * needs every video).
+   *
+   * @return the batch
+   */
+  Batch start() {
+    return new Batch(schedulingPolicy.streamable(), true, result -> {});
+  }
+
+  /**
+   * Starts processing a stream of videos, e.g. for as long as watching for new videos.
+   *
+   * <p>Videos start encoding as soon as they're submitted, regardless of the scheduling policy,
+   * which only orders the videos submitted together (see {@link Batch#submitAll}).
+   *
+   * <p>Only the videos in progress are retained, so the batch doesn't grow for as long as it's
+   * open.
+   *
+   * @param onResult called with each video's result as soon as it's processed
+   * @return the batch, once finished it only returns the results not already passed to {@code
+   *     onResult} (i.e. the videos not processed)
+   */
+  Batch stream(Consumer<JobResult> onResult) {
+    return new Batch(true, false, checkNotNull(onResult));
+  }
+
+  /** Videos submitted to be processed together. */
+  final class Batch {
+    // whether videos start encoding as soon as they're submitted, rather than once finished
+    private final boolean streaming;
+    // whether results are retained until finished, otherwise dropped once passed to onResult
+    private final boolean retainResults;
+    private final Consumer<JobResult> onResult;
+    private final List<UnencodedVideo> scanned = new ArrayList<>();
+    // by job index (i.e. the order they were scheduled), only those in progress unless retained
+    private final Map<Integer, UnencodedVideo> videos = new ConcurrentHashMap<>();
+    private final Map<Integer, JobResult> results = new ConcurrentHashMap<>();
+    private int submitted;
+    private final StartOrder startOrder = new StartOrder();
+    private final PipelineStage<Job> archive;
+    private final PipelineStage<Job> verify;
+    private final PipelineStage<Job> encode;
+    // total number of videos, if known, for logging
+    private volatile int total = -1;
+    private boolean interrupted;
+    private boolean finished;
+
+    private Batch(boolean streaming, boolean retainResults, Consumer<JobResult> onResult) {
+      this.streaming = streaming;
+      this.retainResults = retainResults;
+      this.onResult = onResult;
+      archive =
+          PipelineStage.start(
+              "archive",
+              archiveWorkers,
+              queueCapacity,
+              failingWith(
+                  JobResult.Status.ARCHIVE_FAILED,
+                  job -> {
+                    if (!job.leaseHeld()) {
+                      complete(job, JobResult.Status.LEASED_ELSEWHERE);
+                      return false;
+                    }
+                    long start = System.nanoTime();
+                    if (!videoArchiver.archive(job.video)) {
+                      journal.record(job.video, JobJournal.State.FAILED);
+                      complete(job, JobResult.Status.ARCHIVE_FAILED);
+                      return false;
+                    }
+                    metrics.archived(job.video.size(), Duration.ofNanos(System.nanoTime() - start));
+                    journal.record(job.video, JobJournal.State.ARCHIVED);
+                    complete(job, JobResult.Status.ARCHIVED);
+                    return true;
+                  }));
+      verify =
+          PipelineStage.start(
+              "verify",
+              verifyWorkers,
+              queueCapacity,
+              failingWith(
+                  JobResult.Status.VERIFY_FAILED,
+                  job -> {
+                    if (!job.leaseHeld()) {
+                      complete(job, JobResult.Status.LEASED_ELSEWHERE);
+                      return false;
+                    }
+                    if (job.alreadyEncoded) {
+                      return true;
+                    }
+                    long start = System.nanoTime();
+                    boolean verified = videoVerifier.verify(job.video);
+                    metrics.verified(Duration.ofNanos(System.nanoTime() - start));
+                    if (!verified) {
+                      journal.record(job.video, JobJournal.State.FAILED);
+                      complete(job, JobResult.Status.VERIFY_FAILED);
+                      return false;
+                    }
+                    journal.record(job.video, JobJournal.State.VERIFIED);
+                    return true;
+                  }),
+              archive::submit);
+      // a worker per encoder instance
+      encode =
+          PipelineStage.start(
+              "encode",
+              videoEncoder.instances(),
+              queueCapacity,
+              failingWith(
+                  JobResult.Status.ENCODE_FAILED,
+                  job -> {
+                    boolean leased;
+                    Optional<JobJournal.State> resumed;
+                    boolean alreadyEncoded;
+                    try {
+                      job.lease = leases.tryAcquire(job.video);
+                      leased = job.lease.isPresent();
+                      resumed = leased ? journal.resume(job.video) : Optional.empty();
+                      // checked before taking a turn, as it reads the original
+                      alreadyEncoded =
+                          leased
+                              && resumed.isEmpty()
+                              && skipAlreadyEncoded
+                              && videoVerifier.alreadyEncoded(job.video);
+                    } catch (Throwable t) {
+                      // give up the turn, so later videos don't wait for it forever
+                      startOrder.skip(job.index);
+                      throw t;
+                    }
+                    try {
+                      // workers take videos in order, but may get here in any order, so wait for
+                      // the previous video to acquire an encoder instance first
+                      startOrder.awaitTurn(job.index);
+                    } catch (InterruptedException e) {
+                      Thread.currentThread().interrupt();
+                      // give up the turn, so later videos don't wait for it forever
+                      startOrder.skip(job.index);
+                      job.startNanos = System.nanoTime();
+                      complete(job, JobResult.Status.NOT_PROCESSED);
+                      return false;
+                    }
+                    try {
+                      if (leased && !alreadyEncoded && resumed.isEmpty()) {
+                        videoEncoder.acquire();
+                      }
+                    } finally {
+                      startOrder.next();
+                    }
+                    try {
+                      job.startNanos = System.nanoTime();
+                      if (!leased) {
+                        log.info("Leased by another node ({}): {}", position(job), job.video);
+                        complete(job, JobResult.Status.LEASED_ELSEWHERE);
+                        return false;
+                      }
+                      if (resumed.isPresent()) {
+                        log.info(
+                            "Resuming ({}, {}): {}",
+                            position(job),
+                            resumed.get() == JobJournal.State.ENCODED ? "encoded" : "verified",
+                            job.video);
+                        // verified encodings skip verifying
+                        job.alreadyEncoded = resumed.get() == JobJournal.State.VERIFIED;
+                        return true;
+                      }
+                      if (alreadyEncoded) {
+                        log.info(
+                            "Already encoded ({}): {}", position(job), job.video.encodedPath());
+                        job.alreadyEncoded = true;
+                        return true;
+                      }
+                      log.info("Encoding ({}): {}", position(job), job.video);
+                      journal.record(job.video, JobJournal.State.ENCODING);
+                      // stops encoding once the lease is lost, the video's another node's now
+                      if (!videoEncoder.encode(job.video, () -> !job.leaseHeld())) {
+                        journal.record(job.video, JobJournal.State.FAILED);
+                        complete(
+                            job,
+                            job.leaseHeld()
+                                ? JobResult.Status.ENCODE_FAILED
+                                : JobResult.Status.LEASED_ELSEWHERE);
+                        return false;
+                      }
+                      journal.record(job.video, JobJournal.State.ENCODED);
+                      return true;
+                    } finally {
+                      // no-op if encode released it, or if it wasn't acquired
+                      videoEncoder.release();
+                    }
+                  }),
+              verify::submit);
+      metrics.queueDepths(encode::queued, verify::queued, archive::queued);
+    }
+
+    /**
+     * Submits a video to be processed.
+     *
+     * <p>Blocks while the pipeline is full. If interrupted, the video (and any submitted after) is
+     * not processed.
+     *
+     * @param video the video
+     */
+    void submit(UnencodedVideo video) {
+      checkNotNull(video);
+      checkState(!finished, "Batch finished");
+      if (streaming) {
+        enqueue(video);
+      } else {
+        scanned.add(video);
+      }
+    }
+
+    /**
+     * Submits videos to be processed, in the order decided by the scheduling policy amongst
+     * themselves.
+     *
+     * <p>Blocks while the pipeline is full. If interrupted, the videos not yet submitted (and any
+     * submitted after) are not processed.
+     *
+     * @param videos the videos
+     */
+    void submitAll(List<UnencodedVideo> videos) {
+      checkState(!finished, "Batch finished");
+      if (streaming) {
+        schedulingPolicy.schedule(videos).forEach(this::enqueue);
+      } else {
+        scanned.addAll(videos);
+      }
+    }
+
+    /**
+     * Waits for every submitted video to be processed.
+     *
+     * @return result of each video, in the order they were scheduled
+     */
+    List<JobResult> finish() {
+      checkState(!finished, "Batch finished");
+      finished = true;
+      if (!streaming) {
+        List<UnencodedVideo> scheduled = schedulingPolicy.schedule(scanned);
+        total = scheduled.size();
+        scheduled.forEach(this::enqueue);
+      }
+
+      if (!interrupted) {
+        try {
+          // close in order, so each stage has received everything from upstream before closing
+          encode.close();
+          verify.close();
+          archive.close();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      List<JobResult> resultList = new ArrayList<>(videos.size());
+      for (int i = 0; i < submitted; i++) {
+        JobResult result = results.get(i);
+        UnencodedVideo video = videos.get(i);
+        if (result == null && video != null) {
+          result = new JobResult(video, JobResult.Status.NOT_PROCESSED, Duration.ZERO);
+          metrics.processed(result);
+        }
+        if (result != null) {
+          resultList.add(result);
+        }
+      }
+      return resultList;
+    }
+
+    // a stage's task that fails the job with the given status if it throws, releasing its lease
+    private Predicate<Job> failingWith(JobResult.Status status, Predicate<Job> task) {
+      return job -> {
+        try {
+          return task.test(job);
+        } catch (Throwable t) {
+          log.error("Error processing ({}): {}", status, job.video, t);
+          complete(job, status);
+          journal.record(job.video, JobJournal.State.FAILED);
+          return false;
+        }
+      };
+    }
+
+    // records the job's result, unless already recorded
+    private void complete(Job job, JobResult.Status status) {
+      if (job.completed) {
+        return;
+      }
+      job.completed = true;
+      JobResult result = job.result(status);
+      if (retainResults) {
+        results.put(job.index, result);
+      } else {
+        videos.remove(job.index);
+      }
+      metrics.processed(result);
+      onResult.accept(result);
+    }
+
+    // e.g. "3/10", or "3" if the total is unknown
+    private String position(Job job) {
+      int total = this.total;
+      return total < 0 ? String.valueOf(job.index + 1) : "%s/%s".formatted(job.index + 1, total);
+    }
+
+    private void enqueue(UnencodedVideo video) {
+      int index = submitted++;
+      videos.put(index, video);
+      if (interrupted) {
+        return;
+      }
       try {
-        thread.join();
+        journal.record(video, JobJournal.State.QUEUED);
+        // blocks while the encode queue is full
+        encode.submit(new Job(index, video));
       } catch (InterruptedException e) {
         Thread.currentThread().interrupt();
+        interrupted = true;
       }
     }
+  }
+
+  /** A video moving through the pipeline. */
+  private static final class Job {
+    private final int index;
+    private final UnencodedVideo video;
+    // set when encoding starts, read by later stages (queue hand-off makes it visible)
+    private long startNanos;
+    // set when encoding is skipped, read by later stages
+    private boolean alreadyEncoded;
+    // set before encoding, released with the result
+    private Optional<LeaseCoordinator.Lease> lease = Optional.empty();
+    // set once the result is recorded, by whichever stage holds the job
+    private boolean completed;
 
-    return Booleans.asList(results).stream().allMatch(x -> x);
+    private Job(int index, UnencodedVideo video) {
+      this.index = index;
+      this.video = video;
+    }
+
+    private boolean leaseHeld() {
+      return lease.isPresent() && lease.get().held();
+    }
+
+    // the result is final, so releases the lease
+    private JobResult result(JobResult.Status status) {
+      lease.ifPresent(LeaseCoordinator.Lease::close);
+      return new JobResult(video, status, Duration.ofNanos(System.nanoTime() - startNanos));
+    }
   }
 
-  private Thread startJob(
-      int i, List<UnencodedVideo> videos, List<CountDownLatch> latches, boolean[] results) {
-    UnencodedVideo video = videos.get(i);
-    CountDownLatch latch = latches.get(i);
-    CountDownLatch nextLatch = latches.get(i + 1);
-
-    return Thread.ofVirtual()
-        .name("job-", i + 1)
-        .start(
-            () -> {
-              try {
-                // latch ensures videos are processed in order
-                // while lock ensures a single instance of handbrake is running (at one time)
-
-                // all jobs await the latch, until the previous job has started
-                // then a single job awaits the lock, until the previous job has finished encoding
-
-                latch.await();
-                videoEncoder.acquire();
-                nextLatch.countDown();
-
-                log.info("Encoding ({}/{}): {}", i + 1, videos.size(), video);
-                results[i] = videoEncoder.encode(video) && videoArchiver.archive(video);
-
-              } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-              }
-            });
+  /** Lets videos take turns, in order of their index. */
+  private static final class StartOrder {
+    private final Lock lock = new ReentrantLock();
+    private final Condition turnChanged = lock.newCondition();
+    // indexes giving up their turn before it came
+    private final Set<Integer> skipped = new HashSet<>();
+    private int turn;
+
+    void awaitTurn(int index) throws InterruptedException {
+      lock.lock();
+      try {
+        while (turn != index) {
+          turnChanged.await();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void next() {
+      lock.lock();
+      try {
+        turn++;
+        while (skipped.remove(turn)) {
+          turn++;
+        }
+        turnChanged.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void skip(int index) {
+      lock.lock();
+      try {
+        if (turn == index) {
+          next();
+        } else {
+          skipped.add(index);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
   }
 }
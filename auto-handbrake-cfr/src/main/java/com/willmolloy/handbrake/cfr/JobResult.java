@@ -0,0 +1,48 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.time.Duration;
+
+/**
+ * Result of processing a single video.
+ *
+ * @param video the video
+ * @param status how far the video got through processing
+ * @param elapsed time from starting to encode the video until it finished (or failed) processing
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+record JobResult(UnencodedVideo video, Status status, Duration elapsed) {
+
+  JobResult {
+    checkNotNull(video);
+    checkNotNull(status);
+    checkNotNull(elapsed);
+  }
+
+  /** Whether the video was encoded and archived. */
+  boolean successful() {
+    return status == Status.ARCHIVED;
+  }
+
+  /** Whether the video failed, i.e. wasn't successful and wasn't left to another node. */
+  boolean failed() {
+    return !successful() && status != Status.LEASED_ELSEWHERE;
+  }
+
+  /** How far a video got through processing. */
+  enum Status {
+    /** Not processed, e.g. interrupted before encoding started. */
+    NOT_PROCESSED,
+    ENCODE_FAILED,
+    VERIFY_FAILED,
+    ARCHIVE_FAILED,
+    /** Encoded, verified and archived. */
+    ARCHIVED,
+    /**
+     * Left to another node, which holds its lease or already processed it (see {@link
+     * LeaseCoordinator}).
+     */
+    LEASED_ELSEWHERE
+  }
+}
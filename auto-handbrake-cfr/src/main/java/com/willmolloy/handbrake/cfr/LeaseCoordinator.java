@@ -0,0 +1,286 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.io.MoreFiles;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Coordinates several nodes (e.g. hosts running the app) processing the same input directory, so
+ * each video is processed by one node only.
+ *
+ * <p>A node processes a video while it holds the video's lease: a file in the output directory's
+ * {@link #DIRECTORY_NAME leases directory} (see {@link UnencodedVideo#leasePath}), created
+ * atomically (so only one node can create it) and holding the node's token. A background thread
+ * renews the leases held every third of the {@link #DEFAULT_TTL TTL}, by touching their last
+ * modified time. A lease not renewed within the TTL (i.e. its node crashed) has expired, and is
+ * reclaimed by the next node to try acquiring it.
+ *
+ * <p>No service is needed besides the shared file system, but the nodes' clocks must be in sync
+ * (e.g. with NTP), as the last modified times are compared across nodes.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+final class LeaseCoordinator implements AutoCloseable {
+
+  private static final Logger log = LogManager.getLogger();
+
+  static final String DIRECTORY_NAME = ".auto-handbrake-cfr.leases";
+  static final String SUFFIX = ".lease";
+  static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+
+  private final String nodeId;
+  private final Duration ttl;
+  private final Set<Lease> held = ConcurrentHashMap.newKeySet();
+  private final Thread heartbeat;
+
+  /**
+   * Constructor. Starts renewing the leases acquired.
+   *
+   * @param nodeId identifies this node in its leases, for logging
+   * @param ttl how long a lease lasts without being renewed
+   */
+  LeaseCoordinator(String nodeId, Duration ttl) {
+    this.nodeId = checkNotNull(nodeId);
+    checkArgument(ttl.isPositive(), "ttl (%s) must be positive", ttl);
+    this.ttl = ttl;
+    heartbeat = Thread.ofVirtual().name("lease-heartbeat").start(this::heartbeatLoop);
+  }
+
+  private LeaseCoordinator() {
+    this.nodeId = null;
+    this.ttl = null;
+    this.heartbeat = null;
+  }
+
+  /** Creates a coordinator whose leases are always acquired, i.e. for a single node. */
+  static LeaseCoordinator disabled() {
+    return new LeaseCoordinator();
+  }
+
+  /**
+   * Tries to acquire the given video's lease, reclaiming it if it expired.
+   *
+   * <p>The lease is released again if the original is gone or changed since it was scanned, i.e.
+   * another node processed it between scanning and acquiring the lease.
+   *
+   * @param video the video
+   * @return the lease, or empty if another node holds it or processed it (or it couldn't be
+   *     acquired)
+   */
+  Optional<Lease> tryAcquire(UnencodedVideo video) {
+    checkNotNull(video);
+    if (nodeId == null) {
+      return Optional.of(new Lease(null, null));
+    }
+    Path path = video.leasePath();
+    String token = nodeId + " " + UUID.randomUUID();
+    try {
+      MoreFiles.createParentDirectories(path);
+      // a second attempt if the first found an expired lease, and took it out of the way
+      for (int attempt = 0; attempt < 2; attempt++) {
+        try {
+          Files.writeString(path, token, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+          Lease lease = new Lease(path, token);
+          held.add(lease);
+          try {
+            Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+            log.debug("Acquired lease: {}", path);
+            if (!unchangedSinceScanned(video)) {
+              log.info("Processed by another node since scanned: {}", video);
+              lease.close();
+              return Optional.empty();
+            }
+            return Optional.of(lease);
+          } catch (IOException e) {
+            // released, otherwise it's renewed forever without being used
+            lease.close();
+            throw e;
+          }
+        } catch (FileAlreadyExistsException e) {
+          if (!removeIfExpired(path)) {
+            return Optional.empty();
+          }
+        }
+      }
+      return Optional.empty();
+    } catch (IOException e) {
+      log.error("Error acquiring lease: {}", path, e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Renews the leases held. Leases taken by another node (i.e. this node paused for longer than the
+   * TTL) are lost.
+   */
+  void heartbeat() {
+    for (Lease lease : held) {
+      lease.renew();
+    }
+  }
+
+  /** Stops renewing, and releases the leases still held. */
+  @Override
+  public void close() {
+    if (heartbeat == null) {
+      return;
+    }
+    heartbeat.interrupt();
+    try {
+      heartbeat.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (Lease lease : held) {
+      lease.close();
+    }
+  }
+
+  private void heartbeatLoop() {
+    try {
+      while (true) {
+        Thread.sleep(ttl.dividedBy(3));
+        heartbeat();
+      }
+    } catch (InterruptedException e) {
+      // closed
+    }
+  }
+
+  // true if the lease was expired (or released meanwhile) and is out of the way
+  private boolean removeIfExpired(Path path) throws IOException {
+    try {
+      String token = Files.readString(path, StandardCharsets.UTF_8);
+      if (!expired(path)) {
+        return false;
+      }
+      // moved rather than deleted, so of the nodes finding it expired only one reclaims it
+      Path stale = path.resolveSibling(path.getFileName() + "." + UUID.randomUUID());
+      Files.move(path, stale, StandardCopyOption.ATOMIC_MOVE);
+      // only deleted if it's the lease found expired, another node may have reclaimed it between
+      // reading and moving, then what was moved is that node's live lease
+      if (!Files.readString(stale, StandardCharsets.UTF_8).equals(token)) {
+        try {
+          Files.move(stale, path);
+        } catch (FileAlreadyExistsException e) {
+          // acquired by a third node meanwhile, the moved lease is lost either way (its node finds
+          // out on its next heartbeat)
+          Files.delete(stale);
+        }
+        return false;
+      }
+      log.warn("Reclaiming expired lease ({}): {}", owner(token), path);
+      Files.delete(stale);
+      return true;
+    } catch (NoSuchFileException e) {
+      // released (or reclaimed) meanwhile
+      return true;
+    }
+  }
+
+  private static boolean unchangedSinceScanned(UnencodedVideo video) throws IOException {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(video.originalPath(), BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      // archived
+      return false;
+    }
+    // attributes unknown, then it's only known to still be there
+    if (video.size() == 0 && video.lastModifiedTime().toMillis() == 0) {
+      return true;
+    }
+    return attributes.size() == video.size()
+        && attributes.lastModifiedTime().equals(video.lastModifiedTime());
+  }
+
+  private boolean expired(Path path) throws IOException {
+    Instant renewed = Files.getLastModifiedTime(path).toInstant();
+    return Duration.between(renewed, Instant.now()).compareTo(ttl) > 0;
+  }
+
+  private static String owner(String token) {
+    int space = token.lastIndexOf(' ');
+    return space < 0 ? token : token.substring(0, space);
+  }
+
+  /** A video's lease, release it by closing it once the video's processed. */
+  final class Lease implements AutoCloseable {
+    private final Path path;
+    private final String token;
+    private volatile boolean lost;
+
+    private Lease(Path path, String token) {
+      this.path = path;
+      this.token = token;
+    }
+
+    /** Whether the lease is still held, i.e. not lost to another node or released. */
+    boolean held() {
+      return !lost;
+    }
+
+    private void renew() {
+      try {
+        if (!owned()) {
+          lose();
+          return;
+        }
+        Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+      } catch (NoSuchFileException e) {
+        lose();
+      } catch (IOException e) {
+        // may be transient (e.g. the network drive), the lease lasts until the TTL
+        log.warn("Error renewing lease: {}", path, e);
+      }
+    }
+
+    private boolean owned() throws IOException {
+      return Files.readString(path, StandardCharsets.UTF_8).equals(token);
+    }
+
+    private void lose() {
+      lost = true;
+      held.remove(this);
+      log.error("Lost lease, another node may be processing the video: {}", path);
+    }
+
+    @Override
+    public void close() {
+      if (path == null || !held.remove(this)) {
+        return;
+      }
+      lost = true;
+      try {
+        if (owned()) {
+          Files.delete(path);
+          log.debug("Released lease: {}", path);
+        }
+      } catch (NoSuchFileException e) {
+        // reclaimed by another node
+      } catch (IOException e) {
+        // expires instead
+        log.warn("Error releasing lease: {}", path, e);
+      }
+    }
+  }
+}
@@ -5,8 +5,12 @@ import static com.google.common.base.Preconditions.checkArgument;
 import com.willmolloy.handbrake.core.HandBrake;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.OptionalInt;
 import java.util.stream.Stream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -20,7 +24,13 @@ final class Main {
 
   private static final Logger log = LogManager.getLogger();
 
+  static final String METRICS_SUMMARY_FILE_NAME = ".auto-handbrake-cfr.metrics.json";
+
+  // docker stop kills the container 10 seconds after SIGTERM by default
+  private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(8);
+
   public static void main(String... args) {
+    Thread shutdownHook = addShutdownHook(Thread.currentThread());
     try {
       checkArgument(args.length == 3, "Expected 3 args to main method");
       Path inputDirectory = Path.of(args[0]);
@@ -57,17 +67,165 @@ final class Main {
         }
       }
 
-      App app =
-          new App(
-              new DirectoryScanner(inputDirectory, outputDirectory, archiveDirectory),
-              new JobQueue(new VideoEncoder(HandBrake.newInstance()), new VideoArchiver()));
-      if (!app.run()) {
-        System.exit(1);
+      Config config = Config.fromEnvironment();
+      PipelineMetrics metrics = new PipelineMetrics();
+
+      VideoEncoder videoEncoder =
+          new VideoEncoder(
+              HandBrake.newInstance(),
+              new FFmpeg(),
+              config.encoderInstances(),
+              config.encoderThreads(),
+              config.encoderOptions(),
+              config.segmentLength(),
+              metrics);
+      metrics.encoderLimit(videoEncoder::limit);
+
+      boolean successful = true;
+      Optional<ConcurrencyController> concurrencyController =
+          startConcurrencyController(videoEncoder, metrics, config);
+      try (JobJournal journal = openJournal(outputDirectory, config);
+          LeaseCoordinator leases = startLeaseCoordinator(config)) {
+        App app =
+            new App(
+                new DirectoryScanner(
+                    inputDirectory,
+                    outputDirectory,
+                    archiveDirectory,
+                    config.scanParallelism(),
+                    config.deleteParallelism(),
+                    config.scanIndexMode(),
+                    config.coordinate(),
+                    journal),
+                new JobQueue(
+                    videoEncoder,
+                    new VideoVerifier(config.verifyParallelism()),
+                    new VideoArchiver(
+                        config.archiveCopyChunkSize(), config.archiveProgressIntervalPercent()),
+                    config.schedulingPolicy(),
+                    config.verifyWorkers(),
+                    config.archiveWorkers(),
+                    config.pipelineQueueCapacity(),
+                    config.skipAlreadyEncoded(),
+                    metrics,
+                    journal,
+                    leases));
+        if (config.watch()) {
+          Optional<MetricsServer> metricsServer = startMetricsServer(metrics, config);
+          try (DirectoryWatcher directoryWatcher =
+              new DirectoryWatcher(
+                  inputDirectory, outputDirectory, archiveDirectory, config.watchSettleTime())) {
+            app.watch(directoryWatcher);
+          } catch (InterruptedException e) {
+            // stopped, by the shutdown hook
+            log.info("Stopped watching");
+          } finally {
+            metricsServer.ifPresent(MetricsServer::close);
+          }
+        } else {
+          successful = app.run();
+          Path summary = outputDirectory.resolve(metricsSummaryFileName(config));
+          metrics.saveSummary(summary);
+          log.info("Saved metrics: {}", summary);
+        }
+      } finally {
+        concurrencyController.ifPresent(ConcurrencyController::close);
+      }
+      // once the journal's closed, so its pending records are saved
+      if (!successful) {
+        exit(shutdownHook);
       }
     } catch (Throwable t) {
       log.fatal("Fatal error", t);
-      System.exit(1);
+      exit(shutdownHook);
+    }
+  }
+
+  /**
+   * Adds a shutdown hook interrupting the main thread, then waiting (up to the timeout) for it to
+   * finish, e.g. on SIGTERM from {@code docker stop}. Otherwise the JVM exits without finishing the
+   * videos in progress, saving the journal or releasing the leases held.
+   */
+  private static Thread addShutdownHook(Thread mainThread) {
+    Thread shutdownHook =
+        new Thread(
+            () -> {
+              log.info("Shutting down");
+              mainThread.interrupt();
+              try {
+                if (!mainThread.join(SHUTDOWN_TIMEOUT)) {
+                  log.warn("Didn't finish within {}, exiting anyway", SHUTDOWN_TIMEOUT);
+                }
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            },
+            "shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+    return shutdownHook;
+  }
+
+  private static void exit(Thread shutdownHook) {
+    try {
+      // otherwise it waits for this thread, which is exiting
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException e) {
+      // already shutting down (i.e. stopped), exiting would block until the hook's timed out
+      return;
+    }
+    System.exit(1);
+  }
+
+  private static JobJournal openJournal(Path outputDirectory, Config config) throws IOException {
+    if (!config.journal()) {
+      return JobJournal.disabled();
+    }
+    // the output directory is shared when coordinating, so a journal per node
+    String fileName =
+        config.coordinate() ? JobJournal.FILE_NAME + "." + config.nodeId() : JobJournal.FILE_NAME;
+    return JobJournal.open(outputDirectory.resolve(fileName));
+  }
+
+  private static String metricsSummaryFileName(Config config) {
+    // the output directory is shared when coordinating, so a summary per node
+    return config.coordinate()
+        ? METRICS_SUMMARY_FILE_NAME.replace(".json", "." + config.nodeId() + ".json")
+        : METRICS_SUMMARY_FILE_NAME;
+  }
+
+  private static LeaseCoordinator startLeaseCoordinator(Config config) {
+    if (!config.coordinate()) {
+      return LeaseCoordinator.disabled();
+    }
+    String nodeId = config.nodeId();
+    log.info("Coordinating with other nodes, as node: {}", nodeId);
+    return new LeaseCoordinator(nodeId, config.leaseTtl());
+  }
+
+  private static Optional<ConcurrencyController> startConcurrencyController(
+      VideoEncoder videoEncoder, PipelineMetrics metrics, Config config) {
+    if (!config.adaptiveConcurrency()) {
+      return Optional.empty();
+    }
+    int maximum =
+        ConcurrencyController.maximum(
+            videoEncoder.instances(),
+            Runtime.getRuntime().availableProcessors(),
+            ConcurrencyController.hostMemory(),
+            config.encoderMemory());
+    log.info("Adapting concurrency, up to {} encoder instance(s)", maximum);
+    return Optional.of(
+        new ConcurrencyController(
+            videoEncoder, metrics, maximum, config.adaptiveConcurrencyInterval()));
+  }
+
+  private static Optional<MetricsServer> startMetricsServer(PipelineMetrics metrics, Config config)
+      throws IOException {
+    OptionalInt port = config.metricsPort();
+    if (port.isEmpty()) {
+      return Optional.empty();
     }
+    return Optional.of(new MetricsServer(metrics.registry(), port.getAsInt()));
   }
 
   @SuppressFBWarnings("DMI_HARDCODED_ABSOLUTE_FILENAME")
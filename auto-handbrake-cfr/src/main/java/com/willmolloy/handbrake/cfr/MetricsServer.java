@@ -0,0 +1,78 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.willmolloy.handbrake.cfr.util.MetricRegistry;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Serves metrics in the Prometheus text format, at {@code /metrics}.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+final class MetricsServer implements AutoCloseable {
+
+  private static final Logger log = LogManager.getLogger();
+
+  static final int DEFAULT_PORT = 9400;
+  static final String PATH = "/metrics";
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private final MetricRegistry registry;
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final HttpServer server;
+
+  /**
+   * Starts serving.
+   *
+   * @param registry metrics to serve
+   * @param port port to listen on (all interfaces, so it can be published by docker), or 0 for any
+   *     free port
+   * @throws IOException if the port can't be bound
+   */
+  MetricsServer(MetricRegistry registry, int port) throws IOException {
+    this.registry = checkNotNull(registry);
+    checkArgument(port >= 0 && port <= 65535, "port (%s) is invalid", port);
+    server = HttpServer.create(new InetSocketAddress(port), 0);
+    server.createContext(PATH, this::handle);
+    server.setExecutor(executor);
+    server.start();
+    log.info("Serving metrics: http://localhost:{}{}", port(), PATH);
+  }
+
+  /** Port listening on. */
+  int port() {
+    return server.getAddress().getPort();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.close();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      if (!exchange.getRequestMethod().equals("GET")) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      byte[] body = registry.prometheus().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream responseBody = exchange.getResponseBody()) {
+        responseBody.write(body);
+      }
+    }
+  }
+}
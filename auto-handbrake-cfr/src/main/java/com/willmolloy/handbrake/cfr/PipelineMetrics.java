@@ -0,0 +1,243 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.willmolloy.handbrake.cfr.util.MetricRegistry;
+import com.willmolloy.handbrake.core.ProgressEvent;
+import com.willmolloy.handbrake.core.ProgressListener;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
+
+/**
+ * Metrics of the {@link JobQueue} pipeline, for capacity planning encode hosts.
+ *
+ * <p>Exposed by the {@link MetricsServer} in watch mode, or saved as a JSON summary after running
+ * once.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+final class PipelineMetrics {
+
+  // seconds, from a short verify up to a long 4K encode
+  private static final double[] DURATION_BUCKETS = {
+    1, 5, 15, 30, 60, 120, 300, 600, 1200, 1800, 3600, 7200, 14400
+  };
+  private static final double[] FPS_BUCKETS = {5, 10, 25, 50, 100, 200, 400, 800, 1600};
+  // bytes per second, 1 MB/s up to 1 GB/s
+  private static final double[] THROUGHPUT_BUCKETS = {
+    1e6, 2.5e6, 5e6, 10e6, 25e6, 50e6, 100e6, 250e6, 500e6, 1e9
+  };
+
+  private final MetricRegistry registry = new MetricRegistry("auto_handbrake_cfr");
+
+  private final MetricRegistry.Counter videosSucceeded =
+      registry.counter("videos_succeeded_total", "Videos encoded, verified and archived.");
+  private final MetricRegistry.Counter videosFailed =
+      registry.counter("videos_failed_total", "Videos that failed to encode, verify or archive.");
+  private final MetricRegistry.Counter videosLeasedElsewhere =
+      registry.counter(
+          "videos_leased_elsewhere_total", "Videos left to another node, which held their lease.");
+
+  private final MetricRegistry.Histogram encodeDuration =
+      registry.histogram("encode_duration_seconds", "Time to encode a video.", DURATION_BUCKETS);
+  private final MetricRegistry.Histogram encodeFps =
+      registry.histogram(
+          "encode_fps", "Frames per second, sampled from HandBrake progress.", FPS_BUCKETS);
+  private final MetricRegistry.Counter encodeInputBytes =
+      registry.counter("encode_input_bytes_total", "Bytes of the originals encoded.");
+  private final MetricRegistry.Counter encodeOutputBytes =
+      registry.counter("encode_output_bytes_total", "Bytes of the encodings written.");
+  private final MetricRegistry.Histogram encodeInputBytesPerSecond =
+      registry.histogram(
+          "encode_input_bytes_per_second",
+          "Bytes of the original encoded per second, per video.",
+          THROUGHPUT_BUCKETS);
+  private final MetricRegistry.Histogram encodeOutputBytesPerSecond =
+      registry.histogram(
+          "encode_output_bytes_per_second",
+          "Bytes of the encoding written per second, per video.",
+          THROUGHPUT_BUCKETS);
+
+  private final MetricRegistry.Histogram verifyDuration =
+      registry.histogram(
+          "verify_duration_seconds", "Time to verify an encoding.", DURATION_BUCKETS);
+
+  private final MetricRegistry.Histogram archiveDuration =
+      registry.histogram(
+          "archive_duration_seconds", "Time to archive an original.", DURATION_BUCKETS);
+  private final MetricRegistry.Counter archiveBytes =
+      registry.counter("archive_bytes_total", "Bytes of the originals archived.");
+  private final MetricRegistry.Histogram archiveBytesPerSecond =
+      registry.histogram(
+          "archive_bytes_per_second", "Bytes archived per second, per video.", THROUGHPUT_BUCKETS);
+
+  // current fps of each running encode, keyed by its listener
+  private final Map<ProgressListener, Double> currentFps = new ConcurrentHashMap<>();
+  // queue depths of the current batch's stages
+  private volatile IntSupplier encodeQueueDepth = () -> 0;
+  private volatile IntSupplier verifyQueueDepth = () -> 0;
+  private volatile IntSupplier archiveQueueDepth = () -> 0;
+  private volatile IntSupplier encoderLimit = () -> 0;
+
+  PipelineMetrics() {
+    registry.gauge("encodes_running", "Encodes reporting progress.", this::encodesRunning);
+    registry.gauge(
+        "encode_current_fps", "Frames per second of all running encodes.", this::currentFps);
+    registry.gauge(
+        "encoder_instance_limit",
+        "HandBrake instances that can currently run at one time.",
+        () -> encoderLimit.getAsInt());
+    registry.gauge(
+        "encode_queue_depth", "Videos waiting to be encoded.", () -> encodeQueueDepth.getAsInt());
+    registry.gauge(
+        "verify_queue_depth",
+        "Encodings waiting to be verified.",
+        () -> verifyQueueDepth.getAsInt());
+    registry.gauge(
+        "archive_queue_depth",
+        "Originals waiting to be archived.",
+        () -> archiveQueueDepth.getAsInt());
+  }
+
+  /** The underlying registry, to render the metrics. */
+  MetricRegistry registry() {
+    return registry;
+  }
+
+  /**
+   * Saves every metric as JSON.
+   *
+   * @param file file to save to, replaced if it exists
+   * @throws IOException if an I/O error occurs
+   */
+  void saveSummary(Path file) throws IOException {
+    Files.writeString(file, registry.json());
+  }
+
+  /**
+   * Creates a listener for a single encode, sampling its frames per second.
+   *
+   * @return the listener
+   */
+  ProgressListener encodeListener() {
+    return new ProgressListener() {
+      @Override
+      public void onEvent(ProgressEvent event) {
+        switch (event) {
+          case ProgressEvent.Progress progress -> onProgress(progress.fps());
+          case ProgressEvent.Finished finished -> currentFps.remove(this);
+          default -> {}
+        }
+      }
+
+      // several times a second, so without allocating an event
+      @Override
+      public void onProgress(
+          int pass, int passes, double percent, double fps, double averageFps, long etaSeconds) {
+        onProgress(fps);
+      }
+
+      private void onProgress(double fps) {
+        encodeFps.observe(fps);
+        currentFps.put(this, fps);
+      }
+    };
+  }
+
+  /**
+   * Records a successful encode.
+   *
+   * @param inputBytes size of the original
+   * @param outputBytes size of the encoding
+   * @param elapsed time to encode
+   */
+  void encoded(long inputBytes, long outputBytes, Duration elapsed) {
+    encodeDuration.observe(seconds(elapsed));
+    encodeInputBytes.add(inputBytes);
+    encodeOutputBytes.add(outputBytes);
+    encodeInputBytesPerSecond.observe(perSecond(inputBytes, elapsed));
+    encodeOutputBytesPerSecond.observe(perSecond(outputBytes, elapsed));
+  }
+
+  /**
+   * Records a verify, successful or not.
+   *
+   * @param elapsed time to verify
+   */
+  void verified(Duration elapsed) {
+    verifyDuration.observe(seconds(elapsed));
+  }
+
+  /**
+   * Records a successful archive.
+   *
+   * @param bytes size of the original
+   * @param elapsed time to archive
+   */
+  void archived(long bytes, Duration elapsed) {
+    archiveDuration.observe(seconds(elapsed));
+    archiveBytes.add(bytes);
+    archiveBytesPerSecond.observe(perSecond(bytes, elapsed));
+  }
+
+  /**
+   * Records the result of a video.
+   *
+   * @param result the result
+   */
+  void processed(JobResult result) {
+    if (result.successful()) {
+      videosSucceeded.increment();
+    } else if (result.failed()) {
+      videosFailed.increment();
+    } else {
+      videosLeasedElsewhere.increment();
+    }
+  }
+
+  /**
+   * Sets the queue depths to report, i.e. of the stages of the batch being processed.
+   *
+   * @param encode videos waiting to be encoded
+   * @param verify encodings waiting to be verified
+   * @param archive originals waiting to be archived
+   */
+  void queueDepths(IntSupplier encode, IntSupplier verify, IntSupplier archive) {
+    encodeQueueDepth = checkNotNull(encode);
+    verifyQueueDepth = checkNotNull(verify);
+    archiveQueueDepth = checkNotNull(archive);
+  }
+
+  /**
+   * Sets where the number of HandBrake instances that can currently run at one time is read from.
+   *
+   * @param limit the limit
+   */
+  void encoderLimit(IntSupplier limit) {
+    encoderLimit = checkNotNull(limit);
+  }
+
+  /** Number of encodes reporting progress. */
+  int encodesRunning() {
+    return currentFps.size();
+  }
+
+  /** Frames per second of all running encodes, as last reported by each. */
+  double currentFps() {
+    return currentFps.values().stream().mapToDouble(Double::doubleValue).sum();
+  }
+
+  private static double seconds(Duration duration) {
+    return duration.toNanos() / 1e9;
+  }
+
+  // infinite if instant, which histograms ignore
+  private static double perSecond(long bytes, Duration elapsed) {
+    return bytes / seconds(elapsed);
+  }
+}
@@ -0,0 +1,213 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.base.Stopwatch;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A stage of the {@link JobQueue} pipeline.
+ *
+ * <p>Items are submitted to a bounded queue and processed by a fixed number of workers. Items that
+ * are processed successfully are passed downstream (i.e. submitted to the next stage).
+ *
+ * <p>With a single worker, items are processed in the order they were submitted.
+ *
+ * <p>An item whose task throws fails, and its worker moves on to the next item.
+ *
+ * @param <T> item type
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+final class PipelineStage<T> {
+
+  private static final Logger log = LogManager.getLogger();
+
+  // tells a worker there are no more items, one per worker
+  private static final Object END = new Object();
+
+  private final String name;
+  private final Predicate<T> task;
+  private final Downstream<T> downstream;
+  private final BlockingQueue<Object> queue;
+  private final List<Thread> workers = new ArrayList<>();
+  private boolean closed;
+
+  private final Stopwatch stopwatch = Stopwatch.createUnstarted();
+  private final AtomicInteger succeeded = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+  private final AtomicLong busyNanos = new AtomicLong();
+  private final AtomicLong waitingNanos = new AtomicLong();
+  private final AtomicInteger peakQueueSize = new AtomicInteger();
+
+  private PipelineStage(
+      String name, int queueCapacity, Predicate<T> task, Downstream<T> downstream) {
+    this.name = checkNotNull(name);
+    this.task = checkNotNull(task);
+    this.downstream = checkNotNull(downstream);
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+  }
+
+  /**
+   * Starts a stage.
+   *
+   * @param name name of the stage, used for logging
+   * @param workers number of items to process concurrently
+   * @param queueCapacity number of items that can be waiting to be processed, before {@link
+   *     #submit} blocks
+   * @param task processes an item, returning {@code true} if successful
+   * @param downstream receives successfully processed items, may block
+   * @return the started stage
+   * @param <T> item type
+   */
+  static <T> PipelineStage<T> start(
+      String name, int workers, int queueCapacity, Predicate<T> task, Downstream<T> downstream) {
+    checkArgument(workers > 0, "workers (%s) must be positive", workers);
+    checkArgument(queueCapacity > 0, "queueCapacity (%s) must be positive", queueCapacity);
+
+    PipelineStage<T> stage = new PipelineStage<>(name, queueCapacity, task, downstream);
+    stage.stopwatch.start();
+    Thread.Builder builder = Thread.ofVirtual().name(name + "-", 1);
+    for (int i = 0; i < workers; i++) {
+      stage.workers.add(builder.start(stage::work));
+    }
+    return stage;
+  }
+
+  /** Starts the final stage, which has nothing downstream. */
+  static <T> PipelineStage<T> start(
+      String name, int workers, int queueCapacity, Predicate<T> task) {
+    return start(name, workers, queueCapacity, task, item -> {});
+  }
+
+  /**
+   * Submits an item to be processed. Blocks if the queue is full.
+   *
+   * @param item item to process
+   * @throws InterruptedException if interrupted while waiting
+   */
+  void submit(T item) throws InterruptedException {
+    checkState(!closed, "Stage (%s) closed", name);
+    queue.put(checkNotNull(item));
+    peakQueueSize.accumulateAndGet(queue.size(), Math::max);
+  }
+
+  /**
+   * Closes the stage, waiting for submitted items to be processed (and passed downstream).
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  void close() throws InterruptedException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (int i = 0; i < workers.size(); i++) {
+      queue.put(END);
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    stopwatch.stop();
+    logMetrics();
+  }
+
+  /** Number of items waiting to be processed. */
+  int queued() {
+    return queue.size();
+  }
+
+  /** Number of items that failed to be processed. */
+  int failed() {
+    return failed.get();
+  }
+
+  /** Number of items that were processed successfully. */
+  int succeeded() {
+    return succeeded.get();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void work() {
+    try {
+      while (true) {
+        Object next = queue.take();
+        if (next == END) {
+          return;
+        }
+        T item = (T) next;
+
+        long start = System.nanoTime();
+        boolean success;
+        try {
+          success = task.test(item);
+        } catch (Throwable t) {
+          // including errors (e.g. OutOfMemoryError), as a worker that dies can leave submit and
+          // close blocked on a full queue forever
+          log.error("Error processing ({}): {}", name, item, t);
+          success = false;
+        }
+        busyNanos.addAndGet(System.nanoTime() - start);
+
+        if (success) {
+          succeeded.incrementAndGet();
+          // time blocked by a full downstream queue, i.e. this stage is waiting on the next one
+          long downstreamStart = System.nanoTime();
+          downstream.accept(item);
+          waitingNanos.addAndGet(System.nanoTime() - downstreamStart);
+        } else {
+          failed.incrementAndGet();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void logMetrics() {
+    Duration elapsed = stopwatch.elapsed();
+    int processed = succeeded.get() + failed.get();
+    double perHour = elapsed.isZero() ? 0 : processed * 3.6e12 / elapsed.toNanos();
+    double utilisation =
+        elapsed.isZero() ? 0 : (double) busyNanos.get() / (elapsed.toNanos() * workers.size());
+    log.info(
+        "Stage ({}): {} succeeded, {} failed, {} workers, {}/hour, {}% busy, blocked downstream"
+            + " {}, peak queue {}, elapsed {}",
+        name,
+        succeeded.get(),
+        failed.get(),
+        workers.size(),
+        "%.1f".formatted(perHour),
+        Math.round(utilisation * 100),
+        Duration.ofNanos(waitingNanos.get()),
+        peakQueueSize.get(),
+        stopwatch);
+  }
+
+  /**
+   * Receives items processed successfully by a stage.
+   *
+   * @param <T> item type
+   */
+  @FunctionalInterface
+  interface Downstream<T> {
+
+    /**
+     * Accepts a processed item. May block (e.g. if the next stage's queue is full).
+     *
+     * @param item processed item
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void accept(T item) throws InterruptedException;
+  }
+}
@@ -0,0 +1,139 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Decides the order videos are encoded.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+@FunctionalInterface
+interface SchedulingPolicy {
+
+  /**
+   * Orders the given videos.
+   *
+   * @param videos videos in the order they were scanned
+   * @return the same videos in the order to encode them
+   */
+  List<UnencodedVideo> schedule(List<UnencodedVideo> videos);
+
+  /**
+   * Whether videos are scheduled in the order they were scanned, so each can be scheduled as soon
+   * as it's scanned rather than once every video has been scanned.
+   */
+  default boolean streamable() {
+    return false;
+  }
+
+  /** In the order they were scanned. */
+  static SchedulingPolicy fifo() {
+    return new SchedulingPolicy() {
+      @Override
+      public List<UnencodedVideo> schedule(List<UnencodedVideo> videos) {
+        return videos;
+      }
+
+      @Override
+      public boolean streamable() {
+        return true;
+      }
+    };
+  }
+
+  /** Smallest file first, so short recordings aren't held back by long ones. */
+  static SchedulingPolicy shortestFirst() {
+    // stable sort, so equal sizes stay in the order they were scanned
+    return videos ->
+        videos.stream().sorted(Comparator.comparingLong(UnencodedVideo::size)).toList();
+  }
+
+  /** Oldest (last modified) file first. */
+  static SchedulingPolicy oldestFirst() {
+    return videos ->
+        videos.stream().sorted(Comparator.comparing(UnencodedVideo::lastModifiedTime)).toList();
+  }
+
+  /**
+   * Interleaves videos from each top level subdirectory of the input directory, so one directory
+   * with many videos doesn't hold back the others.
+   *
+   * <p>Each directory gets a share of the encodes proportional to its weight, and within a
+   * directory videos stay in the order they were scanned.
+   *
+   * @param weights weight of each directory by name, directories not present have weight 1 (videos
+   *     directly in the input directory are under the empty name)
+   * @return the policy
+   */
+  static SchedulingPolicy weightedFair(Map<String, Integer> weights) {
+    weights.forEach(
+        (directory, weight) ->
+            checkArgument(
+                weight > 0, "weight (%s) of directory (%s) must be positive", weight, directory));
+    Map<String, Integer> weightsCopy = Map.copyOf(weights);
+
+    return videos -> {
+      // in order of each directory's first video
+      Map<String, Queue<UnencodedVideo>> queues = new LinkedHashMap<>();
+      for (UnencodedVideo video : videos) {
+        queues.computeIfAbsent(video.topLevelDirectory(), k -> new ArrayDeque<>()).add(video);
+      }
+
+      // smooth weighted round-robin: each turn every directory earns its weight in credit, the
+      // directory with the most credit goes next and pays the total weight, which spreads each
+      // directory's turns evenly rather than in bursts
+      Map<String, Integer> credits = new LinkedHashMap<>();
+      queues.keySet().forEach(directory -> credits.put(directory, 0));
+
+      List<UnencodedVideo> scheduled = new ArrayList<>(videos.size());
+      while (!queues.isEmpty()) {
+        int totalWeight = 0;
+        String next = null;
+        for (String directory : queues.keySet()) {
+          int weight = weightsCopy.getOrDefault(directory, 1);
+          totalWeight += weight;
+          int credit = credits.merge(directory, weight, Integer::sum);
+          if (next == null || credit > credits.get(next)) {
+            next = directory;
+          }
+        }
+        credits.merge(checkNotNull(next), -totalWeight, Integer::sum);
+
+        Queue<UnencodedVideo> queue = queues.get(next);
+        scheduled.add(queue.remove());
+        if (queue.isEmpty()) {
+          queues.remove(next);
+          credits.remove(next);
+        }
+      }
+      return scheduled;
+    };
+  }
+
+  /**
+   * Parses a policy by name.
+   *
+   * @param name {@code fifo}, {@code shortest-first}, {@code oldest-first} or {@code weighted-fair}
+   * @param weights directory weights, for {@code weighted-fair}
+   * @return the policy
+   */
+  static SchedulingPolicy of(String name, Map<String, Integer> weights) {
+    return switch (name) {
+      case "fifo" -> fifo();
+      case "shortest-first" -> shortestFirst();
+      case "oldest-first" -> oldestFirst();
+      case "weighted-fair" -> weightedFair(weights);
+      default ->
+          throw new IllegalArgumentException("Unknown scheduling policy (%s)".formatted(name));
+    };
+  }
+}
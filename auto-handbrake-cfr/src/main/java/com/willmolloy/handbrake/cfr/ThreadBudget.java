@@ -0,0 +1,133 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Decides how many threads each HandBrake encode uses.
+ *
+ * <p>Either a fixed number per encode, or the host's cores shared between the encodes running at
+ * one time. When shared, each encode leases an even share of the cores (rounding down, so the last
+ * encode picks up the remainder) and returns them when it's done. Several right-sized encodes side
+ * by side make better use of many cores than each encode using them all.
+ *
+ * <p>Sharing adapts to the number of encodes being {@link #resize resized}: later encodes lease the
+ * new share, even while earlier encodes still hold the old one. So the cores are temporarily
+ * oversubscribed after resizing up, until the earlier encodes are done.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+final class ThreadBudget {
+
+  private final int fixedThreads;
+  private final int cores;
+
+  // guarded by this, when shared
+  private int encodes;
+  private int freeCores;
+  private int freeEncodes;
+
+  private ThreadBudget(int fixedThreads, int cores, int encodes) {
+    this.fixedThreads = fixedThreads;
+    this.cores = cores;
+    this.encodes = encodes;
+    this.freeCores = cores;
+    this.freeEncodes = encodes;
+  }
+
+  /**
+   * Creates a budget giving each encode the same number of threads.
+   *
+   * @param threads number of threads each encode uses, or 0 to let the encoder decide
+   * @return the budget
+   */
+  static ThreadBudget fixed(int threads) {
+    checkArgument(threads >= 0, "threads (%s) must not be negative", threads);
+    return new ThreadBudget(threads, 0, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Creates a budget sharing the given cores between the encodes running at one time.
+   *
+   * @param cores number of cores to share
+   * @param encodes maximum number of encodes running at one time
+   * @return the budget
+   */
+  static ThreadBudget shared(int cores, int encodes) {
+    checkArgument(cores > 0, "cores (%s) must be positive", cores);
+    checkArgument(encodes > 0, "encodes (%s) must be positive", encodes);
+    return new ThreadBudget(-1, cores, encodes);
+  }
+
+  /** Maximum number of encodes that can lease threads at one time. */
+  synchronized int encodes() {
+    return encodes;
+  }
+
+  /**
+   * Changes the maximum number of encodes that can lease threads at one time, so later leases share
+   * the cores between that many. Leases already taken are unchanged (and may oversubscribe the
+   * cores until closed).
+   *
+   * @param encodes maximum number of encodes running at one time
+   */
+  synchronized void resize(int encodes) {
+    checkArgument(encodes > 0, "encodes (%s) must be positive", encodes);
+    if (fixedThreads >= 0) {
+      return;
+    }
+    freeEncodes += encodes - this.encodes;
+    this.encodes = encodes;
+  }
+
+  /**
+   * Leases threads for an encode, return them by closing the lease once it's done.
+   *
+   * @return the lease
+   */
+  Lease lease() {
+    if (fixedThreads >= 0) {
+      return new Lease(fixedThreads);
+    }
+    synchronized (this) {
+      // the share of every core rather than of the free cores, as after resizing up earlier leases
+      // may still hold the old (bigger) shares
+      int threads = Math.max(1, cores / encodes);
+      // the last encode picks up the remainder
+      if (freeEncodes == 1 && freeCores > threads) {
+        threads = freeCores;
+      }
+      freeCores -= threads;
+      freeEncodes--;
+      return new Lease(threads);
+    }
+  }
+
+  private synchronized void release(int threads) {
+    freeCores += threads;
+    freeEncodes++;
+  }
+
+  /** Threads leased by an encode. */
+  final class Lease implements AutoCloseable {
+    private final int threads;
+    private boolean closed;
+
+    private Lease(int threads) {
+      this.threads = threads;
+    }
+
+    /** Number of threads the encode uses, or 0 to let the encoder decide. */
+    int threads() {
+      return threads;
+    }
+
+    @Override
+    public void close() {
+      if (fixedThreads >= 0 || closed) {
+        return;
+      }
+      closed = true;
+      release(threads);
+    }
+  }
+}
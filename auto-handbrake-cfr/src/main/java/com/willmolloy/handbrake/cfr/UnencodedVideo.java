@@ -5,6 +5,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Represents an unencoded, unarchived video (.mp4 file).
@@ -17,20 +22,38 @@ final class UnencodedVideo {
   private final Path originalPath;
   private final Path encodedPath;
   private final Path tempEncodedPath;
+  private final Path encodedFingerprintsPath;
+  private final Path encodedSourceFingerprintPath;
   private final Path archivedPath;
   private final Path tempArchivedPath;
+  private final Path leasePath;
+  private final String topLevelDirectory;
+  private final long size;
+  private final FileTime lastModifiedTime;
 
   private UnencodedVideo(
       Path originalPath,
       Path encodedPath,
       Path tempEncodedPath,
+      Path encodedFingerprintsPath,
+      Path encodedSourceFingerprintPath,
       Path archivedPath,
-      Path tempArchivedPath) {
+      Path tempArchivedPath,
+      Path leasePath,
+      String topLevelDirectory,
+      long size,
+      FileTime lastModifiedTime) {
     this.originalPath = originalPath;
     this.encodedPath = encodedPath;
     this.tempEncodedPath = tempEncodedPath;
+    this.encodedFingerprintsPath = encodedFingerprintsPath;
+    this.encodedSourceFingerprintPath = encodedSourceFingerprintPath;
     this.archivedPath = archivedPath;
     this.tempArchivedPath = tempArchivedPath;
+    this.leasePath = leasePath;
+    this.topLevelDirectory = topLevelDirectory;
+    this.size = size;
+    this.lastModifiedTime = lastModifiedTime;
   }
 
   Path originalPath() {
@@ -45,6 +68,32 @@ final class UnencodedVideo {
     return tempEncodedPath;
   }
 
+  /**
+   * Temp file a segment of this video is encoded to, when encoding in segments. Segments are joined
+   * into the {@link #tempEncodedPath}.
+   *
+   * @param segment index of the segment
+   * @return the segment's temp file
+   */
+  Path tempSegmentPath(int segment) {
+    checkArgument(segment >= 0, "segment (%s) must not be negative", segment);
+    String fileName = fileName(tempEncodedPath);
+    return tempEncodedPath.resolveSibling(
+        fileName.substring(0, fileName.length() - PART_SUFFIX.length())
+            + SEGMENT_INFIX
+            + segment
+            + PART_SUFFIX);
+  }
+
+  Path encodedFingerprintsPath() {
+    return encodedFingerprintsPath;
+  }
+
+  /** Fingerprint of the original the encoded file was encoded from. */
+  Path encodedSourceFingerprintPath() {
+    return encodedSourceFingerprintPath;
+  }
+
   Path archivedPath() {
     return archivedPath;
   }
@@ -53,6 +102,33 @@ final class UnencodedVideo {
     return tempArchivedPath;
   }
 
+  /**
+   * Lease of this video when coordinating with other nodes, see {@link LeaseCoordinator}. In the
+   * output directory's leases directory, rather than next to the original, so the input directory's
+   * last modified times only change with its videos (see {@link DirectoryScanner.IndexMode}).
+   */
+  Path leasePath() {
+    return leasePath;
+  }
+
+  /**
+   * Name of the subdirectory of the input directory containing this video, or empty if the video is
+   * directly in the input directory.
+   */
+  String topLevelDirectory() {
+    return topLevelDirectory;
+  }
+
+  /** Size (in bytes) when scanned, or 0 if unknown. */
+  long size() {
+    return size;
+  }
+
+  /** Last modified time when scanned, or the epoch if unknown. */
+  FileTime lastModifiedTime() {
+    return lastModifiedTime;
+  }
+
   @Override
   public String toString() {
     return originalPath.toString();
@@ -62,7 +138,13 @@ final class UnencodedVideo {
   private static final String MP4_SUFFIX = ".mp4";
   private static final String ENCODED_SUFFIX = ".cfr.mp4";
   private static final String TEMP_ENCODED_SUFFIX = ".cfr.mp4.part";
+  private static final String ENCODED_FINGERPRINTS_SUFFIX = ".cfr.mp4.fingerprints";
+  private static final String ENCODED_SOURCE_FINGERPRINT_SUFFIX = ".cfr.mp4.source";
   private static final String TEMP_ARCHIVED_SUFFIX = ".mp4.part";
+  private static final String PART_SUFFIX = ".part";
+  private static final String SEGMENT_INFIX = ".segment-";
+  private static final Pattern TEMP_SEGMENT_PATTERN =
+      Pattern.compile("(.*\\.cfr\\.mp4)\\.segment-\\d+\\.part");
 
   static boolean isMp4(Path path) {
     return fileName(path).endsWith(MP4_SUFFIX);
@@ -80,6 +162,44 @@ final class UnencodedVideo {
     return fileName(path).endsWith(TEMP_ARCHIVED_SUFFIX);
   }
 
+  static boolean isTempSegmentMp4(Path path) {
+    return TEMP_SEGMENT_PATTERN.matcher(fileName(path)).matches();
+  }
+
+  /**
+   * Temp encoded path of the video the given segment (see {@link #tempSegmentPath}) belongs to.
+   *
+   * @param segmentPath path of the segment
+   * @return the video's temp encoded path
+   */
+  static Path tempEncodedPathOfSegment(Path segmentPath) {
+    Matcher matcher = TEMP_SEGMENT_PATTERN.matcher(fileName(segmentPath));
+    checkArgument(matcher.matches(), "segmentPath (%s) is not a segment", segmentPath);
+    return segmentPath.resolveSibling(matcher.group(1) + PART_SUFFIX);
+  }
+
+  /**
+   * Whether the given file is a sidecar of an encoded file, i.e. a fingerprint saved next to it.
+   */
+  static boolean isEncodedSidecar(Path path) {
+    String fileName = fileName(path);
+    return fileName.endsWith(ENCODED_FINGERPRINTS_SUFFIX)
+        || fileName.endsWith(ENCODED_SOURCE_FINGERPRINT_SUFFIX);
+  }
+
+  /**
+   * Encoded path the given sidecar (see {@link #isEncodedSidecar}) was saved next to.
+   *
+   * @param sidecarPath path of the sidecar
+   * @return the encoded path
+   */
+  static Path encodedPathOfSidecar(Path sidecarPath) {
+    String fileName = fileName(sidecarPath);
+    checkArgument(isEncodedSidecar(sidecarPath), "sidecarPath (%s) is not a sidecar", sidecarPath);
+    return sidecarPath.resolveSibling(
+        fileName.substring(0, fileName.lastIndexOf(ENCODED_SUFFIX) + ENCODED_SUFFIX.length()));
+  }
+
   private static String fileName(Path path) {
     return checkNotNull(path.getFileName()).toString();
   }
@@ -110,7 +230,28 @@ final class UnencodedVideo {
       this.archiveDirectory = archiveDirectory;
     }
 
+    /**
+     * Creates a video without its file attributes (size, last modified time) known.
+     *
+     * @param videoPath path of the video
+     * @return the video
+     */
     UnencodedVideo newUnencodedVideo(Path videoPath) {
+      return newUnencodedVideo(videoPath, 0, FileTime.fromMillis(0));
+    }
+
+    /**
+     * Creates a video with its file attributes, as read when scanning.
+     *
+     * @param videoPath path of the video
+     * @param attributes attributes of the video
+     * @return the video
+     */
+    UnencodedVideo newUnencodedVideo(Path videoPath, BasicFileAttributes attributes) {
+      return newUnencodedVideo(videoPath, attributes.size(), attributes.lastModifiedTime());
+    }
+
+    private UnencodedVideo newUnencodedVideo(Path videoPath, long size, FileTime lastModifiedTime) {
       checkArgument(
           !isTempEncodedMp4(videoPath),
           "videoPath (%s) represents an incomplete encoded .mp4 file",
@@ -136,8 +277,51 @@ final class UnencodedVideo {
           videoPath,
           newDirectory(newSuffix(videoPath, ENCODED_SUFFIX), outputDirectory),
           newDirectory(newSuffix(videoPath, TEMP_ENCODED_SUFFIX), outputDirectory),
+          newDirectory(newSuffix(videoPath, ENCODED_FINGERPRINTS_SUFFIX), outputDirectory),
+          newDirectory(newSuffix(videoPath, ENCODED_SOURCE_FINGERPRINT_SUFFIX), outputDirectory),
           newDirectory(videoPath, archiveDirectory),
-          newDirectory(newSuffix(videoPath, TEMP_ARCHIVED_SUFFIX), archiveDirectory));
+          newDirectory(newSuffix(videoPath, TEMP_ARCHIVED_SUFFIX), archiveDirectory),
+          newDirectory(
+              videoPath.resolveSibling(fileName(videoPath) + LeaseCoordinator.SUFFIX),
+              outputDirectory.resolve(LeaseCoordinator.DIRECTORY_NAME)),
+          topLevelDirectory(videoPath),
+          size,
+          checkNotNull(lastModifiedTime));
+    }
+
+    /**
+     * Original path of the video the given temp file (see {@link #tempEncodedPath} and {@link
+     * #tempArchivedPath}) belongs to.
+     *
+     * @param tempFile path of the temp file
+     * @return the original path (absolute), or empty if the temp file isn't in the output or
+     *     archive directory
+     */
+    Optional<Path> originalPathOfTempFile(Path tempFile) {
+      Path absoluteTempFile = tempFile.toAbsolutePath().normalize();
+      String fileName = fileName(tempFile);
+      // encoded first, as a temp encoded file is a temp archived file too by suffix
+      String suffix = isTempEncodedMp4(tempFile) ? TEMP_ENCODED_SUFFIX : TEMP_ARCHIVED_SUFFIX;
+      checkArgument(fileName.endsWith(suffix), "tempFile (%s) is not a temp file", tempFile);
+      Path directory =
+          (suffix.equals(TEMP_ENCODED_SUFFIX) ? outputDirectory : archiveDirectory)
+              .toAbsolutePath()
+              .normalize();
+      if (!absoluteTempFile.startsWith(directory)) {
+        return Optional.empty();
+      }
+      return Optional.of(
+          inputDirectory
+              .toAbsolutePath()
+              .normalize()
+              .resolve(directory.relativize(absoluteTempFile))
+              .resolveSibling(
+                  fileName.substring(0, fileName.length() - suffix.length()) + MP4_SUFFIX));
+    }
+
+    private String topLevelDirectory(Path videoPath) {
+      Path relativePath = inputDirectory.relativize(videoPath);
+      return relativePath.getNameCount() > 1 ? relativePath.getName(0).toString() : "";
     }
 
     private Path newDirectory(Path videoPath, Path newDirectory) {
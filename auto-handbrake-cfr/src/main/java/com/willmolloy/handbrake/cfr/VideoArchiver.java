@@ -1,8 +1,14 @@
 package com.willmolloy.handbrake.cfr;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import com.google.common.base.Stopwatch;
 import com.google.common.io.MoreFiles;
+import com.willmolloy.handbrake.cfr.util.Files2;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -15,6 +21,26 @@ class VideoArchiver {
 
   private static final Logger log = LogManager.getLogger();
 
+  static final long DEFAULT_COPY_CHUNK_SIZE = 64L << 20; // 64 MiB
+  static final int DEFAULT_PROGRESS_INTERVAL_PERCENT = 10;
+
+  private final long copyChunkSize;
+  private final int progressIntervalPercent;
+
+  VideoArchiver(long copyChunkSize, int progressIntervalPercent) {
+    checkArgument(copyChunkSize > 0, "copyChunkSize (%s) must be positive", copyChunkSize);
+    checkArgument(
+        progressIntervalPercent > 0 && progressIntervalPercent <= 100,
+        "progressIntervalPercent (%s) must be between 1 and 100",
+        progressIntervalPercent);
+    this.copyChunkSize = copyChunkSize;
+    this.progressIntervalPercent = progressIntervalPercent;
+  }
+
+  VideoArchiver() {
+    this(DEFAULT_COPY_CHUNK_SIZE, DEFAULT_PROGRESS_INTERVAL_PERCENT);
+  }
+
   /**
    * Archives the given video.
    *
@@ -46,8 +72,7 @@ class VideoArchiver {
         log.info("Moving: {} -> {}", video.originalPath(), video.archivedPath());
         // archive to a temp file first in case something goes wrong
         // (e.g. app crash while it's uploading to NAS)
-        Files.move(video.originalPath(), video.tempArchivedPath());
-        Files.move(video.tempArchivedPath(), video.archivedPath());
+        move(video);
       }
 
       log.info("Archived: {}", video.archivedPath());
@@ -59,4 +84,27 @@ class VideoArchiver {
       log.info("Elapsed: {}", stopwatch);
     }
   }
+
+  private void move(UnencodedVideo video) throws IOException {
+    try {
+      // same file system, just renames
+      Files.move(video.originalPath(), video.tempArchivedPath(), StandardCopyOption.ATOMIC_MOVE);
+      Files.move(video.tempArchivedPath(), video.archivedPath());
+    } catch (AtomicMoveNotSupportedException e) {
+      // different file system (e.g. network drive), copy explicitly rather than let Files.move copy
+      // without progress, and only delete the original once the archived file is in place
+      log.info("Archive directory is on another file system, copying");
+      // left over from an earlier run (scanning may not have reached it yet)
+      Files.deleteIfExists(video.tempArchivedPath());
+      try {
+        Files2.copy(
+            video.originalPath(), video.tempArchivedPath(), copyChunkSize, progressIntervalPercent);
+      } catch (IOException | RuntimeException copyFailure) {
+        Files.deleteIfExists(video.tempArchivedPath());
+        throw copyFailure;
+      }
+      Files.move(video.tempArchivedPath(), video.archivedPath());
+      Files.delete(video.originalPath());
+    }
+  }
 }
@@ -1,104 +1,490 @@
 package com.willmolloy.handbrake.cfr;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.io.MoreFiles;
-import com.willmolloy.handbrake.cfr.util.Files2;
+import com.google.common.math.LongMath;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.willmolloy.handbrake.core.HandBrake;
+import com.willmolloy.handbrake.core.ProgressEvent;
+import com.willmolloy.handbrake.core.ProgressListener;
 import com.willmolloy.handbrake.core.options.Encoder;
+import com.willmolloy.handbrake.core.options.EncoderTuning;
 import com.willmolloy.handbrake.core.options.FrameRateControl;
 import com.willmolloy.handbrake.core.options.Input;
+import com.willmolloy.handbrake.core.options.Option;
 import com.willmolloy.handbrake.core.options.Output;
 import com.willmolloy.handbrake.core.options.Preset;
+import com.willmolloy.handbrake.core.options.Range;
+import java.io.IOException;
+import java.math.RoundingMode;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
-import java.util.concurrent.locks.ReentrantLock;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.BooleanSupplier;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * Responsible for encoding videos.
  *
+ * <p>A pool of HandBrake instances, each encode must {@link #acquire} an instance first. Instances
+ * are acquired in the order they're requested.
+ *
+ * <p>Long videos can be encoded in segments (time ranges), encoded in parallel by whichever
+ * instances are idle, then joined without re-encoding. The encode holding the instance encodes
+ * segments itself, other instances help as they're released.
+ *
  * @author <a href=https://willmolloy.com>Will Molloy</a>
  */
 class VideoEncoder {
 
   private static final Logger log = LogManager.getLogger();
 
-  private final ReentrantLock lock = new ReentrantLock();
-
   private final HandBrake handBrake;
+  private final FFmpeg ffmpeg;
+  private final int instances;
+  private final ThreadBudget threadBudget;
+  private final Optional<EncoderTuning> encoderOptions;
+  private final Duration segmentLength;
+  private final PipelineMetrics metrics;
 
-  VideoEncoder(HandBrake handBrake) {
+  private final ResizableSemaphore permits;
+  private final Set<Thread> acquiredBy = ConcurrentHashMap.newKeySet();
+  // guarded by this
+  private int limit;
+
+  /**
+   * Constructor.
+   *
+   * @param handBrake HandBrake
+   * @param ffmpeg FFmpeg, probes durations and joins segments
+   * @param instances number of HandBrake instances that can run at one time
+   * @param threadBudget number of threads each HandBrake instance uses
+   * @param encoderOptions extra encoder options, combined with the threads
+   * @param segmentLength length of the segments videos longer than it are encoded in, or zero to
+   *     encode every video whole
+   * @param metrics records frames per second, duration and bytes of each encode
+   */
+  VideoEncoder(
+      HandBrake handBrake,
+      FFmpeg ffmpeg,
+      int instances,
+      ThreadBudget threadBudget,
+      Optional<EncoderTuning> encoderOptions,
+      Duration segmentLength,
+      PipelineMetrics metrics) {
     this.handBrake = checkNotNull(handBrake);
+    this.ffmpeg = checkNotNull(ffmpeg);
+    this.threadBudget = checkNotNull(threadBudget);
+    this.encoderOptions = checkNotNull(encoderOptions);
+    this.metrics = checkNotNull(metrics);
+    checkArgument(instances > 0, "instances (%s) must be positive", instances);
+    checkArgument(
+        threadBudget.encodes() >= instances,
+        "threadBudget (%s encodes) must cover instances (%s)",
+        threadBudget.encodes(),
+        instances);
+    checkArgument(
+        !segmentLength.isNegative(), "segmentLength (%s) must not be negative", segmentLength);
+    this.instances = instances;
+    this.segmentLength = segmentLength;
+    this.permits = new ResizableSemaphore(instances);
+    this.limit = instances;
+  }
+
+  VideoEncoder(
+      HandBrake handBrake, int instances, int threadsPerInstance, PipelineMetrics metrics) {
+    this(
+        handBrake,
+        new FFmpeg(),
+        instances,
+        ThreadBudget.fixed(threadsPerInstance),
+        Optional.empty(),
+        Duration.ZERO,
+        metrics);
+  }
+
+  VideoEncoder(HandBrake handBrake, int instances, int threadsPerInstance) {
+    this(handBrake, instances, threadsPerInstance, new PipelineMetrics());
+  }
+
+  VideoEncoder(HandBrake handBrake) {
+    this(handBrake, 1, 0);
+  }
+
+  /** Maximum number of HandBrake instances that can run at one time. */
+  int instances() {
+    return instances;
+  }
+
+  /** Number of HandBrake instances that can currently run at one time, see {@link #limit(int)}. */
+  synchronized int limit() {
+    return limit;
+  }
+
+  /**
+   * Changes the number of HandBrake instances that can run at one time. Lowering it doesn't stop
+   * running encodes, it takes effect as they finish.
+   *
+   * @param limit number of instances, between 1 and {@link #instances}
+   */
+  synchronized void limit(int limit) {
+    checkArgument(
+        limit > 0 && limit <= instances,
+        "limit (%s) must be between 1 and instances (%s)",
+        limit,
+        instances);
+    if (limit > this.limit) {
+      permits.release(limit - this.limit);
+    } else if (limit < this.limit) {
+      permits.reduce(this.limit - limit);
+    }
+    threadBudget.resize(limit);
+    this.limit = limit;
   }
 
-  /** Acquires the instance. Must call before {@link #encode}. */
+  /**
+   * Acquires an instance, waiting for one to be released if necessary. Must call before {@link
+   * #encode}.
+   */
   void acquire() {
-    lock.lock();
+    permits.acquireUninterruptibly();
+    acquiredBy.add(Thread.currentThread());
   }
 
   /**
-   * Encodes the given video.
+   * Encodes the given video to its temp encoded path.
+   *
+   * <p>The encoding is moved into place by {@link VideoVerifier#verify}.
    *
    * @param video video to encode
    * @return {@code true} if encoding was successful
    */
   boolean encode(UnencodedVideo video) {
-    checkState(lock.isHeldByCurrentThread(), "Not acquired");
+    return encode(video, () -> false);
+  }
+
+  /**
+   * Encodes the given video to its temp encoded path, stopping HandBrake once cancelled.
+   *
+   * <p>Once cancelled the temp encoded path (and segments) are left alone, they may be another
+   * encode's now, e.g. another node's that took over the video.
+   *
+   * @param video video to encode
+   * @param cancelled polled while encoding, {@code true} to stop
+   * @return {@code true} if encoding was successful, {@code false} if it failed or was cancelled
+   */
+  boolean encode(UnencodedVideo video, BooleanSupplier cancelled) {
+    checkState(acquiredBy.contains(Thread.currentThread()), "Not acquired");
 
     Stopwatch stopwatch = Stopwatch.createStarted();
     try {
+      if (cancelled.getAsBoolean()) {
+        log.warn("Cancelled before encoding: {}", video);
+        return false;
+      }
       if (Files.exists(video.encodedPath())) {
         log.warn("Encoded file ({}) already exists", video.encodedPath());
       }
 
       MoreFiles.createParentDirectories(video.encodedPath());
+      // left over from an earlier run (scanning may not have reached it yet)
+      Files.deleteIfExists(video.tempEncodedPath());
 
       // to avoid leaving encoded files in an 'incomplete' state, encode to a temp file in case
       // something goes wrong
+      List<Segment> segments = segments(video);
       boolean handBrakeSuccessful =
-          handBrake.encode(
-              Input.of(video.originalPath()),
-              Output.of(video.tempEncodedPath()),
-              Preset.productionStandard(),
-              Encoder.h264(),
-              FrameRateControl.constant());
+          segments.size() > 1
+              ? encodeSegments(video, segments, cancelled)
+              : encode(video, video.tempEncodedPath(), List.of(), cancelled);
 
       if (!handBrakeSuccessful) {
-        log.error("Error encoding: {}", video);
-        return false;
-      }
-
-      release();
-
-      if (Files.exists(video.encodedPath())) {
-        log.info("Verifying existing encoded file contents");
-        if (!Files2.contentsSimilar(video.encodedPath(), video.tempEncodedPath())) {
-          log.error("Existing encoded file contents differ. Aborting encode process");
+        if (cancelled.getAsBoolean()) {
+          log.warn("Cancelled encoding: {}", video);
           return false;
         }
+        log.error("Error encoding: {}", video);
+        return false;
       }
 
-      Files.move(video.tempEncodedPath(), video.encodedPath(), StandardCopyOption.REPLACE_EXISTING);
-
-      log.info("Encoded: {}", video.encodedPath());
+      log.info("Encoded (unverified): {}", video.tempEncodedPath());
+      metrics.encoded(video.size(), outputBytes(video), stopwatch.elapsed());
       return true;
     } catch (Exception e) {
       log.error("Error encoding: {}", video, e);
       return false;
     } finally {
-      // ensure unlocked (i.e. if method returns exceptionally)
+      // ensure released (i.e. if method returns exceptionally)
       release();
       log.info("Elapsed: {}", stopwatch);
     }
   }
 
-  private void release() {
-    if (lock.isHeldByCurrentThread()) {
-      lock.unlock();
+  private boolean encode(
+      UnencodedVideo video, Path output, List<Range> range, BooleanSupplier cancelled) {
+    try (ThreadBudget.Lease threads = threadBudget.lease()) {
+      List<Option> options = options(threads.threads());
+      options.addAll(range);
+      return handBrake.encode(
+          Input.of(video.originalPath()),
+          Output.of(output),
+          cancellable(metrics.encodeListener(), cancelled),
+          options.toArray(Option[]::new));
+    }
+  }
+
+  private static ProgressListener cancellable(
+      ProgressListener listener, BooleanSupplier cancelled) {
+    return new ProgressListener() {
+      @Override
+      public void onEvent(ProgressEvent event) {
+        listener.onEvent(event);
+      }
+
+      @Override
+      public void onProgress(
+          int pass, int passes, double percent, double fps, double averageFps, long etaSeconds) {
+        listener.onProgress(pass, passes, percent, fps, averageFps, etaSeconds);
+      }
+
+      @Override
+      public boolean cancelled() {
+        return cancelled.getAsBoolean();
+      }
+    };
+  }
+
+  // a single segment (the whole video) unless it's longer than the segment length
+  private List<Segment> segments(UnencodedVideo video) {
+    // segments are only encoded in parallel by other instances
+    if (segmentLength.isZero() || limit() == 1) {
+      return List.of(new Segment(0, video.tempEncodedPath(), List.of()));
+    }
+    Optional<Duration> duration = ffmpeg.duration(video.originalPath());
+    if (duration.isEmpty()) {
+      log.warn("Unknown duration, encoding whole: {}", video);
+      return List.of(new Segment(0, video.tempEncodedPath(), List.of()));
+    }
+
+    int count =
+        Ints.checkedCast(
+            LongMath.divide(
+                duration.get().toMillis(), segmentLength.toMillis(), RoundingMode.CEILING));
+    List<Segment> segments = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      List<Range> range = new ArrayList<>();
+      range.add(Range.startAt(segmentLength.multipliedBy(i)));
+      // the last runs to the end, in case the duration's inexact
+      if (i < count - 1) {
+        range.add(Range.stopAt(segmentLength));
+      }
+      segments.add(new Segment(i, video.tempSegmentPath(i), range));
+    }
+    return segments;
+  }
+
+  private boolean encodeSegments(
+      UnencodedVideo video, List<Segment> segments, BooleanSupplier cancelled) throws IOException {
+    log.info("Encoding in {} segment(s): {}", segments.size(), video);
+    SegmentQueue queue = new SegmentQueue(video, segments, cancelled);
+    try {
+      List<Thread> helpers = new ArrayList<>();
+      for (int i = 1; i < Math.min(limit(), segments.size()); i++) {
+        helpers.add(Thread.ofVirtual().name("encode-segment-" + i).start(queue::help));
+      }
+      queue.work();
+      queue.finish(helpers);
+
+      if (!queue.successful()) {
+        return false;
+      }
+      List<Path> paths = segments.stream().map(Segment::path).toList();
+      if (!ffmpeg.concat(paths, video.tempEncodedPath())) {
+        log.error("Error joining segments: {}", video);
+        return false;
+      }
+      return true;
+    } finally {
+      if (!cancelled.getAsBoolean()) {
+        for (Segment segment : segments) {
+          Files.deleteIfExists(segment.path());
+        }
+      }
+    }
+  }
+
+  private List<Option> options(int threads) {
+    List<Option> options = new ArrayList<>();
+    options.add(Preset.productionStandard());
+    options.add(Encoder.h264());
+    options.add(FrameRateControl.constant());
+    // HandBrake only uses the last --encopts
+    Optional<EncoderTuning> tuning =
+        threads > 0 ? Optional.of(EncoderTuning.threads(threads)) : Optional.empty();
+    if (encoderOptions.isPresent()) {
+      tuning =
+          Optional.of(tuning.map(t -> t.and(encoderOptions.get())).orElse(encoderOptions.get()));
+    }
+    tuning.ifPresent(options::add);
+    return options;
+  }
+
+  // 0 if unknown, a missing encoding is left to verifying to report
+  private static long outputBytes(UnencodedVideo video) {
+    try {
+      return Files.size(video.tempEncodedPath());
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Releases the instance acquired by this thread, if not already released (by {@link #encode}).
+   */
+  void release() {
+    if (acquiredBy.remove(Thread.currentThread())) {
+      permits.release();
+    }
+  }
+
+  /** Semaphore whose permits can be reduced without waiting for them to be released. */
+  private static final class ResizableSemaphore extends Semaphore {
+    private static final long serialVersionUID = 1L;
+
+    private ResizableSemaphore(int permits) {
+      // fair, so instances are acquired in order
+      super(permits, true);
+    }
+
+    void reduce(int reduction) {
+      reducePermits(reduction);
+    }
+  }
+
+  /** Time range of a video, encoded to its own file. */
+  private record Segment(int index, Path path, List<Range> range) {}
+
+  /**
+   * Segments of a video waiting to be encoded. The encode holding the instance works through them,
+   * helpers acquire other instances to work through them too.
+   */
+  private final class SegmentQueue {
+    private final UnencodedVideo video;
+    private final BooleanSupplier cancelled;
+    private final int count;
+    // guarded by this
+    private final Deque<Segment> pending;
+    private final Set<Thread> encoding = new HashSet<>();
+    private boolean finished;
+    private boolean failed;
+
+    private SegmentQueue(UnencodedVideo video, List<Segment> segments, BooleanSupplier cancelled) {
+      this.video = video;
+      this.cancelled = cancelled;
+      this.count = segments.size();
+      this.pending = new ArrayDeque<>(segments);
+    }
+
+    // by the encode holding the instance
+    void work() {
+      for (Optional<Segment> segment = take(); segment.isPresent(); segment = take()) {
+        done(encode(segment.get()));
+      }
+    }
+
+    // by a helper, until there's nothing left to encode
+    void help() {
+      while (true) {
+        synchronized (this) {
+          if (finished || failed || pending.isEmpty()) {
+            return;
+          }
+        }
+        try {
+          // fair, so helpers don't jump ahead of other videos waiting for an instance
+          permits.acquire();
+        } catch (InterruptedException e) {
+          // finished while waiting
+          return;
+        }
+        try {
+          Optional<Segment> segment = take();
+          if (segment.isEmpty()) {
+            return;
+          }
+          done(encode(segment.get()));
+        } finally {
+          permits.release();
+        }
+      }
+    }
+
+    // stops helpers waiting for an instance, then waits for those encoding
+    void finish(List<Thread> helpers) {
+      synchronized (this) {
+        finished = true;
+        for (Thread helper : helpers) {
+          if (!encoding.contains(helper)) {
+            helper.interrupt();
+          }
+        }
+      }
+      for (Thread helper : helpers) {
+        Uninterruptibles.joinUninterruptibly(helper);
+      }
+    }
+
+    synchronized boolean successful() {
+      return !failed && pending.isEmpty();
+    }
+
+    private synchronized Optional<Segment> take() {
+      if (finished || failed || cancelled.getAsBoolean()) {
+        return Optional.empty();
+      }
+      Optional<Segment> segment = Optional.ofNullable(pending.poll());
+      segment.ifPresent(s -> encoding.add(Thread.currentThread()));
+      return segment;
+    }
+
+    private synchronized void done(boolean successful) {
+      encoding.remove(Thread.currentThread());
+      if (!successful) {
+        // no point encoding the rest
+        failed = true;
+        pending.clear();
+      }
+    }
+
+    private boolean encode(Segment segment) {
+      try {
+        boolean successful =
+            VideoEncoder.this.encode(video, segment.path(), segment.range(), cancelled);
+        if (successful) {
+          log.info("Encoded segment ({}/{}): {}", segment.index() + 1, count, segment.path());
+        } else {
+          log.error("Error encoding segment ({}/{}): {}", segment.index() + 1, count, video);
+        }
+        return successful;
+      } catch (Exception e) {
+        log.error("Error encoding segment ({}/{}): {}", segment.index() + 1, count, video, e);
+        return false;
+      }
     }
   }
 }
@@ -0,0 +1,138 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Stopwatch;
+import com.willmolloy.handbrake.cfr.util.BlockFingerprints;
+import com.willmolloy.handbrake.cfr.util.SourceFingerprint;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Responsible for verifying encoded videos and moving them into place.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class VideoVerifier {
+
+  private static final Logger log = LogManager.getLogger();
+
+  private final int verifyParallelism;
+
+  VideoVerifier(int verifyParallelism) {
+    checkArgument(
+        verifyParallelism > 0, "verifyParallelism (%s) must be positive", verifyParallelism);
+    this.verifyParallelism = verifyParallelism;
+  }
+
+  VideoVerifier() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Verifies the given video's encoding (output of {@link VideoEncoder#encode}) and moves it to the
+   * encoded path.
+   *
+   * <p>If an encoded file already exists, it's only replaced if its contents are similar. The
+   * encoding is fingerprinted while comparing them, so the next comparison can skip reading the
+   * blocks that match. Otherwise the encoding isn't read at all.
+   *
+   * <p>Also fingerprints the original, so it can later be recognised as {@link #alreadyEncoded}.
+   *
+   * @param video video to verify
+   * @return {@code true} if verification was successful
+   */
+  boolean verify(UnencodedVideo video) {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    try {
+      Optional<BlockFingerprints> fingerprints = Optional.empty();
+      if (Files.exists(video.encodedPath())) {
+        log.info("Verifying existing encoded file contents");
+        fingerprints = existingEncodingSimilar(video);
+        if (fingerprints.isEmpty()) {
+          log.error("Existing encoded file contents differ. Aborting encode process");
+          return false;
+        }
+      }
+
+      // describe the previous encoding (if any)
+      Files.deleteIfExists(video.encodedSourceFingerprintPath());
+      Files.deleteIfExists(video.encodedFingerprintsPath());
+      Files.move(video.tempEncodedPath(), video.encodedPath(), StandardCopyOption.REPLACE_EXISTING);
+      fingerprints.ifPresent(blockFingerprints -> saveFingerprints(video, blockFingerprints));
+      saveSourceFingerprint(video);
+
+      log.info("Encoded: {}", video.encodedPath());
+      return true;
+    } catch (Exception e) {
+      log.error("Error verifying: {}", video, e);
+      return false;
+    } finally {
+      log.info("Elapsed: {}", stopwatch);
+    }
+  }
+
+  /**
+   * Tests if the given video has already been encoded and verified, so needn't be encoded again.
+   *
+   * <p>That is, the encoded file is unchanged since it was verified, and the original is unchanged
+   * since it was fingerprinted when verifying.
+   *
+   * @param video video to test
+   * @return {@code true} if already encoded
+   */
+  boolean alreadyEncoded(UnencodedVideo video) {
+    try {
+      Optional<SourceFingerprint> sourceFingerprint =
+          SourceFingerprint.load(video.encodedSourceFingerprintPath(), video.encodedPath());
+      return sourceFingerprint.isPresent() && sourceFingerprint.get().matches(video.originalPath());
+    } catch (Exception e) {
+      log.warn("Error checking if already encoded: {}", video, e);
+      return false;
+    }
+  }
+
+  // fingerprints of the encoding if similar
+  private Optional<BlockFingerprints> existingEncodingSimilar(UnencodedVideo video)
+      throws IOException {
+    // if the existing encoding was fingerprinted, its matching blocks needn't be read again
+    Optional<BlockFingerprints> existingFingerprints =
+        BlockFingerprints.load(video.encodedFingerprintsPath(), video.encodedPath());
+    Optional<BlockFingerprints> fingerprints =
+        BlockFingerprints.computeIfSimilar(
+            video.tempEncodedPath(), video.encodedPath(), existingFingerprints, verifyParallelism);
+    log.info(
+        "Contents {} ({})",
+        fingerprints.isPresent() ? "similar" : "differ",
+        existingFingerprints.isPresent() ? "fingerprints" : "full scan");
+    return fingerprints;
+  }
+
+  private void saveFingerprints(UnencodedVideo video, BlockFingerprints fingerprints) {
+    try {
+      fingerprints.save(video.encodedFingerprintsPath(), video.encodedPath());
+    } catch (Exception e) {
+      // not fatal, only means the next verification (if any) has to read the encoded file
+      log.warn("Error saving fingerprints: {}", video.encodedFingerprintsPath(), e);
+    }
+  }
+
+  private void saveSourceFingerprint(UnencodedVideo video) {
+    try {
+      SourceFingerprint sourceFingerprint = SourceFingerprint.compute(video.originalPath());
+      if (!sourceFingerprint.hasAttributes(video.size(), video.lastModifiedTime())) {
+        // changed since scanned, so may not be what was encoded
+        log.warn("Original changed since scanned, not fingerprinting: {}", video);
+        return;
+      }
+      sourceFingerprint.save(video.encodedSourceFingerprintPath(), video.encodedPath());
+    } catch (Exception e) {
+      // not fatal, only means the video isn't recognised as already encoded
+      log.warn("Error saving source fingerprint: {}", video.encodedSourceFingerprintPath(), e);
+    }
+  }
+}
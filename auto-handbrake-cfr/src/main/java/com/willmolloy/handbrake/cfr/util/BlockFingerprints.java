@@ -0,0 +1,205 @@
+package com.willmolloy.handbrake.cfr.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Optional;
+
+/**
+ * Fingerprints (64-bit hashes) of each 1 MiB block of a file.
+ *
+ * <p>Saved to a small sidecar file, so the file's contents can later be compared without reading it
+ * again (at least the blocks whose fingerprints match).
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+public final class BlockFingerprints {
+
+  static final int BLOCK_SIZE = 1 << 20; // 1 MiB
+
+  private static final HashFunction HASH_FUNCTION = Hashing.farmHashFingerprint64();
+  private static final int MAGIC = 0x41484246;
+  private static final int VERSION = 1;
+
+  private final long size;
+  private final long[] hashes;
+
+  private BlockFingerprints(long size, long[] hashes) {
+    this.size = size;
+    this.hashes = hashes;
+  }
+
+  /**
+   * Computes the fingerprints of the given file.
+   *
+   * @param file file to fingerprint
+   * @return fingerprints
+   */
+  public static BlockFingerprints compute(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long[] hashes = new long[blocks(size)];
+      ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+      for (int i = 0; i < hashes.length; i++) {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer) < 0) {
+            break;
+          }
+        }
+        hashes[i] = HASH_FUNCTION.hashBytes(buffer.array(), 0, buffer.position()).asLong();
+      }
+      return new BlockFingerprints(size, hashes);
+    }
+  }
+
+  /**
+   * Saves these fingerprints to a sidecar file, recording the current size and last modified time
+   * of the fingerprinted file.
+   *
+   * @param sidecar file to save to, replaced if it exists
+   * @param file file these fingerprints were computed from
+   */
+  public void save(Path sidecar, Path file) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    checkArgument(
+        attributes.size() == size,
+        "file (%s) size (%s) differs from fingerprinted size (%s)",
+        file,
+        attributes.size(),
+        size);
+
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(sidecar)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(BLOCK_SIZE);
+      out.writeLong(size);
+      out.writeLong(attributes.lastModifiedTime().toMillis());
+      out.writeInt(hashes.length);
+      for (long hash : hashes) {
+        out.writeLong(hash);
+      }
+      out.writeLong(checksum());
+    }
+  }
+
+  /**
+   * Loads fingerprints from a sidecar file.
+   *
+   * @param sidecar file to load from
+   * @param file file the fingerprints were computed from
+   * @return the fingerprints, or empty if the sidecar doesn't exist, is corrupt, or is stale (the
+   *     file has changed since it was fingerprinted)
+   */
+  public static Optional<BlockFingerprints> load(Path sidecar, Path file) {
+    try (InputStream inputStream = Files.newInputStream(sidecar);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != BLOCK_SIZE) {
+        return Optional.empty();
+      }
+
+      long size = in.readLong();
+      long lastModifiedMillis = in.readLong();
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      if (attributes.size() != size
+          || attributes.lastModifiedTime().toMillis() != lastModifiedMillis) {
+        return Optional.empty();
+      }
+
+      int count = in.readInt();
+      if (count != (size + BLOCK_SIZE - 1) / BLOCK_SIZE) {
+        return Optional.empty();
+      }
+      long[] hashes = new long[count];
+      for (int i = 0; i < count; i++) {
+        hashes[i] = in.readLong();
+      }
+
+      BlockFingerprints fingerprints = new BlockFingerprints(size, hashes);
+      if (in.readLong() != fingerprints.checksum()) {
+        return Optional.empty();
+      }
+      return Optional.of(fingerprints);
+    } catch (IOException e) {
+      // missing, truncated (e.g. app crash while saving) or otherwise unreadable
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Computes the fingerprints of a file while testing if its contents are similar to another
+   * file's, as defined by {@link Files2#contentsSimilar}.
+   *
+   * <p>Where the other file's fingerprints are known, a block whose fingerprint matches is taken as
+   * the same, so isn't read from the other file. Only a match is trusted (a mismatching block is
+   * compared directly), so each file is read once at most, the other only where it may differ.
+   *
+   * @param file file to fingerprint
+   * @param other file to compare with
+   * @param otherFingerprints fingerprints of the other file, or empty if unknown
+   * @param parallelism number of regions of the files to compare concurrently
+   * @return the file's fingerprints if the contents are similar, or empty if not
+   */
+  public static Optional<BlockFingerprints> computeIfSimilar(
+      Path file, Path other, Optional<BlockFingerprints> otherFingerprints, int parallelism)
+      throws IOException {
+    long size = Files.size(file);
+    long[] hashes = new long[blocks(size)];
+    long[] otherHashes = otherFingerprints.map(fingerprints -> fingerprints.hashes).orElse(null);
+    MismatchCounter.BlockFilter filter =
+        new MismatchCounter.BlockFilter() {
+          @Override
+          public int blockSize() {
+            return BLOCK_SIZE;
+          }
+
+          @Override
+          public boolean matches(int block, ByteBuffer data) {
+            if (block >= hashes.length) {
+              // past the end of the file, only in the other
+              return false;
+            }
+            hashes[block] = HASH_FUNCTION.hashBytes(data).asLong();
+            return otherHashes != null
+                && block < otherHashes.length
+                && hashes[block] == otherHashes[block];
+          }
+        };
+
+    try {
+      return Files2.contentsSimilar(file, other, parallelism, Optional.of(filter))
+          ? Optional.of(new BlockFingerprints(size, hashes))
+          : Optional.empty();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static int blocks(long size) {
+    return Math.toIntExact((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+  }
+
+  private long checksum() {
+    Hasher hasher = HASH_FUNCTION.newHasher().putLong(size);
+    for (long hash : hashes) {
+      hasher.putLong(hash);
+    }
+    return hasher.hash().asLong();
+  }
+}
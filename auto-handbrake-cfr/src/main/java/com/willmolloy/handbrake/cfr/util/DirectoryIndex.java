@@ -0,0 +1,221 @@
+package com.willmolloy.handbrake.cfr.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.hash.HashingOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Index of directory listings, saved between runs so unchanged directories needn't be listed again.
+ *
+ * <p>A directory's last modified time changes when an entry is added, removed or renamed, so if
+ * it's unchanged the previous listing still holds. (It doesn't change when a file's contents or a
+ * subdirectory's entries change, so each subdirectory is still checked.)
+ *
+ * <p>Listings of directories modified just before the index was loaded aren't recorded, as a change
+ * in the same clock tick as the listing wouldn't change the last modified time.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+public final class DirectoryIndex {
+
+  private static final Logger log = LogManager.getLogger();
+
+  private static final HashFunction HASH_FUNCTION = Hashing.farmHashFingerprint64();
+  private static final int MAGIC = 0x41484449;
+  private static final int VERSION = 1;
+  private static final Duration RACY_WINDOW = Duration.ofSeconds(2);
+
+  private final Path file;
+  private final Map<String, Listing> previous;
+  private final Map<String, Listing> current = new ConcurrentHashMap<>();
+  private final long racyAfterMillis;
+
+  private DirectoryIndex(Path file, Map<String, Listing> previous) {
+    this.file = file;
+    this.previous = previous;
+    this.racyAfterMillis = System.currentTimeMillis() - RACY_WINDOW.toMillis();
+  }
+
+  /**
+   * Loads the index saved in the given file.
+   *
+   * @param file file the index is saved in
+   * @return the index, empty if the file doesn't exist or is corrupt
+   */
+  public static DirectoryIndex load(Path file) {
+    checkNotNull(file);
+    try (InputStream inputStream = Files.newInputStream(file);
+        HashingInputStream hashingInputStream =
+            new HashingInputStream(HASH_FUNCTION, new BufferedInputStream(inputStream));
+        DataInputStream in = new DataInputStream(hashingInputStream)) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        log.warn("Ignoring directory index with unknown format: {}", file);
+        return empty(file);
+      }
+
+      int directories = in.readInt();
+      Map<String, Listing> listings = new ConcurrentHashMap<>(directories);
+      for (int i = 0; i < directories; i++) {
+        String directory = in.readUTF();
+        long lastModifiedNanos = in.readLong();
+        int childCount = in.readInt();
+        List<Child> children = new ArrayList<>(childCount);
+        for (int j = 0; j < childCount; j++) {
+          String name = in.readUTF();
+          boolean isDirectory = in.readBoolean();
+          long size = in.readLong();
+          long childLastModifiedNanos = in.readLong();
+          children.add(
+              new Child(
+                  name,
+                  isDirectory,
+                  size,
+                  FileTime.from(childLastModifiedNanos, TimeUnit.NANOSECONDS)));
+        }
+        listings.put(
+            directory,
+            new Listing(FileTime.from(lastModifiedNanos, TimeUnit.NANOSECONDS), children));
+      }
+
+      long expectedHash = hashingInputStream.hash().asLong();
+      if (in.readLong() != expectedHash) {
+        log.warn("Ignoring corrupt directory index: {}", file);
+        return empty(file);
+      }
+      return new DirectoryIndex(file, listings);
+    } catch (NoSuchFileException e) {
+      return empty(file);
+    } catch (IOException e) {
+      // truncated (e.g. app crash while saving, although saves are atomic) or otherwise unreadable
+      log.warn("Ignoring unreadable directory index: {}", file, e);
+      return empty(file);
+    }
+  }
+
+  /**
+   * Creates an empty index, e.g. to force a full rescan. Saving it replaces the index in the given
+   * file.
+   *
+   * @param file file the index is saved in
+   * @return the index
+   */
+  public static DirectoryIndex empty(Path file) {
+    return new DirectoryIndex(checkNotNull(file), Map.of());
+  }
+
+  /**
+   * Looks up the listing of a directory, recording it to be saved again if found.
+   *
+   * @param directory the directory
+   * @param lastModifiedTime current last modified time of the directory
+   * @return the directory's children, or empty if not indexed or the directory has changed since
+   */
+  public Optional<List<Child>> lookup(Path directory, FileTime lastModifiedTime) {
+    String key = directory.toString();
+    Listing listing = previous.get(key);
+    if (listing == null || !listing.lastModifiedTime.equals(lastModifiedTime)) {
+      return Optional.empty();
+    }
+    current.put(key, listing);
+    return Optional.of(listing.children);
+  }
+
+  /**
+   * Records the listing of a directory.
+   *
+   * @param directory the directory
+   * @param lastModifiedTime last modified time of the directory, read before listing it
+   * @param children the directory's children
+   */
+  public void record(Path directory, FileTime lastModifiedTime, List<Child> children) {
+    if (lastModifiedTime.toMillis() >= racyAfterMillis) {
+      return;
+    }
+    current.put(directory.toString(), new Listing(lastModifiedTime, List.copyOf(children)));
+  }
+
+  /**
+   * Saves the listings looked up or recorded since loading, replacing the file atomically.
+   *
+   * @throws IOException if an I/O error occurs
+   */
+  public void save() throws IOException {
+    Path tempFile = file.resolveSibling(file.getFileName() + ".part");
+    try (FileChannel channel =
+            FileChannel.open(
+                tempFile,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        OutputStream outputStream = Channels.newOutputStream(channel);
+        HashingOutputStream hashingOutputStream =
+            new HashingOutputStream(HASH_FUNCTION, new BufferedOutputStream(outputStream));
+        DataOutputStream out = new DataOutputStream(hashingOutputStream)) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(current.size());
+      for (Map.Entry<String, Listing> entry : current.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeLong(entry.getValue().lastModifiedTime.to(TimeUnit.NANOSECONDS));
+        out.writeInt(entry.getValue().children.size());
+        for (Child child : entry.getValue().children) {
+          out.writeUTF(child.name);
+          out.writeBoolean(child.directory);
+          out.writeLong(child.size);
+          out.writeLong(child.lastModifiedTime.to(TimeUnit.NANOSECONDS));
+        }
+      }
+      out.flush();
+      out.writeLong(hashingOutputStream.hash().asLong());
+      out.flush();
+      // on disk before replacing the previous index, so a crash leaves one or the other intact
+      channel.force(true);
+    }
+    Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    log.debug("Saved {} directory listing(s) to: {}", current.size(), file);
+  }
+
+  /**
+   * Entry of a directory listing.
+   *
+   * @param name file name
+   * @param directory whether it's a directory (otherwise a regular file)
+   * @param size size of the file
+   * @param lastModifiedTime last modified time of the file
+   */
+  public record Child(String name, boolean directory, long size, FileTime lastModifiedTime) {
+    public Child {
+      checkNotNull(name);
+      checkNotNull(lastModifiedTime);
+    }
+  }
+
+  private record Listing(FileTime lastModifiedTime, List<Child> children) {}
+}
@@ -1,10 +1,16 @@
 package com.willmolloy.handbrake.cfr.util;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * File utility methods. (Extension to {@link Files}.)
@@ -13,52 +19,125 @@ import java.nio.file.Path;
  */
 public final class Files2 {
 
+  private static final Logger log = LogManager.getLogger();
+
+  static final double TOLERANCE = 0.01;
+
+  // sampling is only worthwhile if the sample is a small fraction of the file
+  static final int SAMPLE_BLOCKS = 64;
+  static final int SAMPLE_BLOCK_SIZE = 1 << 16; // 64 KiB
+  static final long SAMPLED_BYTES = (long) SAMPLE_BLOCKS * SAMPLE_BLOCK_SIZE;
+  static final long MIN_SAMPLED_SIZE = 16 * SAMPLED_BYTES;
+  // different encodes mismatch almost everywhere, while a similar file's mismatches can't cover
+  // most of the randomly placed blocks sampled
+  static final double SAMPLE_REJECT_RATE = 0.5;
+
+  /**
+   * Tests if two files have similar contents, comparing regions of the files concurrently across
+   * all available processors.
+   *
+   * @param path1 first file
+   * @param path2 second file
+   * @return {@code true} if the files contents are similar
+   * @see #contentsSimilar(Path, Path, int)
+   */
+  public static boolean contentsSimilar(Path path1, Path path2) {
+    return contentsSimilar(path1, path2, Runtime.getRuntime().availableProcessors());
+  }
+
   /**
    * Tests if two files have similar contents.
    *
    * <p>Specifically if <1% of bytes mismatch.
    *
+   * <p>Verified in stages, each of which can reject early:
+   *
+   * <ol>
+   *   <li>size check: the sizes differ by more than 1% (every extra byte of the larger file counts
+   *       as a mismatch, even a 0)
+   *   <li>sample check: the bytes of a sample of blocks alone mismatch more than 1% of the whole
+   *       files, or more than half of them mismatch
+   *   <li>full scan: the whole files are compared
+   * </ol>
+   *
    * @param path1 first file
    * @param path2 second file
+   * @param parallelism number of regions of the files to compare concurrently
    * @return {@code true} if the files contents are similar
    * @see Files#mismatch
    */
   // HandBrake is not deterministic (encoding doesn't always produce the exact same output) so need
   // a method to test file contents are similar when comparing encoded files.
-  public static boolean contentsSimilar(Path path1, Path path2) {
+  public static boolean contentsSimilar(Path path1, Path path2, int parallelism) {
+    return contentsSimilar(path1, path2, parallelism, Optional.empty());
+  }
+
+  /**
+   * Tests if two files have similar contents, as {@link #contentsSimilar(Path, Path, int)}, except
+   * the blocks the filter matches.
+   *
+   * <p>With a filter, the sample check is skipped (it'd read blocks of the second file the filter
+   * may match), and the filter sees every block of the first file unless rejected early.
+   *
+   * @param path1 first file
+   * @param path2 second file
+   * @param parallelism number of regions of the files to compare concurrently
+   * @param filter sees each block of the first file, or empty to compare every block
+   * @return {@code true} if the files contents are similar
+   */
+  static boolean contentsSimilar(
+      Path path1, Path path2, int parallelism, Optional<MismatchCounter.BlockFilter> filter) {
     try {
-      if (Files.isSameFile(path1, path2)) {
+      if (filter.isEmpty() && Files.isSameFile(path1, path2)) {
         return true;
       }
 
-      double tolerance = 0.01;
+      long size1 = Files.size(path1);
+      long size2 = Files.size(path2);
       // take size of the largest file, effectively pads the smaller file with 0s
-      long size = Math.max(Files.size(path1), Files.size(path2));
-      long allowedMismatchBytes = (long) (tolerance * size);
-      long mismatchCount = 0;
-
-      // adapted from Files.mismatch
-      int bufferSize = 8192;
-      byte[] buffer1 = new byte[bufferSize];
-      byte[] buffer2 = new byte[bufferSize];
-
-      try (InputStream in1 = Files.newInputStream(path1);
-          InputStream in2 = Files.newInputStream(path2)) {
-
-        for (long totalRead = 0; totalRead < size; totalRead += bufferSize) {
-          in1.readNBytes(buffer1, 0, bufferSize);
-          in2.readNBytes(buffer2, 0, bufferSize);
-
-          for (int i = 0; i < bufferSize; i++) {
-            if (buffer1[i] != buffer2[i]) {
-              mismatchCount++;
-              if (mismatchCount > allowedMismatchBytes) {
-                return false;
-              }
-            }
+      long size = Math.max(size1, size2);
+      long allowedMismatchBytes = (long) (TOLERANCE * size);
+
+      // assumes the extra bytes of the larger file mismatch the 0 padding, without reading them
+      // (they're video data, so almost certainly won't be 0s). So stricter than the full scan,
+      // which counts trailing 0s as matching.
+      if (Math.abs(size1 - size2) > allowedMismatchBytes) {
+        log.info("Contents differ (size check): {} bytes vs {} bytes", size1, size2);
+        return false;
+      }
+
+      try (FileChannel channel1 = FileChannel.open(path1, StandardOpenOption.READ);
+          FileChannel channel2 = FileChannel.open(path2, StandardOpenOption.READ)) {
+        if (filter.isEmpty() && size >= MIN_SAMPLED_SIZE) {
+          long sampleMismatchBytes =
+              MismatchCounter.countSample(
+                  channel1, channel2, size, SAMPLE_BLOCKS, SAMPLE_BLOCK_SIZE);
+          // the sample's mismatches are a lower bound on the whole files', so rejecting on them
+          // alone is always right, but they can't exceed the allowance of files over 100 times
+          // the sample's size. Those are rejected on an overwhelming mismatch rate instead (a
+          // mildly higher rate may just be a similar file's mismatches clustering in the sample).
+          if (sampleMismatchBytes > allowedMismatchBytes
+              || sampleMismatchBytes > SAMPLE_REJECT_RATE * SAMPLED_BYTES) {
+            log.info(
+                "Contents differ (sample check): {}/{} sampled bytes mismatch",
+                sampleMismatchBytes,
+                SAMPLED_BYTES);
+            return false;
           }
         }
 
+        long mismatchBytes =
+            filter.isPresent()
+                ? MismatchCounter.count(
+                    channel1, channel2, size, allowedMismatchBytes, parallelism, filter.get())
+                : MismatchCounter.count(
+                    channel1, channel2, size, allowedMismatchBytes, parallelism);
+        if (mismatchBytes > allowedMismatchBytes) {
+          log.info(
+              "Contents differ (full scan): >{}/{} bytes mismatch", allowedMismatchBytes, size);
+          return false;
+        }
+        log.info("Contents similar (full scan): {}/{} bytes mismatch", mismatchBytes, size);
         return true;
       }
     } catch (IOException e) {
@@ -66,5 +145,52 @@ public final class Files2 {
     }
   }
 
+  /**
+   * Copies a file with {@link FileChannel#transferTo}, which can avoid copying through user space
+   * (e.g. {@code copy_file_range}/{@code sendfile} on Linux).
+   *
+   * <p>Intended for copying large files to another file system (e.g. a network drive), where {@link
+   * Files#move} would silently copy without any progress reporting. The copy is flushed to the
+   * storage device ({@code fsync}) before returning, so it's durable before the caller renames it
+   * or deletes the source.
+   *
+   * @param source file to copy
+   * @param target file to create, must not exist
+   * @param chunkSize maximum number of bytes to transfer per call
+   * @param progressIntervalPercent how often (percentage of bytes copied) to log progress
+   */
+  public static void copy(Path source, Path target, long chunkSize, int progressIntervalPercent)
+      throws IOException {
+    checkArgument(chunkSize > 0, "chunkSize (%s) must be positive", chunkSize);
+    checkArgument(
+        progressIntervalPercent > 0 && progressIntervalPercent <= 100,
+        "progressIntervalPercent (%s) must be between 1 and 100",
+        progressIntervalPercent);
+
+    try (FileChannel sourceChannel = FileChannel.open(source, StandardOpenOption.READ);
+        FileChannel targetChannel =
+            FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+      long size = sourceChannel.size();
+      long position = 0;
+      long nextProgressPercent = progressIntervalPercent;
+      while (position < size) {
+        long transferred =
+            sourceChannel.transferTo(position, Math.min(chunkSize, size - position), targetChannel);
+        if (transferred <= 0) {
+          // reached end of file early
+          throw new IOException("Source (%s) truncated while copying".formatted(source));
+        }
+        position += transferred;
+
+        long percent = position * 100 / size;
+        if (percent >= nextProgressPercent) {
+          log.info("Copied {}% ({}/{} bytes)", percent, position, size);
+          nextProgressPercent = (percent / progressIntervalPercent + 1) * progressIntervalPercent;
+        }
+      }
+      targetChannel.force(true);
+    }
+  }
+
   private Files2() {}
 }
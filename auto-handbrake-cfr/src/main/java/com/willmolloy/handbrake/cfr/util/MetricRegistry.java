@@ -0,0 +1,324 @@
+package com.willmolloy.handbrake.cfr.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Registry of counters, histograms and gauges.
+ *
+ * <p>Metrics are cheap to update from any thread (striped adders, no locking), so can be updated on
+ * hot paths (e.g. every HandBrake progress line). Rendered in the Prometheus text format, or as
+ * JSON.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+public final class MetricRegistry {
+
+  private static final Pattern NAME = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*");
+
+  private final String prefix;
+  // in the order registered
+  private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param prefix prefix of every metric name (e.g. the app name), may be empty
+   */
+  public MetricRegistry(String prefix) {
+    checkArgument(
+        prefix.isEmpty() || NAME.matcher(prefix).matches(), "prefix (%s) is invalid", prefix);
+    this.prefix = prefix.isEmpty() ? "" : prefix + "_";
+  }
+
+  /**
+   * Registers a counter.
+   *
+   * @param name name, unique within the registry
+   * @param help description
+   * @return the counter
+   */
+  public Counter counter(String name, String help) {
+    return register(new Counter(name(name), checkNotNull(help)));
+  }
+
+  /**
+   * Registers a histogram.
+   *
+   * @param name name, unique within the registry
+   * @param help description
+   * @param bounds upper bounds of the buckets, increasing (an unbounded bucket is added)
+   * @return the histogram
+   */
+  public Histogram histogram(String name, String help, double... bounds) {
+    checkArgument(bounds.length > 0, "bounds must not be empty");
+    for (int i = 1; i < bounds.length; i++) {
+      checkArgument(
+          bounds[i - 1] < bounds[i], "bounds (%s) must increase", Arrays.toString(bounds));
+    }
+    return register(new Histogram(name(name), checkNotNull(help), bounds.clone()));
+  }
+
+  /**
+   * Registers a gauge.
+   *
+   * @param name name, unique within the registry
+   * @param help description
+   * @param value reads the current value, called whenever the registry is rendered
+   */
+  public void gauge(String name, String help, DoubleSupplier value) {
+    register(new Gauge(name(name), checkNotNull(help), checkNotNull(value)));
+  }
+
+  /** Renders every metric in the Prometheus text format (version 0.0.4). */
+  public String prometheus() {
+    StringBuilder builder = new StringBuilder();
+    for (Metric metric : snapshot()) {
+      builder.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+      builder.append("# TYPE ").append(metric.name).append(' ').append(metric.type()).append('\n');
+      switch (metric) {
+        case Counter counter -> line(builder, counter.name, counter.value());
+        case Gauge gauge -> line(builder, gauge.name, prometheus(gauge.value.getAsDouble()));
+        case Histogram histogram -> {
+          long[] counts = histogram.cumulativeCounts();
+          for (int i = 0; i < histogram.bounds.length; i++) {
+            line(
+                builder,
+                histogram.name + "_bucket{le=\"" + prometheus(histogram.bounds[i]) + "\"}",
+                counts[i]);
+          }
+          long count = counts[counts.length - 1];
+          line(builder, histogram.name + "_bucket{le=\"+Inf\"}", count);
+          line(builder, histogram.name + "_sum", prometheus(histogram.sum()));
+          line(builder, histogram.name + "_count", count);
+        }
+      }
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Renders every metric as a JSON object, keyed by name.
+   *
+   * <p>Counters and gauges are numbers, histograms are objects with their count, sum, mean, min,
+   * max and cumulative bucket counts. Values that aren't finite are {@code null}.
+   */
+  public String json() {
+    StringBuilder builder = new StringBuilder("{");
+    String separator = "";
+    for (Metric metric : snapshot()) {
+      builder.append(separator).append('"').append(metric.name).append("\":");
+      separator = ",";
+      switch (metric) {
+        case Counter counter -> builder.append(counter.value());
+        case Gauge gauge -> builder.append(json(gauge.value.getAsDouble()));
+        case Histogram histogram -> {
+          long[] counts = histogram.cumulativeCounts();
+          long count = counts[counts.length - 1];
+          double sum = histogram.sum();
+          builder
+              .append("{\"count\":")
+              .append(count)
+              .append(",\"sum\":")
+              .append(json(sum))
+              .append(",\"mean\":")
+              .append(json(count == 0 ? Double.NaN : sum / count))
+              .append(",\"min\":")
+              .append(json(histogram.min()))
+              .append(",\"max\":")
+              .append(json(histogram.max()))
+              .append(",\"buckets\":{");
+          for (int i = 0; i < histogram.bounds.length; i++) {
+            builder.append('"').append(prometheus(histogram.bounds[i])).append("\":");
+            builder.append(counts[i]).append(',');
+          }
+          builder.append("\"+Inf\":").append(count).append("}}");
+        }
+      }
+    }
+    return builder.append('}').toString();
+  }
+
+  private String name(String name) {
+    checkArgument(NAME.matcher(name).matches(), "name (%s) is invalid", name);
+    return prefix + name;
+  }
+
+  private synchronized <T extends Metric> T register(T metric) {
+    checkArgument(
+        metrics.putIfAbsent(metric.name, metric) == null,
+        "metric (%s) already registered",
+        metric.name);
+    return metric;
+  }
+
+  private synchronized List<Metric> snapshot() {
+    return new ArrayList<>(metrics.values());
+  }
+
+  private static void line(StringBuilder builder, String name, Object value) {
+    builder.append(name).append(' ').append(value).append('\n');
+  }
+
+  private static String prometheus(double value) {
+    if (Double.isNaN(value)) {
+      return "NaN";
+    }
+    if (Double.isInfinite(value)) {
+      return value > 0 ? "+Inf" : "-Inf";
+    }
+    return Double.toString(value);
+  }
+
+  private static String json(double value) {
+    return Double.isFinite(value) ? Double.toString(value) : "null";
+  }
+
+  /** A registered metric. */
+  private abstract static sealed class Metric permits Counter, Gauge, Histogram {
+    final String name;
+    final String help;
+
+    private Metric(String name, String help) {
+      this.name = name;
+      this.help = help;
+    }
+
+    abstract String type();
+  }
+
+  /** Count that only goes up, e.g. bytes encoded. */
+  public static final class Counter extends Metric {
+    private final LongAdder value = new LongAdder();
+
+    private Counter(String name, String help) {
+      super(name, help);
+    }
+
+    /** Adds 1. */
+    public void increment() {
+      value.increment();
+    }
+
+    /**
+     * Adds the given amount.
+     *
+     * @param amount amount to add, not negative
+     */
+    public void add(long amount) {
+      checkArgument(amount >= 0, "amount (%s) must not be negative", amount);
+      value.add(amount);
+    }
+
+    /** Current value. */
+    public long value() {
+      return value.sum();
+    }
+
+    @Override
+    String type() {
+      return "counter";
+    }
+  }
+
+  /** Distribution of observed values, e.g. encode durations. */
+  public static final class Histogram extends Metric {
+    private final double[] bounds;
+    // per bucket (not cumulative), the last is unbounded
+    private final LongAdder[] counts;
+    private final DoubleAdder sum = new DoubleAdder();
+    private final DoubleAccumulator min =
+        new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+    private final DoubleAccumulator max =
+        new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+
+    private Histogram(String name, String help, double[] bounds) {
+      super(name, help);
+      this.bounds = bounds;
+      this.counts = new LongAdder[bounds.length + 1];
+      Arrays.setAll(counts, i -> new LongAdder());
+    }
+
+    /**
+     * Observes a value. Values that aren't finite are ignored.
+     *
+     * @param value the value
+     */
+    public void observe(double value) {
+      if (!Double.isFinite(value)) {
+        return;
+      }
+      int bucket = Arrays.binarySearch(bounds, value);
+      // bounds are inclusive, otherwise the insertion point is the first greater bound
+      counts[bucket >= 0 ? bucket : -bucket - 1].increment();
+      sum.add(value);
+      min.accumulate(value);
+      max.accumulate(value);
+    }
+
+    /** Number of values observed. */
+    public long count() {
+      long count = 0;
+      for (LongAdder bucket : counts) {
+        count += bucket.sum();
+      }
+      return count;
+    }
+
+    /** Sum of the values observed. */
+    public double sum() {
+      return sum.sum();
+    }
+
+    /** Smallest value observed, or NaN if none. */
+    public double min() {
+      return count() == 0 ? Double.NaN : min.get();
+    }
+
+    /** Largest value observed, or NaN if none. */
+    public double max() {
+      return count() == 0 ? Double.NaN : max.get();
+    }
+
+    private long[] cumulativeCounts() {
+      long[] cumulative = new long[counts.length];
+      long count = 0;
+      for (int i = 0; i < counts.length; i++) {
+        count += counts[i].sum();
+        cumulative[i] = count;
+      }
+      return cumulative;
+    }
+
+    @Override
+    String type() {
+      return "histogram";
+    }
+  }
+
+  /** Value read when rendered, e.g. queue depth. */
+  private static final class Gauge extends Metric {
+    private final DoubleSupplier value;
+
+    private Gauge(String name, String help, DoubleSupplier value) {
+      super(name, help);
+      this.value = value;
+    }
+
+    @Override
+    String type() {
+      return "gauge";
+    }
+  }
+}
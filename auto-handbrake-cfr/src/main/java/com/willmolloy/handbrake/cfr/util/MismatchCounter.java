@@ -0,0 +1,351 @@
+package com.willmolloy.handbrake.cfr.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts mismatching bytes between two files.
+ *
+ * <p>Files are split into fixed size regions, which may be counted concurrently. Regions are
+ * memory-mapped and compared a word (8 bytes) at a time. Falls back to positional reads into heap
+ * buffers if the file system doesn't support mapping (e.g. an in-memory file system).
+ *
+ * <p>The shorter file is treated as if padded with 0s.
+ *
+ * <p>Optionally, a {@link BlockFilter} sees each block of the first file before it's compared, and
+ * can skip reading the second file's block (e.g. if known to match).
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+final class MismatchCounter {
+
+  // files are split into fixed size regions, which are mapped/read and counted independently
+  private static final long REGION_SIZE = 1L << 26; // 64 MiB
+  private static final int READ_BUFFER_SIZE = 1 << 20; // 1 MiB
+
+  // how many bytes to compare before checking if the limit is exceeded, a multiple of Long.BYTES
+  private static final int LIMIT_CHECK_INTERVAL = 1 << 16;
+
+  private static final long LOW_7_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+  /**
+   * Counts mismatching bytes in the first {@code size} bytes of the given files.
+   *
+   * @param channel1 first file
+   * @param channel2 second file
+   * @param size number of bytes to compare
+   * @param limit count at which to stop counting early
+   * @param parallelism number of regions to count concurrently
+   * @return number of mismatching bytes, may be greater than {@code limit} if stopped early
+   */
+  static long count(
+      FileChannel channel1, FileChannel channel2, long size, long limit, int parallelism)
+      throws IOException {
+    return count(channel1, channel2, size, limit, parallelism, REGION_SIZE, Optional.empty());
+  }
+
+  /**
+   * Counts mismatching bytes in the first {@code size} bytes of the given files, except in the
+   * blocks the filter matches.
+   *
+   * @param channel1 first file
+   * @param channel2 second file
+   * @param size number of bytes to compare
+   * @param limit count at which to stop counting early
+   * @param parallelism number of regions to count concurrently
+   * @param filter sees each block of the first file, in any order, until stopped early
+   * @return number of mismatching bytes, may be greater than {@code limit} if stopped early
+   */
+  static long count(
+      FileChannel channel1,
+      FileChannel channel2,
+      long size,
+      long limit,
+      int parallelism,
+      BlockFilter filter)
+      throws IOException {
+    return count(channel1, channel2, size, limit, parallelism, REGION_SIZE, Optional.of(filter));
+  }
+
+  @VisibleForTesting
+  static long count(
+      FileChannel channel1,
+      FileChannel channel2,
+      long size,
+      long limit,
+      int parallelism,
+      long regionSize,
+      Optional<BlockFilter> filter)
+      throws IOException {
+    checkArgument(parallelism > 0, "parallelism (%s) must be positive", parallelism);
+    filter.ifPresent(
+        f ->
+            checkArgument(
+                f.blockSize() > 0 && regionSize % f.blockSize() == 0,
+                "regionSize (%s) must be a multiple of blockSize (%s)",
+                regionSize,
+                f.blockSize()));
+
+    long size1 = channel1.size();
+    long size2 = channel2.size();
+    // shared by all regions, so every worker stops once the limit is exceeded
+    AtomicLong count = new AtomicLong();
+
+    if (parallelism == 1) {
+      for (long from = 0; from < size && count.get() <= limit; from += regionSize) {
+        long to = Math.min(size, from + regionSize);
+        countRegion(channel1, size1, channel2, size2, from, to, count, limit, filter);
+      }
+      return count.get();
+    }
+
+    try (ExecutorService executor = Executors.newFixedThreadPool(parallelism)) {
+      List<Future<?>> regions = new ArrayList<>();
+      for (long from = 0; from < size; from += regionSize) {
+        long regionFrom = from;
+        long regionTo = Math.min(size, from + regionSize);
+        regions.add(
+            executor.submit(
+                () -> {
+                  if (count.get() <= limit) {
+                    countRegion(
+                        channel1,
+                        size1,
+                        channel2,
+                        size2,
+                        regionFrom,
+                        regionTo,
+                        count,
+                        limit,
+                        filter);
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> region : regions) {
+        region.get();
+      }
+      return count.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted counting mismatches");
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Counts mismatching bytes in a sample of blocks from the given files.
+   *
+   * <p>The files are divided into {@code blocks} equal strides and one block is sampled from a
+   * random offset within each stride.
+   *
+   * @param channel1 first file
+   * @param channel2 second file
+   * @param size number of bytes to sample from, at least {@code blocks * blockSize}
+   * @param blocks number of blocks to sample
+   * @param blockSize size of each sampled block
+   * @return number of mismatching bytes in the sampled blocks
+   */
+  static long countSample(
+      FileChannel channel1, FileChannel channel2, long size, int blocks, int blockSize)
+      throws IOException {
+    checkArgument(
+        size >= (long) blocks * blockSize,
+        "size (%s) must be at least blocks (%s) * blockSize (%s)",
+        size,
+        blocks,
+        blockSize);
+
+    long size1 = channel1.size();
+    long size2 = channel2.size();
+    AtomicLong count = new AtomicLong();
+    for (long from : sampleOffsets(size, blocks, blockSize)) {
+      countRegion(
+          channel1,
+          size1,
+          channel2,
+          size2,
+          from,
+          from + blockSize,
+          count,
+          Long.MAX_VALUE,
+          Optional.empty());
+    }
+    return count.get();
+  }
+
+  // offset of each block sampled by countSample
+  static long[] sampleOffsets(long size, int blocks, int blockSize) {
+    long[] offsets = new long[blocks];
+    long stride = size / blocks;
+    // seeded so the same files are always sampled the same way
+    SplittableRandom random = new SplittableRandom(size);
+    for (int i = 0; i < blocks; i++) {
+      offsets[i] = i * stride + random.nextLong(stride - blockSize + 1);
+    }
+    return offsets;
+  }
+
+  private static void countRegion(
+      FileChannel channel1,
+      long size1,
+      FileChannel channel2,
+      long size2,
+      long from,
+      long to,
+      AtomicLong count,
+      long limit,
+      Optional<BlockFilter> filter)
+      throws IOException {
+    try {
+      ByteBuffer region1 = map(channel1, size1, from, to);
+      // mapping doesn't read, so the blocks the filter matches aren't read from the second file
+      ByteBuffer region2 = map(channel2, size2, from, to);
+      if (filter.isEmpty()) {
+        count(region1, region2, count, limit);
+        return;
+      }
+      int blockSize = filter.get().blockSize();
+      for (long block = from; block < to && count.get() <= limit; block += blockSize) {
+        int offset = (int) (block - from);
+        int length = (int) Math.min(blockSize, to - block);
+        ByteBuffer block1 = slice(region1, offset, length);
+        if (!filter.get().matches((int) (block / blockSize), block1.asReadOnlyBuffer())) {
+          count(block1, slice(region2, offset, length), count, limit);
+        }
+      }
+    } catch (UnsupportedOperationException e) {
+      // file system doesn't support mapping, read the region a buffer (or block) at a time instead
+      int bufferSize = filter.map(BlockFilter::blockSize).orElse(READ_BUFFER_SIZE);
+      ByteBuffer buffer1 = ByteBuffer.allocate(bufferSize);
+      ByteBuffer buffer2 = ByteBuffer.allocate(bufferSize);
+      for (long position = from; position < to && count.get() <= limit; position += bufferSize) {
+        int length = (int) Math.min(bufferSize, to - position);
+        read(channel1, buffer1, position, length);
+        if (filter.isPresent()
+            && filter.get().matches((int) (position / bufferSize), buffer1.asReadOnlyBuffer())) {
+          continue;
+        }
+        read(channel2, buffer2, position, length);
+        count(buffer1, buffer2, count, limit);
+      }
+    }
+  }
+
+  // up to length bytes from the offset, fewer (or none) past the end of the (shorter) file
+  private static ByteBuffer slice(ByteBuffer region, int offset, int length) {
+    int from = Math.min(offset, region.limit());
+    return region.slice(from, Math.min(length, region.limit() - from)).order(region.order());
+  }
+
+  private static ByteBuffer map(FileChannel channel, long channelSize, long from, long to)
+      throws IOException {
+    long length = Math.min(to, channelSize) - from;
+    if (length <= 0) {
+      return ByteBuffer.allocate(0);
+    }
+    return channel.map(FileChannel.MapMode.READ_ONLY, from, length).order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * Reads up to {@code length} bytes from the given position into the buffer, then flips it (so its
+   * limit is the number of bytes read).
+   */
+  static void read(FileChannel channel, ByteBuffer buffer, long position, int length)
+      throws IOException {
+    buffer.clear().limit(length);
+    // positional read, doesn't modify the channel position so is safe to call concurrently
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        break;
+      }
+    }
+    buffer.flip();
+  }
+
+  /**
+   * Counts mismatching bytes between two buffers, from index 0 up to their limits, adding them to
+   * {@code count}.
+   */
+  static void count(ByteBuffer buffer1, ByteBuffer buffer2, AtomicLong count, long limit) {
+    int common = Math.min(buffer1.limit(), buffer2.limit());
+
+    boolean withinLimit = count.get() <= limit;
+    for (int from = 0; from < common && withinLimit; from += LIMIT_CHECK_INTERVAL) {
+      int to = Math.min(common, from + LIMIT_CHECK_INTERVAL);
+      int intervalCount = 0;
+      int i = from;
+      for (; i + Long.BYTES <= to; i += Long.BYTES) {
+        intervalCount += nonZeroBytes(buffer1.getLong(i) ^ buffer2.getLong(i));
+      }
+      for (; i < to; i++) {
+        if (buffer1.get(i) != buffer2.get(i)) {
+          intervalCount++;
+        }
+      }
+      withinLimit = count.addAndGet(intervalCount) <= limit;
+    }
+
+    // compare the remainder of the longer buffer against 0s
+    ByteBuffer longer = buffer1.limit() > common ? buffer1 : buffer2;
+    for (int from = common; from < longer.limit() && withinLimit; from += LIMIT_CHECK_INTERVAL) {
+      int to = Math.min(longer.limit(), from + LIMIT_CHECK_INTERVAL);
+      int intervalCount = 0;
+      int i = from;
+      for (; i + Long.BYTES <= to; i += Long.BYTES) {
+        intervalCount += nonZeroBytes(longer.getLong(i));
+      }
+      for (; i < to; i++) {
+        if (longer.get(i) != 0) {
+          intervalCount++;
+        }
+      }
+      withinLimit = count.addAndGet(intervalCount) <= limit;
+    }
+  }
+
+  /** Sees each block of the first file before it's compared. */
+  interface BlockFilter {
+
+    /** Size of the blocks, regions are split into. */
+    int blockSize();
+
+    /**
+     * Sees a block of the first file, e.g. to fingerprint it.
+     *
+     * @param block index of the block
+     * @param data the block's bytes (fewer than the block size at the end of the file)
+     * @return {@code true} if the block is known to match the second file's, so isn't compared
+     */
+    boolean matches(int block, ByteBuffer data);
+  }
+
+  /** Counts the non-zero bytes of a word (SWAR, branch-free). */
+  private static int nonZeroBytes(long word) {
+    // per byte: the high bit is set iff any of the low 7 bits are set (can't carry into the next
+    // byte), then OR in the original high bit
+    long nonZeroHighBits = (((word & LOW_7_BITS) + LOW_7_BITS) | word) & ~LOW_7_BITS;
+    return Long.bitCount(nonZeroHighBits);
+  }
+
+  private MismatchCounter() {}
+}
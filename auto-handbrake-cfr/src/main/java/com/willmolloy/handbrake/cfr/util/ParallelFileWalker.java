@@ -0,0 +1,321 @@
+package com.willmolloy.handbrake.cfr.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Walks the regular files in a file tree, listing subdirectories concurrently.
+ *
+ * <p>Listing a directory on a network drive is bound by round-trip latency rather than bandwidth,
+ * so listing many directories at once is much faster than walking the tree one directory at a time.
+ *
+ * <p>Files are returned in the same order as {@link Files#walkFileTree}, regardless of the order
+ * directories finish listing.
+ *
+ * <p>Directories are only listed a bounded distance ahead of the files returned, so a slow consumer
+ * (e.g. a full job queue) holds up listing, rather than the whole tree being listed into memory.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+public final class ParallelFileWalker {
+
+  // directories listed (or listing) ahead of the files returned, per directory listed at one time.
+  // Enough to keep listing while the files of the directories listed are returned.
+  static final int LOOKAHEAD_PER_THREAD = 4;
+
+  private final Semaphore permits;
+  private final int lookahead;
+
+  /**
+   * Constructor.
+   *
+   * @param parallelism maximum number of directories listed at one time
+   */
+  public ParallelFileWalker(int parallelism) {
+    checkArgument(parallelism > 0, "parallelism (%s) must be positive", parallelism);
+    this.permits = new Semaphore(parallelism);
+    this.lookahead = LOOKAHEAD_PER_THREAD * parallelism;
+  }
+
+  /**
+   * Walks the regular files under the given directory (recursively).
+   *
+   * <p>Symbolic links to files are included (with the attributes of the linked file), symbolic
+   * links to directories are not followed.
+   *
+   * <p>Files are passed to the consumer (on the calling thread) as soon as the directories before
+   * them have been listed, so they can be processed while the rest of the tree is listed.
+   *
+   * @param root directory to walk
+   * @param consumer receives the regular files, in the order {@link Files#walkFileTree} visits them
+   * @throws IOException if an I/O error occurs listing a directory
+   */
+  public void walk(Path root, Consumer<RegularFile> consumer) throws IOException {
+    walk(root, Optional.empty(), consumer);
+  }
+
+  /**
+   * Walks the regular files under the given directory (recursively), using the index for
+   * directories unchanged since they were indexed, and recording the other directories in it.
+   *
+   * <p>Attributes of files from the index are as of when the directory was indexed.
+   *
+   * @param root directory to walk
+   * @param index index of directory listings
+   * @param consumer receives the regular files, in the order {@link Files#walkFileTree} visits them
+   * @throws IOException if an I/O error occurs listing a directory
+   */
+  public void walk(Path root, DirectoryIndex index, Consumer<RegularFile> consumer)
+      throws IOException {
+    walk(root, Optional.of(index), consumer);
+  }
+
+  private void walk(Path root, Optional<DirectoryIndex> index, Consumer<RegularFile> consumer)
+      throws IOException {
+    checkNotNull(consumer);
+    BasicFileAttributes rootAttributes =
+        Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      new Walk(index, executor, consumer).flatten(new Subdirectory(root, rootAttributes));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted walking: %s".formatted(root), e);
+    }
+  }
+
+  private List<Entry> list(
+      Path directory, BasicFileAttributes directoryAttributes, Optional<DirectoryIndex> index)
+      throws IOException, InterruptedException {
+    permits.acquire();
+    try {
+      if (directoryAttributes.isDirectory()) {
+        Optional<List<DirectoryIndex.Child>> indexed =
+            index.flatMap(i -> i.lookup(directory, directoryAttributes.lastModifiedTime()));
+        if (indexed.isPresent()) {
+          return fromIndex(directory, indexed.get());
+        }
+      }
+
+      List<Entry> entries = new ArrayList<>();
+      List<DirectoryIndex.Child> children = new ArrayList<>();
+      // walk to depth 1 (rather than a DirectoryStream) to get each entry's attributes with the
+      // listing where the file system supports it, rather than reading them separately
+      Files.walkFileTree(
+          directory,
+          Set.of(),
+          1,
+          new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+                throws IOException {
+              BasicFileAttributes childAttributes = attributes;
+              if (attributes.isDirectory()) {
+                entries.add(new Subdirectory(file, attributes));
+              } else if (attributes.isRegularFile()) {
+                entries.add(new RegularFile(file, attributes));
+              } else if (attributes.isSymbolicLink() && Files.isRegularFile(file)) {
+                // attributes are of the link, rather than the linked file
+                childAttributes = Files.readAttributes(file, BasicFileAttributes.class);
+                entries.add(new RegularFile(file, childAttributes));
+              } else {
+                return FileVisitResult.CONTINUE;
+              }
+              children.add(
+                  new DirectoryIndex.Child(
+                      file.getFileName().toString(),
+                      childAttributes.isDirectory(),
+                      childAttributes.size(),
+                      childAttributes.lastModifiedTime()));
+              return FileVisitResult.CONTINUE;
+            }
+          });
+
+      if (directoryAttributes.isDirectory()) {
+        index.ifPresent(i -> i.record(directory, directoryAttributes.lastModifiedTime(), children));
+      }
+      return entries;
+    } finally {
+      permits.release();
+    }
+  }
+
+  private static List<Entry> fromIndex(Path directory, List<DirectoryIndex.Child> children)
+      throws IOException {
+    List<Entry> entries = new ArrayList<>(children.size());
+    for (DirectoryIndex.Child child : children) {
+      Path path = directory.resolve(child.name());
+      if (child.directory()) {
+        // a subdirectory's entries may have changed, so it's still checked
+        BasicFileAttributes attributes;
+        try {
+          attributes =
+              Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+          // removed since the directory's last modified time was read
+          continue;
+        }
+        entries.add(new Subdirectory(path, attributes));
+      } else {
+        entries.add(
+            new RegularFile(path, new IndexedAttributes(child.size(), child.lastModifiedTime())));
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * A single walk. Directories are listed by their own task, the tree of listings is flattened on
+   * the calling thread, so tasks never wait on each other. Listings are only started from here, up
+   * to the lookahead.
+   */
+  private final class Walk {
+    private final Optional<DirectoryIndex> index;
+    private final ExecutorService executor;
+    private final Consumer<RegularFile> consumer;
+    // subdirectories found, in the order they're flattened (as far as known), some may be listing
+    private final Deque<Subdirectory> pending = new ArrayDeque<>();
+    // listings started and not yet flattened
+    private int started;
+
+    private Walk(
+        Optional<DirectoryIndex> index, ExecutorService executor, Consumer<RegularFile> consumer) {
+      this.index = index;
+      this.executor = executor;
+      this.consumer = consumer;
+    }
+
+    private void flatten(Subdirectory subdirectory) throws IOException, InterruptedException {
+      // started here if flattened before its turn came to list ahead
+      start(subdirectory);
+      List<Entry> entries;
+      try {
+        entries = subdirectory.listing.get();
+      } catch (ExecutionException e) {
+        switch (e.getCause()) {
+          case IOException cause -> throw cause;
+          case UncheckedIOException cause -> throw cause.getCause();
+          case InterruptedException cause -> throw cause;
+          case RuntimeException cause -> throw cause;
+          case Error cause -> throw cause;
+          default -> throw new IllegalStateException(e.getCause());
+        }
+      }
+      started--;
+
+      // flattened before the remaining subdirectories of its parents
+      for (Entry entry : entries.reversed()) {
+        if (entry instanceof Subdirectory child) {
+          pending.addFirst(child);
+        }
+      }
+      listAhead();
+
+      for (Entry entry : entries) {
+        switch (entry) {
+          case RegularFile file -> consumer.accept(file);
+          case Subdirectory child -> flatten(child);
+        }
+      }
+    }
+
+    private void listAhead() {
+      while (started < lookahead && !pending.isEmpty()) {
+        start(pending.removeFirst());
+      }
+    }
+
+    private void start(Subdirectory subdirectory) {
+      if (subdirectory.listing == null) {
+        subdirectory.listing =
+            executor.submit(() -> list(subdirectory.path, subdirectory.attributes, index));
+        started++;
+      }
+    }
+  }
+
+  /** Entry of a directory listing. */
+  private sealed interface Entry permits RegularFile, Subdirectory {}
+
+  /**
+   * A regular file found while walking.
+   *
+   * @param path path of the file
+   * @param attributes attributes of the file, read while walking
+   */
+  public record RegularFile(Path path, BasicFileAttributes attributes) implements Entry {}
+
+  /** A subdirectory found while walking, listed once the walk gets near it. */
+  private static final class Subdirectory implements Entry {
+    private final Path path;
+    private final BasicFileAttributes attributes;
+    // only accessed by the walk's thread
+    private Future<List<Entry>> listing;
+
+    private Subdirectory(Path path, BasicFileAttributes attributes) {
+      this.path = path;
+      this.attributes = attributes;
+    }
+  }
+
+  /** Attributes of a regular file, from the index. */
+  private record IndexedAttributes(long size, FileTime lastModifiedTime)
+      implements BasicFileAttributes {
+    @Override
+    public FileTime lastAccessTime() {
+      return lastModifiedTime;
+    }
+
+    @Override
+    public FileTime creationTime() {
+      return lastModifiedTime;
+    }
+
+    @Override
+    public boolean isRegularFile() {
+      return true;
+    }
+
+    @Override
+    public boolean isDirectory() {
+      return false;
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+      return false;
+    }
+
+    @Override
+    public boolean isOther() {
+      return false;
+    }
+
+    @Override
+    public Object fileKey() {
+      return null;
+    }
+  }
+}
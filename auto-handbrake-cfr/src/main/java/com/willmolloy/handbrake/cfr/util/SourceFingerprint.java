@@ -0,0 +1,185 @@
+package com.willmolloy.handbrake.cfr.util;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+
+/**
+ * Fingerprint of a source file: its size, last modified time and a hash of its first and last 1 MiB
+ * blocks.
+ *
+ * <p>Saved to a small sidecar file next to an encoding, along with the encoding's size and last
+ * modified time, so the source it was encoded from can later be recognised without encoding it
+ * again (as long as the encoding is unchanged). Only the first and last blocks are hashed so a
+ * large source on a network drive isn't read in full, the size and last modified time catch the
+ * rest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+public final class SourceFingerprint {
+
+  private static final HashFunction HASH_FUNCTION = Hashing.farmHashFingerprint64();
+  private static final int MAGIC = 0x41485346;
+  private static final int VERSION = 2;
+
+  private final long size;
+  private final long lastModifiedMillis;
+  private final long hash;
+
+  private SourceFingerprint(long size, long lastModifiedMillis, long hash) {
+    this.size = size;
+    this.lastModifiedMillis = lastModifiedMillis;
+    this.hash = hash;
+  }
+
+  /**
+   * Computes the fingerprint of the given file.
+   *
+   * @param file file to fingerprint
+   * @return fingerprint
+   */
+  public static SourceFingerprint compute(Path file) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    return new SourceFingerprint(
+        attributes.size(), attributes.lastModifiedTime().toMillis(), hash(file));
+  }
+
+  /**
+   * Tests if this fingerprint was computed with the given file attributes, e.g. as read when the
+   * file was scanned.
+   *
+   * @param size size of the file
+   * @param lastModifiedTime last modified time of the file
+   * @return {@code true} if the attributes are the same
+   */
+  public boolean hasAttributes(long size, FileTime lastModifiedTime) {
+    return this.size == size && lastModifiedMillis == lastModifiedTime.toMillis();
+  }
+
+  /**
+   * Tests if the given file is unchanged since this fingerprint was computed.
+   *
+   * <p>The file's attributes are compared first, so its contents are only read if they're the same.
+   *
+   * @param file file to test
+   * @return {@code true} if the file matches this fingerprint
+   */
+  public boolean matches(Path file) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    return hasAttributes(attributes.size(), attributes.lastModifiedTime()) && hash(file) == hash;
+  }
+
+  /**
+   * Saves this fingerprint to a sidecar file, recording the current size and last modified time of
+   * the encoding.
+   *
+   * @param sidecar file to save to, replaced if it exists
+   * @param encoding file encoded from the source
+   */
+  public void save(Path sidecar, Path encoding) throws IOException {
+    BasicFileAttributes encodingAttributes =
+        Files.readAttributes(encoding, BasicFileAttributes.class);
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(sidecar)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(BlockFingerprints.BLOCK_SIZE);
+      out.writeLong(size);
+      out.writeLong(lastModifiedMillis);
+      out.writeLong(hash);
+      out.writeLong(encodingAttributes.size());
+      out.writeLong(encodingAttributes.lastModifiedTime().toMillis());
+      out.writeLong(
+          checksum(encodingAttributes.size(), encodingAttributes.lastModifiedTime().toMillis()));
+    }
+  }
+
+  /**
+   * Loads a fingerprint from a sidecar file.
+   *
+   * @param sidecar file to load from
+   * @param encoding file encoded from the source
+   * @return the fingerprint, or empty if the sidecar doesn't exist, is corrupt, or is stale (the
+   *     encoding has changed since it was saved)
+   */
+  public static Optional<SourceFingerprint> load(Path sidecar, Path encoding) {
+    try (InputStream inputStream = Files.newInputStream(sidecar);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream))) {
+      if (in.readInt() != MAGIC
+          || in.readInt() != VERSION
+          || in.readInt() != BlockFingerprints.BLOCK_SIZE) {
+        return Optional.empty();
+      }
+
+      SourceFingerprint fingerprint =
+          new SourceFingerprint(in.readLong(), in.readLong(), in.readLong());
+      long encodingSize = in.readLong();
+      long encodingLastModifiedMillis = in.readLong();
+      if (in.readLong() != fingerprint.checksum(encodingSize, encodingLastModifiedMillis)) {
+        return Optional.empty();
+      }
+      BasicFileAttributes encodingAttributes =
+          Files.readAttributes(encoding, BasicFileAttributes.class);
+      if (encodingAttributes.size() != encodingSize
+          || encodingAttributes.lastModifiedTime().toMillis() != encodingLastModifiedMillis) {
+        return Optional.empty();
+      }
+      return Optional.of(fingerprint);
+    } catch (IOException e) {
+      // missing, truncated (e.g. app crash while saving) or otherwise unreadable
+      return Optional.empty();
+    }
+  }
+
+  private static long hash(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      Hasher hasher = HASH_FUNCTION.newHasher().putLong(size);
+      ByteBuffer buffer = ByteBuffer.allocate(BlockFingerprints.BLOCK_SIZE);
+      putBlock(hasher, channel, 0, buffer);
+      if (size > BlockFingerprints.BLOCK_SIZE) {
+        // the last block may overlap the first (files under 2 MiB), which doesn't matter
+        putBlock(hasher, channel, size - BlockFingerprints.BLOCK_SIZE, buffer);
+      }
+      return hasher.hash().asLong();
+    }
+  }
+
+  private static void putBlock(Hasher hasher, FileChannel channel, long position, ByteBuffer buffer)
+      throws IOException {
+    buffer.clear();
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        break;
+      }
+    }
+    hasher.putBytes(buffer.array(), 0, buffer.position());
+  }
+
+  private long checksum(long encodingSize, long encodingLastModifiedMillis) {
+    return HASH_FUNCTION
+        .newHasher()
+        .putLong(size)
+        .putLong(lastModifiedMillis)
+        .putLong(hash)
+        .putLong(encodingSize)
+        .putLong(encodingLastModifiedMillis)
+        .hash()
+        .asLong();
+  }
+}
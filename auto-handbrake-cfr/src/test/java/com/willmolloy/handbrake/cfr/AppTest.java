@@ -1,13 +1,28 @@
 package com.willmolloy.handbrake.cfr;
 
-import static org.mockito.ArgumentMatchers.same;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -22,19 +37,189 @@ class AppTest {
 
   @Mock private DirectoryScanner mockDirectoryScanner;
   @Mock private JobQueue mockJobQueue;
+  @Mock private JobQueue.Batch mockBatch;
   @InjectMocks private App app;
 
+  @BeforeEach
+  void setUp() {
+    lenient().when(mockJobQueue.start()).thenReturn(mockBatch);
+  }
+
   @Test
   void orchestratesScanningAndProcessing() throws IOException {
     // Given
-    List<UnencodedVideo> videos = List.of();
-    when(mockDirectoryScanner.scan()).thenReturn(videos);
+    UnencodedVideo video1 = mock(UnencodedVideo.class);
+    UnencodedVideo video2 = mock(UnencodedVideo.class);
+    givenScannedVideos(video1, video2);
 
     // When
     app.run();
 
     // Then
-    verify(mockDirectoryScanner).scan();
-    verify(mockJobQueue).process(same(videos));
+    InOrder inOrder = inOrder(mockJobQueue, mockBatch);
+    inOrder.verify(mockJobQueue).start();
+    inOrder.verify(mockBatch).submit(video1);
+    inOrder.verify(mockBatch).submit(video2);
+    inOrder.verify(mockBatch).finish();
+  }
+
+  @Test
+  void whenScanningFails_stillFinishesProcessingSubmittedVideos() throws IOException {
+    // Given
+    doThrow(new IOException("scan failed")).when(mockDirectoryScanner).scan(any());
+
+    // When
+    assertThrows(IOException.class, () -> app.run());
+
+    // Then
+    verify(mockBatch).finish();
+  }
+
+  @Test
+  void whenAllVideosSuccessful_returnsTrue() throws IOException {
+    // Given
+    UnencodedVideo video = mock(UnencodedVideo.class);
+    when(mockBatch.finish())
+        .thenReturn(List.of(new JobResult(video, JobResult.Status.ARCHIVED, Duration.ZERO)));
+
+    // When
+    boolean result = app.run();
+
+    // Then
+    assertThat(result).isTrue();
+  }
+
+  @Test
+  void whenAnyVideoFailed_returnsFalse() throws IOException {
+    // Given
+    UnencodedVideo video = mock(UnencodedVideo.class);
+    when(mockBatch.finish())
+        .thenReturn(
+            List.of(
+                new JobResult(video, JobResult.Status.ARCHIVED, Duration.ZERO),
+                new JobResult(video, JobResult.Status.VERIFY_FAILED, Duration.ZERO)));
+
+    // When
+    boolean result = app.run();
+
+    // Then
+    assertThat(result).isFalse();
+  }
+
+  @Test
+  void watch_runsOnce_thenSubmitsNewVideosToSingleBatch_untilInterrupted()
+      throws IOException, InterruptedException {
+    // Given
+    DirectoryWatcher mockDirectoryWatcher = mock(DirectoryWatcher.class);
+    JobQueue.Batch mockStream = mock(JobQueue.Batch.class);
+    when(mockJobQueue.stream(any())).thenReturn(mockStream);
+    UnencodedVideo scannedVideo = mock(UnencodedVideo.class);
+    List<UnencodedVideo> newVideos1 = List.of(newVideo("/input/1.mp4"));
+    List<UnencodedVideo> newVideos2 = List.of(newVideo("/input/2.mp4"));
+    givenScannedVideos(scannedVideo);
+    when(mockDirectoryWatcher.awaitVideos())
+        .thenReturn(newVideos1)
+        .thenReturn(newVideos2)
+        .thenThrow(new InterruptedException());
+    AtomicBoolean interruptedWhileFinishing = new AtomicBoolean();
+    when(mockStream.finish())
+        .then(
+            invocation -> {
+              interruptedWhileFinishing.set(Thread.currentThread().isInterrupted());
+              return List.of();
+            });
+
+    // When
+    assertThrows(InterruptedException.class, () -> app.watch(mockDirectoryWatcher));
+
+    // Then
+    InOrder inOrder = inOrder(mockBatch, mockJobQueue, mockStream);
+    inOrder.verify(mockBatch).submit(scannedVideo);
+    inOrder.verify(mockBatch).finish();
+    inOrder.verify(mockJobQueue).stream(any());
+    inOrder.verify(mockStream).submitAll(newVideos1);
+    inOrder.verify(mockStream).submitAll(newVideos2);
+    inOrder.verify(mockStream).finish();
+    verify(mockJobQueue, never()).process(any());
+    // doesn't wait for the videos in progress
+    assertThat(interruptedWhileFinishing.get()).isTrue();
+    assertThat(Thread.currentThread().isInterrupted()).isFalse();
+  }
+
+  @Test
+  void watch_whenWatchingFails_finishesVideosSubmitted() throws IOException, InterruptedException {
+    // Given
+    DirectoryWatcher mockDirectoryWatcher = mock(DirectoryWatcher.class);
+    JobQueue.Batch mockStream = mock(JobQueue.Batch.class);
+    when(mockJobQueue.stream(any())).thenReturn(mockStream);
+    List<UnencodedVideo> newVideos = List.of(newVideo("/input/1.mp4"));
+    when(mockDirectoryWatcher.awaitVideos())
+        .thenReturn(newVideos)
+        .thenThrow(new IOException("watch failed"));
+
+    // When
+    assertThrows(IOException.class, () -> app.watch(mockDirectoryWatcher));
+
+    // Then
+    verify(mockStream).finish();
+  }
+
+  @Test
+  void watch_whenVideoDetectedAgainWhileInProgress_submitsItAgainOnlyOnceProcessed()
+      throws IOException, InterruptedException {
+    // Given
+    DirectoryWatcher mockDirectoryWatcher = mock(DirectoryWatcher.class);
+    JobQueue.Batch mockStream = mock(JobQueue.Batch.class);
+    AtomicReference<Consumer<JobResult>> onResult = new AtomicReference<>();
+    when(mockJobQueue.stream(any()))
+        .then(
+            invocation -> {
+              onResult.set(invocation.getArgument(0));
+              return mockStream;
+            });
+    UnencodedVideo video = newVideo("/input/video.mp4");
+    // e.g. rescanned after missing file system events, as it's in the input directory until
+    // archived
+    UnencodedVideo detectedAgain = newVideo("/input/video.mp4");
+    UnencodedVideo other = newVideo("/input/other.mp4");
+    when(mockDirectoryWatcher.awaitVideos())
+        .thenReturn(List.of(video))
+        .thenReturn(List.of(detectedAgain, other))
+        .then(
+            invocation -> {
+              // e.g. failed, so it's still in the input directory
+              onResult.get().accept(new JobResult(video, JobResult.Status.ENCODE_FAILED, Duration.ZERO));
+              return List.of(detectedAgain);
+            })
+        .thenThrow(new InterruptedException());
+
+    // When
+    assertThrows(InterruptedException.class, () -> app.watch(mockDirectoryWatcher));
+
+    // Then
+    InOrder inOrder = inOrder(mockStream);
+    inOrder.verify(mockStream).submitAll(List.of(video));
+    inOrder.verify(mockStream).submitAll(List.of(other));
+    inOrder.verify(mockStream).submitAll(List.of(detectedAgain));
+    inOrder.verify(mockStream).finish();
+  }
+
+  private static UnencodedVideo newVideo(String originalPath) {
+    UnencodedVideo video = mock(UnencodedVideo.class);
+    when(video.originalPath()).thenReturn(Path.of(originalPath));
+    return video;
+  }
+
+  private void givenScannedVideos(UnencodedVideo... videos) throws IOException {
+    doAnswer(
+            invocation -> {
+              Consumer<UnencodedVideo> consumer = invocation.getArgument(0);
+              for (UnencodedVideo video : videos) {
+                consumer.accept(video);
+              }
+              return null;
+            })
+        .when(mockDirectoryScanner)
+        .scan(any());
   }
 }
@@ -0,0 +1,164 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+
+import com.willmolloy.handbrake.core.HandBrake;
+import com.willmolloy.handbrake.core.ProgressEvent;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+/**
+ * ConcurrencyControllerTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class ConcurrencyControllerTest {
+
+  // long enough that the controller doesn't step by itself
+  private static final Duration INTERVAL = Duration.ofDays(1);
+
+  private final PipelineMetrics metrics = new PipelineMetrics();
+  private final VideoEncoder videoEncoder = new VideoEncoder(mock(HandBrake.class), 4, 0, metrics);
+
+  @Test
+  void startsFromOneInstance() {
+    try (ConcurrencyController controller =
+        new ConcurrencyController(videoEncoder, metrics, 4, INTERVAL)) {
+      assertThat(videoEncoder.limit()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  void whileFpsImproves_addsInstances() {
+    try (ConcurrencyController controller =
+        new ConcurrencyController(videoEncoder, metrics, 4, INTERVAL)) {
+      // When
+      controller.step(100);
+      controller.step(180);
+
+      // Then
+      assertThat(videoEncoder.limit()).isEqualTo(3);
+    }
+  }
+
+  @Test
+  void whenFpsWorse_goesBack() {
+    try (ConcurrencyController controller =
+        new ConcurrencyController(videoEncoder, metrics, 4, INTERVAL)) {
+      // Given
+      controller.step(100);
+      controller.step(180);
+
+      // When
+      controller.step(150);
+
+      // Then
+      assertThat(videoEncoder.limit()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  void whenFpsWorseWithinTolerance_keepsGoing() {
+    try (ConcurrencyController controller =
+        new ConcurrencyController(videoEncoder, metrics, 4, INTERVAL)) {
+      // Given
+      controller.step(100);
+      controller.step(180);
+
+      // When
+      controller.step(175);
+
+      // Then
+      assertThat(videoEncoder.limit()).isEqualTo(4);
+    }
+  }
+
+  @Test
+  void atMaximum_probesFewerInstances() {
+    try (ConcurrencyController controller =
+        new ConcurrencyController(videoEncoder, metrics, 2, INTERVAL)) {
+      // Given
+      controller.step(100);
+      assertThat(videoEncoder.limit()).isEqualTo(2);
+
+      // When
+      controller.step(180);
+
+      // Then
+      assertThat(videoEncoder.limit()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  void whenMaximumIsOne_staysAtOne() {
+    try (ConcurrencyController controller =
+        new ConcurrencyController(videoEncoder, metrics, 1, INTERVAL)) {
+      // When
+      controller.step(100);
+      controller.step(50);
+
+      // Then
+      assertThat(videoEncoder.limit()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  void afterSkippedInterval_doesNotCompareFps() {
+    try (ConcurrencyController controller =
+        new ConcurrencyController(videoEncoder, metrics, 4, INTERVAL)) {
+      // Given
+      controller.step(100);
+
+      // When
+      controller.skip();
+      controller.step(50);
+
+      // Then
+      assertThat(videoEncoder.limit()).isEqualTo(3);
+    }
+  }
+
+  @Test
+  void samplesFpsOfRunningEncodes() throws InterruptedException {
+    // Given
+    metrics
+        .encodeListener()
+        .onEvent(new ProgressEvent.Progress(1, 1, 50, 100, 100, Duration.ofMinutes(1)));
+
+    try (ConcurrencyController controller =
+        new ConcurrencyController(
+            videoEncoder, metrics, 4, ConcurrencyController.SAMPLE_INTERVAL)) {
+      // When
+      // one encode running, as the limit allows
+      long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+      while (videoEncoder.limit() == 1 && System.nanoTime() < deadline) {
+        Thread.sleep(50);
+      }
+
+      // Then
+      assertThat(videoEncoder.limit()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  void maximum_isWithinCoresAndMemory() {
+    assertThat(ConcurrencyController.maximum(8, 64, 32L << 30, 0)).isEqualTo(8);
+    assertThat(ConcurrencyController.maximum(8, 4, 32L << 30, 0)).isEqualTo(4);
+    assertThat(ConcurrencyController.maximum(8, 64, 32L << 30, 8L << 30)).isEqualTo(4);
+    assertThat(ConcurrencyController.maximum(8, 64, 4L << 30, 8L << 30)).isEqualTo(1);
+  }
+
+  @Test
+  void whenMaximumAboveInstances_throwsException() {
+    IllegalArgumentException thrown =
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> new ConcurrencyController(videoEncoder, metrics, 5, INTERVAL));
+
+    assertThat(thrown)
+        .hasMessageThat()
+        .isEqualTo("maximum (5) must be between 1 and the encoder's instances (4)");
+  }
+}
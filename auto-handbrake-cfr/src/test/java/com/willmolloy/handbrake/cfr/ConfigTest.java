@@ -0,0 +1,224 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.Map.entry;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.willmolloy.handbrake.core.options.EncoderTuning;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * ConfigTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class ConfigTest {
+
+  @Test
+  void whenNotSet_usesDefaults() {
+    Config config = new Config(Map.of());
+
+    assertThat(config.verifyParallelism()).isEqualTo(Runtime.getRuntime().availableProcessors());
+    assertThat(config.encoderInstances()).isEqualTo(1);
+    assertThat(config.encoderThreads().lease().threads()).isEqualTo(0);
+    assertThat(config.encoderOptions()).isEmpty();
+    assertThat(config.verifyWorkers()).isEqualTo(1);
+    assertThat(config.archiveWorkers()).isEqualTo(1);
+    assertThat(config.pipelineQueueCapacity()).isEqualTo(16);
+    assertThat(config.archiveCopyChunkSize()).isEqualTo(64L << 20);
+    assertThat(config.archiveProgressIntervalPercent()).isEqualTo(10);
+    assertThat(config.scanParallelism()).isEqualTo(1);
+    assertThat(config.deleteParallelism()).isEqualTo(8);
+    assertThat(config.watch()).isFalse();
+    assertThat(config.watchSettleTime()).isEqualTo(Duration.ofSeconds(10));
+    assertThat(config.skipAlreadyEncoded()).isFalse();
+    assertThat(config.metricsPort()).hasValue(9400);
+    assertThat(config.journal()).isFalse();
+    assertThat(config.segmentLength()).isEqualTo(Duration.ZERO);
+    assertThat(config.adaptiveConcurrency()).isFalse();
+    assertThat(config.adaptiveConcurrencyInterval()).isEqualTo(Duration.ofMinutes(2));
+    assertThat(config.encoderMemory()).isEqualTo(0);
+    assertThat(config.coordinate()).isFalse();
+    assertThat(config.leaseTtl()).isEqualTo(Duration.ofMinutes(5));
+  }
+
+  @Test
+  void whenSet_usesEnvironmentVariables() {
+    Config config =
+        new Config(
+            Map.ofEntries(
+                entry("VERIFY_PARALLELISM", "3"),
+                entry("ENCODER_INSTANCES", "3"),
+                entry("ENCODER_THREADS", "6"),
+                entry("ENCODER_OPTS", "ref=2"),
+                entry("VERIFY_WORKERS", "2"),
+                entry("ARCHIVE_WORKERS", "4"),
+                entry("PIPELINE_QUEUE_CAPACITY", "5"),
+                entry("ARCHIVE_COPY_CHUNK_SIZE_MB", "8"),
+                entry("ARCHIVE_PROGRESS_PERCENT", "25"),
+                entry("WATCH", "true"),
+                entry("WATCH_SETTLE_SECONDS", "30"),
+                entry("SCAN_PARALLELISM", "8"),
+                entry("DELETE_PARALLELISM", "2"),
+                entry("SKIP_ALREADY_ENCODED", "true"),
+                entry("METRICS_PORT", "9100"),
+                entry("JOURNAL", "true"),
+                entry("SEGMENT_MINUTES", "20"),
+                entry("ADAPTIVE_CONCURRENCY", "true"),
+                entry("ADAPTIVE_INTERVAL_SECONDS", "30"),
+                entry("ENCODER_MEMORY_MB", "512"),
+                entry("COORDINATE", "true"),
+                entry("NODE_ID", "node-1"),
+                entry("LEASE_TTL_SECONDS", "60")));
+
+    assertThat(config.verifyParallelism()).isEqualTo(3);
+    assertThat(config.encoderInstances()).isEqualTo(3);
+    assertThat(config.encoderThreads().lease().threads()).isEqualTo(6);
+    assertThat(config.encoderOptions()).hasValue(EncoderTuning.encopts("ref=2"));
+    assertThat(config.verifyWorkers()).isEqualTo(2);
+    assertThat(config.archiveWorkers()).isEqualTo(4);
+    assertThat(config.pipelineQueueCapacity()).isEqualTo(5);
+    assertThat(config.archiveCopyChunkSize()).isEqualTo(8L << 20);
+    assertThat(config.archiveProgressIntervalPercent()).isEqualTo(25);
+    assertThat(config.scanParallelism()).isEqualTo(8);
+    assertThat(config.deleteParallelism()).isEqualTo(2);
+    assertThat(config.watch()).isTrue();
+    assertThat(config.watchSettleTime()).isEqualTo(Duration.ofSeconds(30));
+    assertThat(config.skipAlreadyEncoded()).isTrue();
+    assertThat(config.metricsPort()).hasValue(9100);
+    assertThat(config.journal()).isTrue();
+    assertThat(config.segmentLength()).isEqualTo(Duration.ofMinutes(20));
+    assertThat(config.adaptiveConcurrency()).isTrue();
+    assertThat(config.adaptiveConcurrencyInterval()).isEqualTo(Duration.ofSeconds(30));
+    assertThat(config.encoderMemory()).isEqualTo(512L << 20);
+    assertThat(config.coordinate()).isTrue();
+    assertThat(config.nodeId()).isEqualTo("node-1");
+    assertThat(config.leaseTtl()).isEqualTo(Duration.ofSeconds(60));
+  }
+
+  @Test
+  void nodeId_whenNotSet_throwsException() {
+    // e.g. the host name, which changes every time a container is recreated, isn't used instead
+    Config config = new Config(Map.of("COORDINATE", "true", "HOSTNAME", "0123456789ab"));
+
+    IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class, config::nodeId);
+
+    assertThat(thrown)
+        .hasMessageThat()
+        .isEqualTo("NODE_ID must be set when coordinating, and stay the same across restarts");
+  }
+
+  @Test
+  void nodeId_whenNotAFileName_throwsException() {
+    Config config = new Config(Map.of("NODE_ID", "../node"));
+
+    IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class, config::nodeId);
+
+    assertThat(thrown)
+        .hasMessageThat()
+        .isEqualTo("NODE_ID (../node) must only contain letters, digits, '.', '_' or '-'");
+  }
+
+  @Test
+  void metricsPort_whenZero_isDisabled() {
+    Config config = new Config(Map.of("METRICS_PORT", "0"));
+
+    assertThat(config.metricsPort()).isEmpty();
+  }
+
+  @Test
+  void withMultipleEncoderInstances_sharesCoresBetweenThem() {
+    Config config = new Config(Map.of("ENCODER_INSTANCES", "2"));
+
+    ThreadBudget threadBudget = config.encoderThreads();
+    assertThat(threadBudget.encodes()).isEqualTo(2);
+    assertThat(threadBudget.lease().threads())
+        .isEqualTo(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+  }
+
+  @Test
+  void schedulingPolicy_parsesPolicyAndWeights(@TempDir Path inputDirectory) {
+    // Given
+    Config config =
+        new Config(Map.of("SCHEDULING_POLICY", "weighted-fair", "SCHEDULING_WEIGHTS", "A=2, B=1"));
+    UnencodedVideo.Factory factory =
+        new UnencodedVideo.Factory(inputDirectory, inputDirectory, inputDirectory);
+    UnencodedVideo a1 = factory.newUnencodedVideo(inputDirectory.resolve("A/1.mp4"));
+    UnencodedVideo a2 = factory.newUnencodedVideo(inputDirectory.resolve("A/2.mp4"));
+    UnencodedVideo b1 = factory.newUnencodedVideo(inputDirectory.resolve("B/1.mp4"));
+
+    // When
+    List<UnencodedVideo> scheduled = config.schedulingPolicy().schedule(List.of(a1, a2, b1));
+
+    // Then
+    assertThat(scheduled).containsExactly(a1, b1, a2).inOrder();
+  }
+
+  @Test
+  void schedulingWeights_whenMalformed_throwsException() {
+    Config config =
+        new Config(Map.of("SCHEDULING_POLICY", "weighted-fair", "SCHEDULING_WEIGHTS", "A"));
+
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, config::schedulingPolicy);
+
+    assertThat(thrown)
+        .hasMessageThat()
+        .isEqualTo("SCHEDULING_WEIGHTS entry (A) is not directory=weight");
+  }
+
+  @Test
+  void whenNegative_throwsException() {
+    Config config = new Config(Map.of("ENCODER_THREADS", "-1"));
+
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, config::encoderThreads);
+
+    assertThat(thrown).hasMessageThat().isEqualTo("ENCODER_THREADS (-1) must not be negative");
+  }
+
+  @Test
+  void whenNotAnInteger_throwsException() {
+    Config config = new Config(Map.of("VERIFY_PARALLELISM", "three"));
+
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, config::verifyParallelism);
+
+    assertThat(thrown).hasMessageThat().isEqualTo("VERIFY_PARALLELISM (three) is not an integer");
+  }
+
+  @Test
+  void scanIndexMode() {
+    assertThat(new Config(Map.of()).scanIndexMode()).isEqualTo(DirectoryScanner.IndexMode.NONE);
+    assertThat(new Config(Map.of("SCAN_INDEX", "true")).scanIndexMode())
+        .isEqualTo(DirectoryScanner.IndexMode.INCREMENTAL);
+    assertThat(new Config(Map.of("SCAN_INDEX", "true", "FULL_RESCAN", "true")).scanIndexMode())
+        .isEqualTo(DirectoryScanner.IndexMode.FULL_RESCAN);
+    assertThat(new Config(Map.of("FULL_RESCAN", "true")).scanIndexMode())
+        .isEqualTo(DirectoryScanner.IndexMode.NONE);
+  }
+
+  @Test
+  void whenNotABoolean_throwsException() {
+    Config config = new Config(Map.of("WATCH", "yes"));
+
+    IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class, config::watch);
+
+    assertThat(thrown).hasMessageThat().isEqualTo("WATCH (yes) is not true or false");
+  }
+
+  @Test
+  void whenNotPositive_throwsException() {
+    Config config = new Config(Map.of("VERIFY_PARALLELISM", "0"));
+
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, config::verifyParallelism);
+
+    assertThat(thrown).hasMessageThat().isEqualTo("VERIFY_PARALLELISM (0) must be positive");
+  }
+}
@@ -6,11 +6,15 @@ import com.google.common.io.Resources;
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 import com.google.common.truth.StreamSubject;
+import com.willmolloy.handbrake.cfr.DirectoryScanner.IndexMode;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URISyntaxException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.AfterEach;
@@ -68,6 +72,122 @@ class DirectoryScannerTest {
     assertThatTestDirectory().isEmpty();
   }
 
+  @Test
+  void deletesIncompleteSegments() throws IOException {
+    // Given
+    Files.copy(testVideo, outputDirectory.resolve("video.cfr.mp4.segment-0.part"));
+    Files.copy(testVideo, outputDirectory.resolve("video.cfr.mp4.segment-1.part"));
+
+    // When
+    directoryScanner.scan();
+
+    // Then
+    assertThatTestDirectory().isEmpty();
+  }
+
+  @Test
+  void deletesSidecarsOfDeletedEncodings_andKeepsOthers() throws IOException {
+    // Given
+    Path deletedFingerprints = outputDirectory.resolve("deleted.cfr.mp4.fingerprints");
+    Path deletedSource = outputDirectory.resolve("deleted.cfr.mp4.source");
+    Path keptFingerprints = outputDirectory.resolve("kept.cfr.mp4.fingerprints");
+    Path keptSource = outputDirectory.resolve("kept.cfr.mp4.source");
+    for (Path sidecar : List.of(deletedFingerprints, deletedSource, keptFingerprints, keptSource)) {
+      Files.write(sidecar, new byte[] {1});
+    }
+    Files.copy(testVideo, outputDirectory.resolve("kept.cfr.mp4"));
+
+    // When
+    directoryScanner.scan();
+
+    // Then
+    assertThat(Files.exists(deletedFingerprints)).isFalse();
+    assertThat(Files.exists(deletedSource)).isFalse();
+    assertThat(Files.exists(keptFingerprints)).isTrue();
+    assertThat(Files.exists(keptSource)).isTrue();
+  }
+
+  @Test
+  void whenCoordinating_keepsTempFilesOfVideosStillThereOrLeased_andDeletesOthers()
+      throws IOException {
+    // Given
+    directoryScanner =
+        new DirectoryScanner(
+            inputDirectory,
+            outputDirectory,
+            archiveDirectory,
+            1,
+            DirectoryScanner.DEFAULT_DELETE_PARALLELISM,
+            IndexMode.NONE,
+            true,
+            JobJournal.disabled());
+    Files.createDirectories(inputDirectory.resolve("Nested"));
+    Files.createDirectories(outputDirectory.resolve("Nested"));
+    // another node encoding it
+    Files.copy(testVideo, inputDirectory.resolve("encoding.mp4"));
+    Path encoding = outputDirectory.resolve("encoding.cfr.mp4.part");
+    Files.write(encoding, new byte[10]);
+    // another node segment encoding it
+    Path leases = outputDirectory.resolve(LeaseCoordinator.DIRECTORY_NAME);
+    Files.createDirectories(leases.resolve("Nested"));
+    Files.write(leases.resolve("Nested/segments.mp4.lease"), new byte[1]);
+    Path segment = outputDirectory.resolve("Nested/segments.cfr.mp4.segment-0.part");
+    Files.write(segment, new byte[10]);
+    // another node archiving it, the original may be gone before its lease
+    Files.write(leases.resolve("archiving.mp4.lease"), new byte[1]);
+    Path archiving = archiveDirectory.resolve("archiving.mp4.part");
+    Files.write(archiving, new byte[10]);
+    // left behind by a crashed node
+    Path staleEncoding = outputDirectory.resolve("stale.cfr.mp4.part");
+    Path staleArchive = archiveDirectory.resolve("stale.mp4.part");
+    Files.write(staleEncoding, new byte[10]);
+    Files.write(staleArchive, new byte[10]);
+
+    // When
+    directoryScanner.scan();
+
+    // Then
+    assertThat(Files.exists(encoding)).isTrue();
+    assertThat(Files.exists(segment)).isTrue();
+    assertThat(Files.exists(archiving)).isTrue();
+    assertThat(Files.exists(staleEncoding)).isFalse();
+    assertThat(Files.exists(staleArchive)).isFalse();
+  }
+
+  @Test
+  void keepsIncompleteEncodingResumedFromJournal() throws IOException {
+    // Given
+    Files.copy(testVideo, inputDirectory.resolve("video.mp4"));
+    UnencodedVideo video = directoryScanner.scan().getFirst();
+    Files.write(video.tempEncodedPath(), new byte[10]);
+    Path journalFile = outputDirectory.resolve(JobJournal.FILE_NAME);
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      journal.record(video, JobJournal.State.ENCODED);
+    }
+    Path staleEncoding = outputDirectory.resolve("stale.cfr.mp4.part");
+    Files.write(staleEncoding, new byte[10]);
+
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      directoryScanner =
+          new DirectoryScanner(
+              inputDirectory,
+              outputDirectory,
+              archiveDirectory,
+              1,
+              DirectoryScanner.DEFAULT_DELETE_PARALLELISM,
+              IndexMode.NONE,
+              false,
+              journal);
+
+      // When
+      directoryScanner.scan();
+    }
+
+    // Then
+    assertThat(Files.exists(video.tempEncodedPath())).isTrue();
+    assertThat(Files.exists(staleEncoding)).isFalse();
+  }
+
   @Test
   void deletesIncompleteArchives() throws IOException {
     // Given
@@ -82,6 +202,34 @@ class DirectoryScannerTest {
     assertThatTestDirectory().isEmpty();
   }
 
+  @Test
+  void deletesManyIncompleteFilesAcrossDirectories() throws IOException {
+    // Given
+    for (int i = 0; i < 20; i++) {
+      Path directory = Files.createDirectories(outputDirectory.resolve("dir%s".formatted(i)));
+      for (int j = 0; j < 5; j++) {
+        Files.write(directory.resolve("video%s.cfr.mp4.part".formatted(j)), new byte[10]);
+        Files.write(directory.resolve("video%s.mp4.part".formatted(j)), new byte[10]);
+      }
+    }
+    directoryScanner =
+        new DirectoryScanner(
+            inputDirectory,
+            outputDirectory,
+            archiveDirectory,
+            4,
+            DirectoryScanner.DEFAULT_DELETE_PARALLELISM,
+            IndexMode.NONE,
+            false,
+            JobJournal.disabled());
+
+    // When
+    directoryScanner.scan();
+
+    // Then
+    assertThatTestDirectory().isEmpty();
+  }
+
   @Test
   void getsVideosToEncodeFromInputDirectory() throws IOException {
     // Given
@@ -115,6 +263,157 @@ class DirectoryScannerTest {
             inputDirectory.resolve("video3.mp4"));
   }
 
+  @Test
+  void readsVideoAttributesWhileScanning() throws IOException {
+    // Given
+    Path video = Files.copy(testVideo, inputDirectory.resolve("video.mp4"));
+    FileTime lastModifiedTime = FileTime.fromMillis(1_000_000);
+    Files.setLastModifiedTime(video, lastModifiedTime);
+
+    // When
+    List<UnencodedVideo> videos = directoryScanner.scan();
+
+    // Then
+    assertThat(videos).hasSize(1);
+    assertThat(videos.get(0).size()).isEqualTo(Files.size(testVideo));
+    assertThat(videos.get(0).lastModifiedTime()).isEqualTo(lastModifiedTime);
+  }
+
+  @Test
+  void whenDirectoriesNested_walksEachFileOnce() throws IOException {
+    // Given
+    Path nestedOutputDirectory = Files.createDirectories(inputDirectory.resolve("output"));
+    Path nestedArchiveDirectory = Files.createDirectories(inputDirectory.resolve("archive"));
+    Files.copy(testVideo, inputDirectory.resolve("video1.mp4"));
+    Files.copy(testVideo, inputDirectory.resolve("video1.mp4.part"));
+    Files.copy(testVideo, nestedOutputDirectory.resolve("video2.cfr.mp4"));
+    Files.copy(testVideo, nestedOutputDirectory.resolve("video2.cfr.mp4.part"));
+    Files.copy(testVideo, nestedArchiveDirectory.resolve("video3.mp4.part"));
+    DirectoryScanner nestedDirectoryScanner =
+        new DirectoryScanner(inputDirectory, nestedOutputDirectory, nestedArchiveDirectory);
+
+    // When
+    List<UnencodedVideo> videos = nestedDirectoryScanner.scan();
+
+    // Then
+    assertThat(videos.stream().map(UnencodedVideo::originalPath))
+        .containsExactly(inputDirectory.resolve("video1.mp4"));
+    assertThatTestDirectory()
+        .containsExactly(
+            inputDirectory.resolve("video1.mp4").toAbsolutePath(),
+            nestedOutputDirectory.resolve("video2.cfr.mp4").toAbsolutePath());
+  }
+
+  @Test
+  void withIndex_savesIndexInOutputDirectory_andUsesItNextScan() throws IOException {
+    // Given
+    Path directory = Files.createDirectories(inputDirectory.resolve("directory"));
+    Files.copy(testVideo, directory.resolve("video1.mp4"));
+    Files.setLastModifiedTime(directory, FileTime.fromMillis(1_000_000));
+    DirectoryScanner indexedDirectoryScanner =
+        new DirectoryScanner(
+            inputDirectory,
+            outputDirectory,
+            archiveDirectory,
+            2,
+            DirectoryScanner.DEFAULT_DELETE_PARALLELISM,
+            IndexMode.INCREMENTAL,
+            false,
+            JobJournal.disabled());
+    indexedDirectoryScanner.scan();
+    Files.copy(testVideo, inputDirectory.resolve("video2.mp4"));
+
+    // When
+    List<UnencodedVideo> videos = indexedDirectoryScanner.scan();
+
+    // Then
+    assertThat(Files.exists(outputDirectory.resolve(DirectoryScanner.INDEX_FILE_NAME))).isTrue();
+    assertThat(videos.stream().map(UnencodedVideo::originalPath))
+        .containsExactly(directory.resolve("video1.mp4"), inputDirectory.resolve("video2.mp4"));
+  }
+
+  @Test
+  void passesVideosOnAsFound_andKeepsTempFilesCreatedByProcessingThem() throws IOException {
+    // Given
+    Files.copy(testVideo, inputDirectory.resolve("video1.mp4"));
+    Files.copy(testVideo, inputDirectory.resolve("video2.mp4"));
+    List<UnencodedVideo> videos = new ArrayList<>();
+
+    // When
+    directoryScanner.scan(
+        video -> {
+          videos.add(video);
+          try {
+            // simulate encoding starting while scanning continues
+            Files.copy(testVideo, video.tempEncodedPath());
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+
+    // Then
+    assertThat(videos.stream().map(UnencodedVideo::originalPath))
+        .containsExactly(
+            inputDirectory.resolve("video1.mp4"), inputDirectory.resolve("video2.mp4"));
+    assertThat(Files.exists(videos.get(0).tempEncodedPath())).isTrue();
+    assertThat(Files.exists(videos.get(1).tempEncodedPath())).isTrue();
+  }
+
+  @Test
+  void whenTempFileFoundBeforeItsVideo_deletesItBeforePassingVideoOn() throws IOException {
+    // Given
+    // same directory, so the temp file can be found first
+    directoryScanner = new DirectoryScanner(inputDirectory, inputDirectory, inputDirectory);
+    Files.copy(testVideo, inputDirectory.resolve("video.cfr.mp4.part"));
+    Files.copy(testVideo, inputDirectory.resolve("video.mp4"));
+    List<UnencodedVideo> videos = new ArrayList<>();
+
+    // When
+    directoryScanner.scan(
+        video -> {
+          videos.add(video);
+          try {
+            // simulate encoding starting while scanning continues
+            Files.write(video.tempEncodedPath(), new byte[10]);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+
+    // Then
+    assertThat(videos).hasSize(1);
+    assertThat(Files.size(videos.getFirst().tempEncodedPath())).isEqualTo(10);
+  }
+
+  @Test
+  void whenSegmentFoundBeforeItsVideo_deletesItBeforePassingVideoOn() throws IOException {
+    // Given
+    // same directory, so the segments can be found first
+    directoryScanner = new DirectoryScanner(inputDirectory, inputDirectory, inputDirectory);
+    Files.copy(testVideo, inputDirectory.resolve("video.cfr.mp4.segment-0.part"));
+    Files.copy(testVideo, inputDirectory.resolve("video.cfr.mp4.segment-1.part"));
+    Files.copy(testVideo, inputDirectory.resolve("video.mp4"));
+    List<UnencodedVideo> videos = new ArrayList<>();
+
+    // When
+    directoryScanner.scan(
+        video -> {
+          videos.add(video);
+          try {
+            // simulate segmented encoding starting while scanning continues
+            Files.write(video.tempSegmentPath(0), new byte[10]);
+            Files.write(video.tempSegmentPath(1), new byte[10]);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+
+    // Then
+    assertThat(videos).hasSize(1);
+    assertThat(Files.size(videos.getFirst().tempSegmentPath(0))).isEqualTo(10);
+    assertThat(Files.size(videos.getFirst().tempSegmentPath(1))).isEqualTo(10);
+  }
+
   private StreamSubject assertThatTestDirectory() throws IOException {
     Stream<Path> testFiles = Files.walk(fileSystem.getPath("/"));
     return assertThat(testFiles.filter(Files::isRegularFile));
@@ -0,0 +1,160 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.google.common.jimfs.WatchServiceConfiguration;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * DirectoryWatcherTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class DirectoryWatcherTest {
+
+  private static final Duration SETTLE_TIME = Duration.ofMillis(200);
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  private FileSystem fileSystem;
+  private Path inputDirectory;
+  private Path outputDirectory;
+  private Path archiveDirectory;
+
+  private DirectoryWatcher directoryWatcher;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    fileSystem =
+        Jimfs.newFileSystem(
+            Configuration.unix().toBuilder()
+                .setWatchServiceConfiguration(
+                    WatchServiceConfiguration.polling(10, TimeUnit.MILLISECONDS))
+                .build());
+
+    inputDirectory = fileSystem.getPath("input");
+    outputDirectory = fileSystem.getPath("output");
+    archiveDirectory = fileSystem.getPath("archive");
+
+    Files.createDirectories(inputDirectory.resolve("existing"));
+    Files.createDirectories(outputDirectory);
+    Files.createDirectories(archiveDirectory);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    if (directoryWatcher != null) {
+      directoryWatcher.close();
+    }
+    fileSystem.close();
+  }
+
+  @Test
+  void returnsNewVideo() throws IOException {
+    // Given
+    startWatching();
+    Files.write(inputDirectory.resolve("video.mp4"), new byte[10]);
+
+    // When
+    List<UnencodedVideo> videos = awaitVideos();
+
+    // Then
+    assertThat(videos).hasSize(1);
+    assertThat(videos.getFirst().originalPath()).isEqualTo(inputDirectory.resolve("video.mp4"));
+  }
+
+  @Test
+  void returnsNewVideo_inExistingAndNewSubdirectories() throws IOException {
+    // Given
+    startWatching();
+    Files.write(inputDirectory.resolve("existing/video1.mp4"), new byte[10]);
+    Files.createDirectories(inputDirectory.resolve("new/nested"));
+    Files.write(inputDirectory.resolve("new/nested/video2.mp4"), new byte[10]);
+
+    // When
+    List<UnencodedVideo> videos = new ArrayList<>(awaitVideos());
+    if (videos.size() == 1) {
+      // may settle separately
+      videos.addAll(awaitVideos());
+    }
+
+    // Then
+    assertThat(videos.stream().map(UnencodedVideo::originalPath).toList())
+        .containsExactly(
+            inputDirectory.resolve("existing/video1.mp4"),
+            inputDirectory.resolve("new/nested/video2.mp4"));
+  }
+
+  @Test
+  void ignoresExistingVideos_andNonVideos() throws IOException {
+    // Given
+    Files.write(inputDirectory.resolve("existing.mp4"), new byte[10]);
+    startWatching();
+    Files.write(inputDirectory.resolve("video.cfr.mp4"), new byte[10]);
+    Files.write(inputDirectory.resolve("video.cfr.mp4.part"), new byte[10]);
+    Files.write(inputDirectory.resolve("video.txt"), new byte[10]);
+    Files.write(inputDirectory.resolve("video.mp4"), new byte[10]);
+
+    // When
+    List<UnencodedVideo> videos = awaitVideos();
+
+    // Then
+    assertThat(videos.stream().map(UnencodedVideo::originalPath).toList())
+        .containsExactly(inputDirectory.resolve("video.mp4"));
+  }
+
+  @Test
+  void waitsForVideoToSettle() throws Exception {
+    // Given
+    startWatching();
+    Path video = inputDirectory.resolve("video.mp4");
+    Files.write(video, new byte[10]);
+    Stopwatch sinceLastWrite = Stopwatch.createStarted();
+    Thread recorder =
+        Thread.ofVirtual()
+            .start(
+                () -> {
+                  try {
+                    for (int i = 0; i < 5; i++) {
+                      Thread.sleep(50);
+                      sinceLastWrite.reset().start();
+                      Files.write(video, new byte[10], StandardOpenOption.APPEND);
+                    }
+                  } catch (IOException | InterruptedException e) {
+                    throw new AssertionError(e);
+                  }
+                });
+
+    // When
+    List<UnencodedVideo> videos = awaitVideos();
+
+    // Then
+    recorder.join();
+    assertThat(sinceLastWrite.elapsed()).isAtLeast(SETTLE_TIME);
+    assertThat(videos).hasSize(1);
+    assertThat(videos.getFirst().size()).isEqualTo(60);
+  }
+
+  private void startWatching() throws IOException {
+    directoryWatcher =
+        new DirectoryWatcher(inputDirectory, outputDirectory, archiveDirectory, SETTLE_TIME);
+  }
+
+  private List<UnencodedVideo> awaitVideos() {
+    return assertTimeoutPreemptively(TIMEOUT, () -> directoryWatcher.awaitVideos());
+  }
+}
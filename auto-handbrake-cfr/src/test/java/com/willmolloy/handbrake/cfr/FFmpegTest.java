@@ -0,0 +1,139 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+/**
+ * FFmpegTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+@ExtendWith(MockitoExtension.class)
+class FFmpegTest {
+
+  @Mock private ProcessBuilder mockProcessBuilder;
+
+  @Mock private Process mockProcess;
+
+  private FFmpeg ffmpeg;
+
+  private List<String> command;
+  // contents of the concat list, read while executing (it's deleted after)
+  private List<String> concatList;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    when(mockProcessBuilder.command(anyList()))
+        .thenAnswer(
+            invocation -> {
+              command = invocation.getArgument(0);
+              if (command.contains("concat")) {
+                concatList = Files.readAllLines(Path.of(command.get(command.indexOf("-i") + 1)));
+              }
+              return mockProcessBuilder;
+            });
+    when(mockProcessBuilder.redirectErrorStream(anyBoolean())).thenReturn(mockProcessBuilder);
+    when(mockProcessBuilder.start()).thenReturn(mockProcess);
+
+    ffmpeg = new FFmpeg(() -> mockProcessBuilder);
+  }
+
+  @Test
+  void duration_parsesFfprobeOutput() throws InterruptedException {
+    // Given
+    whenProcessOutputs("1800.512000\n", 0);
+
+    // When & Then
+    assertThat(ffmpeg.duration(Path.of("video.mp4"))).hasValue(Duration.ofMillis(1800512));
+    assertThat(command)
+        .isEqualTo(
+            List.of(
+                "ffprobe",
+                "-v",
+                "error",
+                "-show_entries",
+                "format=duration",
+                "-of",
+                "default=noprint_wrappers=1:nokey=1",
+                "video.mp4"));
+  }
+
+  @Test
+  void duration_whenOutputUnexpected_isEmpty() throws InterruptedException {
+    // Given
+    whenProcessOutputs("N/A\n", 0);
+
+    // When & Then
+    assertThat(ffmpeg.duration(Path.of("video.mp4"))).isEmpty();
+  }
+
+  @Test
+  void duration_whenNonZeroExitCode_isEmpty() throws InterruptedException {
+    // Given
+    whenProcessOutputs("video.mp4: No such file or directory\n", 1);
+
+    // When & Then
+    assertThat(ffmpeg.duration(Path.of("video.mp4"))).isEmpty();
+  }
+
+  @Test
+  void concat_copiesStreamsOfPartsListedInOrder(@TempDir Path directory)
+      throws IOException, InterruptedException {
+    // Given
+    Path part1 = directory.resolve("it's.cfr.mp4.segment-0.part");
+    Path part2 = directory.resolve("it's.cfr.mp4.segment-1.part");
+    Path output = directory.resolve("it's.cfr.mp4.part");
+    whenProcessOutputs("", 0);
+
+    // When
+    boolean result = ffmpeg.concat(List.of(part1, part2), output);
+
+    // Then
+    assertThat(result).isTrue();
+    assertThat(command)
+        .containsAtLeast("-f", "concat", "-c", "copy", "-f", "mp4", "-y", output.toString())
+        .inOrder();
+    assertThat(concatList)
+        .containsExactly(
+            "file '" + part1.toString().replace("'", "'\\''") + "'",
+            "file '" + part2.toString().replace("'", "'\\''") + "'")
+        .inOrder();
+    // the list is deleted
+    assertThat(Files.exists(Path.of(command.get(command.indexOf("-i") + 1)))).isFalse();
+  }
+
+  @Test
+  void concat_whenNonZeroExitCode_returnsFalse(@TempDir Path directory)
+      throws IOException, InterruptedException {
+    // Given
+    whenProcessOutputs("Invalid data found when processing input\n", 1);
+
+    // When
+    boolean result = ffmpeg.concat(List.of(directory.resolve("part")), directory.resolve("output"));
+
+    // Then
+    assertThat(result).isFalse();
+  }
+
+  private void whenProcessOutputs(String output, int exitCode) throws InterruptedException {
+    when(mockProcess.getInputStream())
+        .thenReturn(new ByteArrayInputStream(output.getBytes(Charset.defaultCharset())));
+    when(mockProcess.waitFor()).thenReturn(exitCode);
+  }
+}
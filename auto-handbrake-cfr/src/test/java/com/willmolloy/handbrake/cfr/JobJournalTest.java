@@ -0,0 +1,269 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * JobJournalTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class JobJournalTest {
+
+  private FileSystem fileSystem;
+  private Path inputDirectory;
+  private Path journalFile;
+  private UnencodedVideo.Factory factory;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    inputDirectory = Files.createDirectories(fileSystem.getPath("/input"));
+    Path outputDirectory = Files.createDirectories(fileSystem.getPath("/output"));
+    Path archiveDirectory = Files.createDirectories(fileSystem.getPath("/archive"));
+    journalFile = outputDirectory.resolve(JobJournal.FILE_NAME);
+    factory = new UnencodedVideo.Factory(inputDirectory, outputDirectory, archiveDirectory);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    fileSystem.close();
+  }
+
+  @Test
+  void resumesEncodedAndVerifiedVideos() throws IOException {
+    // Given
+    UnencodedVideo encoded = video("encoded.mp4");
+    UnencodedVideo verified = video("verified.mp4");
+    UnencodedVideo encoding = video("encoding.mp4");
+    Files.write(encoded.tempEncodedPath(), new byte[] {1, 2});
+    Files.write(verified.encodedPath(), new byte[] {1, 2, 3});
+
+    // When
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      journal.record(encoded, JobJournal.State.QUEUED);
+      journal.record(encoded, JobJournal.State.ENCODING);
+      journal.record(encoded, JobJournal.State.ENCODED);
+      journal.record(verified, JobJournal.State.ENCODED);
+      journal.record(verified, JobJournal.State.VERIFIED);
+      journal.record(encoding, JobJournal.State.ENCODING);
+    }
+
+    // Then
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      assertThat(journal.resume(encoded)).hasValue(JobJournal.State.ENCODED);
+      assertThat(journal.resume(verified)).hasValue(JobJournal.State.VERIFIED);
+      assertThat(journal.resume(encoding)).isEmpty();
+    }
+  }
+
+  @Test
+  void whenArchivedOrFailed_doesNotResume() throws IOException {
+    // Given
+    UnencodedVideo archived = video("archived.mp4");
+    UnencodedVideo failed = video("failed.mp4");
+    Files.write(archived.encodedPath(), new byte[] {1});
+    Files.write(failed.tempEncodedPath(), new byte[] {1});
+
+    // When
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      journal.record(archived, JobJournal.State.VERIFIED);
+      journal.record(archived, JobJournal.State.ARCHIVED);
+      journal.record(failed, JobJournal.State.ENCODED);
+      journal.record(failed, JobJournal.State.FAILED);
+    }
+
+    // Then
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      assertThat(journal.resume(archived)).isEmpty();
+      assertThat(journal.resume(failed)).isEmpty();
+    }
+  }
+
+  @Test
+  void whenEncodingChanged_doesNotResume() throws IOException {
+    // Given
+    UnencodedVideo video = video("video.mp4");
+    Files.write(video.tempEncodedPath(), new byte[] {1, 2});
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      journal.record(video, JobJournal.State.ENCODED);
+    }
+
+    // When
+    Files.write(video.tempEncodedPath(), new byte[] {1}, StandardOpenOption.TRUNCATE_EXISTING);
+
+    // Then
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      assertThat(journal.resume(video)).isEmpty();
+    }
+  }
+
+  @Test
+  void whenOriginalChanged_doesNotResume() throws IOException {
+    // Given
+    UnencodedVideo video = video("video.mp4");
+    Files.write(video.tempEncodedPath(), new byte[] {1, 2});
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      journal.record(video, JobJournal.State.ENCODED);
+    }
+
+    // When
+    Files.write(video.originalPath(), new byte[] {1, 2, 3, 4});
+    Files.setLastModifiedTime(video.originalPath(), FileTime.fromMillis(1));
+
+    // Then
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      assertThat(journal.resume(video("video.mp4"))).isEmpty();
+    }
+  }
+
+  @Test
+  void whenOriginalDeleted_dropsIt() throws IOException {
+    // Given
+    UnencodedVideo video = video("video.mp4");
+    Files.write(video.tempEncodedPath(), new byte[] {1, 2});
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      journal.record(video, JobJournal.State.ENCODED);
+    }
+    long sizeWithRecord = Files.size(journalFile);
+
+    // When
+    Files.delete(video.originalPath());
+    JobJournal.open(journalFile).close();
+
+    // Then
+    assertThat(Files.size(journalFile)).isLessThan(sizeWithRecord);
+  }
+
+  @Test
+  void whenLastRecordTorn_resumesEarlierRecords() throws IOException {
+    // Given
+    UnencodedVideo video = video("video.mp4");
+    Files.write(video.tempEncodedPath(), new byte[] {1, 2});
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      journal.record(video, JobJournal.State.ENCODED);
+    }
+
+    // When
+    // crash part way through appending
+    Files.write(journalFile, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+    // Then
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      assertThat(journal.resume(video)).hasValue(JobJournal.State.ENCODED);
+    }
+  }
+
+  @Test
+  void whenRecordCorrupt_ignoresIt() throws IOException {
+    // Given
+    UnencodedVideo video = video("video.mp4");
+    Files.write(video.tempEncodedPath(), new byte[] {1, 2});
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      journal.record(video, JobJournal.State.ENCODED);
+    }
+
+    // When
+    byte[] bytes = Files.readAllBytes(journalFile);
+    bytes[bytes.length - 1] ^= 1;
+    Files.write(journalFile, bytes);
+
+    // Then
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      assertThat(journal.resume(video)).isEmpty();
+    }
+  }
+
+  @Test
+  void whenUnknownFormat_resumesNothing() throws IOException {
+    // Given
+    UnencodedVideo video = video("video.mp4");
+    Files.write(video.tempEncodedPath(), new byte[] {1, 2});
+    Files.write(journalFile, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+
+    // When
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      // Then
+      assertThat(journal.resume(video)).isEmpty();
+    }
+  }
+
+  @Test
+  void compactsEveryCompactInterval() throws IOException {
+    // Given
+    UnencodedVideo encoded = video("encoded.mp4");
+    Files.write(encoded.tempEncodedPath(), new byte[] {1, 2});
+
+    // When
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      journal.record(encoded, JobJournal.State.ENCODED);
+      for (int i = 1; i < JobJournal.COMPACT_INTERVAL; i++) {
+        journal.record(video("archived%s.mp4".formatted(i)), JobJournal.State.ARCHIVED);
+      }
+    }
+
+    // Then
+    // only the resumable video's record is kept, rather than one per record
+    assertThat(Files.size(journalFile)).isLessThan(JobJournal.COMPACT_INTERVAL);
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      assertThat(journal.resume(encoded)).hasValue(JobJournal.State.ENCODED);
+    }
+  }
+
+  @Test
+  void resumesFromTempEncoded_onlyWhenEncoded() throws IOException {
+    // Given
+    UnencodedVideo encoded = video("encoded.mp4");
+    UnencodedVideo verified = video("verified.mp4");
+    Files.write(encoded.tempEncodedPath(), new byte[] {1, 2});
+    Files.write(verified.encodedPath(), new byte[] {1, 2, 3});
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      journal.record(encoded, JobJournal.State.ENCODED);
+      journal.record(verified, JobJournal.State.VERIFIED);
+    }
+
+    // When/Then
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      assertThat(journal.resumesFromTempEncoded(encoded.originalPath())).isTrue();
+      assertThat(journal.resumesFromTempEncoded(verified.originalPath())).isFalse();
+      assertThat(journal.resumesFromTempEncoded(inputDirectory.resolve("other.mp4"))).isFalse();
+    }
+  }
+
+  @Test
+  void disabled_recordsAndResumesNothing() throws IOException {
+    // Given
+    UnencodedVideo video = video("video.mp4");
+    Files.write(video.tempEncodedPath(), new byte[] {1, 2});
+
+    // When
+    try (JobJournal journal = JobJournal.disabled()) {
+      journal.record(video, JobJournal.State.ENCODED);
+
+      // Then
+      assertThat(journal.resume(video)).isEmpty();
+    }
+    assertThat(Files.exists(journalFile)).isFalse();
+  }
+
+  private UnencodedVideo video(String name) throws IOException {
+    Path original = inputDirectory.resolve(name);
+    if (!Files.exists(original)) {
+      Files.write(original, new byte[] {1, 2, 3});
+    }
+    return factory.newUnencodedVideo(
+        original, Files.readAttributes(original, BasicFileAttributes.class));
+  }
+}
@@ -1,10 +1,19 @@
 package com.willmolloy.handbrake.cfr;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.willmolloy.handbrake.cfr.JobResult.Status.ARCHIVED;
+import static com.willmolloy.handbrake.cfr.JobResult.Status.ARCHIVE_FAILED;
+import static com.willmolloy.handbrake.cfr.JobResult.Status.ENCODE_FAILED;
+import static com.willmolloy.handbrake.cfr.JobResult.Status.LEASED_ELSEWHERE;
+import static com.willmolloy.handbrake.cfr.JobResult.Status.NOT_PROCESSED;
+import static com.willmolloy.handbrake.cfr.JobResult.Status.VERIFY_FAILED;
+import static java.util.Collections.nCopies;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -12,22 +21,30 @@ import static org.mockito.Mockito.when;
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.mockito.InOrder;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -42,8 +59,9 @@ import org.mockito.stubbing.Answer;
 class JobQueueTest {
 
   @Mock private VideoEncoder mockVideoEncoder;
+  @Mock private VideoVerifier mockVideoVerifier;
   @Mock private VideoArchiver mockVideoArchiver;
-  @InjectMocks private JobQueue jobQueue;
+  private JobQueue jobQueue;
 
   private FileSystem fileSystem;
   private Path inputDirectory;
@@ -62,6 +80,9 @@ class JobQueueTest {
     Files.createDirectories(archiveDirectory);
 
     factory = new UnencodedVideo.Factory(inputDirectory, outputDirectory, archiveDirectory);
+
+    jobQueue = new JobQueue(mockVideoEncoder, mockVideoVerifier, mockVideoArchiver);
+    lenient().when(mockVideoEncoder.instances()).thenReturn(1);
   }
 
   @AfterEach
@@ -70,9 +91,10 @@ class JobQueueTest {
   }
 
   @Test
-  void encodesVideoFilesAndArchivesOriginals() throws IOException {
+  void encodesAndVerifiesVideoFilesAndArchivesOriginals() throws IOException {
     // Given
     whenVideoEncoderReturns(true);
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
     when(mockVideoArchiver.archive(any())).thenReturn(true);
 
     Files.createDirectories(inputDirectory.resolve("NestedFolder"));
@@ -84,12 +106,13 @@ class JobQueueTest {
             factory.newUnencodedVideo(inputDirectory.resolve("video3.mp4")));
 
     // When
-    boolean result = jobQueue.process(videos);
+    List<JobResult> results = jobQueue.process(videos);
 
     // Then
-    assertThat(result).isTrue();
+    assertThat(statuses(results)).containsExactlyElementsIn(nCopies(videos.size(), ARCHIVED));
     for (UnencodedVideo video : videos) {
-      verify(mockVideoEncoder).encode(same(video));
+      verify(mockVideoEncoder).encode(same(video), any());
+      verify(mockVideoVerifier).verify(same(video));
       verify(mockVideoArchiver).archive(same(video));
     }
   }
@@ -103,11 +126,11 @@ class JobQueueTest {
 
   @ParameterizedTest
   @MethodSource("anyEncodeOrArchiveFailed")
-  void
-      whenEncodingFails_skipsArchiving_andStillEncodesAndArchivesOtherVideos_andReturnsFalseOverall(
-          boolean[] encodeResults) throws IOException {
+  void whenEncodingFails_skipsArchiving_andStillEncodesAndArchivesOtherVideos_andReportsFailure(
+      boolean[] encodeResults) throws IOException {
     // Given
     whenVideoEncoderReturns(encodeResults);
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
     when(mockVideoArchiver.archive(any())).thenReturn(true);
 
     Files.createDirectories(inputDirectory.resolve("NestedFolder"));
@@ -119,12 +142,17 @@ class JobQueueTest {
             factory.newUnencodedVideo(inputDirectory.resolve("video3.mp4")));
 
     // When
-    boolean result = jobQueue.process(videos);
+    List<JobResult> results = jobQueue.process(videos);
 
     // Then
-    assertThat(result).isFalse();
+    assertThat(statuses(results))
+        .containsExactly(
+            encodeResults[0] ? ARCHIVED : ENCODE_FAILED,
+            encodeResults[1] ? ARCHIVED : ENCODE_FAILED,
+            encodeResults[2] ? ARCHIVED : ENCODE_FAILED)
+        .inOrder();
     for (UnencodedVideo video : videos) {
-      verify(mockVideoEncoder).encode(same(video));
+      verify(mockVideoEncoder).encode(same(video), any());
     }
     verify(mockVideoArchiver, times(encodeResults[0] ? 1 : 0)).archive(same(videos.get(0)));
     verify(mockVideoArchiver, times(encodeResults[1] ? 1 : 0)).archive(same(videos.get(1)));
@@ -133,10 +161,11 @@ class JobQueueTest {
 
   @ParameterizedTest
   @MethodSource("anyEncodeOrArchiveFailed")
-  void whenArchivingFails_stillEncodesAndArchivesOtherVideos_andReturnsFalseOverall(
+  void whenArchivingFails_stillEncodesAndArchivesOtherVideos_andReportsFailure(
       boolean[] archiveResults) throws IOException {
     // Given
     whenVideoEncoderReturns(true);
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
     when(mockVideoArchiver.archive(any()))
         .thenReturn(archiveResults[0], archiveResults[1], archiveResults[2]);
 
@@ -149,20 +178,197 @@ class JobQueueTest {
             factory.newUnencodedVideo(inputDirectory.resolve("video3.mp4")));
 
     // When
-    boolean result = jobQueue.process(videos);
+    List<JobResult> results = jobQueue.process(videos);
 
     // Then
-    assertThat(result).isFalse();
+    assertThat(statuses(results))
+        .containsExactly(
+            archiveResults[0] ? ARCHIVED : ARCHIVE_FAILED,
+            archiveResults[1] ? ARCHIVED : ARCHIVE_FAILED,
+            archiveResults[2] ? ARCHIVED : ARCHIVE_FAILED)
+        .inOrder();
     for (UnencodedVideo video : videos) {
-      verify(mockVideoEncoder).encode(same(video));
+      verify(mockVideoEncoder).encode(same(video), any());
       verify(mockVideoArchiver).archive(same(video));
     }
   }
 
+  @ParameterizedTest
+  @MethodSource("anyEncodeOrArchiveFailed")
+  void whenVerifyingFails_skipsArchiving_andStillProcessesOtherVideos_andReportsFailure(
+      boolean[] verifyResults) {
+    // Given
+    whenVideoEncoderReturns(true);
+    when(mockVideoVerifier.verify(any()))
+        .thenReturn(verifyResults[0], verifyResults[1], verifyResults[2]);
+    when(mockVideoArchiver.archive(any())).thenReturn(true);
+
+    List<UnencodedVideo> videos =
+        List.of(
+            factory.newUnencodedVideo(inputDirectory.resolve("video1.mp4")),
+            factory.newUnencodedVideo(inputDirectory.resolve("video2.mp4")),
+            factory.newUnencodedVideo(inputDirectory.resolve("video3.mp4")));
+
+    // When
+    List<JobResult> results = jobQueue.process(videos);
+
+    // Then
+    assertThat(statuses(results))
+        .containsExactly(
+            verifyResults[0] ? ARCHIVED : VERIFY_FAILED,
+            verifyResults[1] ? ARCHIVED : VERIFY_FAILED,
+            verifyResults[2] ? ARCHIVED : VERIFY_FAILED)
+        .inOrder();
+    for (UnencodedVideo video : videos) {
+      verify(mockVideoEncoder).encode(same(video), any());
+      verify(mockVideoVerifier).verify(same(video));
+    }
+    verify(mockVideoArchiver, times(2)).archive(any());
+  }
+
+  @Test
+  void whenEncodingThrows_reportsEncodeFailure_andStillProcessesOtherVideos() {
+    // Given
+    UnencodedVideo video1 = factory.newUnencodedVideo(inputDirectory.resolve("video1.mp4"));
+    UnencodedVideo video2 = factory.newUnencodedVideo(inputDirectory.resolve("video2.mp4"));
+    when(mockVideoEncoder.encode(same(video1), any())).thenThrow(new IllegalStateException());
+    when(mockVideoEncoder.encode(same(video2), any())).thenReturn(true);
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
+    when(mockVideoArchiver.archive(any())).thenReturn(true);
+
+    // When
+    List<JobResult> results = jobQueue.process(List.of(video1, video2));
+
+    // Then
+    assertThat(statuses(results)).containsExactly(ENCODE_FAILED, ARCHIVED).inOrder();
+    verify(mockVideoArchiver, never()).archive(same(video1));
+    // the instance is released even if encoding throws before releasing it
+    verify(mockVideoEncoder, times(2)).release();
+  }
+
+  @Test
+  @Timeout(10)
+  void whenCheckingAlreadyEncodedThrows_reportsEncodeFailure_andStillEncodesLaterVideos() {
+    // Given
+    when(mockVideoEncoder.instances()).thenReturn(2);
+    jobQueue =
+        new JobQueue(
+            mockVideoEncoder,
+            mockVideoVerifier,
+            mockVideoArchiver,
+            SchedulingPolicy.fifo(),
+            1,
+            1,
+            1,
+            true,
+            new PipelineMetrics(),
+            JobJournal.disabled(),
+            LeaseCoordinator.disabled());
+    List<UnencodedVideo> videos =
+        IntStream.range(0, 4)
+            .mapToObj(i -> factory.newUnencodedVideo(inputDirectory.resolve(i + ".mp4")))
+            .toList();
+    when(mockVideoVerifier.alreadyEncoded(any())).thenReturn(false);
+    when(mockVideoVerifier.alreadyEncoded(same(videos.get(1))))
+        .thenThrow(new UncheckedIOException(new IOException()));
+    when(mockVideoEncoder.encode(any(), any())).thenReturn(true);
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
+    when(mockVideoArchiver.archive(any())).thenReturn(true);
+
+    // When
+    List<JobResult> results = jobQueue.process(videos);
+
+    // Then
+    assertThat(statuses(results))
+        .containsExactly(ARCHIVED, ENCODE_FAILED, ARCHIVED, ARCHIVED)
+        .inOrder();
+    verify(mockVideoEncoder, never()).encode(same(videos.get(1)), any());
+  }
+
+  @Test
+  void whenVerifyingOrArchivingThrows_whileCoordinating_reportsStageFailure_andReleasesLeases()
+      throws IOException {
+    // Given
+    UnencodedVideo verifyThrows = factory.newUnencodedVideo(inputDirectory.resolve("a.mp4"));
+    UnencodedVideo archiveThrows = factory.newUnencodedVideo(inputDirectory.resolve("b.mp4"));
+    Files.createFile(verifyThrows.originalPath());
+    Files.createFile(archiveThrows.originalPath());
+    whenVideoEncoderReturns(true);
+    when(mockVideoVerifier.verify(same(verifyThrows))).thenThrow(new IllegalStateException());
+    when(mockVideoVerifier.verify(same(archiveThrows))).thenReturn(true);
+    when(mockVideoArchiver.archive(same(archiveThrows))).thenThrow(new IllegalStateException());
+    Path journalFile = inputDirectory.resolve(JobJournal.FILE_NAME);
+
+    // When
+    List<JobResult> results;
+    try (JobJournal journal = JobJournal.open(journalFile);
+        LeaseCoordinator leases = new LeaseCoordinator("node", LeaseCoordinator.DEFAULT_TTL)) {
+      jobQueue =
+          new JobQueue(
+              mockVideoEncoder,
+              mockVideoVerifier,
+              mockVideoArchiver,
+              SchedulingPolicy.fifo(),
+              1,
+              1,
+              1,
+              false,
+              new PipelineMetrics(),
+              journal,
+              leases);
+      results = jobQueue.process(List.of(verifyThrows, archiveThrows));
+
+      // Then
+      // released while still running, not just once the coordinator closes
+      assertThat(Files.exists(verifyThrows.leasePath())).isFalse();
+      assertThat(Files.exists(archiveThrows.leasePath())).isFalse();
+    }
+    assertThat(statuses(results)).containsExactly(VERIFY_FAILED, ARCHIVE_FAILED).inOrder();
+    // failed, so processed from scratch next time
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      assertThat(journal.resume(verifyThrows)).isEmpty();
+      assertThat(journal.resume(archiveThrows)).isEmpty();
+    }
+  }
+
+  @Test
+  void archivingDoesNotHoldBackEncoding() {
+    // Given
+    List<UnencodedVideo> videos =
+        IntStream.rangeClosed(1, 5)
+            .mapToObj(
+                i -> factory.newUnencodedVideo(inputDirectory.resolve("video%d.mp4".formatted(i))))
+            .toList();
+
+    // archiving blocks until every video has been encoded
+    CountDownLatch encoded = new CountDownLatch(videos.size());
+    when(mockVideoEncoder.encode(any(), any()))
+        .thenAnswer(
+            invocation -> {
+              encoded.countDown();
+              return true;
+            });
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
+    when(mockVideoArchiver.archive(any()))
+        .thenAnswer(
+            invocation -> {
+              encoded.await();
+              return true;
+            });
+
+    // When
+    List<JobResult> results = jobQueue.process(videos);
+
+    // Then
+    assertThat(statuses(results)).containsExactlyElementsIn(nCopies(videos.size(), ARCHIVED));
+    verify(mockVideoArchiver, times(videos.size())).archive(any());
+  }
+
   @Test
   void encodesInOrder() {
     // Given
     whenVideoEncoderReturns(true);
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
     when(mockVideoArchiver.archive(any())).thenReturn(true);
 
     List<UnencodedVideo> videos =
@@ -173,15 +379,587 @@ class JobQueueTest {
             .toList();
 
     // When
-    boolean result = jobQueue.process(videos);
+    List<JobResult> results = jobQueue.process(videos);
 
     // Then
-    assertThat(result).isTrue();
+    assertThat(statuses(results)).containsExactlyElementsIn(nCopies(videos.size(), ARCHIVED));
 
     InOrder inOrder = inOrder(mockVideoEncoder);
     for (UnencodedVideo video : videos) {
-      inOrder.verify(mockVideoEncoder).encode(same(video));
+      inOrder.verify(mockVideoEncoder).encode(same(video), any());
+    }
+  }
+
+  @Test
+  void withMultipleEncoderInstances_encodesConcurrently_andStartsInOrder() {
+    // Given
+    when(mockVideoEncoder.instances()).thenReturn(4);
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
+    when(mockVideoArchiver.archive(any())).thenReturn(true);
+
+    List<UnencodedVideo> videos =
+        IntStream.rangeClosed(1, 100)
+            .mapToObj(
+                i ->
+                    factory.newUnencodedVideo(inputDirectory.resolve("video%03d.mp4".formatted(i))))
+            .toList();
+
+    // the order each worker (thread) acquired an encoder instance
+    AtomicInteger acquired = new AtomicInteger();
+    ThreadLocal<Integer> acquiredOrder = new ThreadLocal<>();
+    doAnswer(
+            invocation -> {
+              acquiredOrder.set(acquired.getAndIncrement());
+              return null;
+            })
+        .when(mockVideoEncoder)
+        .acquire();
+
+    List<UnencodedVideo> startedOutOfOrder = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger encoding = new AtomicInteger();
+    AtomicInteger maxEncoding = new AtomicInteger();
+    when(mockVideoEncoder.encode(any(), any()))
+        .thenAnswer(
+            invocation -> {
+              UnencodedVideo video = invocation.getArgument(0);
+              if (videos.indexOf(video) != acquiredOrder.get()) {
+                startedOutOfOrder.add(video);
+              }
+              maxEncoding.accumulateAndGet(encoding.incrementAndGet(), Math::max);
+              Thread.sleep(1);
+              encoding.decrementAndGet();
+              return true;
+            });
+
+    // When
+    List<JobResult> results = jobQueue.process(videos);
+
+    // Then
+    assertThat(statuses(results)).containsExactlyElementsIn(nCopies(videos.size(), ARCHIVED));
+    assertThat(startedOutOfOrder).isEmpty();
+    assertThat(maxEncoding.get()).isGreaterThan(1);
+    assertThat(maxEncoding.get()).isAtMost(4);
+    verify(mockVideoArchiver, times(videos.size())).archive(any());
+  }
+
+  @Test
+  @Timeout(10)
+  void whenInterruptedWaitingForTurn_reportsNotProcessed_andLaterVideosStillStart()
+      throws InterruptedException {
+    // Given
+    jobQueue =
+        new JobQueue(
+            mockVideoEncoder,
+            mockVideoVerifier,
+            mockVideoArchiver,
+            videos -> videos,
+            1,
+            1,
+            1,
+            true,
+            new PipelineMetrics(),
+            JobJournal.disabled(),
+            LeaseCoordinator.disabled());
+    when(mockVideoEncoder.instances()).thenReturn(2);
+    UnencodedVideo video1 = factory.newUnencodedVideo(inputDirectory.resolve("video1.mp4"));
+    UnencodedVideo video2 = factory.newUnencodedVideo(inputDirectory.resolve("video2.mp4"));
+    UnencodedVideo video3 = factory.newUnencodedVideo(inputDirectory.resolve("video3.mp4"));
+    // the first video is held up before taking its turn, so the second waits for its turn
+    CountDownLatch released = new CountDownLatch(1);
+    CountDownLatch waiting = new CountDownLatch(1);
+    AtomicReference<Thread> waitingWorker = new AtomicReference<>();
+    when(mockVideoVerifier.alreadyEncoded(any()))
+        .then(
+            invocation -> {
+              if (invocation.getArgument(0) == video1) {
+                released.await();
+              } else if (invocation.getArgument(0) == video2) {
+                waitingWorker.set(Thread.currentThread());
+                waiting.countDown();
+              }
+              return false;
+            });
+    when(mockVideoEncoder.encode(any(), any())).thenReturn(true);
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
+    when(mockVideoArchiver.archive(any())).thenReturn(true);
+    List<JobResult> reported = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch notProcessed = new CountDownLatch(1);
+    JobQueue.Batch batch =
+        jobQueue.stream(
+            result -> {
+              reported.add(result);
+              if (result.status() == NOT_PROCESSED) {
+                notProcessed.countDown();
+              }
+            });
+
+    // When
+    batch.submitAll(List.of(video1, video2, video3));
+    waiting.await();
+    waitingWorker.get().interrupt();
+    notProcessed.await();
+    released.countDown();
+    List<JobResult> results = batch.finish();
+
+    // Then
+    assertThat(reported.stream().map(JobResult::video).toList())
+        .containsExactly(video2, video1, video3)
+        .inOrder();
+    assertThat(statuses(reported)).containsExactly(NOT_PROCESSED, ARCHIVED, ARCHIVED).inOrder();
+    verify(mockVideoEncoder, never()).encode(same(video2), any());
+    assertThat(results).isEmpty();
+  }
+
+  @Test
+  void resultsInSameOrderAsVideos() {
+    // Given
+    when(mockVideoEncoder.instances()).thenReturn(4);
+    when(mockVideoEncoder.encode(any(), any())).thenReturn(true);
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
+    when(mockVideoArchiver.archive(any())).thenReturn(true);
+
+    List<UnencodedVideo> videos =
+        IntStream.rangeClosed(1, 100)
+            .mapToObj(
+                i ->
+                    factory.newUnencodedVideo(inputDirectory.resolve("video%03d.mp4".formatted(i))))
+            .toList();
+
+    // When
+    List<JobResult> results = jobQueue.process(videos);
+
+    // Then
+    assertThat(results.stream().map(JobResult::video).toList())
+        .containsExactlyElementsIn(videos)
+        .inOrder();
+  }
+
+  @Test
+  void encodesInOrderDecidedBySchedulingPolicy() {
+    // Given
+    jobQueue =
+        new JobQueue(
+            mockVideoEncoder,
+            mockVideoVerifier,
+            mockVideoArchiver,
+            videos -> videos.reversed(),
+            1,
+            1,
+            1,
+            false,
+            new PipelineMetrics(),
+            JobJournal.disabled(),
+            LeaseCoordinator.disabled());
+    whenVideoEncoderReturns(true);
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
+    when(mockVideoArchiver.archive(any())).thenReturn(true);
+
+    List<UnencodedVideo> videos =
+        IntStream.rangeClosed(1, 10)
+            .mapToObj(
+                i -> factory.newUnencodedVideo(inputDirectory.resolve("video%d.mp4".formatted(i))))
+            .toList();
+
+    // When
+    List<JobResult> results = jobQueue.process(videos);
+
+    // Then
+    InOrder inOrder = inOrder(mockVideoEncoder);
+    for (UnencodedVideo video : videos.reversed()) {
+      inOrder.verify(mockVideoEncoder).encode(same(video), any());
     }
+    assertThat(results.stream().map(JobResult::video).toList())
+        .containsExactlyElementsIn(videos.reversed())
+        .inOrder();
+  }
+
+  @Test
+  void batch_startsEncodingAsSoonAsVideoSubmitted() throws InterruptedException {
+    // Given
+    CountDownLatch encoding = new CountDownLatch(1);
+    when(mockVideoEncoder.encode(any(), any()))
+        .then(
+            invocation -> {
+              encoding.countDown();
+              return true;
+            });
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
+    when(mockVideoArchiver.archive(any())).thenReturn(true);
+    UnencodedVideo video1 = factory.newUnencodedVideo(inputDirectory.resolve("video1.mp4"));
+    UnencodedVideo video2 = factory.newUnencodedVideo(inputDirectory.resolve("video2.mp4"));
+
+    // When
+    JobQueue.Batch batch = jobQueue.start();
+    batch.submit(video1);
+
+    // Then
+    // encoding started while the batch is still open (e.g. still scanning)
+    assertThat(encoding.await(10, TimeUnit.SECONDS)).isTrue();
+    batch.submit(video2);
+    List<JobResult> results = batch.finish();
+    assertThat(results.stream().map(JobResult::video).toList())
+        .containsExactly(video1, video2)
+        .inOrder();
+    assertThat(statuses(results)).containsExactly(ARCHIVED, ARCHIVED);
+  }
+
+  @Test
+  void batch_whenSchedulingPolicyNotStreamable_startsEncodingOnceFinished() {
+    // Given
+    jobQueue =
+        new JobQueue(
+            mockVideoEncoder,
+            mockVideoVerifier,
+            mockVideoArchiver,
+            SchedulingPolicy.shortestFirst(),
+            1,
+            1,
+            1,
+            false,
+            new PipelineMetrics(),
+            JobJournal.disabled(),
+            LeaseCoordinator.disabled());
+    whenVideoEncoderReturns(true);
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
+    when(mockVideoArchiver.archive(any())).thenReturn(true);
+    UnencodedVideo video = factory.newUnencodedVideo(inputDirectory.resolve("video.mp4"));
+
+    // When
+    JobQueue.Batch batch = jobQueue.start();
+    batch.submit(video);
+
+    // Then
+    verify(mockVideoEncoder, never()).encode(any(), any());
+    assertThat(statuses(batch.finish())).containsExactly(ARCHIVED);
+    verify(mockVideoEncoder).encode(same(video), any());
+  }
+
+  @Test
+  void stream_startsEncodingAsSoonAsSubmitted_andReportsEachResult() throws InterruptedException {
+    // Given
+    jobQueue =
+        new JobQueue(
+            mockVideoEncoder,
+            mockVideoVerifier,
+            mockVideoArchiver,
+            videos -> videos.reversed(),
+            1,
+            1,
+            1,
+            false,
+            new PipelineMetrics(),
+            JobJournal.disabled(),
+            LeaseCoordinator.disabled());
+    CountDownLatch encoded = new CountDownLatch(2);
+    when(mockVideoEncoder.encode(any(), any()))
+        .then(
+            invocation -> {
+              encoded.countDown();
+              return true;
+            });
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
+    when(mockVideoArchiver.archive(any())).thenReturn(true);
+    UnencodedVideo video1 = factory.newUnencodedVideo(inputDirectory.resolve("video1.mp4"));
+    UnencodedVideo video2 = factory.newUnencodedVideo(inputDirectory.resolve("video2.mp4"));
+    UnencodedVideo video3 = factory.newUnencodedVideo(inputDirectory.resolve("video3.mp4"));
+    List<JobResult> reported = Collections.synchronizedList(new ArrayList<>());
+
+    // When
+    JobQueue.Batch batch = jobQueue.stream(reported::add);
+    batch.submitAll(List.of(video1, video2));
+
+    // Then
+    // encoding started while the batch is still open (e.g. still watching)
+    assertThat(encoded.await(10, TimeUnit.SECONDS)).isTrue();
+    batch.submitAll(List.of(video3));
+    List<JobResult> results = batch.finish();
+    InOrder inOrder = inOrder(mockVideoEncoder);
+    inOrder.verify(mockVideoEncoder).encode(same(video2), any());
+    inOrder.verify(mockVideoEncoder).encode(same(video1), any());
+    inOrder.verify(mockVideoEncoder).encode(same(video3), any());
+    assertThat(reported.stream().map(JobResult::video).toList())
+        .containsExactly(video2, video1, video3);
+    assertThat(statuses(reported)).containsExactly(ARCHIVED, ARCHIVED, ARCHIVED);
+    // already reported, so not retained
+    assertThat(results).isEmpty();
+  }
+
+  @Test
+  void whenSkippingAlreadyEncoded_archivesAlreadyEncodedVideosWithoutEncoding() {
+    // Given
+    jobQueue =
+        new JobQueue(
+            mockVideoEncoder,
+            mockVideoVerifier,
+            mockVideoArchiver,
+            SchedulingPolicy.fifo(),
+            1,
+            1,
+            1,
+            true,
+            new PipelineMetrics(),
+            JobJournal.disabled(),
+            LeaseCoordinator.disabled());
+    UnencodedVideo encoded = factory.newUnencodedVideo(inputDirectory.resolve("encoded.mp4"));
+    UnencodedVideo unencoded = factory.newUnencodedVideo(inputDirectory.resolve("unencoded.mp4"));
+    when(mockVideoVerifier.alreadyEncoded(same(encoded))).thenReturn(true);
+    when(mockVideoVerifier.alreadyEncoded(same(unencoded))).thenReturn(false);
+    whenVideoEncoderReturns(true);
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
+    when(mockVideoArchiver.archive(any())).thenReturn(true);
+
+    // When
+    List<JobResult> results = jobQueue.process(List.of(encoded, unencoded));
+
+    // Then
+    assertThat(statuses(results)).containsExactly(ARCHIVED, ARCHIVED).inOrder();
+    verify(mockVideoEncoder, never()).encode(same(encoded), any());
+    verify(mockVideoVerifier, never()).verify(same(encoded));
+    verify(mockVideoArchiver).archive(same(encoded));
+    verify(mockVideoEncoder).encode(same(unencoded), any());
+    verify(mockVideoVerifier).verify(same(unencoded));
+    verify(mockVideoArchiver).archive(same(unencoded));
+  }
+
+  @Test
+  void whenNotSkippingAlreadyEncoded_doesNotCheck() {
+    // Given
+    whenVideoEncoderReturns(true);
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
+    when(mockVideoArchiver.archive(any())).thenReturn(true);
+    UnencodedVideo video = factory.newUnencodedVideo(inputDirectory.resolve("video.mp4"));
+
+    // When
+    List<JobResult> results = jobQueue.process(List.of(video));
+
+    // Then
+    assertThat(statuses(results)).containsExactly(ARCHIVED);
+    verify(mockVideoVerifier, never()).alreadyEncoded(any());
+    verify(mockVideoEncoder).encode(same(video), any());
+  }
+
+  @Test
+  void recordsMetrics() {
+    // Given
+    PipelineMetrics metrics = new PipelineMetrics();
+    jobQueue =
+        new JobQueue(
+            mockVideoEncoder,
+            mockVideoVerifier,
+            mockVideoArchiver,
+            SchedulingPolicy.fifo(),
+            1,
+            1,
+            1,
+            false,
+            metrics,
+            JobJournal.disabled(),
+            LeaseCoordinator.disabled());
+    whenVideoEncoderReturns(true, true, true);
+    when(mockVideoVerifier.verify(any())).thenReturn(true, false, true);
+    when(mockVideoArchiver.archive(any())).thenReturn(true);
+    List<UnencodedVideo> videos =
+        IntStream.range(0, 3)
+            .mapToObj(i -> factory.newUnencodedVideo(inputDirectory.resolve(i + ".mp4")))
+            .toList();
+
+    // When
+    jobQueue.process(videos);
+
+    // Then
+    assertThat(metrics.registry().prometheus().lines())
+        .containsAtLeast(
+            "auto_handbrake_cfr_videos_succeeded_total 2",
+            "auto_handbrake_cfr_videos_failed_total 1",
+            "auto_handbrake_cfr_verify_duration_seconds_count 3",
+            "auto_handbrake_cfr_archive_duration_seconds_count 2",
+            "auto_handbrake_cfr_encode_queue_depth 0.0",
+            "auto_handbrake_cfr_verify_queue_depth 0.0",
+            "auto_handbrake_cfr_archive_queue_depth 0.0");
+  }
+
+  @Test
+  void whenResumingFromJournal_skipsCompletedStages() throws IOException {
+    // Given
+    Path journalFile = fileSystem.getPath("output", JobJournal.FILE_NAME);
+    UnencodedVideo encoded = factory.newUnencodedVideo(inputDirectory.resolve("encoded.mp4"));
+    UnencodedVideo verified = factory.newUnencodedVideo(inputDirectory.resolve("verified.mp4"));
+    UnencodedVideo encoding = factory.newUnencodedVideo(inputDirectory.resolve("encoding.mp4"));
+    for (UnencodedVideo video : List.of(encoded, verified, encoding)) {
+      Files.write(video.originalPath(), new byte[] {1});
+    }
+    Files.write(encoded.tempEncodedPath(), new byte[] {2});
+    Files.write(verified.encodedPath(), new byte[] {3});
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      journal.record(encoded, JobJournal.State.ENCODED);
+      journal.record(verified, JobJournal.State.VERIFIED);
+      journal.record(encoding, JobJournal.State.ENCODING);
+    }
+
+    whenVideoEncoderReturns(true);
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
+    when(mockVideoArchiver.archive(any())).thenReturn(true);
+
+    // When
+    List<JobResult> results;
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      jobQueue =
+          new JobQueue(
+              mockVideoEncoder,
+              mockVideoVerifier,
+              mockVideoArchiver,
+              SchedulingPolicy.fifo(),
+              1,
+              1,
+              1,
+              false,
+              new PipelineMetrics(),
+              journal,
+              LeaseCoordinator.disabled());
+      results = jobQueue.process(List.of(encoded, verified, encoding));
+    }
+
+    // Then
+    assertThat(statuses(results)).containsExactly(ARCHIVED, ARCHIVED, ARCHIVED);
+    verify(mockVideoEncoder, never()).encode(same(encoded), any());
+    verify(mockVideoVerifier).verify(same(encoded));
+    verify(mockVideoEncoder, never()).encode(same(verified), any());
+    verify(mockVideoVerifier, never()).verify(same(verified));
+    verify(mockVideoEncoder).encode(same(encoding), any());
+    verify(mockVideoVerifier).verify(same(encoding));
+    verify(mockVideoArchiver, times(3)).archive(any());
+    // all archived, nothing left to resume
+    try (JobJournal journal = JobJournal.open(journalFile)) {
+      assertThat(journal.resume(encoded)).isEmpty();
+      assertThat(journal.resume(verified)).isEmpty();
+      assertThat(journal.resume(encoding)).isEmpty();
+    }
+  }
+
+  @Test
+  void whenCoordinating_leavesVideosLeasedByAnotherNode_andReleasesLeasesOnceProcessed()
+      throws IOException {
+    // Given
+    UnencodedVideo leasedElsewhere = factory.newUnencodedVideo(inputDirectory.resolve("a.mp4"));
+    UnencodedVideo video = factory.newUnencodedVideo(inputDirectory.resolve("b.mp4"));
+    Files.createFile(video.originalPath());
+    Files.createDirectories(leasedElsewhere.leasePath().getParent());
+    Files.writeString(leasedElsewhere.leasePath(), "other-node token");
+
+    whenVideoEncoderReturns(true);
+    when(mockVideoVerifier.verify(any())).thenReturn(true);
+    when(mockVideoArchiver.archive(any())).thenReturn(true);
+
+    // When
+    List<JobResult> results;
+    try (LeaseCoordinator leases = new LeaseCoordinator("node", LeaseCoordinator.DEFAULT_TTL)) {
+      jobQueue =
+          new JobQueue(
+              mockVideoEncoder,
+              mockVideoVerifier,
+              mockVideoArchiver,
+              SchedulingPolicy.fifo(),
+              1,
+              1,
+              1,
+              false,
+              new PipelineMetrics(),
+              JobJournal.disabled(),
+              leases);
+      results = jobQueue.process(List.of(leasedElsewhere, video));
+    }
+
+    // Then
+    assertThat(statuses(results)).containsExactly(LEASED_ELSEWHERE, ARCHIVED);
+    assertThat(results.get(0).failed()).isFalse();
+    verify(mockVideoEncoder, never()).encode(same(leasedElsewhere), any());
+    verify(mockVideoArchiver, never()).archive(same(leasedElsewhere));
+    verify(mockVideoArchiver).archive(same(video));
+    assertThat(Files.exists(leasedElsewhere.leasePath())).isTrue();
+    assertThat(Files.exists(video.leasePath())).isFalse();
+  }
+
+  @Test
+  void whenCoordinating_whenLeaseLostWhileEncoding_stopsEncoding() throws IOException {
+    // Given
+    UnencodedVideo video = factory.newUnencodedVideo(inputDirectory.resolve("a.mp4"));
+    Files.createFile(video.originalPath());
+
+    // When
+    List<JobResult> results;
+    List<Boolean> cancelled = new ArrayList<>();
+    try (LeaseCoordinator leases = new LeaseCoordinator("node", LeaseCoordinator.DEFAULT_TTL)) {
+      when(mockVideoEncoder.encode(same(video), any()))
+          .then(
+              invocation -> {
+                BooleanSupplier isCancelled = invocation.getArgument(1);
+                cancelled.add(isCancelled.getAsBoolean());
+                // taken over by another node (i.e. this node paused for longer than the TTL)
+                Files.writeString(video.leasePath(), "other-node token");
+                leases.heartbeat();
+                cancelled.add(isCancelled.getAsBoolean());
+                return false;
+              });
+      jobQueue =
+          new JobQueue(
+              mockVideoEncoder,
+              mockVideoVerifier,
+              mockVideoArchiver,
+              SchedulingPolicy.fifo(),
+              1,
+              1,
+              1,
+              false,
+              new PipelineMetrics(),
+              JobJournal.disabled(),
+              leases);
+      results = jobQueue.process(List.of(video));
+    }
+
+    // Then
+    assertThat(cancelled).containsExactly(false, true).inOrder();
+    assertThat(statuses(results)).containsExactly(LEASED_ELSEWHERE);
+    verify(mockVideoVerifier, never()).verify(any());
+    verify(mockVideoArchiver, never()).archive(any());
+    // the other node's
+    assertThat(Files.readString(video.leasePath())).isEqualTo("other-node token");
+  }
+
+  @Test
+  void whenCoordinating_leavesVideosProcessedByAnotherNodeSinceScanned() throws IOException {
+    // Given
+    // archived by another node between this node scanning it and acquiring its lease
+    UnencodedVideo processedElsewhere = factory.newUnencodedVideo(inputDirectory.resolve("a.mp4"));
+
+    // When
+    List<JobResult> results;
+    try (LeaseCoordinator leases = new LeaseCoordinator("node", LeaseCoordinator.DEFAULT_TTL)) {
+      jobQueue =
+          new JobQueue(
+              mockVideoEncoder,
+              mockVideoVerifier,
+              mockVideoArchiver,
+              SchedulingPolicy.fifo(),
+              1,
+              1,
+              1,
+              false,
+              new PipelineMetrics(),
+              JobJournal.disabled(),
+              leases);
+      results = jobQueue.process(List.of(processedElsewhere));
+    }
+
+    // Then
+    assertThat(statuses(results)).containsExactly(LEASED_ELSEWHERE);
+    assertThat(results.get(0).failed()).isFalse();
+    verify(mockVideoEncoder, never()).encode(any(), any());
+    verify(mockVideoArchiver, never()).archive(any());
+    assertThat(Files.exists(processedElsewhere.leasePath())).isFalse();
+  }
+
+  private static List<JobResult.Status> statuses(List<JobResult> results) {
+    return results.stream().map(JobResult::status).toList();
   }
 
   private void whenVideoEncoderReturns(boolean... results) {
@@ -196,7 +974,7 @@ class JobQueueTest {
         .when(mockVideoEncoder)
         .acquire();
 
-    when(mockVideoEncoder.encode(any()))
+    when(mockVideoEncoder.encode(any(), any()))
         .then(
             new Answer<Boolean>() {
               int i;
@@ -0,0 +1,294 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * LeaseCoordinatorTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class LeaseCoordinatorTest {
+
+  private static final Duration TTL = Duration.ofMinutes(1);
+
+  private FileSystem fileSystem;
+  private Path inputDirectory;
+  private UnencodedVideo.Factory factory;
+  private UnencodedVideo video;
+  private Path leasePath;
+  private LeaseCoordinator node1;
+  private LeaseCoordinator node2;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    inputDirectory = Files.createDirectories(fileSystem.getPath("/input"));
+    factory =
+        new UnencodedVideo.Factory(
+            inputDirectory,
+            Files.createDirectories(fileSystem.getPath("/output")),
+            Files.createDirectories(fileSystem.getPath("/archive")));
+    Path original = Files.createFile(inputDirectory.resolve("video.mp4"));
+    video =
+        factory.newUnencodedVideo(
+            original, Files.readAttributes(original, BasicFileAttributes.class));
+    leasePath = fileSystem.getPath("/output", LeaseCoordinator.DIRECTORY_NAME, "video.mp4.lease");
+    node1 = new LeaseCoordinator("node-1", TTL);
+    node2 = new LeaseCoordinator("node-2", TTL);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    node1.close();
+    node2.close();
+    fileSystem.close();
+  }
+
+  @Test
+  void acquiresLeaseInLeasesDirectory() {
+    // When
+    Optional<LeaseCoordinator.Lease> lease = node1.tryAcquire(video);
+
+    // Then
+    assertThat(lease).isPresent();
+    assertThat(lease.get().held()).isTrue();
+    assertThat(video.leasePath()).isEqualTo(leasePath);
+    assertThat(Files.exists(leasePath)).isTrue();
+  }
+
+  @Test
+  void leavesInputDirectoryUnchanged() throws IOException {
+    // Given
+    FileTime lastModified = FileTime.from(Instant.now().minus(TTL));
+    Files.setLastModifiedTime(inputDirectory, lastModified);
+
+    // When
+    node1.tryAcquire(video).get().close();
+
+    // Then
+    // otherwise the directory index lists it again
+    try (Stream<Path> files = Files.list(inputDirectory)) {
+      assertThat(files.toList()).containsExactly(video.originalPath());
+    }
+    assertThat(Files.getLastModifiedTime(inputDirectory)).isEqualTo(lastModified);
+  }
+
+  @Test
+  void whenLeasedByAnotherNode_doesNotAcquire() {
+    // Given
+    Optional<LeaseCoordinator.Lease> lease = node1.tryAcquire(video);
+
+    // When
+    Optional<LeaseCoordinator.Lease> other = node2.tryAcquire(video);
+
+    // Then
+    assertThat(other).isEmpty();
+    assertThat(lease.get().held()).isTrue();
+  }
+
+  @Test
+  void whenNodesRace_onlyOneAcquires() throws Exception {
+    // Given
+    List<Callable<Optional<LeaseCoordinator.Lease>>> attempts = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      LeaseCoordinator node = i % 2 == 0 ? node1 : node2;
+      attempts.add(() -> node.tryAcquire(video));
+    }
+
+    // When
+    List<Optional<LeaseCoordinator.Lease>> leases = new ArrayList<>();
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (Future<Optional<LeaseCoordinator.Lease>> future : executor.invokeAll(attempts)) {
+        leases.add(future.get());
+      }
+    }
+
+    // Then
+    assertThat(leases.stream().filter(Optional::isPresent).count()).isEqualTo(1);
+  }
+
+  @Test
+  void whenReleased_anotherNodeAcquires() {
+    // Given
+    node1.tryAcquire(video).get().close();
+
+    // When
+    Optional<LeaseCoordinator.Lease> lease = node2.tryAcquire(video);
+
+    // Then
+    assertThat(lease).isPresent();
+  }
+
+  @Test
+  void whenExpired_reclaimsIt() throws IOException {
+    // Given
+    LeaseCoordinator.Lease abandoned = node1.tryAcquire(video).get();
+    Files.setLastModifiedTime(leasePath, FileTime.from(Instant.now().minus(TTL.multipliedBy(2))));
+
+    // When
+    Optional<LeaseCoordinator.Lease> lease = node2.tryAcquire(video);
+
+    // Then
+    assertThat(lease).isPresent();
+    // nothing left behind but the new lease
+    try (Stream<Path> files = Files.list(leasePath.getParent())) {
+      assertThat(files.toList()).containsExactly(leasePath);
+    }
+    // the old node finds out on its next heartbeat
+    node1.heartbeat();
+    assertThat(abandoned.held()).isFalse();
+    assertThat(lease.get().held()).isTrue();
+  }
+
+  @Test
+  void whenNotExpired_doesNotReclaimIt() throws IOException {
+    // Given
+    node1.tryAcquire(video);
+    Files.setLastModifiedTime(leasePath, FileTime.from(Instant.now().minus(TTL.dividedBy(2))));
+
+    // When
+    Optional<LeaseCoordinator.Lease> lease = node2.tryAcquire(video);
+
+    // Then
+    assertThat(lease).isEmpty();
+    assertThat(Files.exists(leasePath)).isTrue();
+  }
+
+  @Test
+  void heartbeat_renewsLeasesHeld() throws IOException {
+    // Given
+    LeaseCoordinator.Lease lease = node1.tryAcquire(video).get();
+    FileTime old = FileTime.from(Instant.now().minus(TTL.dividedBy(2)));
+    Files.setLastModifiedTime(leasePath, old);
+
+    // When
+    node1.heartbeat();
+
+    // Then
+    assertThat(Files.getLastModifiedTime(leasePath)).isGreaterThan(old);
+    assertThat(lease.held()).isTrue();
+  }
+
+  @Test
+  void heartbeat_whenLeaseTakenByAnotherNode_losesIt() throws IOException {
+    // Given
+    LeaseCoordinator.Lease lease = node1.tryAcquire(video).get();
+    Files.writeString(leasePath, "node-2 token");
+
+    // When
+    node1.heartbeat();
+    lease.close();
+
+    // Then
+    assertThat(lease.held()).isFalse();
+    // the other node's lease is left alone
+    assertThat(Files.readString(leasePath)).isEqualTo("node-2 token");
+  }
+
+  @Test
+  void close_releasesLeasesHeld() {
+    // Given
+    LeaseCoordinator.Lease lease = node1.tryAcquire(video).get();
+
+    // When
+    node1.close();
+
+    // Then
+    assertThat(lease.held()).isFalse();
+    assertThat(Files.exists(leasePath)).isFalse();
+  }
+
+  @Test
+  void whenOriginalArchivedSinceScanned_releasesLease() throws IOException {
+    // Given
+    // e.g. another node processed it between this node scanning it and acquiring its lease
+    Files.delete(video.originalPath());
+
+    // When
+    Optional<LeaseCoordinator.Lease> lease = node1.tryAcquire(video);
+
+    // Then
+    assertThat(lease).isEmpty();
+    assertThat(Files.exists(leasePath)).isFalse();
+  }
+
+  @Test
+  void whenOriginalChangedSinceScanned_releasesLease() throws IOException {
+    // Given
+    // e.g. another node's original, replaced by a new recording of the same name
+    Files.writeString(video.originalPath(), "new recording");
+
+    // When
+    Optional<LeaseCoordinator.Lease> lease = node1.tryAcquire(video);
+
+    // Then
+    assertThat(lease).isEmpty();
+    assertThat(Files.exists(leasePath)).isFalse();
+  }
+
+  @Test
+  void whenOriginalUnreadable_releasesLease() throws IOException {
+    // Given
+    // a symbolic link loop, so reading its attributes fails
+    Files.delete(video.originalPath());
+    Files.createSymbolicLink(video.originalPath(), video.originalPath());
+
+    // When
+    Optional<LeaseCoordinator.Lease> lease = node1.tryAcquire(video);
+
+    // Then
+    assertThat(lease).isEmpty();
+    // otherwise renewed for as long as the node runs, so no node could process the video
+    assertThat(Files.exists(leasePath)).isFalse();
+  }
+
+  @Test
+  void whenOriginalAttributesUnknown_onlyChecksItExists() {
+    // Given
+    UnencodedVideo unscanned = factory.newUnencodedVideo(video.originalPath());
+
+    // When
+    Optional<LeaseCoordinator.Lease> lease = node1.tryAcquire(unscanned);
+
+    // Then
+    assertThat(lease).isPresent();
+  }
+
+  @Test
+  void disabled_alwaysAcquires_withoutLeaseFiles() {
+    // Given
+    try (LeaseCoordinator disabled = LeaseCoordinator.disabled()) {
+      // When
+      Optional<LeaseCoordinator.Lease> lease = disabled.tryAcquire(video);
+      Optional<LeaseCoordinator.Lease> again = disabled.tryAcquire(video);
+
+      // Then
+      assertThat(lease).isPresent();
+      assertThat(again).isPresent();
+      assertThat(lease.get().held()).isTrue();
+      assertThat(Files.exists(leasePath)).isFalse();
+    }
+  }
+}
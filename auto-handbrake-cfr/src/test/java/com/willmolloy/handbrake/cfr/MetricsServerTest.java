@@ -0,0 +1,78 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.willmolloy.handbrake.cfr.util.MetricRegistry;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import org.junit.jupiter.api.Test;
+
+/**
+ * MetricsServerTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class MetricsServerTest {
+
+  private final MetricRegistry registry = new MetricRegistry("app");
+
+  @Test
+  void servesPrometheusTextFormat() throws IOException, InterruptedException {
+    // Given
+    registry.counter("bytes_total", "Bytes.").add(6);
+
+    try (MetricsServer server = new MetricsServer(registry, 0);
+        HttpClient client = HttpClient.newHttpClient()) {
+      // When
+      HttpResponse<String> response =
+          client.send(
+              HttpRequest.newBuilder(uri(server, MetricsServer.PATH)).build(),
+              HttpResponse.BodyHandlers.ofString());
+
+      // Then
+      assertThat(response.statusCode()).isEqualTo(200);
+      assertThat(response.headers().firstValue("Content-Type"))
+          .hasValue("text/plain; version=0.0.4; charset=utf-8");
+      assertThat(response.body()).isEqualTo(registry.prometheus());
+    }
+  }
+
+  @Test
+  void whenNotGet_returns405() throws IOException, InterruptedException {
+    try (MetricsServer server = new MetricsServer(registry, 0);
+        HttpClient client = HttpClient.newHttpClient()) {
+      // When
+      HttpResponse<String> response =
+          client.send(
+              HttpRequest.newBuilder(uri(server, MetricsServer.PATH))
+                  .POST(HttpRequest.BodyPublishers.noBody())
+                  .build(),
+              HttpResponse.BodyHandlers.ofString());
+
+      // Then
+      assertThat(response.statusCode()).isEqualTo(405);
+    }
+  }
+
+  @Test
+  void whenOtherPath_returns404() throws IOException, InterruptedException {
+    try (MetricsServer server = new MetricsServer(registry, 0);
+        HttpClient client = HttpClient.newHttpClient()) {
+      // When
+      HttpResponse<String> response =
+          client.send(
+              HttpRequest.newBuilder(uri(server, "/")).build(),
+              HttpResponse.BodyHandlers.ofString());
+
+      // Then
+      assertThat(response.statusCode()).isEqualTo(404);
+    }
+  }
+
+  private static URI uri(MetricsServer server, String path) {
+    return URI.create("http://localhost:" + server.port() + path);
+  }
+}
@@ -0,0 +1,87 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.willmolloy.handbrake.core.ProgressEvent;
+import com.willmolloy.handbrake.core.ProgressListener;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.OptionalInt;
+import org.junit.jupiter.api.Test;
+
+/**
+ * PipelineMetricsTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class PipelineMetricsTest {
+
+  private final PipelineMetrics metrics = new PipelineMetrics();
+
+  @Test
+  void encodeListener_reportsCurrentFpsOfRunningEncodes() {
+    // Given
+    ProgressListener encode1 = metrics.encodeListener();
+    ProgressListener encode2 = metrics.encodeListener();
+
+    // When
+    encode1.onEvent(progress(100));
+    encode2.onEvent(progress(40));
+    encode1.onEvent(progress(60));
+
+    // Then
+    assertThat(metrics.registry().prometheus().lines())
+        .containsAtLeast(
+            "auto_handbrake_cfr_encodes_running 2.0",
+            "auto_handbrake_cfr_encode_current_fps 100.0",
+            "auto_handbrake_cfr_encode_fps_count 3",
+            "auto_handbrake_cfr_encode_fps_sum 200.0");
+
+    // When
+    encode1.onEvent(new ProgressEvent.Finished(OptionalInt.of(0), Duration.ofMinutes(1)));
+
+    // Then
+    assertThat(metrics.registry().prometheus().lines())
+        .containsAtLeast(
+            "auto_handbrake_cfr_encodes_running 1.0", "auto_handbrake_cfr_encode_current_fps 40.0");
+  }
+
+  @Test
+  void archived_recordsThroughput() {
+    // When
+    metrics.archived(50_000_000, Duration.ofSeconds(2));
+
+    // Then
+    assertThat(metrics.registry().prometheus().lines())
+        .containsAtLeast(
+            "auto_handbrake_cfr_archive_bytes_total 50000000",
+            "auto_handbrake_cfr_archive_bytes_per_second_sum 2.5E7",
+            "auto_handbrake_cfr_archive_duration_seconds_sum 2.0");
+  }
+
+  @Test
+  void saveSummary_savesJson() throws IOException {
+    try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+      // Given
+      Path file = fileSystem.getPath("metrics.json");
+      metrics.encoded(100, 50, Duration.ofSeconds(10));
+
+      // When
+      metrics.saveSummary(file);
+
+      // Then
+      assertThat(Files.readString(file)).isEqualTo(metrics.registry().json());
+      assertThat(Files.readString(file))
+          .contains("\"auto_handbrake_cfr_encode_input_bytes_total\":100");
+    }
+  }
+
+  private static ProgressEvent.Progress progress(double fps) {
+    return new ProgressEvent.Progress(1, 1, 50, fps, fps, Duration.ofMinutes(1));
+  }
+}
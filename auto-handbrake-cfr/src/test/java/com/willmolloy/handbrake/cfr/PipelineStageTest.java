@@ -0,0 +1,147 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+/**
+ * PipelineStageTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class PipelineStageTest {
+
+  private final ConcurrentLinkedQueue<Integer> downstream = new ConcurrentLinkedQueue<>();
+
+  @Test
+  void passesSuccessfullyProcessedItemsDownstream() throws InterruptedException {
+    // Given
+    PipelineStage<Integer> stage =
+        PipelineStage.start("test", 2, 4, i -> i % 2 == 0, downstream::add);
+
+    // When
+    for (int i = 0; i < 10; i++) {
+      stage.submit(i);
+    }
+    stage.close();
+
+    // Then
+    assertThat(downstream).containsExactly(0, 2, 4, 6, 8);
+    assertThat(stage.succeeded()).isEqualTo(5);
+    assertThat(stage.failed()).isEqualTo(5);
+  }
+
+  @Test
+  void withSingleWorker_processesInOrder() throws InterruptedException {
+    // Given
+    PipelineStage<Integer> stage = PipelineStage.start("test", 1, 4, i -> true, downstream::add);
+    List<Integer> items = IntStream.range(0, 1000).boxed().toList();
+
+    // When
+    for (int item : items) {
+      stage.submit(item);
+    }
+    stage.close();
+
+    // Then
+    assertThat(downstream).containsExactlyElementsIn(items).inOrder();
+  }
+
+  @Test
+  void workersProcessConcurrently() throws InterruptedException {
+    // Given
+    // every worker must be processing an item at once to pass the barrier
+    CyclicBarrier barrier = new CyclicBarrier(4);
+    PipelineStage<Integer> stage =
+        PipelineStage.start(
+            "test",
+            4,
+            4,
+            i -> {
+              try {
+                barrier.await();
+                return true;
+              } catch (InterruptedException | BrokenBarrierException e) {
+                throw new IllegalStateException(e);
+              }
+            },
+            downstream::add);
+
+    // When
+    for (int i = 0; i < 8; i++) {
+      stage.submit(i);
+    }
+    stage.close();
+
+    // Then
+    assertThat(stage.succeeded()).isEqualTo(8);
+  }
+
+  @Test
+  void whenTaskThrowsException_countsAsFailure() throws InterruptedException {
+    // Given
+    PipelineStage<Integer> stage =
+        PipelineStage.start(
+            "test",
+            1,
+            4,
+            i -> {
+              throw new RuntimeException();
+            });
+
+    // When
+    stage.submit(1);
+    stage.close();
+
+    // Then
+    assertThat(stage.succeeded()).isEqualTo(0);
+    assertThat(stage.failed()).isEqualTo(1);
+  }
+
+  @Test
+  @Timeout(10)
+  void whenTaskThrowsError_countsAsFailure_andKeepsProcessing() throws InterruptedException {
+    // Given
+    PipelineStage<Integer> stage =
+        PipelineStage.start(
+            "test",
+            1,
+            1,
+            i -> {
+              if (i == 1) {
+                throw new StackOverflowError();
+              }
+              return true;
+            });
+
+    // When
+    for (int i = 1; i <= 4; i++) {
+      stage.submit(i);
+    }
+    stage.close();
+
+    // Then
+    assertThat(stage.succeeded()).isEqualTo(3);
+    assertThat(stage.failed()).isEqualTo(1);
+  }
+
+  @Test
+  void whenClosed_submitThrowsException() throws InterruptedException {
+    // Given
+    PipelineStage<Integer> stage = PipelineStage.start("test", 1, 4, i -> true);
+    stage.close();
+
+    // When
+    IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> stage.submit(1));
+
+    // Then
+    assertThat(thrown).hasMessageThat().isEqualTo("Stage (test) closed");
+  }
+}
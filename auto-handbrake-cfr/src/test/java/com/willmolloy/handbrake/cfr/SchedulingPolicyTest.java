@@ -0,0 +1,159 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * SchedulingPolicyTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class SchedulingPolicyTest {
+
+  private FileSystem fileSystem;
+  private Path inputDirectory;
+  private UnencodedVideo.Factory factory;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+
+    inputDirectory = fileSystem.getPath("input");
+    Path outputDirectory = fileSystem.getPath("output");
+    Path archiveDirectory = fileSystem.getPath("archive");
+
+    Files.createDirectories(inputDirectory);
+    Files.createDirectories(outputDirectory);
+    Files.createDirectories(archiveDirectory);
+
+    factory = new UnencodedVideo.Factory(inputDirectory, outputDirectory, archiveDirectory);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    fileSystem.close();
+  }
+
+  @Test
+  void fifo_keepsScannedOrder() throws IOException {
+    // Given
+    List<UnencodedVideo> videos =
+        List.of(video("c.mp4", 3, 1), video("a.mp4", 1, 3), video("b.mp4", 2, 2));
+
+    // When
+    List<UnencodedVideo> scheduled = SchedulingPolicy.fifo().schedule(videos);
+
+    // Then
+    assertThat(scheduled).containsExactlyElementsIn(videos).inOrder();
+  }
+
+  @Test
+  void shortestFirst_ordersBySize_keepingScannedOrderForEqualSizes() throws IOException {
+    // Given
+    UnencodedVideo large = video("large.mp4", 300, 1);
+    UnencodedVideo small = video("small.mp4", 100, 2);
+    UnencodedVideo medium1 = video("medium1.mp4", 200, 3);
+    UnencodedVideo medium2 = video("medium2.mp4", 200, 4);
+
+    // When
+    List<UnencodedVideo> scheduled =
+        SchedulingPolicy.shortestFirst().schedule(List.of(large, medium1, small, medium2));
+
+    // Then
+    assertThat(scheduled).containsExactly(small, medium1, medium2, large).inOrder();
+  }
+
+  @Test
+  void oldestFirst_ordersByLastModifiedTime() throws IOException {
+    // Given
+    UnencodedVideo newest = video("newest.mp4", 1, 300);
+    UnencodedVideo oldest = video("oldest.mp4", 1, 100);
+    UnencodedVideo middle = video("middle.mp4", 1, 200);
+
+    // When
+    List<UnencodedVideo> scheduled =
+        SchedulingPolicy.oldestFirst().schedule(List.of(newest, oldest, middle));
+
+    // Then
+    assertThat(scheduled).containsExactly(oldest, middle, newest).inOrder();
+  }
+
+  @Test
+  void weightedFair_interleavesTopLevelDirectories() throws IOException {
+    // Given
+    UnencodedVideo halo1 = video("Halo/1.mp4", 1, 1);
+    UnencodedVideo halo2 = video("Halo/Campaign/2.mp4", 1, 1);
+    UnencodedVideo halo3 = video("Halo/3.mp4", 1, 1);
+    UnencodedVideo clip1 = video("Clips/1.mp4", 1, 1);
+    UnencodedVideo clip2 = video("Clips/2.mp4", 1, 1);
+    UnencodedVideo root = video("root.mp4", 1, 1);
+
+    // When
+    List<UnencodedVideo> scheduled =
+        SchedulingPolicy.weightedFair(Map.of())
+            .schedule(List.of(halo1, halo2, halo3, clip1, clip2, root));
+
+    // Then
+    assertThat(scheduled).containsExactly(halo1, clip1, root, halo2, clip2, halo3).inOrder();
+  }
+
+  @Test
+  void weightedFair_givesDirectoriesTurnsProportionalToWeight() throws IOException {
+    // Given
+    UnencodedVideo halo1 = video("Halo/1.mp4", 1, 1);
+    UnencodedVideo halo2 = video("Halo/2.mp4", 1, 1);
+    UnencodedVideo halo3 = video("Halo/3.mp4", 1, 1);
+    UnencodedVideo halo4 = video("Halo/4.mp4", 1, 1);
+    UnencodedVideo clip1 = video("Clips/1.mp4", 1, 1);
+    UnencodedVideo clip2 = video("Clips/2.mp4", 1, 1);
+
+    // When
+    List<UnencodedVideo> scheduled =
+        SchedulingPolicy.weightedFair(Map.of("Halo", 2))
+            .schedule(List.of(halo1, halo2, halo3, halo4, clip1, clip2));
+
+    // Then
+    assertThat(scheduled).containsExactly(halo1, clip1, halo2, halo3, clip2, halo4).inOrder();
+  }
+
+  @Test
+  void weightedFair_whenWeightNotPositive_throwsException() {
+    IllegalArgumentException thrown =
+        assertThrows(
+            IllegalArgumentException.class, () -> SchedulingPolicy.weightedFair(Map.of("Halo", 0)));
+
+    assertThat(thrown)
+        .hasMessageThat()
+        .isEqualTo("weight (0) of directory (Halo) must be positive");
+  }
+
+  @Test
+  void of_whenUnknownName_throwsException() {
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, () -> SchedulingPolicy.of("lifo", Map.of()));
+
+    assertThat(thrown).hasMessageThat().isEqualTo("Unknown scheduling policy (lifo)");
+  }
+
+  private UnencodedVideo video(String path, int size, long lastModifiedMillis) throws IOException {
+    Path file = inputDirectory.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, new byte[size]);
+    Files.setLastModifiedTime(file, FileTime.fromMillis(lastModifiedMillis));
+    return factory.newUnencodedVideo(file, Files.readAttributes(file, BasicFileAttributes.class));
+  }
+}
@@ -0,0 +1,155 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * ThreadBudgetTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class ThreadBudgetTest {
+
+  @Test
+  void fixed_leasesSameThreadsToEveryEncode() {
+    // Given
+    ThreadBudget threadBudget = ThreadBudget.fixed(4);
+
+    // When
+    try (ThreadBudget.Lease lease1 = threadBudget.lease();
+        ThreadBudget.Lease lease2 = threadBudget.lease();
+        ThreadBudget.Lease lease3 = threadBudget.lease()) {
+      // Then
+      assertThat(lease1.threads()).isEqualTo(4);
+      assertThat(lease2.threads()).isEqualTo(4);
+      assertThat(lease3.threads()).isEqualTo(4);
+    }
+  }
+
+  @Test
+  void shared_splitsCoresBetweenRunningEncodes() {
+    // Given
+    ThreadBudget threadBudget = ThreadBudget.shared(64, 3);
+
+    // When
+    try (ThreadBudget.Lease lease1 = threadBudget.lease();
+        ThreadBudget.Lease lease2 = threadBudget.lease();
+        ThreadBudget.Lease lease3 = threadBudget.lease()) {
+      // Then
+      assertThat(lease1.threads()).isEqualTo(21);
+      assertThat(lease2.threads()).isEqualTo(21);
+      // picks up the remainder
+      assertThat(lease3.threads()).isEqualTo(22);
+    }
+  }
+
+  @Test
+  void shared_whenLeaseClosed_returnsItsCores() {
+    // Given
+    ThreadBudget threadBudget = ThreadBudget.shared(8, 2);
+    ThreadBudget.Lease lease1 = threadBudget.lease();
+    ThreadBudget.Lease lease2 = threadBudget.lease();
+
+    // When
+    lease1.close();
+    // closing again does nothing
+    lease1.close();
+
+    // Then
+    try (ThreadBudget.Lease lease3 = threadBudget.lease()) {
+      assertThat(lease3.threads()).isEqualTo(4);
+    }
+    lease2.close();
+  }
+
+  @Test
+  void shared_whenFewerCoresThanEncodes_leasesAtLeastOneThread() {
+    // Given
+    ThreadBudget threadBudget = ThreadBudget.shared(1, 2);
+
+    // When
+    try (ThreadBudget.Lease lease1 = threadBudget.lease();
+        ThreadBudget.Lease lease2 = threadBudget.lease()) {
+      // Then
+      assertThat(lease1.threads()).isEqualTo(1);
+      assertThat(lease2.threads()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  void shared_whenResized_sharesCoresBetweenThatManyEncodes() {
+    // Given
+    ThreadBudget threadBudget = ThreadBudget.shared(12, 4);
+
+    // When
+    threadBudget.resize(2);
+
+    // Then
+    assertThat(threadBudget.encodes()).isEqualTo(2);
+    try (ThreadBudget.Lease lease1 = threadBudget.lease();
+        ThreadBudget.Lease lease2 = threadBudget.lease()) {
+      assertThat(lease1.threads()).isEqualTo(6);
+      assertThat(lease2.threads()).isEqualTo(6);
+    }
+  }
+
+  @Test
+  void shared_whenResizedBelowLeases_leasesNewShare() {
+    // Given
+    ThreadBudget threadBudget = ThreadBudget.shared(8, 2);
+
+    try (ThreadBudget.Lease lease1 = threadBudget.lease()) {
+      // When
+      // e.g. an encode acquired an instance just before it was resized
+      threadBudget.resize(1);
+
+      // Then
+      try (ThreadBudget.Lease lease2 = threadBudget.lease()) {
+        assertThat(lease1.threads()).isEqualTo(4);
+        // oversubscribed until the first lease is closed
+        assertThat(lease2.threads()).isEqualTo(8);
+      }
+    }
+  }
+
+  @Test
+  void shared_whenResizedUpWhileLeaseHeld_leasesNewShare() {
+    // Given
+    ThreadBudget threadBudget = ThreadBudget.shared(8, 1);
+    ThreadBudget.Lease lease1 = threadBudget.lease();
+
+    // When
+    threadBudget.resize(2);
+
+    // Then
+    assertThat(lease1.threads()).isEqualTo(8);
+    // oversubscribed until the first lease is closed, rather than starved
+    ThreadBudget.Lease lease2 = threadBudget.lease();
+    assertThat(lease2.threads()).isEqualTo(4);
+    lease1.close();
+    try (ThreadBudget.Lease lease3 = threadBudget.lease()) {
+      assertThat(lease3.threads()).isEqualTo(4);
+    }
+    lease2.close();
+    try (ThreadBudget.Lease lease4 = threadBudget.lease();
+        ThreadBudget.Lease lease5 = threadBudget.lease()) {
+      assertThat(lease4.threads()).isEqualTo(4);
+      assertThat(lease5.threads()).isEqualTo(4);
+    }
+  }
+
+  @Test
+  void fixed_whenResized_leasesSameThreads() {
+    // Given
+    ThreadBudget threadBudget = ThreadBudget.fixed(4);
+
+    // When
+    threadBudget.resize(2);
+
+    // Then
+    try (ThreadBudget.Lease lease = threadBudget.lease()) {
+      assertThat(lease.threads()).isEqualTo(4);
+    }
+  }
+}
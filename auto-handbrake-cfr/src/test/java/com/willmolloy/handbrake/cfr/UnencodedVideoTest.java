@@ -9,6 +9,9 @@ import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -61,10 +64,70 @@ class UnencodedVideoTest {
     assertThat(unencodedVideo.encodedPath()).isEqualTo(outputDirectory.resolve("file.cfr.mp4"));
     assertThat(unencodedVideo.tempEncodedPath())
         .isEqualTo(outputDirectory.resolve("file.cfr.mp4.part"));
+    assertThat(unencodedVideo.encodedFingerprintsPath())
+        .isEqualTo(outputDirectory.resolve("file.cfr.mp4.fingerprints"));
+    assertThat(unencodedVideo.encodedSourceFingerprintPath())
+        .isEqualTo(outputDirectory.resolve("file.cfr.mp4.source"));
 
     assertThat(unencodedVideo.archivedPath()).isEqualTo(archiveDirectory.resolve("file.mp4"));
     assertThat(unencodedVideo.tempArchivedPath())
         .isEqualTo(archiveDirectory.resolve("file.mp4.part"));
+
+    assertThat(unencodedVideo.leasePath())
+        .isEqualTo(outputDirectory.resolve(".auto-handbrake-cfr.leases/file.mp4.lease"));
+  }
+
+  @Test
+  void tempSegmentPath_isOfTempEncodedPath() {
+    // Given
+    UnencodedVideo unencodedVideo =
+        factory.newUnencodedVideo(inputDirectory.resolve("Nested/file.mp4"));
+
+    // When
+    Path segmentPath = unencodedVideo.tempSegmentPath(3);
+
+    // Then
+    assertThat(segmentPath)
+        .isEqualTo(outputDirectory.resolve("Nested/file.cfr.mp4.segment-3.part"));
+    assertThat(UnencodedVideo.isTempSegmentMp4(segmentPath)).isTrue();
+    assertThat(UnencodedVideo.isTempEncodedMp4(segmentPath)).isFalse();
+    assertThat(UnencodedVideo.isTempArchivedMp4(segmentPath)).isFalse();
+    assertThat(UnencodedVideo.tempEncodedPathOfSegment(segmentPath))
+        .isEqualTo(unencodedVideo.tempEncodedPath());
+  }
+
+  @Test
+  void encodedSidecars_areOfEncodedPath() {
+    // Given
+    UnencodedVideo unencodedVideo =
+        factory.newUnencodedVideo(inputDirectory.resolve("Nested/file.mp4"));
+
+    // When/Then
+    for (Path sidecar :
+        List.of(
+            unencodedVideo.encodedFingerprintsPath(),
+            unencodedVideo.encodedSourceFingerprintPath())) {
+      assertThat(UnencodedVideo.isEncodedSidecar(sidecar)).isTrue();
+      assertThat(UnencodedVideo.encodedPathOfSidecar(sidecar))
+          .isEqualTo(unencodedVideo.encodedPath());
+    }
+    assertThat(UnencodedVideo.isEncodedSidecar(unencodedVideo.encodedPath())).isFalse();
+  }
+
+  @Test
+  void factory_originalPathOfTempFile_isInverseOfTempPaths() throws IOException {
+    // Given
+    Files.createDirectories(inputDirectory.resolve("Nested"));
+    UnencodedVideo video = factory.newUnencodedVideo(inputDirectory.resolve("Nested/file.mp4"));
+    Path absoluteOriginal = video.originalPath().toAbsolutePath();
+
+    // When/Then
+    assertThat(factory.originalPathOfTempFile(video.tempEncodedPath())).hasValue(absoluteOriginal);
+    assertThat(factory.originalPathOfTempFile(video.tempArchivedPath())).hasValue(absoluteOriginal);
+    // not where the video's temp files go
+    assertThat(factory.originalPathOfTempFile(inputDirectory.resolve("file.cfr.mp4.part")))
+        .isEmpty();
+    assertThat(factory.originalPathOfTempFile(outputDirectory.resolve("file.mp4.part"))).isEmpty();
   }
 
   @Test
@@ -82,11 +145,47 @@ class UnencodedVideoTest {
         .isEqualTo(outputDirectory.resolve("Nested/Nested2/file.cfr.mp4"));
     assertThat(unencodedVideo.tempEncodedPath())
         .isEqualTo(outputDirectory.resolve("Nested/Nested2/file.cfr.mp4.part"));
+    assertThat(unencodedVideo.encodedFingerprintsPath())
+        .isEqualTo(outputDirectory.resolve("Nested/Nested2/file.cfr.mp4.fingerprints"));
+    assertThat(unencodedVideo.encodedSourceFingerprintPath())
+        .isEqualTo(outputDirectory.resolve("Nested/Nested2/file.cfr.mp4.source"));
 
     assertThat(unencodedVideo.archivedPath())
         .isEqualTo(archiveDirectory.resolve("Nested/Nested2/file.mp4"));
     assertThat(unencodedVideo.tempArchivedPath())
         .isEqualTo(archiveDirectory.resolve("Nested/Nested2/file.mp4.part"));
+
+    assertThat(unencodedVideo.leasePath())
+        .isEqualTo(
+            outputDirectory.resolve(".auto-handbrake-cfr.leases/Nested/Nested2/file.mp4.lease"));
+
+    assertThat(unencodedVideo.topLevelDirectory()).isEqualTo("Nested");
+  }
+
+  @Test
+  void factory_newUnencodedVideo_directlyInInput_hasNoTopLevelDirectory() {
+    // When
+    UnencodedVideo unencodedVideo = factory.newUnencodedVideo(inputDirectory.resolve("file.mp4"));
+
+    // Then
+    assertThat(unencodedVideo.topLevelDirectory()).isEmpty();
+  }
+
+  @Test
+  void factory_newUnencodedVideo_withAttributes_retainsAttributes() throws IOException {
+    // Given
+    Path mp4File = Files.write(inputDirectory.resolve("file.mp4"), new byte[123]);
+    FileTime lastModifiedTime = FileTime.fromMillis(1_000_000);
+    Files.setLastModifiedTime(mp4File, lastModifiedTime);
+
+    // When
+    UnencodedVideo unencodedVideo =
+        factory.newUnencodedVideo(
+            mp4File, Files.readAttributes(mp4File, BasicFileAttributes.class));
+
+    // Then
+    assertThat(unencodedVideo.size()).isEqualTo(123);
+    assertThat(unencodedVideo.lastModifiedTime()).isEqualTo(lastModifiedTime);
   }
 
   @Test
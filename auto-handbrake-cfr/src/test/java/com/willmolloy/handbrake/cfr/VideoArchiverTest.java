@@ -1,6 +1,8 @@
 package com.willmolloy.handbrake.cfr;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import com.google.common.io.Resources;
 import com.google.common.jimfs.Configuration;
@@ -15,6 +17,7 @@ import java.util.stream.Stream;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 /**
  * VideoArchiverTest.
@@ -141,6 +144,34 @@ class VideoArchiverTest {
     assertThatTestDirectory().containsExactly(unencodedVideo.originalPath());
   }
 
+  @Test
+  void whenArchiveDirectoryOnAnotherFileSystem_copiesInputFileToArchiveDirectory(
+      @TempDir Path otherFileSystemDirectory) throws IOException {
+    // Given
+    Path originalPath = Files.copy(testVideo, inputDirectory.resolve("file.mp4"));
+    Path archivedPath = otherFileSystemDirectory.resolve("file.mp4");
+    // can't use the factory, paths from different file systems can't be resolved against each other
+    UnencodedVideo unencodedVideo = mock(UnencodedVideo.class);
+    when(unencodedVideo.originalPath()).thenReturn(originalPath);
+    when(unencodedVideo.archivedPath()).thenReturn(archivedPath);
+    when(unencodedVideo.tempArchivedPath())
+        .thenReturn(otherFileSystemDirectory.resolve("file.mp4.part"));
+
+    // small chunks to exercise progress reporting
+    VideoArchiver videoArchiver = new VideoArchiver(100_000, 10);
+
+    // When
+    boolean result = videoArchiver.archive(unencodedVideo);
+
+    // Then
+    assertThat(result).isTrue();
+    assertThatTestDirectory().isEmpty();
+    try (Stream<Path> otherFiles = Files.list(otherFileSystemDirectory)) {
+      assertThat(otherFiles).containsExactly(archivedPath);
+    }
+    assertThat(Files.mismatch(testVideo, archivedPath)).isEqualTo(-1);
+  }
+
   @Test
   void exceptionCaughtReturnsFalse() {
     // When
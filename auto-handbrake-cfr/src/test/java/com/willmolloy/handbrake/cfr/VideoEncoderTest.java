@@ -2,7 +2,11 @@ package com.willmolloy.handbrake.cfr;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -11,23 +15,40 @@ import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 import com.google.common.truth.StreamSubject;
 import com.willmolloy.handbrake.core.HandBrake;
+import com.willmolloy.handbrake.core.ProgressEvent;
+import com.willmolloy.handbrake.core.ProgressListener;
 import com.willmolloy.handbrake.core.options.Encoder;
+import com.willmolloy.handbrake.core.options.EncoderTuning;
 import com.willmolloy.handbrake.core.options.FrameRateControl;
 import com.willmolloy.handbrake.core.options.Input;
 import com.willmolloy.handbrake.core.options.Option;
 import com.willmolloy.handbrake.core.options.Output;
 import com.willmolloy.handbrake.core.options.Preset;
+import com.willmolloy.handbrake.core.options.Range;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.stubbing.Answer;
@@ -49,7 +70,8 @@ class VideoEncoderTest {
   private UnencodedVideo.Factory unencodedVideoFactory;
 
   @Mock private HandBrake mockHandBrake;
-  @InjectMocks private VideoEncoder videoEncoder;
+  @Mock private FFmpeg mockFFmpeg;
+  private VideoEncoder videoEncoder;
 
   @BeforeEach
   void setUp() throws IOException, URISyntaxException {
@@ -68,6 +90,8 @@ class VideoEncoderTest {
 
     unencodedVideoFactory =
         new UnencodedVideo.Factory(inputDirectory, outputDirectory, archiveDirectory);
+
+    videoEncoder = new VideoEncoder(mockHandBrake);
   }
 
   @AfterEach
@@ -76,7 +100,7 @@ class VideoEncoderTest {
   }
 
   @Test
-  void invokesHandBrakeCreatingEncodedFile() throws IOException {
+  void invokesHandBrakeCreatingTempEncodedFile() throws IOException {
     // Given
     whenHandBrakeReturns(true);
 
@@ -92,7 +116,7 @@ class VideoEncoderTest {
     assertThat(result).isTrue();
     verifyHandBrakeCalled(unencodedVideo);
     assertThatTestDirectory()
-        .containsExactly(unencodedVideo.originalPath(), unencodedVideo.encodedPath());
+        .containsExactly(unencodedVideo.originalPath(), unencodedVideo.tempEncodedPath());
   }
 
   @Test
@@ -114,7 +138,7 @@ class VideoEncoderTest {
     assertThat(result).isTrue();
     verifyHandBrakeCalled(unencodedVideo);
     assertThatTestDirectory()
-        .containsExactly(unencodedVideo.originalPath(), unencodedVideo.encodedPath());
+        .containsExactly(unencodedVideo.originalPath(), unencodedVideo.tempEncodedPath());
   }
 
   @Test
@@ -140,7 +164,8 @@ class VideoEncoderTest {
   @Test
   void whenHandBrakeThrowsException_retainsUnencodedFile_andReturnsFalse() throws IOException {
     // Given
-    when(mockHandBrake.encode(any(), any(), any())).thenThrow(new RuntimeException());
+    when(mockHandBrake.encode(any(), any(), any(ProgressListener.class), any(Option[].class)))
+        .thenThrow(new RuntimeException());
 
     UnencodedVideo unencodedVideo =
         unencodedVideoFactory.newUnencodedVideo(
@@ -157,30 +182,59 @@ class VideoEncoderTest {
   }
 
   @Test
-  void whenEncodedFileAlreadyExists_overwrites_andReturnsTrue() throws IOException {
+  void whenCancelled_stopsHandBrake_andLeavesTempEncodedFile() throws IOException {
     // Given
-    Files.copy(testVideo, outputDirectory.resolve("file.cfr.mp4"));
+    AtomicBoolean cancelled = new AtomicBoolean();
+    List<Boolean> listenerCancelled = new CopyOnWriteArrayList<>();
+    when(mockHandBrake.encode(any(), any(), any(ProgressListener.class), any(Option[].class)))
+        .thenAnswer(
+            invocation -> {
+              Path tempEncodedPath = invocation.getArgument(1, Output.class).path();
+              ProgressListener listener = invocation.getArgument(2);
+              Files.createFile(tempEncodedPath);
+              listenerCancelled.add(listener.cancelled());
+              cancelled.set(true);
+              listenerCancelled.add(listener.cancelled());
+              return false;
+            });
 
-    whenHandBrakeReturns(true);
+    UnencodedVideo unencodedVideo =
+        unencodedVideoFactory.newUnencodedVideo(
+            Files.copy(testVideo, inputDirectory.resolve("file.mp4")));
+
+    // When
+    videoEncoder.acquire();
+    boolean result = videoEncoder.encode(unencodedVideo, cancelled::get);
 
+    // Then
+    assertThat(result).isFalse();
+    assertThat(listenerCancelled).containsExactly(false, true).inOrder();
+    // may be another encode's now
+    assertThatTestDirectory()
+        .containsExactly(unencodedVideo.originalPath(), unencodedVideo.tempEncodedPath());
+  }
+
+  @Test
+  void whenCancelledBeforeEncoding_leavesTempEncodedFile_andReturnsFalse() throws IOException {
+    // Given
     UnencodedVideo unencodedVideo =
         unencodedVideoFactory.newUnencodedVideo(
             Files.copy(testVideo, inputDirectory.resolve("file.mp4")));
+    Files.copy(testVideo, unencodedVideo.tempEncodedPath());
 
     // When
     videoEncoder.acquire();
-    boolean result = videoEncoder.encode(unencodedVideo);
+    boolean result = videoEncoder.encode(unencodedVideo, () -> true);
 
     // Then
-    assertThat(result).isTrue();
-    verifyHandBrakeCalled(unencodedVideo);
+    assertThat(result).isFalse();
+    verify(mockHandBrake, never()).encode(any(), any(), any(ProgressListener.class), any());
     assertThatTestDirectory()
-        .containsExactly(unencodedVideo.originalPath(), unencodedVideo.encodedPath());
+        .containsExactly(unencodedVideo.originalPath(), unencodedVideo.tempEncodedPath());
   }
 
   @Test
-  void whenEncodedFileAlreadyExistsButContentsDiffer_retainsTempFile_andReturnsFalse()
-      throws IOException {
+  void whenEncodedFileAlreadyExists_retainsIt_forVerification() throws IOException {
     // Given
     Files.copy(testVideo2, outputDirectory.resolve("file.cfr.mp4"));
 
@@ -195,7 +249,7 @@ class VideoEncoderTest {
     boolean result = videoEncoder.encode(unencodedVideo);
 
     // Then
-    assertThat(result).isFalse();
+    assertThat(result).isTrue();
     verifyHandBrakeCalled(unencodedVideo);
     assertThatTestDirectory()
         .containsExactly(
@@ -204,6 +258,459 @@ class VideoEncoderTest {
             unencodedVideo.encodedPath());
   }
 
+  @Test
+  void withThreadBudget_limitsEncoderThreads() throws IOException {
+    // Given
+    videoEncoder = new VideoEncoder(mockHandBrake, 2, 4);
+    whenHandBrakeReturns(true);
+
+    UnencodedVideo unencodedVideo =
+        unencodedVideoFactory.newUnencodedVideo(
+            Files.copy(testVideo, inputDirectory.resolve("file.mp4")));
+
+    // When
+    videoEncoder.acquire();
+    boolean result = videoEncoder.encode(unencodedVideo);
+
+    // Then
+    assertThat(result).isTrue();
+    verify(mockHandBrake)
+        .encode(
+            eq(Input.of(unencodedVideo.originalPath())),
+            eq(Output.of(unencodedVideo.tempEncodedPath())),
+            any(ProgressListener.class),
+            eq(Preset.productionStandard()),
+            eq(Encoder.h264()),
+            eq(FrameRateControl.constant()),
+            eq(EncoderTuning.threads(4)));
+  }
+
+  @Test
+  void withEncoderOptions_combinesThemWithThreads() throws IOException {
+    // Given
+    videoEncoder =
+        new VideoEncoder(
+            mockHandBrake,
+            mockFFmpeg,
+            2,
+            ThreadBudget.fixed(4),
+            Optional.of(EncoderTuning.encopts("ref=2")),
+            Duration.ZERO,
+            new PipelineMetrics());
+    whenHandBrakeReturns(true);
+
+    UnencodedVideo unencodedVideo =
+        unencodedVideoFactory.newUnencodedVideo(
+            Files.copy(testVideo, inputDirectory.resolve("file.mp4")));
+
+    // When
+    videoEncoder.acquire();
+    boolean result = videoEncoder.encode(unencodedVideo);
+
+    // Then
+    assertThat(result).isTrue();
+    verify(mockHandBrake)
+        .encode(
+            eq(Input.of(unencodedVideo.originalPath())),
+            eq(Output.of(unencodedVideo.tempEncodedPath())),
+            any(ProgressListener.class),
+            eq(Preset.productionStandard()),
+            eq(Encoder.h264()),
+            eq(FrameRateControl.constant()),
+            eq(EncoderTuning.encopts("threads=4:ref=2")));
+  }
+
+  @Test
+  void withSharedThreadBudget_splitsCoresBetweenRunningEncodes() throws Exception {
+    // Given
+    videoEncoder =
+        new VideoEncoder(
+            mockHandBrake,
+            mockFFmpeg,
+            2,
+            ThreadBudget.shared(9, 2),
+            Optional.empty(),
+            Duration.ZERO,
+            new PipelineMetrics());
+    // each encode waits for the other to start, so both lease threads at once
+    CyclicBarrier bothEncoding = new CyclicBarrier(2);
+    List<Option> tunings = new CopyOnWriteArrayList<>();
+    when(mockHandBrake.encode(
+            any(Input.class), any(Output.class), any(ProgressListener.class), any(Option[].class)))
+        .thenAnswer(
+            invocation -> {
+              tunings.add(invocation.getArgument(6, Option.class));
+              bothEncoding.await(10, TimeUnit.SECONDS);
+              return true;
+            });
+
+    UnencodedVideo video1 =
+        unencodedVideoFactory.newUnencodedVideo(
+            Files.copy(testVideo, inputDirectory.resolve("file1.mp4")));
+    UnencodedVideo video2 =
+        unencodedVideoFactory.newUnencodedVideo(
+            Files.copy(testVideo, inputDirectory.resolve("file2.mp4")));
+
+    // When
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (UnencodedVideo video : List.of(video1, video2)) {
+        executor.submit(
+            () -> {
+              videoEncoder.acquire();
+              return videoEncoder.encode(video);
+            });
+      }
+    }
+
+    // Then
+    assertThat(tunings).containsExactly(EncoderTuning.threads(4), EncoderTuning.threads(5));
+  }
+
+  @Test
+  void withMultipleInstances_allowsConcurrentEncodes() throws Exception {
+    // Given
+    videoEncoder = new VideoEncoder(mockHandBrake, 2, 0);
+    // each encode waits for the other to start, so only completes if both run at once
+    CyclicBarrier bothEncoding = new CyclicBarrier(2);
+    when(mockHandBrake.encode(
+            any(Input.class), any(Output.class), any(ProgressListener.class), any(Option[].class)))
+        .thenAnswer(
+            invocation -> {
+              bothEncoding.await(10, TimeUnit.SECONDS);
+              return true;
+            });
+
+    UnencodedVideo video1 =
+        unencodedVideoFactory.newUnencodedVideo(
+            Files.copy(testVideo, inputDirectory.resolve("file1.mp4")));
+    UnencodedVideo video2 =
+        unencodedVideoFactory.newUnencodedVideo(
+            Files.copy(testVideo, inputDirectory.resolve("file2.mp4")));
+
+    // When
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      Future<Boolean> result1 =
+          executor.submit(
+              () -> {
+                videoEncoder.acquire();
+                return videoEncoder.encode(video1);
+              });
+      Future<Boolean> result2 =
+          executor.submit(
+              () -> {
+                videoEncoder.acquire();
+                return videoEncoder.encode(video2);
+              });
+
+      // Then
+      assertThat(result1.get()).isTrue();
+      assertThat(result2.get()).isTrue();
+    }
+  }
+
+  @Test
+  void limit_changesInstancesThatCanRunAtOneTime() throws Exception {
+    // Given
+    videoEncoder = new VideoEncoder(mockHandBrake, 2, 0);
+    videoEncoder.limit(1);
+    videoEncoder.acquire();
+
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      // When
+      Future<?> other = executor.submit(videoEncoder::acquire);
+
+      // Then
+      assertThrows(TimeoutException.class, () -> other.get(100, TimeUnit.MILLISECONDS));
+
+      // When
+      videoEncoder.limit(2);
+
+      // Then
+      other.get(10, TimeUnit.SECONDS);
+      assertThat(videoEncoder.limit()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  void limit_whenAboveInstances_throwsException() {
+    // Given
+    videoEncoder = new VideoEncoder(mockHandBrake, 2, 0);
+
+    // When
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, () -> videoEncoder.limit(3));
+
+    // Then
+    assertThat(thrown).hasMessageThat().isEqualTo("limit (3) must be between 1 and instances (2)");
+  }
+
+  @Test
+  void recordsMetrics() throws IOException {
+    // Given
+    PipelineMetrics metrics = new PipelineMetrics();
+    videoEncoder = new VideoEncoder(mockHandBrake, 1, 0, metrics);
+    when(mockHandBrake.encode(
+            any(Input.class), any(Output.class), any(ProgressListener.class), any(Option[].class)))
+        .thenAnswer(
+            invocation -> {
+              ProgressListener listener = invocation.getArgument(2, ProgressListener.class);
+              listener.onEvent(new ProgressEvent.Progress(1, 1, 50, 60, 55, Duration.ofSeconds(5)));
+              Files.copy(
+                  invocation.getArgument(0, Input.class).path(),
+                  invocation.getArgument(1, Output.class).path());
+              listener.onEvent(
+                  new ProgressEvent.Finished(OptionalInt.of(0), Duration.ofSeconds(1)));
+              return true;
+            });
+
+    Path original = Files.copy(testVideo, inputDirectory.resolve("file.mp4"));
+    UnencodedVideo unencodedVideo =
+        unencodedVideoFactory.newUnencodedVideo(
+            original, Files.readAttributes(original, BasicFileAttributes.class));
+
+    // When
+    videoEncoder.acquire();
+    boolean result = videoEncoder.encode(unencodedVideo);
+
+    // Then
+    assertThat(result).isTrue();
+    long size = Files.size(testVideo);
+    assertThat(metrics.registry().prometheus().lines())
+        .containsAtLeast(
+            "auto_handbrake_cfr_encode_duration_seconds_count 1",
+            "auto_handbrake_cfr_encode_fps_count 1",
+            "auto_handbrake_cfr_encode_fps_sum 60.0",
+            "auto_handbrake_cfr_encode_input_bytes_total " + size,
+            "auto_handbrake_cfr_encode_output_bytes_total " + size,
+            "auto_handbrake_cfr_encodes_running 0.0");
+  }
+
+  @Test
+  void withSegmentLength_encodesSegmentsInParallel_andJoinsThem() throws IOException {
+    // Given
+    videoEncoder =
+        new VideoEncoder(
+            mockHandBrake,
+            mockFFmpeg,
+            3,
+            ThreadBudget.fixed(0),
+            Optional.empty(),
+            Duration.ofMinutes(10),
+            new PipelineMetrics());
+    // each segment waits for the others to start, so only completes if all run at once
+    CyclicBarrier allEncoding = new CyclicBarrier(3);
+    when(mockHandBrake.encode(
+            any(Input.class), any(Output.class), any(ProgressListener.class), any(Option[].class)))
+        .thenAnswer(
+            invocation -> {
+              allEncoding.await(10, TimeUnit.SECONDS);
+              Files.copy(
+                  invocation.getArgument(0, Input.class).path(),
+                  invocation.getArgument(1, Output.class).path());
+              return true;
+            });
+    UnencodedVideo unencodedVideo =
+        unencodedVideoFactory.newUnencodedVideo(
+            Files.copy(testVideo, inputDirectory.resolve("file.mp4")));
+    when(mockFFmpeg.duration(unencodedVideo.originalPath()))
+        .thenReturn(Optional.of(Duration.ofMinutes(25)));
+    whenFFmpegConcatReturns(true);
+
+    // When
+    videoEncoder.acquire();
+    boolean result = videoEncoder.encode(unencodedVideo);
+
+    // Then
+    assertThat(result).isTrue();
+    verifySegmentEncoded(
+        unencodedVideo, 0, Range.startAt(Duration.ZERO), Range.stopAt(Duration.ofMinutes(10)));
+    verifySegmentEncoded(
+        unencodedVideo,
+        1,
+        Range.startAt(Duration.ofMinutes(10)),
+        Range.stopAt(Duration.ofMinutes(10)));
+    verifySegmentEncoded(unencodedVideo, 2, Range.startAt(Duration.ofMinutes(20)));
+    verify(mockFFmpeg)
+        .concat(
+            List.of(
+                unencodedVideo.tempSegmentPath(0),
+                unencodedVideo.tempSegmentPath(1),
+                unencodedVideo.tempSegmentPath(2)),
+            unencodedVideo.tempEncodedPath());
+    assertThatTestDirectory()
+        .containsExactly(unencodedVideo.originalPath(), unencodedVideo.tempEncodedPath());
+  }
+
+  @Test
+  void withSegmentLength_whenOtherInstancesBusy_encodesSegmentsItself() throws Exception {
+    // Given
+    videoEncoder =
+        new VideoEncoder(
+            mockHandBrake,
+            mockFFmpeg,
+            2,
+            ThreadBudget.fixed(0),
+            Optional.empty(),
+            Duration.ofMinutes(10),
+            new PipelineMetrics());
+    whenHandBrakeReturns(true);
+    UnencodedVideo unencodedVideo =
+        unencodedVideoFactory.newUnencodedVideo(
+            Files.copy(testVideo, inputDirectory.resolve("file.mp4")));
+    when(mockFFmpeg.duration(unencodedVideo.originalPath()))
+        .thenReturn(Optional.of(Duration.ofMinutes(30)));
+    whenFFmpegConcatReturns(true);
+
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      // other instance acquired by another video until the encode completes
+      CountDownLatch otherAcquired = new CountDownLatch(1);
+      CountDownLatch encoded = new CountDownLatch(1);
+      Future<?> other =
+          executor.submit(
+              () -> {
+                videoEncoder.acquire();
+                otherAcquired.countDown();
+                encoded.await();
+                return null;
+              });
+      otherAcquired.await();
+
+      // When
+      videoEncoder.acquire();
+      boolean result = videoEncoder.encode(unencodedVideo);
+      encoded.countDown();
+      other.get();
+
+      // Then
+      assertThat(result).isTrue();
+      verify(mockHandBrake, times(3))
+          .encode(
+              any(Input.class),
+              any(Output.class),
+              any(ProgressListener.class),
+              any(Option[].class));
+      assertThatTestDirectory()
+          .containsExactly(unencodedVideo.originalPath(), unencodedVideo.tempEncodedPath());
+    }
+  }
+
+  @Test
+  void withSegmentLength_whenShorter_encodesWhole() throws IOException {
+    // Given
+    videoEncoder =
+        new VideoEncoder(
+            mockHandBrake,
+            mockFFmpeg,
+            2,
+            ThreadBudget.fixed(0),
+            Optional.empty(),
+            Duration.ofMinutes(10),
+            new PipelineMetrics());
+    whenHandBrakeReturns(true);
+    UnencodedVideo unencodedVideo =
+        unencodedVideoFactory.newUnencodedVideo(
+            Files.copy(testVideo, inputDirectory.resolve("file.mp4")));
+    when(mockFFmpeg.duration(unencodedVideo.originalPath()))
+        .thenReturn(Optional.of(Duration.ofMinutes(10)));
+
+    // When
+    videoEncoder.acquire();
+    boolean result = videoEncoder.encode(unencodedVideo);
+
+    // Then
+    assertThat(result).isTrue();
+    verifyHandBrakeCalled(unencodedVideo);
+    verify(mockFFmpeg, never()).concat(any(), any());
+  }
+
+  @Test
+  void withSegmentLength_whenDurationUnknown_encodesWhole() throws IOException {
+    // Given
+    videoEncoder =
+        new VideoEncoder(
+            mockHandBrake,
+            mockFFmpeg,
+            2,
+            ThreadBudget.fixed(0),
+            Optional.empty(),
+            Duration.ofMinutes(10),
+            new PipelineMetrics());
+    whenHandBrakeReturns(true);
+    UnencodedVideo unencodedVideo =
+        unencodedVideoFactory.newUnencodedVideo(
+            Files.copy(testVideo, inputDirectory.resolve("file.mp4")));
+    when(mockFFmpeg.duration(unencodedVideo.originalPath())).thenReturn(Optional.empty());
+
+    // When
+    videoEncoder.acquire();
+    boolean result = videoEncoder.encode(unencodedVideo);
+
+    // Then
+    assertThat(result).isTrue();
+    verifyHandBrakeCalled(unencodedVideo);
+    verify(mockFFmpeg, never()).concat(any(), any());
+  }
+
+  @Test
+  void withSegmentLength_whenSegmentUnsuccessful_deletesSegments_andReturnsFalse()
+      throws IOException {
+    // Given
+    videoEncoder =
+        new VideoEncoder(
+            mockHandBrake,
+            mockFFmpeg,
+            2,
+            ThreadBudget.fixed(0),
+            Optional.empty(),
+            Duration.ofMinutes(10),
+            new PipelineMetrics());
+    whenHandBrakeReturns(false);
+    UnencodedVideo unencodedVideo =
+        unencodedVideoFactory.newUnencodedVideo(
+            Files.copy(testVideo, inputDirectory.resolve("file.mp4")));
+    when(mockFFmpeg.duration(unencodedVideo.originalPath()))
+        .thenReturn(Optional.of(Duration.ofMinutes(15)));
+
+    // When
+    videoEncoder.acquire();
+    boolean result = videoEncoder.encode(unencodedVideo);
+
+    // Then
+    assertThat(result).isFalse();
+    verify(mockFFmpeg, never()).concat(any(), any());
+    assertThatTestDirectory().containsExactly(unencodedVideo.originalPath());
+  }
+
+  @Test
+  void withSegmentLength_whenConcatUnsuccessful_deletesSegments_andReturnsFalse()
+      throws IOException {
+    // Given
+    videoEncoder =
+        new VideoEncoder(
+            mockHandBrake,
+            mockFFmpeg,
+            2,
+            ThreadBudget.fixed(0),
+            Optional.empty(),
+            Duration.ofMinutes(10),
+            new PipelineMetrics());
+    whenHandBrakeReturns(true);
+    UnencodedVideo unencodedVideo =
+        unencodedVideoFactory.newUnencodedVideo(
+            Files.copy(testVideo, inputDirectory.resolve("file.mp4")));
+    when(mockFFmpeg.duration(unencodedVideo.originalPath()))
+        .thenReturn(Optional.of(Duration.ofMinutes(15)));
+    when(mockFFmpeg.concat(any(), any())).thenReturn(false);
+
+    // When
+    videoEncoder.acquire();
+    boolean result = videoEncoder.encode(unencodedVideo);
+
+    // Then
+    assertThat(result).isFalse();
+    assertThatTestDirectory().containsExactly(unencodedVideo.originalPath());
+  }
+
   @Test
   void whenNotAcquired_throwsException() {
     // When
@@ -215,7 +722,8 @@ class VideoEncoderTest {
   }
 
   private void whenHandBrakeReturns(boolean result) {
-    when(mockHandBrake.encode(any(Input.class), any(Output.class), any(Option[].class)))
+    when(mockHandBrake.encode(
+            any(Input.class), any(Output.class), any(ProgressListener.class), any(Option[].class)))
         .thenAnswer(
             (Answer<Boolean>)
                 invocation -> {
@@ -228,14 +736,40 @@ class VideoEncoderTest {
                 });
   }
 
+  // joins the segments by copying the first
+  private void whenFFmpegConcatReturns(boolean result) throws IOException {
+    when(mockFFmpeg.concat(any(), any()))
+        .thenAnswer(
+            invocation -> {
+              List<Path> parts = invocation.getArgument(0);
+              Files.copy(parts.getFirst(), invocation.getArgument(1, Path.class));
+              return result;
+            });
+  }
+
+  private void verifySegmentEncoded(UnencodedVideo unencodedVideo, int segment, Range... range) {
+    Option[] options =
+        Stream.concat(
+                Stream.of(Preset.productionStandard(), Encoder.h264(), FrameRateControl.constant()),
+                Stream.of(range))
+            .toArray(Option[]::new);
+    verify(mockHandBrake)
+        .encode(
+            eq(Input.of(unencodedVideo.originalPath())),
+            eq(Output.of(unencodedVideo.tempSegmentPath(segment))),
+            any(ProgressListener.class),
+            aryEq(options));
+  }
+
   private void verifyHandBrakeCalled(UnencodedVideo unencodedVideo) {
     verify(mockHandBrake)
         .encode(
-            Input.of(unencodedVideo.originalPath()),
-            Output.of(unencodedVideo.tempEncodedPath()),
-            Preset.productionStandard(),
-            Encoder.h264(),
-            FrameRateControl.constant());
+            eq(Input.of(unencodedVideo.originalPath())),
+            eq(Output.of(unencodedVideo.tempEncodedPath())),
+            any(ProgressListener.class),
+            eq(Preset.productionStandard()),
+            eq(Encoder.h264()),
+            eq(FrameRateControl.constant()));
   }
 
   private StreamSubject assertThatTestDirectory() throws IOException {
@@ -0,0 +1,271 @@
+package com.willmolloy.handbrake.cfr;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.io.Resources;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.google.common.truth.StreamSubject;
+import com.willmolloy.handbrake.cfr.util.BlockFingerprints;
+import com.willmolloy.handbrake.cfr.util.SourceFingerprint;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * VideoVerifierTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class VideoVerifierTest {
+
+  private FileSystem fileSystem;
+  private Path inputDirectory;
+  private Path outputDirectory;
+  private Path testVideo;
+  private Path testVideo2;
+
+  private UnencodedVideo.Factory unencodedVideoFactory;
+
+  private final VideoVerifier videoVerifier = new VideoVerifier(2);
+
+  @BeforeEach
+  void setUp() throws IOException, URISyntaxException {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+
+    inputDirectory = fileSystem.getPath("/input/Videos/Gameplay");
+    outputDirectory = fileSystem.getPath("/output/Videos/Encoded Gameplay");
+    Path archiveDirectory = fileSystem.getPath("/archive/Videos/Gameplay");
+
+    testVideo = Path.of(Resources.getResource("Big_Buck_Bunny_360_10s_1MB.mp4").toURI());
+    testVideo2 = Path.of(Resources.getResource("Big_Buck_Bunny_360_10s_2MB.mp4").toURI());
+
+    Files.createDirectories(inputDirectory);
+    Files.createDirectories(outputDirectory);
+    Files.createDirectories(archiveDirectory);
+
+    unencodedVideoFactory =
+        new UnencodedVideo.Factory(inputDirectory, outputDirectory, archiveDirectory);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    fileSystem.close();
+  }
+
+  @Test
+  void movesTempEncodedFileToEncodedFile_andSavesSourceFingerprint() throws IOException {
+    // Given
+    UnencodedVideo unencodedVideo = encodedVideo();
+
+    // When
+    boolean result = videoVerifier.verify(unencodedVideo);
+
+    // Then
+    assertThat(result).isTrue();
+    // nothing to compare with, so not read to fingerprint it (a later encoding is compared in full)
+    assertThatTestDirectory()
+        .containsExactly(
+            unencodedVideo.originalPath(),
+            unencodedVideo.encodedPath(),
+            unencodedVideo.encodedSourceFingerprintPath());
+    assertThat(
+            SourceFingerprint.load(
+                    unencodedVideo.encodedSourceFingerprintPath(), unencodedVideo.encodedPath())
+                .get()
+                .matches(unencodedVideo.originalPath()))
+        .isTrue();
+  }
+
+  @Test
+  void whenOriginalChangedSinceScanned_doesNotSaveSourceFingerprint() throws IOException {
+    // Given
+    UnencodedVideo unencodedVideo = encodedVideo();
+    Files.write(unencodedVideo.originalPath(), new byte[10], StandardOpenOption.APPEND);
+
+    // When
+    boolean result = videoVerifier.verify(unencodedVideo);
+
+    // Then
+    assertThat(result).isTrue();
+    assertThatTestDirectory()
+        .containsExactly(unencodedVideo.originalPath(), unencodedVideo.encodedPath());
+  }
+
+  @Test
+  void whenEncodedFileAlreadyExists_overwrites_andSavesFingerprints_andReturnsTrue()
+      throws IOException {
+    // Given
+    Files.copy(testVideo, outputDirectory.resolve("file.cfr.mp4"));
+
+    UnencodedVideo unencodedVideo = encodedVideo();
+
+    // When
+    boolean result = videoVerifier.verify(unencodedVideo);
+
+    // Then
+    assertThat(result).isTrue();
+    assertThatTestDirectory()
+        .containsExactly(
+            unencodedVideo.originalPath(),
+            unencodedVideo.encodedPath(),
+            unencodedVideo.encodedFingerprintsPath(),
+            unencodedVideo.encodedSourceFingerprintPath());
+  }
+
+  @Test
+  void whenEncodedFileAlreadyExistsWithFingerprints_overwrites_andReturnsTrue() throws IOException {
+    // Given
+    Path encodedPath = Files.copy(testVideo, outputDirectory.resolve("file.cfr.mp4"));
+    Path fingerprintsPath = outputDirectory.resolve("file.cfr.mp4.fingerprints");
+    BlockFingerprints.compute(encodedPath).save(fingerprintsPath, encodedPath);
+
+    UnencodedVideo unencodedVideo = encodedVideo();
+
+    // When
+    boolean result = videoVerifier.verify(unencodedVideo);
+
+    // Then
+    assertThat(result).isTrue();
+    assertThatTestDirectory()
+        .containsExactly(
+            unencodedVideo.originalPath(),
+            unencodedVideo.encodedPath(),
+            unencodedVideo.encodedFingerprintsPath(),
+            unencodedVideo.encodedSourceFingerprintPath());
+  }
+
+  @Test
+  void whenEncodedFileDeleted_deletesItsStaleFingerprints() throws IOException {
+    // Given
+    Path encodedPath = Files.copy(testVideo, outputDirectory.resolve("file.cfr.mp4"));
+    Path fingerprintsPath = outputDirectory.resolve("file.cfr.mp4.fingerprints");
+    BlockFingerprints.compute(encodedPath).save(fingerprintsPath, encodedPath);
+    Files.delete(encodedPath);
+
+    UnencodedVideo unencodedVideo = encodedVideo();
+
+    // When
+    boolean result = videoVerifier.verify(unencodedVideo);
+
+    // Then
+    assertThat(result).isTrue();
+    assertThatTestDirectory()
+        .containsExactly(
+            unencodedVideo.originalPath(),
+            unencodedVideo.encodedPath(),
+            unencodedVideo.encodedSourceFingerprintPath());
+  }
+
+  @Test
+  void whenEncodedFileAlreadyExistsButContentsDiffer_retainsTempFile_andReturnsFalse()
+      throws IOException {
+    // Given
+    Files.copy(testVideo2, outputDirectory.resolve("file.cfr.mp4"));
+
+    UnencodedVideo unencodedVideo = encodedVideo();
+
+    // When
+    boolean result = videoVerifier.verify(unencodedVideo);
+
+    // Then
+    assertThat(result).isFalse();
+    assertThatTestDirectory()
+        .containsExactly(
+            unencodedVideo.originalPath(),
+            unencodedVideo.tempEncodedPath(),
+            unencodedVideo.encodedPath());
+  }
+
+  @Test
+  void whenTempEncodedFileMissing_returnsFalse() throws IOException {
+    // Given
+    UnencodedVideo unencodedVideo =
+        unencodedVideoFactory.newUnencodedVideo(
+            Files.copy(testVideo, inputDirectory.resolve("file.mp4")));
+
+    // When
+    boolean result = videoVerifier.verify(unencodedVideo);
+
+    // Then
+    assertThat(result).isFalse();
+    assertThatTestDirectory().containsExactly(unencodedVideo.originalPath());
+  }
+
+  @Test
+  void alreadyEncoded_afterVerifying_returnsTrue() throws IOException {
+    // Given
+    UnencodedVideo unencodedVideo = encodedVideo();
+    videoVerifier.verify(unencodedVideo);
+
+    // When
+    boolean result = videoVerifier.alreadyEncoded(unencodedVideo);
+
+    // Then
+    assertThat(result).isTrue();
+  }
+
+  @Test
+  void alreadyEncoded_whenOriginalChangedSinceVerifying_returnsFalse() throws IOException {
+    // Given
+    UnencodedVideo unencodedVideo = encodedVideo();
+    videoVerifier.verify(unencodedVideo);
+    Files.copy(testVideo2, unencodedVideo.originalPath(), StandardCopyOption.REPLACE_EXISTING);
+
+    // When
+    boolean result = videoVerifier.alreadyEncoded(unencodedVideo);
+
+    // Then
+    assertThat(result).isFalse();
+  }
+
+  @Test
+  void alreadyEncoded_whenEncodedFileChangedSinceVerifying_returnsFalse() throws IOException {
+    // Given
+    UnencodedVideo unencodedVideo = encodedVideo();
+    videoVerifier.verify(unencodedVideo);
+    Files.write(unencodedVideo.encodedPath(), new byte[10], StandardOpenOption.APPEND);
+
+    // When
+    boolean result = videoVerifier.alreadyEncoded(unencodedVideo);
+
+    // Then
+    assertThat(result).isFalse();
+  }
+
+  @Test
+  void alreadyEncoded_whenNotEncoded_returnsFalse() throws IOException {
+    // Given
+    UnencodedVideo unencodedVideo = encodedVideo();
+
+    // When
+    boolean result = videoVerifier.alreadyEncoded(unencodedVideo);
+
+    // Then
+    assertThat(result).isFalse();
+  }
+
+  /** Creates a video as output by {@link VideoEncoder}. */
+  private UnencodedVideo encodedVideo() throws IOException {
+    Path originalPath = Files.copy(testVideo, inputDirectory.resolve("file.mp4"));
+    UnencodedVideo unencodedVideo =
+        unencodedVideoFactory.newUnencodedVideo(
+            originalPath, Files.readAttributes(originalPath, BasicFileAttributes.class));
+    Files.copy(unencodedVideo.originalPath(), unencodedVideo.tempEncodedPath());
+    return unencodedVideo;
+  }
+
+  private StreamSubject assertThatTestDirectory() throws IOException {
+    Stream<Path> testFiles = Files.walk(fileSystem.getPath("/"));
+    return assertThat(testFiles.filter(Files::isRegularFile));
+  }
+}
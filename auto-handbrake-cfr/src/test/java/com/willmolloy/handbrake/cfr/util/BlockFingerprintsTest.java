@@ -0,0 +1,161 @@
+package com.willmolloy.handbrake.cfr.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * BlockFingerprintsTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class BlockFingerprintsTest {
+
+  // 100 blocks, so 1% tolerance allows a block of mismatching bytes
+  private static final int SIZE = 100 * BlockFingerprints.BLOCK_SIZE;
+
+  private FileSystem fileSystem;
+  private Path file;
+  private Path sidecar;
+  private byte[] bytes;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    file = fileSystem.getPath("file.cfr.mp4");
+    sidecar = fileSystem.getPath("file.cfr.mp4.fingerprints");
+
+    bytes = new byte[SIZE];
+    new Random(SIZE).nextBytes(bytes);
+    Files.write(file, bytes);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    fileSystem.close();
+  }
+
+  @Test
+  void savesAndLoads() throws IOException {
+    BlockFingerprints fingerprints = BlockFingerprints.compute(file);
+    fingerprints.save(sidecar, file);
+
+    Optional<BlockFingerprints> loaded = BlockFingerprints.load(sidecar, file);
+
+    assertThat(loaded).isPresent();
+    // entirely different, so only similar if the loaded fingerprints are the same
+    assertThat(BlockFingerprints.computeIfSimilar(file, other(SIZE), loaded, 1)).isPresent();
+  }
+
+  @Test
+  void load_whenSidecarMissing_returnsEmpty() {
+    assertThat(BlockFingerprints.load(sidecar, file)).isEmpty();
+  }
+
+  @Test
+  void load_whenSidecarTruncated_returnsEmpty() throws IOException {
+    BlockFingerprints.compute(file).save(sidecar, file);
+    byte[] sidecarBytes = Files.readAllBytes(sidecar);
+    Files.write(sidecar, Arrays.copyOf(sidecarBytes, sidecarBytes.length - 1));
+
+    assertThat(BlockFingerprints.load(sidecar, file)).isEmpty();
+  }
+
+  @Test
+  void load_whenFileModifiedSinceSaved_returnsEmpty() throws IOException {
+    BlockFingerprints.compute(file).save(sidecar, file);
+    Files.setLastModifiedTime(
+        file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+
+    assertThat(BlockFingerprints.load(sidecar, file)).isEmpty();
+  }
+
+  @Test
+  void computeIfSimilar_whenSame_returnsFingerprints() throws IOException {
+    // Given
+    Path other = Files.write(fileSystem.getPath("other.cfr.mp4"), bytes);
+
+    // When
+    Optional<BlockFingerprints> fingerprints =
+        BlockFingerprints.computeIfSimilar(file, other, Optional.empty(), 2);
+
+    // Then
+    assertThat(fingerprints).isPresent();
+    fingerprints.get().save(sidecar, file);
+    assertThat(BlockFingerprints.load(sidecar, file)).isPresent();
+  }
+
+  @Test
+  void computeIfSimilar_whenMismatchWithinTolerance_returnsFingerprints() throws IOException {
+    // Given
+    Path other = other(BlockFingerprints.BLOCK_SIZE);
+
+    // When/Then
+    assertThat(BlockFingerprints.computeIfSimilar(file, other, Optional.empty(), 2)).isPresent();
+  }
+
+  @Test
+  void computeIfSimilar_whenMismatchBeyondTolerance_returnsEmpty() throws IOException {
+    // Given
+    Path other = other(BlockFingerprints.BLOCK_SIZE + 1);
+
+    // When/Then
+    assertThat(BlockFingerprints.computeIfSimilar(file, other, Optional.empty(), 2)).isEmpty();
+  }
+
+  @Test
+  void computeIfSimilar_whenSizesDifferBeyondTolerance_returnsEmpty() throws IOException {
+    // Given
+    Path other = Files.write(fileSystem.getPath("other.cfr.mp4"), Arrays.copyOf(bytes, SIZE / 2));
+
+    // When/Then
+    assertThat(BlockFingerprints.computeIfSimilar(file, other, Optional.empty(), 2)).isEmpty();
+  }
+
+  @Test
+  void computeIfSimilar_withOtherFingerprints_comparesMismatchingBlocksDirectly()
+      throws IOException {
+    // Given
+    Path other = other(BlockFingerprints.BLOCK_SIZE + 1);
+    BlockFingerprints otherFingerprints = BlockFingerprints.compute(other);
+
+    // When/Then
+    assertThat(BlockFingerprints.computeIfSimilar(file, other, Optional.of(otherFingerprints), 2))
+        .isEmpty();
+  }
+
+  @Test
+  void computeIfSimilar_withOtherFingerprints_doesNotReadMatchingBlocks() throws IOException {
+    // Given
+    BlockFingerprints fingerprints = BlockFingerprints.compute(file);
+    // differs entirely, but its (stale) fingerprints say it's the same
+    Path other = other(SIZE);
+
+    // When/Then
+    assertThat(BlockFingerprints.computeIfSimilar(file, other, Optional.of(fingerprints), 1))
+        .isPresent();
+  }
+
+  // the file with its first mismatches bytes inverted
+  private Path other(int mismatches) throws IOException {
+    byte[] mismatched = bytes.clone();
+    for (int i = 0; i < mismatches; i++) {
+      // spread across blocks, so the mismatches are in more than one block
+      int index = (i % 2) * (SIZE / 2) + i / 2;
+      mismatched[index] = (byte) ~mismatched[index];
+    }
+    return Files.write(fileSystem.getPath("other.cfr.mp4"), mismatched);
+  }
+}
@@ -0,0 +1,149 @@
+package com.willmolloy.handbrake.cfr.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * DirectoryIndexTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class DirectoryIndexTest {
+
+  private static final FileTime LAST_MODIFIED_TIME = FileTime.fromMillis(1_000_000);
+  private static final List<DirectoryIndex.Child> CHILDREN =
+      List.of(
+          new DirectoryIndex.Child("video.mp4", false, 123, FileTime.fromMillis(999_000)),
+          new DirectoryIndex.Child("subdirectory", true, 0, FileTime.fromMillis(998_000)));
+
+  private FileSystem fileSystem;
+  private Path indexFile;
+  private Path directory;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    indexFile = fileSystem.getPath("index");
+    directory = Files.createDirectories(fileSystem.getPath("directory"));
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    fileSystem.close();
+  }
+
+  @Test
+  void roundTrip() throws IOException {
+    // Given
+    DirectoryIndex index = DirectoryIndex.empty(indexFile);
+    index.record(directory, LAST_MODIFIED_TIME, CHILDREN);
+
+    // When
+    index.save();
+    DirectoryIndex loaded = DirectoryIndex.load(indexFile);
+
+    // Then
+    assertThat(loaded.lookup(directory, LAST_MODIFIED_TIME)).hasValue(CHILDREN);
+  }
+
+  @Test
+  void whenDirectoryModified_lookupIsEmpty() throws IOException {
+    // Given
+    DirectoryIndex index = DirectoryIndex.empty(indexFile);
+    index.record(directory, LAST_MODIFIED_TIME, CHILDREN);
+    index.save();
+
+    // When
+    DirectoryIndex loaded = DirectoryIndex.load(indexFile);
+
+    // Then
+    assertThat(loaded.lookup(directory, FileTime.fromMillis(2_000_000))).isEmpty();
+  }
+
+  @Test
+  void whenDirectoryModifiedJustNow_doesNotRecordIt() throws IOException {
+    // Given
+    DirectoryIndex index = DirectoryIndex.empty(indexFile);
+    FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+    index.record(directory, now, CHILDREN);
+
+    // When
+    index.save();
+    DirectoryIndex loaded = DirectoryIndex.load(indexFile);
+
+    // Then
+    assertThat(loaded.lookup(directory, now)).isEmpty();
+  }
+
+  @Test
+  void savesOnlyDirectoriesLookedUpOrRecorded() throws IOException {
+    // Given
+    Path other = fileSystem.getPath("other");
+    DirectoryIndex index = DirectoryIndex.empty(indexFile);
+    index.record(directory, LAST_MODIFIED_TIME, CHILDREN);
+    index.record(other, LAST_MODIFIED_TIME, CHILDREN);
+    index.save();
+
+    // When
+    DirectoryIndex loaded = DirectoryIndex.load(indexFile);
+    assertThat(loaded.lookup(directory, LAST_MODIFIED_TIME)).isPresent();
+    loaded.save();
+
+    // Then
+    DirectoryIndex reloaded = DirectoryIndex.load(indexFile);
+    assertThat(reloaded.lookup(directory, LAST_MODIFIED_TIME)).hasValue(CHILDREN);
+    assertThat(reloaded.lookup(other, LAST_MODIFIED_TIME)).isEmpty();
+  }
+
+  @Test
+  void whenFileMissing_isEmpty() {
+    DirectoryIndex loaded = DirectoryIndex.load(indexFile);
+
+    assertThat(loaded.lookup(directory, LAST_MODIFIED_TIME)).isEmpty();
+  }
+
+  @Test
+  void whenFileTruncated_isEmpty() throws IOException {
+    // Given
+    DirectoryIndex index = DirectoryIndex.empty(indexFile);
+    index.record(directory, LAST_MODIFIED_TIME, CHILDREN);
+    index.save();
+    byte[] bytes = Files.readAllBytes(indexFile);
+    Files.write(indexFile, Arrays.copyOf(bytes, bytes.length - 1));
+
+    // When
+    DirectoryIndex loaded = DirectoryIndex.load(indexFile);
+
+    // Then
+    assertThat(loaded.lookup(directory, LAST_MODIFIED_TIME)).isEmpty();
+  }
+
+  @Test
+  void whenFileCorrupt_isEmpty() throws IOException {
+    // Given
+    DirectoryIndex index = DirectoryIndex.empty(indexFile);
+    index.record(directory, LAST_MODIFIED_TIME, CHILDREN);
+    index.save();
+    byte[] bytes = Files.readAllBytes(indexFile);
+    bytes[bytes.length / 2] ^= 1;
+    Files.write(indexFile, bytes);
+
+    // When
+    DirectoryIndex loaded = DirectoryIndex.load(indexFile);
+
+    // Then
+    assertThat(loaded.lookup(directory, LAST_MODIFIED_TIME)).isEmpty();
+  }
+}
@@ -0,0 +1,279 @@
+package com.willmolloy.handbrake.cfr.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Files2Test.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class Files2Test {
+
+  private static final int SIZE = 3 * 1024 * 1024 + 5;
+
+  @TempDir private Path tempDirectory;
+  private FileSystem fileSystem;
+
+  @BeforeEach
+  void setUp() {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    fileSystem.close();
+  }
+
+  // default file system memory-maps the files, in-memory file system reads into buffers
+  private Path directory(boolean memoryMapped) {
+    return memoryMapped ? tempDirectory : fileSystem.getPath("/");
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void sameFile_similar(boolean memoryMapped) throws IOException {
+    Path directory = directory(memoryMapped);
+    Path file = Files.write(directory.resolve("file"), randomBytes(SIZE));
+
+    assertThat(Files2.contentsSimilar(file, file)).isTrue();
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void sameContents_similar(boolean memoryMapped) throws IOException {
+    Path directory = directory(memoryMapped);
+    byte[] bytes = randomBytes(SIZE);
+    Path file1 = Files.write(directory.resolve("file1"), bytes);
+    Path file2 = Files.write(directory.resolve("file2"), bytes);
+
+    assertThat(Files2.contentsSimilar(file1, file2)).isTrue();
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void lessThan1PercentMismatch_similar(boolean memoryMapped) throws IOException {
+    Path directory = directory(memoryMapped);
+    byte[] bytes = randomBytes(SIZE);
+    Path file1 = Files.write(directory.resolve("file1"), bytes);
+    Path file2 = Files.write(directory.resolve("file2"), mismatch(bytes, SIZE / 100));
+
+    assertThat(Files2.contentsSimilar(file1, file2)).isTrue();
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void moreThan1PercentMismatch_notSimilar(boolean memoryMapped) throws IOException {
+    Path directory = directory(memoryMapped);
+    byte[] bytes = randomBytes(SIZE);
+    Path file1 = Files.write(directory.resolve("file1"), bytes);
+    Path file2 = Files.write(directory.resolve("file2"), mismatch(bytes, SIZE / 100 + 1));
+
+    assertThat(Files2.contentsSimilar(file1, file2)).isFalse();
+  }
+
+  @Test
+  void lessThan1PercentMismatch_spreadThroughFiles_similar() throws IOException {
+    // Given
+    int size = (int) Files2.MIN_SAMPLED_SIZE;
+    byte[] bytes = randomBytes(size);
+    Path file1 = Files.write(tempDirectory.resolve("file1"), bytes);
+    // under 1% of the sample mismatches too
+    for (int i = 0; i < size; i += 128) {
+      bytes[i] = (byte) ~bytes[i];
+    }
+    Path file2 = Files.write(tempDirectory.resolve("file2"), bytes);
+
+    // When/Then
+    assertThat(Files2.contentsSimilar(file1, file2)).isTrue();
+  }
+
+  @Test
+  void lessThan1PercentMismatch_clusteredInSample_similar() throws IOException {
+    // Given
+    int size = (int) Files2.MIN_SAMPLED_SIZE;
+    byte[] bytes = randomBytes(size);
+    Path file1 = Files.write(tempDirectory.resolve("file1"), bytes);
+    // 12% of the sample mismatches, far more than 1%, though the sampled bytes alone are under 1%
+    // of the whole files
+    int mismatchesPerBlock = Files2.SAMPLE_BLOCK_SIZE * 12 / 100;
+    long[] offsets =
+        MismatchCounter.sampleOffsets(size, Files2.SAMPLE_BLOCKS, Files2.SAMPLE_BLOCK_SIZE);
+    assertThat((long) mismatchesPerBlock * offsets.length).isLessThan(size / 100);
+    for (long offset : offsets) {
+      for (int i = 0; i < mismatchesPerBlock; i++) {
+        bytes[(int) offset + i] = (byte) ~bytes[(int) offset + i];
+      }
+    }
+    Path file2 = Files.write(tempDirectory.resolve("file2"), bytes);
+
+    // When/Then
+    // not rejected by the sample, as the full scan finds them similar
+    assertThat(Files2.contentsSimilar(file1, file2)).isTrue();
+  }
+
+  @Test
+  void sampledBlocksAloneMismatchMoreThan1Percent_notSimilar() throws IOException {
+    // Given
+    int size = (int) Files2.MIN_SAMPLED_SIZE;
+    Path file1 = Files.write(tempDirectory.resolve("file1"), randomBytes(size));
+    // seeded differently
+    Path file2 =
+        Files.write(tempDirectory.resolve("file2"), Arrays.copyOf(randomBytes(size + 1), size));
+
+    // When/Then
+    assertThat(Files2.contentsSimilar(file1, file2)).isFalse();
+  }
+
+  @Test
+  void largeFiles_sampleMostlyMismatches_notSimilar_withoutFullScan() throws IOException {
+    // Given
+    // too large for the sampled bytes alone to exceed 1% of the whole files
+    long size = 128 * Files2.SAMPLED_BYTES;
+    long[] offsets =
+        MismatchCounter.sampleOffsets(size, Files2.SAMPLE_BLOCKS, Files2.SAMPLE_BLOCK_SIZE);
+    Path file1 = sparseFile(tempDirectory.resolve("file1"), size, new long[0], new byte[0]);
+    // only the sampled blocks differ, so the full scan would find them similar. Rejected anyway,
+    // so by the sample (as for different encodes, which differ almost everywhere)
+    Path file2 =
+        sparseFile(
+            tempDirectory.resolve("file2"), size, offsets, randomBytes(Files2.SAMPLE_BLOCK_SIZE));
+
+    // When/Then
+    assertThat(Files2.contentsSimilar(file1, file2)).isFalse();
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void differentSizes_notSimilar(boolean memoryMapped) throws IOException {
+    Path directory = directory(memoryMapped);
+    byte[] bytes = randomBytes(SIZE);
+    Path file1 = Files.write(directory.resolve("file1"), bytes);
+    Path file2 = Files.write(directory.resolve("file2"), Arrays.copyOf(bytes, SIZE / 2));
+
+    assertThat(Files2.contentsSimilar(file1, file2)).isFalse();
+    assertThat(Files2.contentsSimilar(file2, file1)).isFalse();
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void smallerFilePaddedWithZeros(boolean memoryMapped) throws IOException {
+    Path directory = directory(memoryMapped);
+    byte[] bytes = randomBytes(SIZE);
+    Path file1 = Files.write(directory.resolve("file1"), bytes);
+    // trailing zeros match the padding
+    Path file2 = Files.write(directory.resolve("file2"), Arrays.copyOf(bytes, SIZE + SIZE / 200));
+
+    assertThat(Files2.contentsSimilar(file1, file2)).isTrue();
+    assertThat(Files2.contentsSimilar(file2, file1)).isTrue();
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void sizesDifferByMoreThan1Percent_notSimilar_evenIfPaddedWithZeros(boolean memoryMapped)
+      throws IOException {
+    Path directory = directory(memoryMapped);
+    byte[] bytes = randomBytes(SIZE);
+    Path file1 = Files.write(directory.resolve("file1"), bytes);
+    // rejected by the size check without reading the files
+    Path file2 = Files.write(directory.resolve("file2"), Arrays.copyOf(bytes, SIZE * 2));
+
+    assertThat(Files2.contentsSimilar(file1, file2)).isFalse();
+    assertThat(Files2.contentsSimilar(file2, file1)).isFalse();
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void copy_copiesContentsInChunks(boolean memoryMapped) throws IOException {
+    Path directory = directory(memoryMapped);
+    byte[] bytes = randomBytes(SIZE);
+    Path source = Files.write(directory.resolve("source"), bytes);
+    Path target = directory.resolve("target");
+
+    Files2.copy(source, target, 100_000, 10);
+
+    assertThat(Files.readAllBytes(target)).isEqualTo(bytes);
+    assertThat(Files.readAllBytes(source)).isEqualTo(bytes);
+  }
+
+  @Test
+  void copy_acrossFileSystems() throws IOException {
+    byte[] bytes = randomBytes(SIZE);
+    Path source = Files.write(fileSystem.getPath("/source"), bytes);
+    Path target = tempDirectory.resolve("target");
+
+    Files2.copy(source, target, 1 << 20, 1);
+
+    assertThat(Files.readAllBytes(target)).isEqualTo(bytes);
+  }
+
+  @Test
+  void copy_whenTargetExists_throwsException() throws IOException {
+    Path source = Files.write(fileSystem.getPath("/source"), randomBytes(SIZE));
+    Path target = Files.write(fileSystem.getPath("/target"), new byte[0]);
+
+    assertThrows(FileAlreadyExistsException.class, () -> Files2.copy(source, target, 1 << 20, 10));
+  }
+
+  @Test
+  void copy_emptyFile() throws IOException {
+    Path source = Files.write(fileSystem.getPath("/source"), new byte[0]);
+    Path target = fileSystem.getPath("/target");
+
+    Files2.copy(source, target, 1 << 20, 10);
+
+    assertThat(Files.size(target)).isEqualTo(0);
+  }
+
+  private static byte[] randomBytes(int size) {
+    byte[] bytes = new byte[size];
+    new Random(size).nextBytes(bytes);
+    return bytes;
+  }
+
+  // zeros, except the block at each offset
+  private static Path sparseFile(Path path, long size, long[] offsets, byte[] block)
+      throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.SPARSE)) {
+      for (long offset : offsets) {
+        channel.write(ByteBuffer.wrap(block), offset);
+      }
+      channel.write(ByteBuffer.allocate(1), size - 1);
+    }
+    return path;
+  }
+
+  private static byte[] mismatch(byte[] bytes, int count) {
+    byte[] copy = bytes.clone();
+    // spread evenly, covering both word-at-a-time and trailing byte-at-a-time comparisons
+    for (int i = 0; i < count; i++) {
+      int index = (int) ((long) i * (copy.length - 1) / Math.max(1, count - 1));
+      copy[index] = (byte) ~copy[index];
+    }
+    return copy;
+  }
+}
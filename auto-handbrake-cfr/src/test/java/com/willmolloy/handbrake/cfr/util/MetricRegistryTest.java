@@ -0,0 +1,177 @@
+package com.willmolloy.handbrake.cfr.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * MetricRegistryTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class MetricRegistryTest {
+
+  private final MetricRegistry registry = new MetricRegistry("app");
+
+  @Test
+  void rendersPrometheusTextFormat() {
+    // Given
+    MetricRegistry.Counter counter = registry.counter("bytes_total", "Bytes.");
+    MetricRegistry.Histogram histogram = registry.histogram("duration_seconds", "Duration.", 1, 10);
+    AtomicInteger depth = new AtomicInteger(3);
+    registry.gauge("queue_depth", "Depth.", depth::get);
+
+    // When
+    counter.add(5);
+    counter.increment();
+    histogram.observe(0.5);
+    histogram.observe(1);
+    histogram.observe(20);
+    String prometheus = registry.prometheus();
+
+    // Then
+    assertThat(prometheus)
+        .isEqualTo(
+            """
+            # HELP app_bytes_total Bytes.
+            # TYPE app_bytes_total counter
+            app_bytes_total 6
+            # HELP app_duration_seconds Duration.
+            # TYPE app_duration_seconds histogram
+            app_duration_seconds_bucket{le="1.0"} 2
+            app_duration_seconds_bucket{le="10.0"} 2
+            app_duration_seconds_bucket{le="+Inf"} 3
+            app_duration_seconds_sum 21.5
+            app_duration_seconds_count 3
+            # HELP app_queue_depth Depth.
+            # TYPE app_queue_depth gauge
+            app_queue_depth 3.0
+            """);
+  }
+
+  @Test
+  void gaugeIsReadWhenRendered() {
+    // Given
+    AtomicInteger depth = new AtomicInteger(3);
+    registry.gauge("queue_depth", "Depth.", depth::get);
+
+    // When
+    depth.set(7);
+
+    // Then
+    assertThat(registry.prometheus()).contains("app_queue_depth 7.0\n");
+  }
+
+  @Test
+  void rendersJson() {
+    // Given
+    registry.counter("bytes_total", "Bytes.").add(6);
+    MetricRegistry.Histogram histogram = registry.histogram("duration_seconds", "Duration.", 1, 10);
+    registry.gauge("queue_depth", "Depth.", () -> 3);
+    registry.gauge("nan", "Not a number.", () -> Double.NaN);
+    histogram.observe(2);
+    histogram.observe(4);
+
+    // When
+    String json = registry.json();
+
+    // Then
+    assertThat(json)
+        .isEqualTo(
+            "{\"app_bytes_total\":6,"
+                + "\"app_duration_seconds\":{\"count\":2,\"sum\":6.0,\"mean\":3.0,\"min\":2.0,"
+                + "\"max\":4.0,\"buckets\":{\"1.0\":0,\"10.0\":2,\"+Inf\":2}},"
+                + "\"app_queue_depth\":3.0,"
+                + "\"app_nan\":null}");
+  }
+
+  @Test
+  void histogram_whenEmpty_hasNoMinOrMax() {
+    // Given
+    MetricRegistry.Histogram histogram = registry.histogram("duration_seconds", "Duration.", 1);
+
+    // Then
+    assertThat(histogram.count()).isEqualTo(0);
+    assertThat(histogram.min()).isNaN();
+    assertThat(histogram.max()).isNaN();
+    assertThat(registry.json()).contains("\"mean\":null,\"min\":null,\"max\":null");
+  }
+
+  @Test
+  void histogram_ignoresValuesThatArentFinite() {
+    // Given
+    MetricRegistry.Histogram histogram = registry.histogram("duration_seconds", "Duration.", 1);
+
+    // When
+    histogram.observe(Double.NaN);
+    histogram.observe(Double.POSITIVE_INFINITY);
+
+    // Then
+    assertThat(histogram.count()).isEqualTo(0);
+    assertThat(histogram.sum()).isEqualTo(0);
+  }
+
+  @Test
+  void updatesConcurrently() {
+    // Given
+    MetricRegistry.Counter counter = registry.counter("total", "Total.");
+    MetricRegistry.Histogram histogram = registry.histogram("values", "Values.", 10, 100);
+
+    // When
+    try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+      for (int i = 0; i < 4; i++) {
+        executor.submit(
+            () -> {
+              for (int j = 0; j < 1000; j++) {
+                counter.increment();
+                histogram.observe(j % 200);
+              }
+            });
+      }
+    }
+
+    // Then
+    assertThat(counter.value()).isEqualTo(4000);
+    assertThat(histogram.count()).isEqualTo(4000);
+    assertThat(histogram.min()).isEqualTo(0);
+    assertThat(histogram.max()).isEqualTo(199);
+  }
+
+  @Test
+  void whenNameAlreadyRegistered_throwsException() {
+    // Given
+    registry.counter("total", "Total.");
+
+    // When
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, () -> registry.gauge("total", "", () -> 0));
+
+    // Then
+    assertThat(thrown).hasMessageThat().isEqualTo("metric (app_total) already registered");
+  }
+
+  @Test
+  void whenNameInvalid_throwsException() {
+    // When
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, () -> registry.counter("bytes-total", ""));
+
+    // Then
+    assertThat(thrown).hasMessageThat().isEqualTo("name (bytes-total) is invalid");
+  }
+
+  @Test
+  void whenBoundsDontIncrease_throwsException() {
+    // When
+    IllegalArgumentException thrown =
+        assertThrows(
+            IllegalArgumentException.class, () -> registry.histogram("values", "", 10, 10));
+
+    // Then
+    assertThat(thrown).hasMessageThat().isEqualTo("bounds ([10.0, 10.0]) must increase");
+  }
+}
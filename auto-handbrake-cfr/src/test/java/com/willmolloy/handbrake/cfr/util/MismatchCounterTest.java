@@ -0,0 +1,199 @@
+package com.willmolloy.handbrake.cfr.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * MismatchCounterTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class MismatchCounterTest {
+
+  private static final int SIZE = 100_003;
+  // small regions (not a multiple of the word size) so files are split into many regions
+  private static final long REGION_SIZE = 1_001;
+
+  @TempDir private Path tempDirectory;
+  private FileSystem fileSystem;
+
+  @BeforeEach
+  void setUp() {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    fileSystem.close();
+  }
+
+  static Stream<Arguments> memoryMappedAndParallelism() {
+    return Stream.of(
+        Arguments.of(true, 1),
+        Arguments.of(true, 8),
+        Arguments.of(false, 1),
+        Arguments.of(false, 8));
+  }
+
+  @ParameterizedTest
+  @MethodSource("memoryMappedAndParallelism")
+  void countsEveryMismatch(boolean memoryMapped, int parallelism) throws IOException {
+    byte[] bytes = randomBytes();
+    byte[] mismatched = bytes.clone();
+    for (int i = 0; i < SIZE; i += 7) {
+      mismatched[i] = (byte) ~mismatched[i];
+    }
+
+    long count = count(memoryMapped, bytes, mismatched, Long.MAX_VALUE, parallelism);
+
+    assertThat(count).isEqualTo((SIZE + 6) / 7);
+  }
+
+  @ParameterizedTest
+  @MethodSource("memoryMappedAndParallelism")
+  void countsNonZeroBytesOfLongerFileAsMismatches(boolean memoryMapped, int parallelism)
+      throws IOException {
+    byte[] bytes = randomBytes();
+    byte[] longer = Arrays.copyOf(bytes, SIZE * 2);
+    long nonZeroPadding = 0;
+    for (int i = SIZE; i < longer.length; i += 3) {
+      longer[i] = 1;
+      nonZeroPadding++;
+    }
+
+    assertThat(count(memoryMapped, bytes, longer, Long.MAX_VALUE, parallelism))
+        .isEqualTo(nonZeroPadding);
+    assertThat(count(memoryMapped, longer, bytes, Long.MAX_VALUE, parallelism))
+        .isEqualTo(nonZeroPadding);
+  }
+
+  @ParameterizedTest
+  @MethodSource("memoryMappedAndParallelism")
+  void stopsCountingOnceLimitExceeded(boolean memoryMapped, int parallelism) throws IOException {
+    byte[] bytes = randomBytes();
+    byte[] mismatched = bytes.clone();
+    for (int i = 0; i < SIZE; i++) {
+      mismatched[i] = (byte) ~mismatched[i];
+    }
+
+    long count = count(memoryMapped, bytes, mismatched, 10, parallelism);
+
+    assertThat(count).isGreaterThan(10);
+    assertThat(count).isLessThan(SIZE);
+  }
+
+  @ParameterizedTest
+  @MethodSource("memoryMappedAndParallelism")
+  void withFilter_seesEveryBlock_andSkipsMatchedBlocks(boolean memoryMapped, int parallelism)
+      throws IOException {
+    // Given
+    byte[] bytes = randomBytes();
+    byte[] mismatched = bytes.clone();
+    for (int i = 0; i < SIZE; i++) {
+      mismatched[i] = (byte) ~mismatched[i];
+    }
+    // divides the region size, so regions are split into whole blocks
+    int blockSize = 143;
+    int blocks = (SIZE + blockSize - 1) / blockSize;
+    Set<Integer> seen = ConcurrentHashMap.newKeySet();
+    MismatchCounter.BlockFilter oddBlocksMatch =
+        new MismatchCounter.BlockFilter() {
+          @Override
+          public int blockSize() {
+            return blockSize;
+          }
+
+          @Override
+          public boolean matches(int block, ByteBuffer data) {
+            seen.add(block);
+            return block % 2 == 1;
+          }
+        };
+
+    // When
+    long count =
+        count(memoryMapped, bytes, mismatched, Long.MAX_VALUE, parallelism, oddBlocksMatch);
+
+    // Then
+    assertThat(seen).hasSize(blocks);
+    // only the even blocks are compared, all whole (the last, partial, block is odd)
+    assertThat(blocks % 2).isEqualTo(0);
+    assertThat(count).isEqualTo((long) blocks / 2 * blockSize);
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void countSample_countsMismatchesInSampledBlocksOnly(boolean memoryMapped) throws IOException {
+    byte[] bytes = randomBytes();
+    byte[] mismatched = bytes.clone();
+    for (int i = 0; i < SIZE; i++) {
+      mismatched[i] = (byte) ~mismatched[i];
+    }
+
+    assertThat(countSample(memoryMapped, bytes, bytes)).isEqualTo(0);
+    assertThat(countSample(memoryMapped, bytes, mismatched)).isEqualTo(10 * 100);
+  }
+
+  private long count(
+      boolean memoryMapped, byte[] bytes1, byte[] bytes2, long limit, int parallelism)
+      throws IOException {
+    return count(memoryMapped, bytes1, bytes2, limit, parallelism, null);
+  }
+
+  private long count(
+      boolean memoryMapped,
+      byte[] bytes1,
+      byte[] bytes2,
+      long limit,
+      int parallelism,
+      MismatchCounter.BlockFilter filter)
+      throws IOException {
+    // default file system memory-maps the files, in-memory file system reads into buffers
+    Path directory = memoryMapped ? tempDirectory : fileSystem.getPath("/");
+    Path file1 = Files.write(directory.resolve("file1"), bytes1);
+    Path file2 = Files.write(directory.resolve("file2"), bytes2);
+    try (FileChannel channel1 = FileChannel.open(file1);
+        FileChannel channel2 = FileChannel.open(file2)) {
+      long size = Math.max(bytes1.length, bytes2.length);
+      return MismatchCounter.count(
+          channel1, channel2, size, limit, parallelism, REGION_SIZE, Optional.ofNullable(filter));
+    }
+  }
+
+  private long countSample(boolean memoryMapped, byte[] bytes1, byte[] bytes2) throws IOException {
+    Path directory = memoryMapped ? tempDirectory : fileSystem.getPath("/");
+    Path file1 = Files.write(directory.resolve("file1"), bytes1);
+    Path file2 = Files.write(directory.resolve("file2"), bytes2);
+    try (FileChannel channel1 = FileChannel.open(file1);
+        FileChannel channel2 = FileChannel.open(file2)) {
+      return MismatchCounter.countSample(channel1, channel2, SIZE, 10, 100);
+    }
+  }
+
+  private static byte[] randomBytes() {
+    byte[] bytes = new byte[SIZE];
+    new Random(SIZE).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,289 @@
+package com.willmolloy.handbrake.cfr.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * ParallelFileWalkerTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class ParallelFileWalkerTest {
+
+  // before the index's racy window
+  private static final FileTime PAST = FileTime.fromMillis(1_000_000);
+
+  private FileSystem fileSystem;
+  private Path root;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    root = Files.createDirectories(fileSystem.getPath("root"));
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    fileSystem.close();
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 2, 16})
+  void listsFilesInSameOrderAsWalkFileTree(int parallelism) throws IOException {
+    // Given
+    for (int i = 0; i < 5; i++) {
+      Files.write(root.resolve("file%s.mp4".formatted(i)), new byte[i]);
+      for (int j = 0; j < 5; j++) {
+        Path directory = Files.createDirectories(root.resolve("dir%s/sub%s".formatted(i, j)));
+        for (int k = 0; k < 5; k++) {
+          Files.write(directory.resolve("file%s.mp4".formatted(k)), new byte[k]);
+        }
+      }
+    }
+    Files.createDirectories(root.resolve("empty"));
+
+    // When
+    List<ParallelFileWalker.RegularFile> files = walk(new ParallelFileWalker(parallelism), root);
+
+    // Then
+    assertThat(files.stream().map(ParallelFileWalker.RegularFile::path).toList())
+        .containsExactlyElementsIn(walkFileTree(root))
+        .inOrder();
+    assertThat(files).hasSize(5 + 5 * 5 * 5);
+    for (ParallelFileWalker.RegularFile file : files) {
+      assertThat(file.attributes().size()).isEqualTo(Files.size(file.path()));
+    }
+  }
+
+  @Test
+  void includesLinksToFiles_withAttributesOfLinkedFile() throws IOException {
+    // Given
+    Path file = Files.write(root.resolve("file.mp4"), new byte[10]);
+    Path link = Files.createSymbolicLink(root.resolve("link.mp4"), file.toAbsolutePath());
+    Path directory = Files.createDirectories(fileSystem.getPath("other"));
+    Files.write(directory.resolve("hidden.mp4"), new byte[10]);
+    Files.createSymbolicLink(root.resolve("linkToDirectory"), directory.toAbsolutePath());
+
+    // When
+    List<ParallelFileWalker.RegularFile> files = walk(new ParallelFileWalker(2), root);
+
+    // Then
+    assertThat(files.stream().map(ParallelFileWalker.RegularFile::path).toList())
+        .containsExactly(file, link);
+    assertThat(files.stream().allMatch(f -> f.attributes().isRegularFile())).isTrue();
+  }
+
+  @Test
+  void withIndex_doesNotListDirectoriesUnchangedSinceIndexed() throws IOException {
+    // Given
+    Path directory = Files.createDirectories(root.resolve("directory"));
+    Path subdirectory = Files.createDirectories(directory.resolve("subdirectory"));
+    Path video1 = Files.write(directory.resolve("video1.mp4"), new byte[10]);
+    Path video2 = Files.write(subdirectory.resolve("video2.mp4"), new byte[10]);
+    setLastModifiedTimesToPast(root, directory, subdirectory);
+    Path indexFile = fileSystem.getPath("index");
+    DirectoryIndex index = DirectoryIndex.load(indexFile);
+    new ParallelFileWalker(2).walk(root, index, file -> {});
+    index.save();
+
+    // added without changing the directory's last modified time, so only visible when listed
+    Path hidden = Files.write(directory.resolve("hidden.mp4"), new byte[10]);
+    Files.setLastModifiedTime(directory, PAST);
+    // added normally
+    Path video3 = Files.write(subdirectory.resolve("video3.mp4"), new byte[10]);
+
+    // When
+    List<ParallelFileWalker.RegularFile> files =
+        walk(new ParallelFileWalker(2), root, DirectoryIndex.load(indexFile));
+
+    // Then
+    assertThat(files.stream().map(ParallelFileWalker.RegularFile::path).toList())
+        .containsExactly(video2, video3, video1);
+    assertThat(files.stream().map(ParallelFileWalker.RegularFile::path).toList())
+        .doesNotContain(hidden);
+    assertThat(files.getLast().attributes().size()).isEqualTo(10);
+  }
+
+  @Test
+  void withEmptyIndex_listsEveryDirectory() throws IOException {
+    // Given
+    Path directory = Files.createDirectories(root.resolve("directory"));
+    Path video1 = Files.write(directory.resolve("video1.mp4"), new byte[10]);
+    setLastModifiedTimesToPast(root, directory);
+    Path indexFile = fileSystem.getPath("index");
+    DirectoryIndex index = DirectoryIndex.load(indexFile);
+    new ParallelFileWalker(2).walk(root, index, file -> {});
+    index.save();
+
+    Path video2 = Files.write(directory.resolve("video2.mp4"), new byte[10]);
+    Files.setLastModifiedTime(directory, PAST);
+
+    // When
+    List<ParallelFileWalker.RegularFile> files =
+        walk(new ParallelFileWalker(2), root, DirectoryIndex.empty(indexFile));
+
+    // Then
+    assertThat(files.stream().map(ParallelFileWalker.RegularFile::path).toList())
+        .containsExactly(video1, video2);
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 4})
+  void listsBoundedDistanceAheadOfFilesReturned(int parallelism) throws IOException {
+    // Given
+    int directories = 50;
+    givenDirectoriesWithOneFile(directories);
+    DirectoryIndex index = mock(DirectoryIndex.class);
+    List<Long> listedAhead = new ArrayList<>();
+
+    // When
+    new ParallelFileWalker(parallelism)
+        .walk(
+            root,
+            index,
+            file -> {
+              // gives the listings a chance to run ahead
+              Uninterruptibles.sleepUninterruptibly(Duration.ofMillis(5));
+              // the root and the directories up to this file's are flattened
+              listedAhead.add(listings(index) - (listedAhead.size() + 2));
+            });
+
+    // Then
+    assertThat(listedAhead).hasSize(directories);
+    for (long ahead : listedAhead) {
+      assertThat(ahead).isAtMost(ParallelFileWalker.LOOKAHEAD_PER_THREAD * parallelism);
+    }
+    assertThat(listings(index)).isEqualTo(directories + 1);
+  }
+
+  @Test
+  void whenConsumerBlocked_stopsListing() throws Exception {
+    // Given
+    int directories = 50;
+    givenDirectoriesWithOneFile(directories);
+    DirectoryIndex index = mock(DirectoryIndex.class);
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch unblocked = new CountDownLatch(1);
+    List<ParallelFileWalker.RegularFile> files = new ArrayList<>();
+
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      // When
+      // e.g. streaming into a full job queue
+      Future<?> walk =
+          executor.submit(
+              () -> {
+                new ParallelFileWalker(1)
+                    .walk(
+                        root,
+                        index,
+                        file -> {
+                          blocked.countDown();
+                          Uninterruptibles.awaitUninterruptibly(unblocked);
+                          files.add(file);
+                        });
+                return null;
+              });
+      blocked.await();
+      // gives the listings a chance to run ahead
+      Thread.sleep(200);
+
+      // Then
+      // the root, the first directory and the lookahead
+      assertThat(listings(index)).isAtMost(2 + ParallelFileWalker.LOOKAHEAD_PER_THREAD);
+      unblocked.countDown();
+      walk.get();
+    }
+    assertThat(files).hasSize(directories);
+    assertThat(listings(index)).isEqualTo(directories + 1);
+  }
+
+  @Test
+  void whenRootDoesNotExist_throwsException() {
+    ParallelFileWalker walker = new ParallelFileWalker(2);
+
+    assertThrows(NoSuchFileException.class, () -> walker.walk(root.resolve("missing"), file -> {}));
+  }
+
+  @Test
+  void whenParallelismNotPositive_throwsException() {
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, () -> new ParallelFileWalker(0));
+
+    assertThat(thrown).hasMessageThat().isEqualTo("parallelism (0) must be positive");
+  }
+
+  private static List<ParallelFileWalker.RegularFile> walk(ParallelFileWalker walker, Path root)
+      throws IOException {
+    List<ParallelFileWalker.RegularFile> files = new ArrayList<>();
+    walker.walk(root, files::add);
+    return files;
+  }
+
+  private static List<ParallelFileWalker.RegularFile> walk(
+      ParallelFileWalker walker, Path root, DirectoryIndex index) throws IOException {
+    List<ParallelFileWalker.RegularFile> files = new ArrayList<>();
+    walker.walk(root, index, files::add);
+    return files;
+  }
+
+  private void givenDirectoriesWithOneFile(int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      Path directory = Files.createDirectories(root.resolve("dir%02d".formatted(i)));
+      Files.write(directory.resolve("video.mp4"), new byte[1]);
+    }
+  }
+
+  // each directory listed is recorded in the index
+  private static long listings(DirectoryIndex index) {
+    return mockingDetails(index).getInvocations().stream()
+        .filter(invocation -> invocation.getMethod().getName().equals("record"))
+        .count();
+  }
+
+  private static void setLastModifiedTimesToPast(Path... directories) throws IOException {
+    for (Path directory : directories) {
+      Files.setLastModifiedTime(directory, PAST);
+    }
+  }
+
+  private static List<Path> walkFileTree(Path root) throws IOException {
+    List<Path> files = new ArrayList<>();
+    Files.walkFileTree(
+        root,
+        new SimpleFileVisitor<>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+            files.add(file);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return files;
+  }
+}
@@ -0,0 +1,150 @@
+package com.willmolloy.handbrake.cfr.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * SourceFingerprintTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class SourceFingerprintTest {
+
+  private static final int SIZE = 5 * BlockFingerprints.BLOCK_SIZE;
+
+  private FileSystem fileSystem;
+  private Path file;
+  private Path sidecar;
+  private Path encoding;
+  private byte[] bytes;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    file = fileSystem.getPath("file.mp4");
+    sidecar = fileSystem.getPath("file.cfr.mp4.source");
+    encoding = Files.write(fileSystem.getPath("file.cfr.mp4"), new byte[] {1, 2, 3});
+
+    bytes = new byte[SIZE];
+    new Random(SIZE).nextBytes(bytes);
+    Files.write(file, bytes);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    fileSystem.close();
+  }
+
+  @Test
+  void savesAndLoads() throws IOException {
+    SourceFingerprint.compute(file).save(sidecar, encoding);
+
+    Optional<SourceFingerprint> loaded = SourceFingerprint.load(sidecar, encoding);
+
+    assertThat(loaded).isPresent();
+    assertThat(loaded.get().matches(file)).isTrue();
+  }
+
+  @Test
+  void hasAttributes_comparesSizeAndLastModifiedTime() throws IOException {
+    SourceFingerprint fingerprint = SourceFingerprint.compute(file);
+    FileTime lastModifiedTime = Files.getLastModifiedTime(file);
+
+    assertThat(fingerprint.hasAttributes(SIZE, lastModifiedTime)).isTrue();
+    assertThat(fingerprint.hasAttributes(SIZE + 1, lastModifiedTime)).isFalse();
+    assertThat(
+            fingerprint.hasAttributes(
+                SIZE, FileTime.fromMillis(lastModifiedTime.toMillis() + 1000)))
+        .isFalse();
+  }
+
+  @Test
+  void matches_whenLastModifiedTimeChanged_returnsFalse() throws IOException {
+    SourceFingerprint fingerprint = SourceFingerprint.compute(file);
+    Files.setLastModifiedTime(
+        file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+
+    assertThat(fingerprint.matches(file)).isFalse();
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {0, SIZE - 1})
+  void matches_whenFirstOrLastBlockChangedWithSameAttributes_returnsFalse(int changedByte)
+      throws IOException {
+    // Given
+    SourceFingerprint fingerprint = SourceFingerprint.compute(file);
+    FileTime lastModifiedTime = Files.getLastModifiedTime(file);
+
+    // When
+    bytes[changedByte] ^= 1;
+    Files.write(file, bytes);
+    Files.setLastModifiedTime(file, lastModifiedTime);
+
+    // Then
+    assertThat(fingerprint.matches(file)).isFalse();
+  }
+
+  @Test
+  void matches_whenSmallerThanABlock_hashesWholeFile() throws IOException {
+    // Given
+    Files.write(file, Arrays.copyOf(bytes, 100));
+    SourceFingerprint fingerprint = SourceFingerprint.compute(file);
+    FileTime lastModifiedTime = Files.getLastModifiedTime(file);
+
+    // When
+    bytes[50] ^= 1;
+    Files.write(file, Arrays.copyOf(bytes, 100));
+    Files.setLastModifiedTime(file, lastModifiedTime);
+
+    // Then
+    assertThat(fingerprint.matches(file)).isFalse();
+  }
+
+  @Test
+  void load_whenSidecarMissing_returnsEmpty() {
+    assertThat(SourceFingerprint.load(sidecar, encoding)).isEmpty();
+  }
+
+  @Test
+  void load_whenEncodingModifiedSinceSaved_returnsEmpty() throws IOException {
+    SourceFingerprint.compute(file).save(sidecar, encoding);
+    Files.setLastModifiedTime(
+        encoding, FileTime.fromMillis(Files.getLastModifiedTime(encoding).toMillis() + 1000));
+
+    assertThat(SourceFingerprint.load(sidecar, encoding)).isEmpty();
+  }
+
+  @Test
+  void load_whenSidecarTruncated_returnsEmpty() throws IOException {
+    SourceFingerprint.compute(file).save(sidecar, encoding);
+    byte[] sidecarBytes = Files.readAllBytes(sidecar);
+    Files.write(sidecar, Arrays.copyOf(sidecarBytes, sidecarBytes.length - 1));
+
+    assertThat(SourceFingerprint.load(sidecar, encoding)).isEmpty();
+  }
+
+  @Test
+  void load_whenSidecarCorrupt_returnsEmpty() throws IOException {
+    SourceFingerprint.compute(file).save(sidecar, encoding);
+    byte[] sidecarBytes = Files.readAllBytes(sidecar);
+    sidecarBytes[sidecarBytes.length / 2] ^= 1;
+    Files.write(sidecar, sidecarBytes);
+
+    assertThat(SourceFingerprint.load(sidecar, encoding)).isEmpty();
+  }
+}
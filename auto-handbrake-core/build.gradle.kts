@@ -1 +1,9 @@
+plugins {
+  alias(libs.plugins.jmh)
+}
 
+jmh {
+  fork = 1
+  warmupIterations = 1
+  iterations = 3
+}
@@ -0,0 +1,91 @@
+package com.willmolloy.handbrake.core;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks {@link ProgressParser} (as used by {@link HandBrakeLogger}) against the previous regex
+ * based implementation.
+ *
+ * <p>Run with {@code ./gradlew :auto-handbrake-core:jmh}, add {@code -Pjmh.profilers=gc} to compare
+ * allocation rates.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProgressParserBenchmark {
+
+  private static final Pattern ENCODING_ETA_PATTERN =
+      Pattern.compile(
+          "Encoding: task 1 of 1, ((\\d+)[.]\\d+ % [(]\\d+[.]\\d+ fps, avg \\d+[.]\\d+ fps,"
+              + " ETA \\d+h\\d+m\\d+s[)])");
+
+  // output of a short encode: a few other lines, then progress lines from 0% to 100%
+  private CharSequence[] lines;
+
+  /** Generates the HandBrake output. */
+  @Setup
+  public void setUp() {
+    lines =
+        IntStream.concat(IntStream.range(-5, 0), IntStream.rangeClosed(0, 10_000))
+            .mapToObj(
+                i ->
+                    i < 0
+                        ? "json job:"
+                        : "Encoding: task 1 of 1, %d.%02d %% (61.80 fps, avg 62.30 fps, ETA 00h%02dm%02ds)"
+                            .formatted(i / 100, i % 100, (10_000 - i) / 1000, (10_000 - i) % 60))
+            .toArray(CharSequence[]::new);
+  }
+
+  /** Parser, milestones in a bitset. */
+  @Benchmark
+  public void parser(Blackhole blackhole) {
+    ProgressParser progressParser = new ProgressParser();
+    int remainingProgressPercentsToLog = (1 << 11) - 1;
+    for (CharSequence line : lines) {
+      if (progressParser.parse(line)) {
+        int percent = (int) progressParser.percent();
+        if (percent % 10 == 0 && percent <= 100) {
+          int bit = 1 << (percent / 10);
+          if ((remainingProgressPercentsToLog & bit) != 0) {
+            remainingProgressPercentsToLog &= ~bit;
+            blackhole.consume(line.subSequence(progressParser.detailsStart(), line.length()));
+          }
+        }
+      }
+    }
+  }
+
+  /** Previous implementation: regex, milestones in a boxed set. */
+  @Benchmark
+  public void regex(Blackhole blackhole) {
+    Set<Integer> remainingProgressPercentsToLog =
+        IntStream.iterate(0, i -> i <= 100, i -> i + 10)
+            .boxed()
+            .collect(Collectors.toCollection(HashSet::new));
+    for (CharSequence line : lines) {
+      Matcher m = ENCODING_ETA_PATTERN.matcher(line);
+      if (m.matches()) {
+        int percent = Integer.parseInt(m.group(2));
+        if (remainingProgressPercentsToLog.remove(percent)) {
+          blackhole.consume(m.group(1));
+        }
+      }
+    }
+  }
+}
@@ -3,11 +3,11 @@ package com.willmolloy.handbrake.core;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-import java.io.BufferedReader;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.util.List;
+import java.util.OptionalInt;
+import java.util.concurrent.CancellationException;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import org.apache.logging.log4j.LogManager;
@@ -33,11 +33,12 @@ class Cli {
    *
    * @param command command to execute
    * @param processLogConsumer consumer of the command's process logs (i.e. {@link
-   *     Process#getInputStream})
-   * @return {@code true} if execution was successful
+   *     Process#getInputStream}), a line at a time, see {@link OutputPump}
+   * @return the command's exit code, or empty if it couldn't be executed (or was interrupted, or
+   *     cancelled by the consumer throwing {@link CancellationException})
    */
   @SuppressFBWarnings("REC_CATCH_EXCEPTION")
-  boolean execute(List<String> command, Consumer<String> processLogConsumer) {
+  OptionalInt execute(List<String> command, Consumer<? super CharSequence> processLogConsumer) {
     log.info("Executing: {}", command);
 
     Process process = null;
@@ -45,21 +46,20 @@ class Cli {
       process = processBuilderSupplier.get().command(command).redirectErrorStream(true).start();
 
       try (InputStream inputStream = process.getInputStream()) {
-        try (BufferedReader reader =
-            new BufferedReader(new InputStreamReader(inputStream, Charset.defaultCharset()))) {
-          reader.lines().forEach(processLogConsumer);
-        }
+        new OutputPump(Charset.defaultCharset()).pump(inputStream, processLogConsumer);
       }
 
       int exitCode = process.waitFor();
       if (exitCode != 0) {
         log.error("Command ({}) executed with non-zero exit code: {}", command, exitCode);
-        return false;
       }
-      return true;
+      return OptionalInt.of(exitCode);
+    } catch (CancellationException e) {
+      log.warn("Cancelled: {}", command);
+      return OptionalInt.empty();
     } catch (Exception e) {
       log.error("Error executing: {}", command, e);
-      return false;
+      return OptionalInt.empty();
     } finally {
       if (process != null) {
         process.destroy();
@@ -19,7 +19,20 @@ public interface HandBrake {
    * @param options HandBrake options
    * @return {@code true} if encoding was successful
    */
-  boolean encode(Input input, Output output, Option... options);
+  default boolean encode(Input input, Output output, Option... options) {
+    return encode(input, output, ProgressListener.NONE, options);
+  }
+
+  /**
+   * Runs HandBrake encoding, passing its progress to the listener as it runs.
+   *
+   * @param input input file
+   * @param output output file
+   * @param listener receives the encode's {@link ProgressEvent}s
+   * @param options HandBrake options
+   * @return {@code true} if encoding was successful
+   */
+  boolean encode(Input input, Output output, ProgressListener listener, Option... options);
 
   static HandBrake newInstance() {
     return new HandBrakeImpl(new Cli(ProcessBuilder::new));
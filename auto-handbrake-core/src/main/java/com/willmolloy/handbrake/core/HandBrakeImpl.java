@@ -2,12 +2,16 @@ package com.willmolloy.handbrake.core;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.common.base.Stopwatch;
 import com.willmolloy.handbrake.core.options.Input;
 import com.willmolloy.handbrake.core.options.Option;
 import com.willmolloy.handbrake.core.options.Output;
 import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.List;
+import java.util.OptionalInt;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -29,7 +33,8 @@ class HandBrakeImpl implements HandBrake {
   }
 
   @Override
-  public boolean encode(Input input, Output output, Option... options) {
+  public boolean encode(Input input, Output output, ProgressListener listener, Option... options) {
+    checkNotNull(listener);
     if (Files.exists(output.path())) {
       log.warn("Output ({}) already exists", output.path());
     }
@@ -37,14 +42,68 @@ class HandBrakeImpl implements HandBrake {
     List<String> command =
         getCommand(Stream.concat(Stream.of(input, output), Arrays.stream(options)));
 
+    // progress is parsed once, by the logger, which passes it on to the emitter
+    ProgressListener safeListener = safe(listener);
+    Consumer<CharSequence> processLogConsumer =
+        listener == ProgressListener.NONE
+            ? new HandBrakeLogger()
+            : new HandBrakeLogger(new ProgressEmitter(safeListener))
+                .andThen(
+                    line -> {
+                      // stops reading the output, so the process is destroyed
+                      if (safeListener.cancelled()) {
+                        throw new CancellationException("Cancelled by listener");
+                      }
+                    });
+
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    safeListener.onEvent(new ProgressEvent.Started(command));
+    OptionalInt exitCode = OptionalInt.empty();
     try {
-      return cli.execute(command, new HandBrakeLogger());
+      exitCode = cli.execute(command, processLogConsumer);
+      return exitCode.isPresent() && exitCode.getAsInt() == 0;
     } catch (Exception e) {
       log.error("Error encoding: {}", input, e);
       return false;
+    } finally {
+      safeListener.onEvent(new ProgressEvent.Finished(exitCode, stopwatch.elapsed()));
     }
   }
 
+  // so monitoring can't fail the encode
+  private static ProgressListener safe(ProgressListener listener) {
+    return new ProgressListener() {
+      @Override
+      public void onEvent(ProgressEvent event) {
+        try {
+          listener.onEvent(event);
+        } catch (RuntimeException e) {
+          log.warn("Error in progress listener: {}", event, e);
+        }
+      }
+
+      @Override
+      public void onProgress(
+          int pass, int passes, double percent, double fps, double averageFps, long etaSeconds) {
+        try {
+          listener.onProgress(pass, passes, percent, fps, averageFps, etaSeconds);
+        } catch (RuntimeException e) {
+          log.warn("Error in progress listener: pass {} at {}%", pass, percent, e);
+        }
+      }
+
+      @Override
+      public boolean cancelled() {
+        try {
+          return listener.cancelled();
+        } catch (RuntimeException e) {
+          log.warn("Error in progress listener", e);
+          return false;
+        }
+      }
+    };
+  }
+
   private List<String> getCommand(Stream<Option> options) {
     return Stream.concat(Stream.of("HandBrakeCLI"), options.flatMap(Option::handBrakeCliArgs))
         .toList();
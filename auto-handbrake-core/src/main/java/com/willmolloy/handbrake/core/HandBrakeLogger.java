@@ -3,12 +3,7 @@ package com.willmolloy.handbrake.core;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.common.annotations.VisibleForTesting;
-import java.util.HashSet;
 import java.util.function.Consumer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -19,43 +14,59 @@ import org.apache.logging.log4j.Logger;
  *
  * <p>Logs HandBrake ETA every 10% of progress as INFO.
  *
+ * <p>Parses each progress line once, passing the parsed progress on (e.g. to a {@link
+ * ProgressEmitter}) rather than each consumer parsing it again.
+ *
  * @author <a href=https://willmolloy.com>Will Molloy</a>
  */
-class HandBrakeLogger implements Consumer<String> {
+class HandBrakeLogger implements Consumer<CharSequence> {
 
-  // HandBrake output logs look like:
-  // Encoding: task 1 of 1, 1.63 % (60.56 fps, avg 83.01 fps, ETA 00h22m29s)
-  // (always task 1 of 1 since HandBrakeImpl called 1 video at a time)
-  private static final Pattern ENCODING_ETA_PATTERN =
-      Pattern.compile(
-          "Encoding: task 1 of 1, ((\\d+)[.]\\d+ % [(]\\d+[.]\\d+ fps, avg \\d+[.]\\d+ fps, ETA \\d+h\\d+m\\d+s[)])");
+  // bit i set while the ETA at 10*i % is still to be logged (0%, 10%, ..., 100%)
+  private static final int ALL_PROGRESS_PERCENTS = (1 << 11) - 1;
 
-  private final HashSet<Integer> remainingProgressPercentsToLog =
-      IntStream.iterate(0, i -> i <= 100, i -> i + 10)
-          .boxed()
-          .collect(Collectors.toCollection(HashSet::new));
+  private final ProgressParser progressParser = new ProgressParser();
+  private int remainingProgressPercentsToLog = ALL_PROGRESS_PERCENTS;
 
   private final Logger log;
+  private final Consumer<ProgressParser> onProgress;
 
   @VisibleForTesting
-  HandBrakeLogger(Logger log) {
+  HandBrakeLogger(Logger log, Consumer<ProgressParser> onProgress) {
     this.log = checkNotNull(log);
+    this.onProgress = checkNotNull(onProgress);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param onProgress called with the parser after each progress line is parsed, only valid during
+   *     the call
+   */
+  HandBrakeLogger(Consumer<ProgressParser> onProgress) {
+    this(LogManager.getLogger(), onProgress);
   }
 
   HandBrakeLogger() {
-    this(LogManager.getLogger());
+    this(progress -> {});
   }
 
   @Override
-  public void accept(String logLine) {
-    log.debug(logLine);
-
-    Matcher m = ENCODING_ETA_PATTERN.matcher(logLine);
-    if (m.matches()) {
-      int percent = Integer.parseInt(m.group(2));
-      if (remainingProgressPercentsToLog.remove(percent)) {
-        log.info(m.group(1));
+  public void accept(CharSequence logLine) {
+    // only copied if needed, the line is a view of the output buffer
+    if (log.isDebugEnabled()) {
+      log.debug(logLine.toString());
+    }
+
+    if (progressParser.parse(logLine)) {
+      int percent = (int) progressParser.percent();
+      if (percent % 10 == 0 && percent <= 100) {
+        int bit = 1 << (percent / 10);
+        if ((remainingProgressPercentsToLog & bit) != 0) {
+          remainingProgressPercentsToLog &= ~bit;
+          log.info(logLine.subSequence(progressParser.detailsStart(), logLine.length()).toString());
+        }
       }
+      onProgress.accept(progressParser);
     }
   }
 }
@@ -0,0 +1,162 @@
+package com.willmolloy.handbrake.core;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.function.Consumer;
+
+/**
+ * Pumps process output to a consumer, a line at a time. This class is NOT threadsafe. Use once per
+ * process.
+ *
+ * <p>Output is decoded into a reused buffer and each line passed as a view of it, so (unlike {@link
+ * java.io.BufferedReader#lines}) no {@link String} is created unless the consumer needs one. The
+ * view is only valid during the call, consumers must copy it (e.g. {@link CharSequence#toString})
+ * to keep it.
+ *
+ * <p>Lines are terminated the same as {@link java.io.BufferedReader#readLine}: by {@code \n},
+ * {@code \r} (HandBrake ends progress lines with it) or {@code \r\n}.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+final class OutputPump {
+
+  static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  private final CharsetDecoder decoder;
+  private final ByteBuffer bytes;
+  private CharBuffer chars;
+  private final Line line = new Line();
+  // previous line ended with \r, so a \n straight after is part of its terminator
+  private boolean skipLineFeed;
+
+  OutputPump(Charset charset, int bufferSize) {
+    checkArgument(bufferSize > 0, "bufferSize (%s) must be positive", bufferSize);
+    // replaces malformed input, like InputStreamReader
+    decoder =
+        charset
+            .newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    bytes = ByteBuffer.allocate(bufferSize);
+    chars = CharBuffer.allocate(bufferSize);
+  }
+
+  OutputPump(Charset charset) {
+    this(charset, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Reads the given stream until the end, passing each line to the consumer.
+   *
+   * @param inputStream stream to read
+   * @param consumer receives each line (without its terminator), only valid during the call
+   * @throws IOException if an I/O error occurs
+   */
+  void pump(InputStream inputStream, Consumer<? super CharSequence> consumer) throws IOException {
+    checkNotNull(consumer);
+    boolean endOfInput = false;
+    boolean decoded = false;
+    while (true) {
+      // the byte buffer is only full if the char buffer was, in which case decode before reading
+      if (!endOfInput && bytes.hasRemaining()) {
+        int read = inputStream.read(bytes.array(), bytes.position(), bytes.remaining());
+        if (read < 0) {
+          endOfInput = true;
+        } else {
+          bytes.position(bytes.position() + read);
+        }
+      }
+
+      if (!decoded) {
+        bytes.flip();
+        CoderResult result = decoder.decode(bytes, chars, endOfInput);
+        bytes.compact();
+        decoded = endOfInput && result.isUnderflow();
+      }
+      boolean flushed = decoded && decoder.flush(chars).isUnderflow();
+
+      chars.flip();
+      acceptLines(consumer);
+      if (flushed) {
+        // last line, without a terminator
+        if (chars.hasRemaining()) {
+          consumer.accept(line.of(chars.array(), chars.position(), chars.remaining()));
+        }
+        return;
+      }
+      chars.compact();
+      if (!chars.hasRemaining()) {
+        // a line longer than the buffer
+        chars = CharBuffer.allocate(chars.capacity() * 2).put(chars.flip());
+      }
+    }
+  }
+
+  // passes on the complete lines from the buffer's position, leaving it at the incomplete line
+  private void acceptLines(Consumer<? super CharSequence> consumer) {
+    char[] array = chars.array();
+    int start = chars.position();
+    for (int i = start; i < chars.limit(); i++) {
+      char c = array[i];
+      if (skipLineFeed) {
+        skipLineFeed = false;
+        if (c == '\n') {
+          start = i + 1;
+          continue;
+        }
+      }
+      if (c == '\n' || c == '\r') {
+        consumer.accept(line.of(array, start, i - start));
+        skipLineFeed = c == '\r';
+        start = i + 1;
+      }
+    }
+    chars.position(start);
+  }
+
+  /** A reused view of a line in the buffer. */
+  private static final class Line implements CharSequence {
+    private char[] array;
+    private int offset;
+    private int length;
+
+    Line of(char[] array, int offset, int length) {
+      this.array = array;
+      this.offset = offset;
+      this.length = length;
+      return this;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index < 0 || index >= length) {
+        throw new IndexOutOfBoundsException(index);
+      }
+      return array[offset + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+      return new String(array, offset, length);
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package com.willmolloy.handbrake.core;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.function.Consumer;
+
+/**
+ * Emits {@link ProgressEvent.PassChanged} and {@link ProgressEvent.Progress} events from HandBrake
+ * output. This class is NOT threadsafe. Use once per HandBrake process.
+ *
+ * <p>Receives each progress line already parsed (by the {@link HandBrakeLogger}), and passes the
+ * progress on as primitives ({@link ProgressListener#onProgress}).
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class ProgressEmitter implements Consumer<ProgressParser> {
+
+  private final ProgressListener listener;
+  private int pass;
+
+  ProgressEmitter(ProgressListener listener) {
+    this.listener = checkNotNull(listener);
+  }
+
+  @Override
+  public void accept(ProgressParser progress) {
+    if (progress.task() != pass) {
+      pass = progress.task();
+      listener.onEvent(new ProgressEvent.PassChanged(pass, progress.tasks()));
+    }
+    listener.onProgress(
+        pass,
+        progress.tasks(),
+        progress.percent(),
+        progress.fps(),
+        progress.averageFps(),
+        progress.etaSeconds());
+  }
+}
@@ -0,0 +1,72 @@
+package com.willmolloy.handbrake.core;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.OptionalInt;
+
+/**
+ * Event of a HandBrake encode, passed to a {@link ProgressListener}.
+ *
+ * <p>An encode emits {@link Started}, then for each pass {@link PassChanged} followed by {@link
+ * Progress} events, then {@link Finished} (even if it failed to start).
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+public sealed interface ProgressEvent {
+
+  /**
+   * HandBrake is starting.
+   *
+   * @param command HandBrake command
+   */
+  record Started(List<String> command) implements ProgressEvent {
+    public Started {
+      command = List.copyOf(command);
+    }
+  }
+
+  /**
+   * HandBrake started a pass (task), e.g. the second pass of a 2-pass encode.
+   *
+   * @param pass the pass, starting at 1
+   * @param passes number of passes
+   */
+  record PassChanged(int pass, int passes) implements ProgressEvent {}
+
+  /**
+   * HandBrake reported its progress, several times a second.
+   *
+   * @param pass the pass, starting at 1
+   * @param passes number of passes
+   * @param percent percent of the pass complete
+   * @param fps current frames per second
+   * @param averageFps average frames per second
+   * @param eta estimated time remaining of the pass
+   */
+  record Progress(int pass, int passes, double percent, double fps, double averageFps, Duration eta)
+      implements ProgressEvent {
+    public Progress {
+      checkNotNull(eta);
+    }
+  }
+
+  /**
+   * HandBrake finished.
+   *
+   * @param exitCode HandBrake's exit code, or empty if it couldn't be run (or was interrupted)
+   * @param elapsed time since {@link Started}
+   */
+  record Finished(OptionalInt exitCode, Duration elapsed) implements ProgressEvent {
+    public Finished {
+      checkNotNull(exitCode);
+      checkNotNull(elapsed);
+    }
+
+    /** Whether HandBrake exited successfully. */
+    public boolean successful() {
+      return exitCode.isPresent() && exitCode.getAsInt() == 0;
+    }
+  }
+}
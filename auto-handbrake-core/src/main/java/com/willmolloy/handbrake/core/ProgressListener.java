@@ -0,0 +1,55 @@
+package com.willmolloy.handbrake.core;
+
+import java.time.Duration;
+
+/**
+ * Listens to the {@link ProgressEvent}s of a HandBrake encode.
+ *
+ * <p>Called on the thread running the encode, so should return quickly. Exceptions thrown are
+ * logged, not failing the encode.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+  /** Listener that ignores every event. */
+  ProgressListener NONE = event -> {};
+
+  /**
+   * Called for each event.
+   *
+   * @param event the event
+   */
+  void onEvent(ProgressEvent event);
+
+  /**
+   * Called for each progress report, several times a second. Override to receive the progress
+   * without allocating a {@link ProgressEvent.Progress} per report.
+   *
+   * <p>By default, calls {@link #onEvent} with a {@link ProgressEvent.Progress}.
+   *
+   * @param pass the pass, starting at 1
+   * @param passes number of passes
+   * @param percent percent of the pass complete
+   * @param fps current frames per second
+   * @param averageFps average frames per second
+   * @param etaSeconds estimated time remaining of the pass, in seconds
+   */
+  default void onProgress(
+      int pass, int passes, double percent, double fps, double averageFps, long etaSeconds) {
+    onEvent(
+        new ProgressEvent.Progress(
+            pass, passes, percent, fps, averageFps, Duration.ofSeconds(etaSeconds)));
+  }
+
+  /**
+   * Polled after each line of HandBrake output, HandBrake is stopped (and the encode fails) once
+   * this returns {@code true}, e.g. if the encode is no longer wanted.
+   *
+   * @return {@code true} to stop HandBrake
+   */
+  default boolean cancelled() {
+    return false;
+  }
+}
@@ -0,0 +1,176 @@
+package com.willmolloy.handbrake.core;
+
+/**
+ * Parses HandBrake encoding progress lines, without regex or allocating. This class is NOT
+ * threadsafe, it holds the progress of the last line parsed.
+ *
+ * <p>Progress lines look like:
+ *
+ * <pre>Encoding: task 1 of 1, 1.63 % (60.56 fps, avg 83.01 fps, ETA 00h22m29s)</pre>
+ *
+ * <p>HandBrake also prints progress before the frame rate is known (e.g. {@code Encoding: task 1 of
+ * 1, 0.00 %}), these aren't parsed.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+final class ProgressParser {
+
+  // beyond this a long may overflow
+  private static final int MAX_DIGITS = 18;
+  private static final double[] POWERS_OF_TEN = new double[MAX_DIGITS + 1];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private int task;
+  private int tasks;
+  private double percent;
+  private double fps;
+  private double averageFps;
+  private long etaSeconds;
+  private int detailsStart;
+
+  // position in the line being parsed
+  private int position;
+
+  /**
+   * Parses the given line.
+   *
+   * @param line line of HandBrake output
+   * @return {@code true} if the line is a progress line, in which case the progress is updated
+   */
+  boolean parse(CharSequence line) {
+    position = 0;
+    if (!literal(line, "Encoding: task ")) {
+      return false;
+    }
+    long parsedTask = integer(line);
+    if (parsedTask < 0 || !literal(line, " of ")) {
+      return false;
+    }
+    long parsedTasks = integer(line);
+    if (parsedTasks < 0 || !literal(line, ", ")) {
+      return false;
+    }
+    int start = position;
+
+    double parsedPercent = decimal(line);
+    if (parsedPercent < 0 || !literal(line, " % (")) {
+      return false;
+    }
+    double parsedFps = decimal(line);
+    if (parsedFps < 0 || !literal(line, " fps, avg ")) {
+      return false;
+    }
+    double parsedAverageFps = decimal(line);
+    if (parsedAverageFps < 0 || !literal(line, " fps, ETA ")) {
+      return false;
+    }
+    long hours = integer(line);
+    if (hours < 0 || !literal(line, "h")) {
+      return false;
+    }
+    long minutes = integer(line);
+    if (minutes < 0 || !literal(line, "m")) {
+      return false;
+    }
+    long seconds = integer(line);
+    if (seconds < 0 || !literal(line, "s)") || position != line.length()) {
+      return false;
+    }
+
+    task = (int) Math.min(parsedTask, Integer.MAX_VALUE);
+    tasks = (int) Math.min(parsedTasks, Integer.MAX_VALUE);
+    percent = parsedPercent;
+    fps = parsedFps;
+    averageFps = parsedAverageFps;
+    etaSeconds = hours * 3600 + minutes * 60 + seconds;
+    detailsStart = start;
+    return true;
+  }
+
+  /** Current task (e.g. pass of a 2-pass encode), starting at 1. */
+  int task() {
+    return task;
+  }
+
+  /** Number of tasks. */
+  int tasks() {
+    return tasks;
+  }
+
+  /** Percent complete (of the current task), e.g. {@code 1.63}. */
+  double percent() {
+    return percent;
+  }
+
+  /** Current frames per second. */
+  double fps() {
+    return fps;
+  }
+
+  /** Average frames per second. */
+  double averageFps() {
+    return averageFps;
+  }
+
+  /** Estimated time remaining, in seconds. */
+  long etaSeconds() {
+    return etaSeconds;
+  }
+
+  /**
+   * Index of the progress details (from the percent on, e.g. {@code 1.63 % (60.56 fps, avg 83.01
+   * fps, ETA 00h22m29s)}) in the line.
+   */
+  int detailsStart() {
+    return detailsStart;
+  }
+
+  private boolean literal(CharSequence line, String literal) {
+    if (line.length() - position < literal.length()) {
+      return false;
+    }
+    for (int i = 0; i < literal.length(); i++) {
+      if (line.charAt(position + i) != literal.charAt(i)) {
+        return false;
+      }
+    }
+    position += literal.length();
+    return true;
+  }
+
+  // digits, or -1 if there aren't any (or too many)
+  private long integer(CharSequence line) {
+    int start = position;
+    long value = 0;
+    while (position < line.length() && isDigit(line.charAt(position))) {
+      value = value * 10 + (line.charAt(position) - '0');
+      position++;
+    }
+    int digits = position - start;
+    return digits == 0 || digits > MAX_DIGITS ? -1 : value;
+  }
+
+  // digits.digits, or -1 if not a decimal
+  private double decimal(CharSequence line) {
+    long whole = integer(line);
+    if (whole < 0 || !literal(line, ".")) {
+      return -1;
+    }
+    int fractionStart = position;
+    long fraction = integer(line);
+    if (fraction < 0) {
+      return -1;
+    }
+    return whole + fraction / POWERS_OF_TEN[position - fractionStart];
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+}
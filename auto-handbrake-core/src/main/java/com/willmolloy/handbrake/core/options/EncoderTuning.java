@@ -0,0 +1,78 @@
+package com.willmolloy.handbrake.core.options;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * HandBrake encoder tuning (advanced encoder options). Only applies to the CPU encoders (x264 and
+ * x265).
+ *
+ * <p>HandBrake only uses the last {@code --encopts} it's given, so combine tunings with {@link
+ * #and} rather than passing several.
+ *
+ * @see <a href=https://handbrake.fr/docs/en/latest/cli/command-line-reference.html>Video
+ *     Options</a>
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+public sealed interface EncoderTuning extends Option permits Internals.OptionImpl {
+
+  /**
+   * Number of threads the encoder uses.
+   *
+   * <p>By default the encoder uses a thread count based on the number of cores, which is wasteful
+   * if multiple encodes run at once.
+   *
+   * @param threads number of threads
+   * @return the tuning option
+   */
+  static EncoderTuning threads(int threads) {
+    checkArgument(threads > 0, "threads (%s) must be positive", threads);
+    return encopts("threads=" + threads);
+  }
+
+  /**
+   * Number of threads the encoder's lookahead uses.
+   *
+   * <p>By default it's based on the number of {@link #threads}.
+   *
+   * @param threads number of threads
+   * @return the tuning option
+   */
+  static EncoderTuning lookaheadThreads(int threads) {
+    checkArgument(threads > 0, "threads (%s) must be positive", threads);
+    return encopts("lookahead-threads=" + threads);
+  }
+
+  /**
+   * Threads encode slices of each frame, rather than frames in parallel. Lowers latency at the cost
+   * of compression, x264 only.
+   *
+   * @return the tuning option
+   */
+  static EncoderTuning slicedThreads() {
+    return encopts("sliced-threads=1");
+  }
+
+  /**
+   * Raw encoder options, passed through to the encoder.
+   *
+   * @param encopts options in the encoder's {@code key=value:key=value} format
+   * @return the tuning option
+   */
+  static EncoderTuning encopts(String encopts) {
+    checkArgument(!encopts.isBlank(), "encopts must not be blank");
+    return new Internals.OptionImpl("--encopts", encopts.strip());
+  }
+
+  /**
+   * Combines this tuning with another, into a single {@code --encopts}. Where both set an option,
+   * the other's wins.
+   *
+   * @param other the other tuning
+   * @return the combined tuning option
+   */
+  default EncoderTuning and(EncoderTuning other) {
+    checkNotNull(other);
+    return encopts(Internals.value(this) + ":" + Internals.value(other));
+  }
+}
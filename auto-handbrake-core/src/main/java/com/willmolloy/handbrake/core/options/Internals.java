@@ -1,6 +1,9 @@
 package com.willmolloy.handbrake.core.options;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -18,7 +21,8 @@ final class Internals {
    *
    * @param optionArgs HandBrakeCLI option args
    */
-  record OptionImpl(List<String> optionArgs) implements Preset, Encoder, FrameRateControl {
+  record OptionImpl(List<String> optionArgs)
+      implements Preset, Encoder, FrameRateControl, EncoderTuning, Range {
     OptionImpl(String... optionArgs) {
       this(List.of(optionArgs));
     }
@@ -45,5 +49,29 @@ final class Internals {
     }
   }
 
+  /**
+   * Formats a position as HandBrake 90 kHz ticks, e.g. {@code pts:900000} for 10 seconds.
+   *
+   * @param position the position
+   * @param name name of the position, for error messages
+   * @return the formatted position
+   */
+  static String pts(Duration position, String name) {
+    checkArgument(!position.isNegative(), "%s (%s) must not be negative", name, position);
+    return "pts:" + Math.multiplyExact(position.toMillis(), 90);
+  }
+
+  /**
+   * Value of a single key/value option, e.g. {@code threads=4} of {@code --encopts threads=4}.
+   *
+   * @param option the option
+   * @return its value
+   */
+  static String value(Option option) {
+    List<String> args = option.handBrakeCliArgs().toList();
+    checkArgument(args.size() == 2, "option (%s) is not a key/value option", args);
+    return args.get(1);
+  }
+
   private Internals() {}
 }
@@ -9,7 +9,8 @@ import java.util.stream.Stream;
  *     reference</a>
  * @author <a href=https://willmolloy.com>Will Molloy</a>
  */
-public sealed interface Option permits Input, Output, Preset, Encoder, FrameRateControl {
+public sealed interface Option
+    permits Input, Output, Preset, Encoder, FrameRateControl, EncoderTuning, Range {
 
   Stream<String> handBrakeCliArgs();
 }
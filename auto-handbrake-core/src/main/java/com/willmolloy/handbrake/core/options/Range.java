@@ -0,0 +1,39 @@
+package com.willmolloy.handbrake.core.options;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.time.Duration;
+
+/**
+ * HandBrake range options, to encode part of the input.
+ *
+ * <p>Positions are passed to HandBrake in 90 kHz ticks (e.g. {@code pts:900000} for 10 seconds), to
+ * millisecond precision.
+ *
+ * @see <a href=https://handbrake.fr/docs/en/latest/cli/command-line-reference.html>Source
+ *     Options</a>
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+public sealed interface Range extends Option permits Internals.OptionImpl {
+
+  /**
+   * Starts encoding at the given offset from the start of the input.
+   *
+   * @param offset offset from the start
+   * @return the range option
+   */
+  static Range startAt(Duration offset) {
+    return new Internals.OptionImpl("--start-at", Internals.pts(offset, "offset"));
+  }
+
+  /**
+   * Stops encoding after the given duration (from where encoding started, see {@link #startAt}).
+   *
+   * @param duration duration to encode
+   * @return the range option
+   */
+  static Range stopAt(Duration duration) {
+    checkArgument(duration.isPositive(), "duration (%s) must be positive", duration);
+    return new Internals.OptionImpl("--stop-at", Internals.pts(duration, "duration"));
+  }
+}
@@ -1,14 +1,18 @@
 package com.willmolloy.handbrake.core;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.function.Consumer;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -51,29 +55,47 @@ class CliTest {
   }
 
   @Test
-  void successfulExecutionOfCommandReturnsTrue() throws InterruptedException {
+  void successfulExecutionOfCommandReturnsZeroExitCode() throws InterruptedException {
     when(mockProcess.waitFor()).thenReturn(0);
 
-    assertThat(cli.execute(List.of("ls"), new EmptyConsumer())).isTrue();
+    assertThat(cli.execute(List.of("ls"), new EmptyConsumer())).hasValue(0);
     verify(mockProcessBuilder).command(List.of("ls"));
   }
 
   @Test
-  void nonZeroExitCodeReturnsFalse() throws InterruptedException {
+  void nonZeroExitCodeReturnsExitCode() throws InterruptedException {
     when(mockProcess.waitFor()).thenReturn(1);
 
-    assertThat(cli.execute(List.of("abc"), new EmptyConsumer())).isFalse();
+    assertThat(cli.execute(List.of("abc"), new EmptyConsumer())).hasValue(1);
     verify(mockProcessBuilder).command(List.of("abc"));
   }
 
   @Test
-  void exceptionThrownReturnsFalse() throws InterruptedException {
+  void exceptionThrownReturnsEmpty() throws InterruptedException {
     when(mockProcess.waitFor()).thenThrow(new RuntimeException("error"));
 
-    assertThat(cli.execute(List.of("xyz"), new EmptyConsumer())).isFalse();
+    assertThat(cli.execute(List.of("xyz"), new EmptyConsumer())).isEmpty();
     verify(mockProcessBuilder).command(List.of("xyz"));
   }
 
+  @Test
+  void consumerCancellingReturnsEmpty() throws IOException {
+    when(mockProcess.getInputStream())
+        .thenReturn(new ByteArrayInputStream("line 1\nline 2\n".getBytes(UTF_8)));
+    List<CharSequence> lines = new ArrayList<>();
+
+    assertThat(
+            cli.execute(
+                List.of("abc"),
+                line -> {
+                  lines.add(line.toString());
+                  throw new CancellationException();
+                }))
+        .isEmpty();
+    assertThat(lines).containsExactly("line 1");
+    verify(mockProcessBuilder).command(List.of("abc"));
+  }
+
   private static final class EmptyInputStream extends InputStream {
     @Override
     public int read() {
@@ -81,8 +103,8 @@ class CliTest {
     }
   }
 
-  private static final class EmptyConsumer implements Consumer<String> {
+  private static final class EmptyConsumer implements Consumer<CharSequence> {
     @Override
-    public void accept(String s) {}
+    public void accept(CharSequence s) {}
   }
 }
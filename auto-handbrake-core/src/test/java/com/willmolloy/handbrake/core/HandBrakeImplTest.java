@@ -19,7 +19,12 @@ import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.OptionalInt;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -60,7 +65,7 @@ class HandBrakeImplTest {
 
   @Test
   void successfulEncodingReturnsTrue() {
-    when(mockCli.execute(anyList(), any())).thenReturn(true);
+    when(mockCli.execute(anyList(), any())).thenReturn(OptionalInt.of(0));
 
     assertThat(
             handBrake.encode(
@@ -89,7 +94,7 @@ class HandBrakeImplTest {
 
   @Test
   void outputAlreadyExistsOverwrites() throws IOException {
-    when(mockCli.execute(anyList(), any())).thenReturn(true);
+    when(mockCli.execute(anyList(), any())).thenReturn(OptionalInt.of(0));
     Files.createFile(output);
 
     assertThat(handBrake.encode(Input.of(input), Output.of(output))).isTrue();
@@ -101,7 +106,7 @@ class HandBrakeImplTest {
 
   @Test
   void unsuccessfulEncodingReturnsFalse() {
-    when(mockCli.execute(anyList(), any())).thenReturn(false);
+    when(mockCli.execute(anyList(), any())).thenReturn(OptionalInt.of(1));
 
     assertThat(handBrake.encode(Input.of(input), Output.of(output))).isFalse();
   }
@@ -112,4 +117,121 @@ class HandBrakeImplTest {
 
     assertThat(handBrake.encode(Input.of(input), Output.of(output))).isFalse();
   }
+
+  @Test
+  void withListener_emitsProgressEvents() {
+    // Given
+    when(mockCli.execute(anyList(), any()))
+        .then(
+            invocation -> {
+              Consumer<CharSequence> processLogConsumer = invocation.getArgument(1);
+              processLogConsumer.accept("Starting Task: Encoding Pass");
+              processLogConsumer.accept(
+                  "Encoding: task 1 of 2, 0.50 % (60.00 fps, avg 61.00 fps, ETA 00h01m40s)");
+              processLogConsumer.accept(
+                  "Encoding: task 1 of 2, 1.00 % (62.00 fps, avg 61.50 fps, ETA 00h01m39s)");
+              processLogConsumer.accept(
+                  "Encoding: task 2 of 2, 0.50 % (30.00 fps, avg 30.00 fps, ETA 00h03m20s)");
+              return OptionalInt.of(0);
+            });
+    List<ProgressEvent> events = new ArrayList<>();
+
+    // When
+    boolean result = handBrake.encode(Input.of(input), Output.of(output), events::add);
+
+    // Then
+    assertThat(result).isTrue();
+    assertThat(events).hasSize(7);
+    assertThat(events.get(0))
+        .isEqualTo(
+            new ProgressEvent.Started(
+                List.of("HandBrakeCLI", "--input", "input.mp4", "--output", "output.mp4")));
+    assertThat(events.get(1)).isEqualTo(new ProgressEvent.PassChanged(1, 2));
+    assertThat(events.get(2))
+        .isEqualTo(new ProgressEvent.Progress(1, 2, 0.5, 60, 61, Duration.ofSeconds(100)));
+    assertThat(events.get(3))
+        .isEqualTo(new ProgressEvent.Progress(1, 2, 1, 62, 61.5, Duration.ofSeconds(99)));
+    assertThat(events.get(4)).isEqualTo(new ProgressEvent.PassChanged(2, 2));
+    assertThat(events.get(5))
+        .isEqualTo(new ProgressEvent.Progress(2, 2, 0.5, 30, 30, Duration.ofSeconds(200)));
+    ProgressEvent.Finished finished = (ProgressEvent.Finished) events.get(6);
+    assertThat(finished.exitCode()).hasValue(0);
+    assertThat(finished.successful()).isTrue();
+  }
+
+  @Test
+  void withListener_whenExecutionFails_emitsFinishedWithoutExitCode() {
+    // Given
+    when(mockCli.execute(anyList(), any())).thenThrow(new RuntimeException("error"));
+    List<ProgressEvent> events = new ArrayList<>();
+
+    // When
+    boolean result = handBrake.encode(Input.of(input), Output.of(output), events::add);
+
+    // Then
+    assertThat(result).isFalse();
+    assertThat(events.getFirst()).isInstanceOf(ProgressEvent.Started.class);
+    ProgressEvent.Finished finished = (ProgressEvent.Finished) events.getLast();
+    assertThat(finished.exitCode()).isEmpty();
+    assertThat(finished.successful()).isFalse();
+  }
+
+  @Test
+  void withListener_whenListenerThrows_stillEncodes() {
+    // Given
+    when(mockCli.execute(anyList(), any())).thenReturn(OptionalInt.of(0));
+
+    // When
+    boolean result =
+        handBrake.encode(
+            Input.of(input),
+            Output.of(output),
+            event -> {
+              throw new IllegalStateException("error");
+            });
+
+    // Then
+    assertThat(result).isTrue();
+  }
+
+  @Test
+  void withListener_whenCancelled_stopsHandBrake() {
+    // Given
+    List<CharSequence> unread = new ArrayList<>(List.of("line 1", "line 2"));
+    when(mockCli.execute(anyList(), any()))
+        .then(
+            invocation -> {
+              Consumer<CharSequence> processLogConsumer = invocation.getArgument(1);
+              try {
+                while (!unread.isEmpty()) {
+                  processLogConsumer.accept(unread.removeFirst());
+                }
+                return OptionalInt.of(0);
+              } catch (CancellationException e) {
+                return OptionalInt.empty();
+              }
+            });
+    List<ProgressEvent> events = new ArrayList<>();
+    ProgressListener listener =
+        new ProgressListener() {
+          @Override
+          public void onEvent(ProgressEvent event) {
+            events.add(event);
+          }
+
+          @Override
+          public boolean cancelled() {
+            return true;
+          }
+        };
+
+    // When
+    boolean result = handBrake.encode(Input.of(input), Output.of(output), listener);
+
+    // Then
+    assertThat(result).isFalse();
+    assertThat(unread).containsExactly("line 2");
+    ProgressEvent.Finished finished = (ProgressEvent.Finished) events.getLast();
+    assertThat(finished.exitCode()).isEmpty();
+  }
 }
@@ -1,12 +1,16 @@
 package com.willmolloy.handbrake.core;
 
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
 
 import java.util.List;
+import java.util.function.Consumer;
 import org.apache.logging.log4j.Logger;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -24,12 +28,14 @@ import org.mockito.junit.jupiter.MockitoExtension;
 class HandBrakeLoggerTest {
 
   @Mock private Logger mockLogger;
+  @Mock private Consumer<ProgressParser> mockOnProgress;
 
   @InjectMocks private HandBrakeLogger handBrakeEtaLogger;
 
   @Test
   void logsEverythingAsDebug_and_logsEtaEvery10PercentOfProgressAsInfo() {
     // Given
+    when(mockLogger.isDebugEnabled()).thenReturn(true);
     List<String> fakeHandBrakeLogs =
         List.of(
             "HandBrake 1.4.2 (2021100300) - MinGW x86_64 - https://handbrake.fr",
@@ -67,6 +73,8 @@ class HandBrakeLoggerTest {
     fakeHandBrakeLogs.forEach(handBrakeEtaLogger);
 
     // Then
+    // each progress line parsed once, and passed on
+    verify(mockOnProgress, times(22)).accept(any());
     InOrder inOrder = inOrder(mockLogger);
 
     for (String log : fakeHandBrakeLogs) {
@@ -87,6 +95,24 @@ class HandBrakeLoggerTest {
     inOrder.verify(mockLogger).info("100.00 % (61.80 fps, avg 62.30 fps, ETA 00h00m00s)");
     verify(mockLogger, times(11)).info(anyString());
 
+    verify(mockLogger, atLeastOnce()).isDebugEnabled();
+    verifyNoMoreInteractions(mockLogger);
+  }
+
+  @Test
+  void whenDebugDisabled_stillLogsEtaAsInfo() {
+    // Given
+    when(mockLogger.isDebugEnabled()).thenReturn(false);
+
+    // When
+    handBrakeEtaLogger.accept("Starting Task: Encoding Pass");
+    handBrakeEtaLogger.accept(
+        new StringBuilder(
+            "Encoding: task 1 of 1, 0.63 % (61.80 fps, avg 62.30 fps, ETA 00h10m00s)"));
+
+    // Then
+    verify(mockLogger).info("0.63 % (61.80 fps, avg 62.30 fps, ETA 00h10m00s)");
+    verify(mockLogger, times(2)).isDebugEnabled();
     verifyNoMoreInteractions(mockLogger);
   }
 }
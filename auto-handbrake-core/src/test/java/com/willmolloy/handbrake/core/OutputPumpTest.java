@@ -0,0 +1,90 @@
+package com.willmolloy.handbrake.core;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * OutputPumpTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class OutputPumpTest {
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "",
+        "line",
+        "line\n",
+        "line1\nline2",
+        "line1\rline2\r\nline3\n",
+        "\n\n\r\r\n\n",
+        "Encoding: task 1 of 1, 0.63 %\rEncoding: task 1 of 1, 0.75 %\r\nEncode done!\n",
+        "multibyte ✓ characters — split across reads ✓\r\n✓"
+      })
+  void splitsLinesSameAsBufferedReader(String output) throws IOException {
+    // byte at a time with a small buffer, so lines, terminators and characters are split across
+    // reads and the buffer has to grow
+    assertThat(pump(new OneByteAtATimeInputStream(output.getBytes(UTF_8)), 4))
+        .containsExactlyElementsIn(readLines(output))
+        .inOrder();
+    assertThat(pump(new ByteArrayInputStream(output.getBytes(UTF_8)), 8192))
+        .containsExactlyElementsIn(readLines(output))
+        .inOrder();
+  }
+
+  @Test
+  void passesLinesAsReusedView() throws IOException {
+    // Given
+    List<CharSequence> views = new ArrayList<>();
+
+    // When
+    new OutputPump(UTF_8).pump(new ByteArrayInputStream("a\nb\n".getBytes(UTF_8)), views::add);
+
+    // Then
+    assertThat(views).hasSize(2);
+    assertThat(views.get(0)).isSameInstanceAs(views.get(1));
+  }
+
+  @Test
+  void replacesMalformedInput() throws IOException {
+    byte[] bytes = {'a', (byte) 0xff, 'b'};
+
+    assertThat(pump(new ByteArrayInputStream(bytes), 8192)).containsExactly("a�b");
+  }
+
+  private static List<String> pump(InputStream inputStream, int bufferSize) throws IOException {
+    List<String> lines = new ArrayList<>();
+    new OutputPump(UTF_8, bufferSize).pump(inputStream, line -> lines.add(line.toString()));
+    return lines;
+  }
+
+  private static List<String> readLines(String output) {
+    return new BufferedReader(
+            new InputStreamReader(new ByteArrayInputStream(output.getBytes(UTF_8)), UTF_8))
+        .lines()
+        .toList();
+  }
+
+  private static final class OneByteAtATimeInputStream extends ByteArrayInputStream {
+    OneByteAtATimeInputStream(byte[] bytes) {
+      super(bytes);
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      return super.read(b, off, Math.min(len, 1));
+    }
+  }
+}
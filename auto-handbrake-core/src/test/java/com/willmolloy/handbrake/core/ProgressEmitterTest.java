@@ -0,0 +1,89 @@
+package com.willmolloy.handbrake.core;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * ProgressEmitterTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class ProgressEmitterTest {
+
+  private final List<ProgressEvent> events = new ArrayList<>();
+  private final ProgressEmitter progressEmitter = new ProgressEmitter(events::add);
+  private final ProgressParser progressParser = new ProgressParser();
+
+  @Test
+  void emitsPassChangedBeforeFirstProgressOfEachPass() {
+    // When
+    accept("Starting Task: Encoding Pass");
+    accept("Encoding: task 1 of 1, 10.00 % (60.00 fps, avg 61.00 fps, ETA 00h01m30s)");
+    accept("Encoding: task 1 of 1, 20.00 % (60.00 fps, avg 61.00 fps, ETA 00h01m20s)");
+    accept("Encode done!");
+
+    // Then
+    assertThat(events)
+        .containsExactly(
+            new ProgressEvent.PassChanged(1, 1),
+            new ProgressEvent.Progress(1, 1, 10, 60, 61, Duration.ofSeconds(90)),
+            new ProgressEvent.Progress(1, 1, 20, 60, 61, Duration.ofSeconds(80)))
+        .inOrder();
+  }
+
+  @Test
+  void passesProgressOnAsPrimitives() {
+    // Given
+    List<Double> percents = new ArrayList<>();
+    ProgressEmitter emitter =
+        new ProgressEmitter(
+            new ProgressListener() {
+              @Override
+              public void onEvent(ProgressEvent event) {
+                events.add(event);
+              }
+
+              @Override
+              public void onProgress(
+                  int pass,
+                  int passes,
+                  double percent,
+                  double fps,
+                  double averageFps,
+                  long etaSeconds) {
+                percents.add(percent);
+              }
+            });
+
+    // When
+    assertThat(
+            progressParser.parse(
+                "Encoding: task 1 of 1, 10.00 % (60.00 fps, avg 61.00 fps, ETA 00h01m30s)"))
+        .isTrue();
+    emitter.accept(progressParser);
+
+    // Then
+    // no progress event allocated
+    assertThat(events).containsExactly(new ProgressEvent.PassChanged(1, 1));
+    assertThat(percents).containsExactly(10.0);
+  }
+
+  @Test
+  void ignoresOtherLines() {
+    accept("HandBrake has exited.");
+    accept("Encoding: task 1 of 1, 0.00 %");
+
+    assertThat(events).isEmpty();
+  }
+
+  // as the logger, which parses each line then passes it on
+  private void accept(String line) {
+    if (progressParser.parse(line)) {
+      progressEmitter.accept(progressParser);
+    }
+  }
+}
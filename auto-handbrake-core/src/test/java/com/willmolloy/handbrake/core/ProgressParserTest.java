@@ -0,0 +1,80 @@
+package com.willmolloy.handbrake.core;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * ProgressParserTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class ProgressParserTest {
+
+  private final ProgressParser progressParser = new ProgressParser();
+
+  @Test
+  void parsesProgressLine() {
+    // Given
+    String line = "Encoding: task 1 of 1, 1.63 % (60.56 fps, avg 83.01 fps, ETA 01h22m29s)";
+
+    // When
+    boolean result = progressParser.parse(line);
+
+    // Then
+    assertThat(result).isTrue();
+    assertThat(progressParser.percent()).isWithin(1e-9).of(1.63);
+    assertThat(progressParser.fps()).isWithin(1e-9).of(60.56);
+    assertThat(progressParser.averageFps()).isWithin(1e-9).of(83.01);
+    assertThat(progressParser.etaSeconds()).isEqualTo(3600 + 22 * 60 + 29);
+    assertThat(line.substring(progressParser.detailsStart()))
+        .isEqualTo("1.63 % (60.56 fps, avg 83.01 fps, ETA 01h22m29s)");
+  }
+
+  @Test
+  void parsesCharSequence() {
+    boolean result =
+        progressParser.parse(
+            new StringBuilder(
+                "Encoding: task 2 of 3, 100.00 % (0.5 fps, avg 1234.567 fps, ETA 00h00m00s)"));
+
+    assertThat(result).isTrue();
+    assertThat(progressParser.task()).isEqualTo(2);
+    assertThat(progressParser.tasks()).isEqualTo(3);
+    assertThat(progressParser.percent()).isWithin(1e-9).of(100);
+    assertThat(progressParser.fps()).isWithin(1e-9).of(0.5);
+    assertThat(progressParser.averageFps()).isWithin(1e-9).of(1234.567);
+    assertThat(progressParser.etaSeconds()).isEqualTo(0);
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "",
+        "Encode done!",
+        "Encoding: task 1 of 1, 0.00 %",
+        "Encoding: task 1 of 1, 1.63 % (60.56 fps, avg 83.01 fps, ETA 00h22m29s",
+        "Encoding: task 1 of 1, 1.63 % (60.56 fps, avg 83.01 fps, ETA 00h22m29s) ",
+        "Encoding: task 1 of 1, 1 % (60.56 fps, avg 83.01 fps, ETA 00h22m29s)",
+        "Encoding: task 1 of 1, 1. % (60.56 fps, avg 83.01 fps, ETA 00h22m29s)",
+        "Encoding: task 1 of 1, .63 % (60.56 fps, avg 83.01 fps, ETA 00h22m29s)",
+        "Encoding: task 1 of 1, 1.63 % (60.56 fps, avg 83.01 fps, ETA 00h22m)",
+        "Encoding: task one of 1, 1.63 % (60.56 fps, avg 83.01 fps, ETA 00h22m29s)",
+        "Encoding: task 1 of 1, 1.63 % (60.56 fps, avg 8x.01 fps, ETA 00h22m29s)",
+        "Encoding: task 1 of 1, 1.6666666666666666666 % (60.56 fps, avg 83.01 fps, ETA 00h22m29s)",
+      })
+  void doesNotParseOtherLines(String line) {
+    assertThat(progressParser.parse(line)).isFalse();
+  }
+
+  @Test
+  void whenLineNotParsed_keepsPreviousProgress() {
+    progressParser.parse("Encoding: task 1 of 1, 1.63 % (60.56 fps, avg 83.01 fps, ETA 00h22m29s)");
+
+    progressParser.parse("Encoding: task 1 of 1, 2.00 %");
+
+    assertThat(progressParser.percent()).isWithin(1e-9).of(1.63);
+  }
+}
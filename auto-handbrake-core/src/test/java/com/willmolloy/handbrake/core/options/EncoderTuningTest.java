@@ -0,0 +1,70 @@
+package com.willmolloy.handbrake.core.options;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * EncoderTuningTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class EncoderTuningTest {
+
+  @ParameterizedTest
+  @MethodSource
+  void testFactoriesExpectedHandBrakeCliArgs(
+      EncoderTuning encoderTuning, String expectedKey, String expectedValue) {
+    assertThat(encoderTuning.handBrakeCliArgs())
+        .containsExactly(expectedKey, expectedValue)
+        .inOrder();
+  }
+
+  static Stream<Arguments> testFactoriesExpectedHandBrakeCliArgs() {
+    return Stream.of(
+        Arguments.of(EncoderTuning.threads(1), "--encopts", "threads=1"),
+        Arguments.of(EncoderTuning.threads(8), "--encopts", "threads=8"),
+        Arguments.of(EncoderTuning.lookaheadThreads(2), "--encopts", "lookahead-threads=2"),
+        Arguments.of(EncoderTuning.slicedThreads(), "--encopts", "sliced-threads=1"),
+        Arguments.of(EncoderTuning.encopts(" ref=2:bframes=3 "), "--encopts", "ref=2:bframes=3"),
+        Arguments.of(
+            EncoderTuning.threads(8).and(EncoderTuning.lookaheadThreads(2)),
+            "--encopts",
+            "threads=8:lookahead-threads=2"),
+        Arguments.of(
+            EncoderTuning.threads(8)
+                .and(EncoderTuning.slicedThreads())
+                .and(EncoderTuning.encopts("ref=2")),
+            "--encopts",
+            "threads=8:sliced-threads=1:ref=2"));
+  }
+
+  @Test
+  void threads_whenNotPositive_throwsException() {
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, () -> EncoderTuning.threads(0));
+
+    assertThat(thrown).hasMessageThat().isEqualTo("threads (0) must be positive");
+  }
+
+  @Test
+  void lookaheadThreads_whenNotPositive_throwsException() {
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, () -> EncoderTuning.lookaheadThreads(-1));
+
+    assertThat(thrown).hasMessageThat().isEqualTo("threads (-1) must be positive");
+  }
+
+  @Test
+  void encopts_whenBlank_throwsException() {
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, () -> EncoderTuning.encopts(" "));
+
+    assertThat(thrown).hasMessageThat().isEqualTo("encopts must not be blank");
+  }
+}
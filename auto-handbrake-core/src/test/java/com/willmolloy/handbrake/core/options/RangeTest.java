@@ -0,0 +1,51 @@
+package com.willmolloy.handbrake.core.options;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * RangeTest.
+ *
+ * @author <a href=https://willmolloy.com>Will Molloy</a>
+ */
+class RangeTest {
+
+  @ParameterizedTest
+  @MethodSource
+  void testFactoriesExpectedHandBrakeCliArgs(
+      Range range, String expectedKey, String expectedValue) {
+    assertThat(range.handBrakeCliArgs()).containsExactly(expectedKey, expectedValue).inOrder();
+  }
+
+  static Stream<Arguments> testFactoriesExpectedHandBrakeCliArgs() {
+    return Stream.of(
+        Arguments.of(Range.startAt(Duration.ZERO), "--start-at", "pts:0"),
+        Arguments.of(Range.startAt(Duration.ofSeconds(10)), "--start-at", "pts:900000"),
+        Arguments.of(Range.startAt(Duration.ofHours(8)), "--start-at", "pts:2592000000"),
+        Arguments.of(Range.stopAt(Duration.ofMillis(1500)), "--stop-at", "pts:135000"),
+        Arguments.of(Range.stopAt(Duration.ofMinutes(30)), "--stop-at", "pts:162000000"));
+  }
+
+  @Test
+  void startAt_whenNegative_throwsException() {
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, () -> Range.startAt(Duration.ofSeconds(-1)));
+
+    assertThat(thrown).hasMessageThat().isEqualTo("offset (PT-1S) must not be negative");
+  }
+
+  @Test
+  void stopAt_whenNotPositive_throwsException() {
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, () -> Range.stopAt(Duration.ZERO));
+
+    assertThat(thrown).hasMessageThat().isEqualTo("duration (PT0S) must be positive");
+  }
+}